@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+
+/**
+ * Immutable report of a single item (directory or file) within 
+ * a batch operation.  Each item succeeds or fails on its own; 
+ * a failure does not abort the rest of the batch.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class BatchItemResult implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Path on the server to which the item pertains
+    */
+   private final String remotePath;
+
+   /**
+    * What became of the item
+    */
+   private final BatchItemOutcome outcome;
+
+   /**
+    * Human-readable explanation of the outcome (ie. the server's reply); may be null
+    */
+   private final String detail;
+
+   /**
+    * Result of the transfer, if the item was a file which was transferred; else null
+    */
+   private final TransferResult transferResult;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param remotePath
+    * @param outcome
+    * @param detail May be null
+    * @param transferResult May be null
+    */
+   BatchItemResult(final String remotePath, final BatchItemOutcome outcome, final String detail,
+         final TransferResult transferResult)
+   {
+      assert remotePath != null : "remote path must be specified";
+      assert outcome != null : "outcome must be specified";
+      this.remotePath = remotePath;
+      this.outcome = outcome;
+      this.detail = detail;
+      this.transferResult = transferResult;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether the item is as requested on completion of the batch; 
+    * true unless the outcome is {@link BatchItemOutcome#FAILED}
+    */
+   public boolean isSucceeded()
+   {
+      return outcome != BatchItemOutcome.FAILED;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the remotePath
+    */
+   public String getRemotePath()
+   {
+      return remotePath;
+   }
+
+   /**
+    * @return the outcome
+    */
+   public BatchItemOutcome getOutcome()
+   {
+      return outcome;
+   }
+
+   /**
+    * @return the detail
+    */
+   public String getDetail()
+   {
+      return detail;
+   }
+
+   /**
+    * @return the transferResult
+    */
+   public TransferResult getTransferResult()
+   {
+      return transferResult;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return outcome + " " + remotePath + (detail != null ? " (" + detail + ")" : "");
+   }
+}
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Carries out a single transfer as an item of a batch, reporting
+ * its failure as a {@link BatchItemResult} rather than failing
+ * the batch as a whole.  Cancellation (by way of {@link Thread#interrupt()})
+ * is still propagated, so that cancelled and passivated batches stop.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class BatchItemTask implements Callable<BatchItemResult>
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(BatchItemTask.class.getName());
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The transfer making up this item
+    */
+   private final TransferTask transfer;
+
+   /**
+    * Path on the server, as reported in the result
+    */
+   private final String remotePath;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance
+    * 
+    * @param transfer
+    * @param remotePath
+    */
+   BatchItemTask(final TransferTask transfer, final String remotePath)
+   {
+      assert transfer != null : "transfer must be specified";
+      assert remotePath != null : "remote path must be specified";
+      this.transfer = transfer;
+      this.remotePath = remotePath;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.Callable#call()
+    */
+   @Override
+   public BatchItemResult call() throws FileTransferException
+   {
+      try
+      {
+         final TransferResult result = transfer.call();
+         return new BatchItemResult(remotePath, BatchItemOutcome.DONE, null, result);
+      }
+      catch (final FileTransferException fte)
+      {
+         // Cancelled; don't report as an item failure
+         if (Thread.currentThread().isInterrupted())
+         {
+            throw fte;
+         }
+         log.warning("Batch item " + transfer.getRequest() + " failed: " + fte.getMessage());
+         return new BatchItemResult(remotePath, BatchItemOutcome.FAILED, fte.getMessage(), null);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the transfer
+    */
+   TransferTask getTransfer()
+   {
+      return transfer;
+   }
+}
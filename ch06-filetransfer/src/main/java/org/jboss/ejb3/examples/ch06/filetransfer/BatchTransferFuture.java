@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Future} view of many concurrently-executing transfers.  The
+ * result is made available only when all transfers have completed;
+ * cancellation is propagated to each transfer.
+ * 
+ * @param <T> The type of result reported for each transfer
+ * 
+ * We compose the underlying Futures rather than waiting upon them from
+ * another pooled task, so a batch never occupies a transfer Thread
+ * that one of its own members is queued behind.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class BatchTransferFuture<T> implements Future<List<T>>
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Futures of the transfers which make up this batch, in request order
+    */
+   private final List<Future<T>> futures;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance composing the specified Futures
+    */
+   BatchTransferFuture(final List<Future<T>> futures)
+   {
+      assert futures != null : "futures must be specified";
+      this.futures = Collections.unmodifiableList(new ArrayList<Future<T>>(futures));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.Future#cancel(boolean)
+    */
+   @Override
+   public boolean cancel(final boolean mayInterruptIfRunning)
+   {
+      boolean cancelled = false;
+      for (final Future<T> future : futures)
+      {
+         cancelled |= future.cancel(mayInterruptIfRunning);
+      }
+      return cancelled;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.Future#isCancelled()
+    */
+   @Override
+   public boolean isCancelled()
+   {
+      for (final Future<T> future : futures)
+      {
+         if (future.isCancelled())
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.Future#isDone()
+    */
+   @Override
+   public boolean isDone()
+   {
+      for (final Future<T> future : futures)
+      {
+         if (!future.isDone())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.Future#get()
+    */
+   @Override
+   public List<T> get() throws InterruptedException, ExecutionException
+   {
+      final List<T> results = new ArrayList<T>(futures.size());
+      for (final Future<T> future : futures)
+      {
+         results.add(future.get());
+      }
+      return Collections.unmodifiableList(results);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+    */
+   @Override
+   public List<T> get(final long timeout, final TimeUnit unit) throws InterruptedException,
+         ExecutionException, TimeoutException
+   {
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      final List<T> results = new ArrayList<T>(futures.size());
+      for (final Future<T> future : futures)
+      {
+         results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+      }
+      return Collections.unmodifiableList(results);
+   }
+}
@@ -0,0 +1,282 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.StringTokenizer;
+
+/**
+ * Algorithm used to checksum the bytes of a transfer as they stream 
+ * through, along with the commands by which a server may be asked to 
+ * compute the same over its copy of the file.  Commands are tried in
+ * the order listed; servers generally support at most one of them.
+ * 
+ * CRC32 is cheapest to compute and suffices to detect accidental
+ * corruption; the digests additionally guard against deliberate tampering.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public enum ChecksumAlgorithm {
+
+   /**
+    * CRC-32 as used by ZIP, verified via <code>XCRC</code> or 
+    * <code>HASH</code> with <code>OPTS HASH CRC32</code>
+    */
+   CRC32("CRC32", 4, "XCRC", "HASH"),
+
+   /**
+    * MD5, verified via <code>HASH</code>, <code>MD5</code> 
+    * (draft-twine-ftpmd5) or <code>XMD5</code>
+    */
+   MD5("MD5", 16, "HASH", "MD5", "XMD5"),
+
+   /**
+    * SHA-256, verified via <code>HASH</code> or <code>XSHA256</code>
+    */
+   SHA_256("SHA-256", 32, "HASH", "XSHA256");
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Command which, per draft-bryan-ftpext-hash, reports the checksum 
+    * of a file using the algorithm selected by <code>OPTS HASH</code>
+    */
+   static final String COMMAND_HASH = "HASH";
+
+   /**
+    * Hexadecimal digits
+    */
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Standard name of the algorithm, as known to {@link MessageDigest} and <code>OPTS HASH</code>
+    */
+   private final String algorithmName;
+
+   /**
+    * Length of the checksum, in bytes
+    */
+   private final int length;
+
+   /**
+    * Commands by which the server may be asked for its checksum, in order of preference
+    */
+   private final String[] verificationCommands;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private ChecksumAlgorithm(final String algorithmName, final int length, final String... verificationCommands)
+   {
+      this.algorithmName = algorithmName;
+      this.length = length;
+      this.verificationCommands = verificationCommands;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new, empty digest for this algorithm.  Not thread-safe; 
+    * each transfer must use its own.
+    */
+   MessageDigest newDigest()
+   {
+      if (this == CRC32)
+      {
+         return new Crc32Digest();
+      }
+      try
+      {
+         return MessageDigest.getInstance(algorithmName);
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         // Every Java platform is required to support both
+         throw new IllegalStateException("Platform does not support " + algorithmName, nsae);
+      }
+   }
+
+   /**
+    * Extracts this algorithm's checksum, in lowercase hexadecimal, from the 
+    * specified server reply, or returns null if the reply carries none. 
+    * Replies vary by command (ie. <code>250 &lt;hex&gt;</code>,
+    * <code>251 &lt;path&gt; &lt;hex&gt;</code> or 
+    * <code>213 &lt;algorithm&gt; &lt;range&gt; &lt;hex&gt; &lt;path&gt;</code>),
+    * so we take the first token after the reply code which is hexadecimal 
+    * of the expected length.
+    */
+   String parseChecksum(final String reply)
+   {
+      if (reply == null)
+      {
+         return null;
+      }
+      final int hexLength = length * 2;
+      final StringTokenizer tokens = new StringTokenizer(reply);
+      if (!tokens.hasMoreTokens())
+      {
+         return null;
+      }
+      tokens.nextToken();
+      while (tokens.hasMoreTokens())
+      {
+         final String token = tokens.nextToken();
+         if (token.length() == hexLength && isHex(token))
+         {
+            return token.toLowerCase();
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Renders the specified checksum in lowercase hexadecimal
+    */
+   static String toHex(final byte[] checksum)
+   {
+      final char[] chars = new char[checksum.length * 2];
+      for (int i = 0; i < checksum.length; i++)
+      {
+         chars[i * 2] = HEX[(checksum[i] >> 4) & 0xF];
+         chars[i * 2 + 1] = HEX[checksum[i] & 0xF];
+      }
+      return new String(chars);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the standard name of the algorithm
+    */
+   public String getAlgorithmName()
+   {
+      return algorithmName;
+   }
+
+   /**
+    * @return the commands by which the server may be asked for its checksum
+    */
+   String[] getVerificationCommands()
+   {
+      return verificationCommands.clone();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether every character of the specified String is a hexadecimal digit
+    */
+   private static boolean isHex(final String value)
+   {
+      for (int i = 0; i < value.length(); i++)
+      {
+         if (Character.digit(value.charAt(i), 16) < 0)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Presents {@link java.util.zip.CRC32} as a {@link MessageDigest}, so 
+    * all algorithms may be driven alike; the checksum is rendered big-endian
+    */
+   private static final class Crc32Digest extends MessageDigest
+   {
+      /**
+       * Underlying checksum
+       */
+      private final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+
+      Crc32Digest()
+      {
+         super("CRC32");
+      }
+
+      /* (non-Javadoc)
+       * @see java.security.MessageDigestSpi#engineGetDigestLength()
+       */
+      @Override
+      protected int engineGetDigestLength()
+      {
+         return 4;
+      }
+
+      /* (non-Javadoc)
+       * @see java.security.MessageDigestSpi#engineUpdate(byte)
+       */
+      @Override
+      protected void engineUpdate(final byte input)
+      {
+         crc.update(input);
+      }
+
+      /* (non-Javadoc)
+       * @see java.security.MessageDigestSpi#engineUpdate(byte[], int, int)
+       */
+      @Override
+      protected void engineUpdate(final byte[] input, final int offset, final int len)
+      {
+         crc.update(input, offset, len);
+      }
+
+      /* (non-Javadoc)
+       * @see java.security.MessageDigestSpi#engineDigest()
+       */
+      @Override
+      protected byte[] engineDigest()
+      {
+         final long value = crc.getValue();
+         crc.reset();
+         return new byte[]
+         {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+      }
+
+      /* (non-Javadoc)
+       * @see java.security.MessageDigestSpi#engineReset()
+       */
+      @Override
+      protected void engineReset()
+      {
+         crc.reset();
+      }
+   }
+}
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.security.MessageDigest;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Second stage of a transfer pipeline, which feeds each block to a
+ * {@link MessageDigest} on a thread of its own while the transfer 
+ * goes on to move the next.  The transferring thread therefore never 
+ * waits on the digest (unless it runs more than {@link ChecksumStage#BUFFER_COUNT}
+ * blocks ahead), and the checksum is ready as soon as the last block 
+ * is through, without any second pass over the file.
+ * 
+ * Blocks are handed over by reference: the transferring thread obtains
+ * a buffer via {@link ChecksumStage#nextBuffer()}, fills and writes it,
+ * then passes it to {@link ChecksumStage#submit(byte[], int)} and must
+ * not touch it again.  Once digested, the buffer is returned for reuse.
+ * 
+ * Each instance serves a single transfer, and is to be used by only
+ * one transferring thread.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class ChecksumStage
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of buffers in circulation; bounds how far the transfer 
+    * may run ahead of the digest
+    */
+   static final int BUFFER_COUNT = 4;
+
+   /**
+    * Marks the end of the blocks to be digested
+    */
+   private static final Block END = new Block(null, 0);
+
+   /**
+    * Counter used in naming digest threads
+    */
+   private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+   /**
+    * Runs the digest stage of all transfers in the VM; threads are
+    * created as transfers need them, and retire once idle.  Kept apart
+    * from the transfer threads so that a digest can never wait on 
+    * the very transfer it serves for a thread.
+    */
+   private static final ExecutorService DIGEST_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory()
+   {
+      @Override
+      public Thread newThread(final Runnable r)
+      {
+         final Thread thread = new Thread(r, "FileTransfer-Checksum-" + THREAD_COUNTER.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Buffers available to be filled
+    */
+   private final BlockingQueue<byte[]> free = new LinkedBlockingQueue<byte[]>();
+
+   /**
+    * Filled blocks awaiting the digest, in order
+    */
+   private final BlockingQueue<Block> filled = new LinkedBlockingQueue<Block>();
+
+   /**
+    * The checksum, once all blocks are through
+    */
+   private final Future<byte[]> checksum;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new stage feeding the specified digest, and starts it
+    * 
+    * @param digest Fresh digest, to be used only by this stage
+    * @param blockSize Size of the buffers to be handed out
+    */
+   ChecksumStage(final MessageDigest digest, final int blockSize)
+   {
+      assert digest != null : "digest must be specified";
+      for (int i = 0; i < BUFFER_COUNT; i++)
+      {
+         free.add(new byte[blockSize]);
+      }
+      checksum = DIGEST_EXECUTOR.submit(new Callable<byte[]>()
+      {
+         @Override
+         public byte[] call() throws InterruptedException
+         {
+            Block block;
+            while ((block = filled.take()) != END)
+            {
+               digest.update(block.data, 0, block.length);
+               free.add(block.data);
+            }
+            return digest.digest();
+         }
+      });
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a buffer to be filled, waiting for the digest to 
+    * give one back if all are in use
+    * 
+    * @throws InterruptedException If interrupted while waiting
+    */
+   byte[] nextBuffer() throws InterruptedException
+   {
+      return free.take();
+   }
+
+   /**
+    * Hands the first <code>length</code> bytes of the specified buffer, 
+    * obtained from {@link ChecksumStage#nextBuffer()}, to the digest 
+    */
+   void submit(final byte[] buffer, final int length)
+   {
+      filled.add(new Block(buffer, length));
+   }
+
+   /**
+    * Returns a buffer, obtained from {@link ChecksumStage#nextBuffer()}, 
+    * which is not to be digested (ie. as it was filled with nothing)
+    */
+   void discard(final byte[] buffer)
+   {
+      free.add(buffer);
+   }
+
+   /**
+    * Signals that all blocks have been submitted, and waits for the checksum
+    * 
+    * @throws InterruptedException If interrupted while waiting
+    * @throws IllegalStateException If the digest failed
+    */
+   byte[] finish() throws InterruptedException, IllegalStateException
+   {
+      filled.add(END);
+      try
+      {
+         return checksum.get();
+      }
+      catch (final ExecutionException ee)
+      {
+         throw new IllegalStateException("Checksum could not be computed", ee.getCause());
+      }
+   }
+
+   /**
+    * Abandons the checksum, releasing the digest thread; has no 
+    * effect if the checksum is already complete
+    */
+   void cancel()
+   {
+      checksum.cancel(true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A filled buffer and the number of bytes in it
+    */
+   private static final class Block
+   {
+      private final byte[] data;
+
+      private final int length;
+
+      Block(final byte[] data, final int length)
+      {
+         this.data = data;
+         this.length = length;
+      }
+   }
+}
@@ -23,11 +23,32 @@ package org.jboss.ejb3.examples.ch06.filetransfer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.ejb.AsyncResult;
 import javax.ejb.Local;
 import javax.ejb.PostActivate;
 import javax.ejb.PrePassivate;
@@ -41,6 +62,14 @@ import org.apache.commons.net.ftp.FTPReply;
 /**
  * Bean Implementation class of the FileTransferEJB, modeled
  * as a Stateful Session Bean
+ * 
+ * Passivation is made cheap: rather than logging out, the session 
+ * returns its connection to the {@link FtpConnectionPool}, and 
+ * serializes only the server, its working directory, and checkpoints
+ * of any transfers it had in flight.  Upon activation nothing is 
+ * done eagerly; the session re-attaches to a pooled connection upon 
+ * first use, issuing a <code>CWD</code> only if that connection 
+ * is not already in the right place.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -84,87 +113,139 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
     */
    private static int CONNECT_PORT = 12345;
 
+   /**
+    * The maximum number of asynchronous transfers in flight at once 
+    * for a single session; each uses its own connection.  Further
+    * requests are queued until one of the session's transfers completes.
+    * The Threads carrying them out are shared by all sessions (see 
+    * {@link TransferScheduler}).  In production systems would typically 
+    * be externalized via configurable environment entry.
+    */
+   private static final int MAX_CONCURRENT_TRANSFERS = 8;
+
+   /**
+    * Time we'll wait for cancelled transfers to wind down (and release their
+    * connections) when shutting down, in seconds
+    */
+   private static final long TRANSFER_SHUTDOWN_WAIT_SECONDS = 5;
+
+   /**
+    * Version of the serialized session state format
+    */
+   private static final byte SESSION_STATE_VERSION = 1;
+
+   /**
+    * Format of the timestamps in replies to <code>MDTM</code>, always in UTC (RFC 3659)
+    */
+   private static final String MDTM_FORMAT = "yyyyMMddHHmmss";
+
+   /**
+    * Pool of connections shared by all sessions
+    */
+   private static final FtpConnectionPool CONNECTION_POOL = FtpConnectionPool.getInstance();
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /*
+    * All instance state is transient; the session state written during 
+    * passivation is instead defined by writeObject/readObject
+    */
+
+   /**
+    * The connection presently attached to this session, if any.  We don't 
+    * want its state getting Serialized during passivation; it's returned 
+    * to the pool, and another attached upon first use after activation.
+    */
+   private transient PooledFtpConnection connection;
+
+   /**
+    * Host of the server to which this session is bound; fixed upon first connection
+    */
+   private transient String serverHost;
+
+   /**
+    * Port of the server to which this session is bound; fixed upon first connection
+    */
+   private transient int serverPort;
+
+   /**
+    * Absolute path of the present working directory.  In cases where
+    * we're passivated, if this is specified we'll change into this 
+    * directory upon re-attaching.
+    */
+   private transient String presentWorkingDirectory;
+
    /**
-    * The underlying FTP Client.  We don't want its state
-    * getting Serialized during passivation.  We'll
-    * reinitialize this client and its connections
-    * upon activation.
+    * Carries out asynchronous transfers for this session.  Lazily
+    * created, and as with the connection, not serialized during passivation.
     */
-   private FTPClient client;
+   private transient TransferScheduler transferScheduler;
 
    /**
-    * Name of the present working directory.  In cases where
-    * we're passivated, if this is specified
-    * we'll change into this directory upon activation.
+    * Transfers submitted and not yet done; checkpointed upon passivation
     */
-   private String presentWorkingDirectory;
+   private transient Set<TransferTask> activeTransfers;
+
+   /**
+    * Transfers interrupted by passivation, awaiting resumption
+    */
+   private transient List<TransferCheckpoint> interruptedTransfers;
 
    //-------------------------------------------------------------------------------------||
    // Lifecycle Callbacks ----------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Called by the container when the instance is about to be passivated or brought
-    * out of service entirely.
+    * Called by the container when the instance is about to be passivated.  Checkpoints
+    * and stops any transfers in flight, and returns the connection to the pool
+    * without logging out, leaving only the compact session state to be serialized.
+    */
+   @PrePassivate
+   public void passivate()
+   {
+      this.checkpointTransfers();
+      this.shutdownTransfers();
+      this.detach();
+      log.fine("Passivated session in " + this.getPresentWorkingDirectory());
+   }
+
+   /**
+    * Called by the container when the instance has been brought out of passivated
+    * state.  Deliberately does no work; a pooled connection is attached upon first use.
+    */
+   @PostActivate
+   public void activate()
+   {
+      log.fine("Activated session in " + this.getPresentWorkingDirectory() + "; will attach upon first use");
+   }
+
+   /**
+    * Called by the container when the instance is about to be brought out of service
+    * entirely.  Stops any transfers in flight, and returns the connection to the pool.
     *
     * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#disconnect()
     */
-   @PrePassivate
    @PreDestroy
    @Override
    public void disconnect()
    {
-      // Obtain FTP Client
-      final FTPClient client = this.getClient();
+      // Stop any transfers in flight; they hold connections of their own
+      this.shutdownTransfers();
 
-      // If exists
-      if (client != null)
-      {
-         // If connected
-         if (client.isConnected())
-         {
-            // Logout
-            try
-            {
-               client.logout();
-               log.info("Logged out of: " + client);
-            }
-            catch (final IOException ioe)
-            {
-               log.warning("Exception encountered in logging out of the FTP client: " + ioe.getMessage());
-            }
-
-            // Disconnect
-            try
-            {
-               log.fine("Disconnecting: " + client);
-               client.disconnect();
-               log.info("Disconnected: " + client);
-            }
-            catch (final IOException ioe)
-            {
-               log.warning("Exception encountered in disconnecting the FTP client: " + ioe.getMessage());
-            }
-
-            // Null out the client so it's not serialized
-            this.client = null;
-         }
-      }
+      // Give back the connection
+      this.detach();
    }
 
    /**
-    * Called by the container when the instance has been created or re-activated
-    * (brought out of passivated state).  Will construct the underlying FTP Client
-    * and open all appropriate connections.
+    * Called by the container when the instance has been created.  Will attach a 
+    * connection (from the pool if one is idle, else newly opened) and change into
+    * the present working directory, if any.
     *
     * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#connect()
     */
    @PostConstruct
-   @PostActivate
    @Override
    public void connect() throws IllegalStateException, FileTransferException
    {
@@ -177,50 +258,8 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
          throw new IllegalStateException("FTP Client is already initialized");
       }
 
-      // Get the connection properties
-      final String connectHost = this.getConnectHost();
-      final int connectPort = this.getConnectPort();
-
-      // Create the client
-      final FTPClient client = new FTPClient();
-      final String canonicalServerName = connectHost + ":" + connectPort;
-      log.fine("Connecting to FTP Server at " + canonicalServerName);
-      try
-      {
-         client.connect(connectHost, connectPort);
-      }
-      catch (final IOException ioe)
-      {
-         throw new FileTransferException("Error in connecting to " + canonicalServerName, ioe);
-      }
-
-      // Set
-      log.info("Connected to FTP Server at: " + canonicalServerName);
-      this.setClient(client);
-
-      // Check that the last operation succeeded
-      this.checkLastOperation();
-
-      try
-      {
-         // Login
-         client.login("user", "password");
-
-         // Check that the last operation succeeded
-         this.checkLastOperation();
-      }
-      catch (final Exception e)
-      {
-         throw new FileTransferException("Could not log in", e);
-      }
-
-      // If there's a pwd defined, cd into it.
-      final String pwd = this.getPresentWorkingDirectory();
-      if (pwd != null)
-      {
-         this.cd(pwd);
-      }
-
+      // Attach
+      this.attach();
    }
 
    //-------------------------------------------------------------------------------------||
@@ -233,8 +272,9 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
    @Override
    public void cd(final String directory)
    {
-      // Get the client
-      final FTPClient client = this.getClient();
+      // Get the connection
+      final PooledFtpConnection connection = this.attach();
+      final FTPClient client = connection.getClient();
 
       // Exec cd
       try
@@ -250,9 +290,11 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
          throw new FileTransferException("Could not change working directory to \"" + directory + "\"", e);
       }
 
-      // Set the pwd (used upon activation)
-      log.info("cd > " + directory);
-      this.setPresentWorkingDirectory(directory);
+      // Set the pwd (used upon re-attaching), absolute so it's independent of the connection
+      final String pwd = resolvePath(connection.getWorkingDirectory(), directory);
+      log.info("cd > " + pwd);
+      connection.setWorkingDirectory(pwd);
+      this.setPresentWorkingDirectory(pwd);
    }
 
    /* (non-Javadoc)
@@ -262,7 +304,7 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
    public void mkdir(final String directory)
    {
       // Get the client
-      final FTPClient client = this.getClient();
+      final FTPClient client = this.attach().getClient();
 
       // Exec cd
       try
@@ -287,7 +329,7 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
    public String pwd()
    {
       // Get the client
-      final FTPClient client = this.getClient();
+      final FTPClient client = this.attach().getClient();
 
       // Exec pwd
       try
@@ -319,10 +361,764 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
       }
    }
 
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#upload(java.io.File, java.lang.String)
+    */
+   @Override
+   public TransferResult upload(final File localFile, final String remotePath) throws IllegalStateException,
+         FileTransferException
+   {
+      final PooledFtpConnection connection = this.attach();
+      return new TransferTask(this.serverHost, this.serverPort, TransferRequest.upload(localFile, remotePath), null)
+            .execute(connection);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#download(java.lang.String, java.io.File)
+    */
+   @Override
+   public TransferResult download(final String remotePath, final File localFile) throws IllegalStateException,
+         FileTransferException
+   {
+      final PooledFtpConnection connection = this.attach();
+      return new TransferTask(this.serverHost, this.serverPort, TransferRequest.download(remotePath, localFile), null)
+            .execute(connection);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#uploadAsync(java.io.File, java.lang.String, org.jboss.ejb3.examples.ch06.filetransfer.TransferProgressListener)
+    */
+   @Override
+   public Future<TransferResult> uploadAsync(final File localFile, final String remotePath,
+         final TransferProgressListener listener) throws IllegalArgumentException
+   {
+      return this.submitTransfer(TransferRequest.upload(localFile, remotePath), listener);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#downloadAsync(java.lang.String, java.io.File, org.jboss.ejb3.examples.ch06.filetransfer.TransferProgressListener)
+    */
+   @Override
+   public Future<TransferResult> downloadAsync(final String remotePath, final File localFile,
+         final TransferProgressListener listener) throws IllegalArgumentException
+   {
+      return this.submitTransfer(TransferRequest.download(remotePath, localFile), listener);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#transferAsync(java.util.List, org.jboss.ejb3.examples.ch06.filetransfer.TransferProgressListener)
+    */
+   @Override
+   public Future<List<TransferResult>> transferAsync(final List<TransferRequest> requests,
+         final TransferProgressListener listener) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (requests == null)
+      {
+         throw new IllegalArgumentException("requests must be specified");
+      }
+
+      // Submit each, and compose
+      final List<Future<TransferResult>> futures = new ArrayList<Future<TransferResult>>(requests.size());
+      for (final TransferRequest request : requests)
+      {
+         futures.add(this.submitTransfer(request, listener));
+      }
+      return new BatchTransferFuture<TransferResult>(futures);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#getInterruptedTransfers()
+    */
+   @Override
+   public List<TransferCheckpoint> getInterruptedTransfers()
+   {
+      final List<TransferCheckpoint> checkpoints = this.interruptedTransfers;
+      if (checkpoints == null)
+      {
+         return Collections.emptyList();
+      }
+      return Collections.unmodifiableList(new ArrayList<TransferCheckpoint>(checkpoints));
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#resumeInterruptedTransfers(org.jboss.ejb3.examples.ch06.filetransfer.TransferProgressListener)
+    */
+   @Override
+   public Future<List<TransferResult>> resumeInterruptedTransfers(final TransferProgressListener listener)
+   {
+      // Take the checkpoints; if these are interrupted in turn, they'll be checkpointed anew
+      final List<TransferCheckpoint> checkpoints = this.getInterruptedTransfers();
+      this.interruptedTransfers = null;
+
+      // Submit each, and compose
+      final List<Future<TransferResult>> futures = new ArrayList<Future<TransferResult>>(checkpoints.size());
+      for (final TransferCheckpoint checkpoint : checkpoints)
+      {
+         log.info("Resuming transfer: " + checkpoint);
+         futures.add(this.submitTransfer(checkpoint.getRequest(), listener, true));
+      }
+      return new BatchTransferFuture<TransferResult>(futures);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#mkdirs(java.lang.String)
+    */
+   @Override
+   public List<BatchItemResult> mkdirs(final String directory) throws IllegalArgumentException,
+         FileTransferException
+   {
+      // Precondition checks
+      if (directory == null || directory.length() == 0)
+      {
+         throw new IllegalArgumentException("directory must be specified");
+      }
+
+      // Make each level not yet known to exist
+      final PooledFtpConnection connection = this.attach();
+      final String workingDirectory = connection.getWorkingDirectory();
+      final SortedSet<String> directories = new TreeSet<String>();
+      addDirectories(directories, workingDirectory, resolvePath(workingDirectory, directory));
+      final List<BatchItemResult> results = this.makeDirectories(connection, directories);
+      for (final BatchItemResult result : results)
+      {
+         if (!result.isSucceeded())
+         {
+            throw new FileTransferException("Could not make directory \"" + directory + "\": " + result);
+         }
+      }
+      return results;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#transferBatch(java.util.List, org.jboss.ejb3.examples.ch06.filetransfer.TransferProgressListener)
+    */
+   @Override
+   public Future<List<BatchItemResult>> transferBatch(final List<TransferRequest> manifest,
+         final TransferProgressListener listener) throws IllegalArgumentException, FileTransferException
+   {
+      // Precondition checks
+      if (manifest == null)
+      {
+         throw new IllegalArgumentException("manifest must be specified");
+      }
+
+      // Prepare destinations: remote parents all at once, local parents directly
+      final PooledFtpConnection connection = this.attach();
+      final String workingDirectory = connection.getWorkingDirectory();
+      final SortedSet<String> remoteParents = new TreeSet<String>();
+      final List<String> remotePaths = new ArrayList<String>(manifest.size());
+      for (final TransferRequest request : manifest)
+      {
+         if (request == null)
+         {
+            throw new IllegalArgumentException("manifest may not contain null requests");
+         }
+         final String remotePath = resolvePath(workingDirectory, request.getRemotePath());
+         remotePaths.add(remotePath);
+         if (request.getDirection() == TransferDirection.UPLOAD)
+         {
+            addDirectories(remoteParents, workingDirectory, getParentPath(remotePath));
+         }
+         else
+         {
+            final File localParent = request.getLocalFile().getAbsoluteFile().getParentFile();
+            if (localParent != null && !localParent.isDirectory() && !localParent.mkdirs())
+            {
+               log.warning("Could not make local directory: " + localParent);
+            }
+         }
+      }
+
+      // Any directory which could not be made will fail the items within it
+      this.makeDirectories(connection, remoteParents);
+
+      // Transfer
+      final List<Future<BatchItemResult>> futures = new ArrayList<Future<BatchItemResult>>(manifest.size());
+      for (int i = 0; i < manifest.size(); i++)
+      {
+         futures.add(this.submitBatchItem(manifest.get(i), remotePaths.get(i), listener));
+      }
+      return new BatchTransferFuture<BatchItemResult>(futures);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#syncDirectory(java.io.File, java.lang.String, org.jboss.ejb3.examples.ch06.filetransfer.TransferProgressListener)
+    */
+   @Override
+   public Future<List<BatchItemResult>> syncDirectory(final File localDirectory, final String remoteDirectory,
+         final TransferProgressListener listener) throws IllegalArgumentException, FileTransferException
+   {
+      // Precondition checks
+      if (localDirectory == null || !localDirectory.isDirectory())
+      {
+         throw new IllegalArgumentException("local directory must be specified and exist: " + localDirectory);
+      }
+      if (remoteDirectory == null || remoteDirectory.length() == 0)
+      {
+         throw new IllegalArgumentException("remote directory must be specified");
+      }
+
+      // Walk the local tree
+      final PooledFtpConnection connection = this.attach();
+      final String workingDirectory = connection.getWorkingDirectory();
+      final String remoteRoot = resolvePath(workingDirectory, remoteDirectory);
+      final SortedSet<String> directories = new TreeSet<String>();
+      addDirectories(directories, workingDirectory, remoteRoot);
+      final List<TransferRequest> files = new ArrayList<TransferRequest>();
+      this.collectTree(localDirectory, remoteRoot, directories, files);
+
+      // Make the directories
+      final List<Future<BatchItemResult>> futures = new ArrayList<Future<BatchItemResult>>();
+      for (final BatchItemResult result : this.makeDirectories(connection, directories))
+      {
+         futures.add(new AsyncResult<BatchItemResult>(result));
+      }
+
+      // Send only those files which have changed
+      final boolean[] unchanged = this.findUnchanged(connection, files);
+      for (int i = 0; i < files.size(); i++)
+      {
+         final TransferRequest file = files.get(i);
+         if (unchanged[i])
+         {
+            futures.add(new AsyncResult<BatchItemResult>(new BatchItemResult(file.getRemotePath(),
+                  BatchItemOutcome.SKIPPED, "unchanged", null)));
+         }
+         else
+         {
+            futures.add(this.submitBatchItem(file, file.getRemotePath(), listener));
+         }
+      }
+      return new BatchTransferFuture<BatchItemResult>(futures);
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Obtains a connection to this session's server, from the pool if one
+    * is idle, else newly opened, changed into this session's present working
+    * directory
+    * 
+    * @throws FileTransferException If no connection could be obtained
+    */
+   private PooledFtpConnection acquireConnection() throws FileTransferException
+   {
+      this.getServerKey(); // Binds to the configured server if not yet done
+      final PooledFtpConnection connection = CONNECTION_POOL.obtain(this.serverHost, this.serverPort);
+      final String pwd = this.getPresentWorkingDirectory();
+      final String target = pwd != null ? pwd : connection.getHomeDirectory();
+      if (!target.equals(connection.getWorkingDirectory()))
+      {
+         final FTPClient client = connection.getClient();
+         try
+         {
+            client.changeWorkingDirectory(target);
+            this.checkLastOperation(client);
+         }
+         catch (final Exception e)
+         {
+            CONNECTION_POOL.discard(connection);
+            throw new FileTransferException("Could not change connection into \"" + target + "\"", e);
+         }
+         connection.setWorkingDirectory(target);
+      }
+      return connection;
+   }
+
+   /**
+    * Obtains the connection attached to this session, attaching one first if necessary
+    * 
+    * @throws FileTransferException If no connection could be obtained
+    */
+   private PooledFtpConnection attach() throws FileTransferException
+   {
+      PooledFtpConnection connection = this.connection;
+      if (connection == null)
+      {
+         connection = this.acquireConnection();
+         this.connection = connection;
+         log.fine("Attached: " + connection);
+      }
+      return connection;
+   }
+
+   /**
+    * Returns the attached connection, if any, to the pool
+    */
+   private void detach()
+   {
+      final PooledFtpConnection connection = this.connection;
+      if (connection != null)
+      {
+         this.connection = null;
+         CONNECTION_POOL.release(connection);
+         log.fine("Detached: " + connection);
+      }
+   }
+
+   /**
+    * Abandons the connection attached to this session, which is in an 
+    * unknown state; another will be attached upon next use
+    */
+   private void abandonConnection()
+   {
+      final PooledFtpConnection connection = this.connection;
+      if (connection != null)
+      {
+         this.connection = null;
+         CONNECTION_POOL.discard(connection);
+      }
+   }
+
+   /**
+    * Makes each of the specified directories (absolute, parents first) which
+    * does not yet exist, pipelining the commands such that the whole set 
+    * costs one round-trip per {@link PipeliningFtpClient#WINDOW_SIZE} commands
+    * rather than one per directory
+    * 
+    * @return The result for each directory, in order
+    * @throws FileTransferException If the connection failed
+    */
+   private List<BatchItemResult> makeDirectories(final PooledFtpConnection connection,
+         final Collection<String> directories) throws FileTransferException
+   {
+      if (directories.isEmpty())
+      {
+         return Collections.emptyList();
+      }
+
+      /*
+       * Follow each MKD with a CWD into the directory; MKD of one which already 
+       * exists is refused, and this tells us whether that's why.  Then go back.
+       */
+      final List<String> commands = new ArrayList<String>(directories.size() * 2 + 1);
+      for (final String directory : directories)
+      {
+         commands.add("MKD " + directory);
+         commands.add("CWD " + directory);
+      }
+      final String workingDirectory = connection.getWorkingDirectory();
+      commands.add("CWD " + workingDirectory);
+      final List<String> replies;
+      try
+      {
+         replies = connection.getClient().pipeline(commands);
+      }
+      catch (final IOException ioe)
+      {
+         this.abandonConnection();
+         throw new FileTransferException("Could not make directories " + directories, ioe);
+      }
+      final String backReply = replies.get(replies.size() - 1);
+      if (!FTPReply.isPositiveCompletion(PipeliningFtpClient.getReplyCode(backReply)))
+      {
+         this.abandonConnection();
+         throw new FileTransferException("Could not change back into \"" + workingDirectory + "\": " + backReply);
+      }
+
+      // Report on each
+      final List<BatchItemResult> results = new ArrayList<BatchItemResult>(directories.size());
+      int i = 0;
+      for (final String directory : directories)
+      {
+         final String mkdReply = replies.get(i++);
+         final String cwdReply = replies.get(i++);
+         final BatchItemResult result;
+         if (FTPReply.isPositiveCompletion(PipeliningFtpClient.getReplyCode(mkdReply)))
+         {
+            result = new BatchItemResult(directory, BatchItemOutcome.DONE, null, null);
+         }
+         else if (FTPReply.isPositiveCompletion(PipeliningFtpClient.getReplyCode(cwdReply)))
+         {
+            result = new BatchItemResult(directory, BatchItemOutcome.SKIPPED, "exists", null);
+         }
+         else
+         {
+            result = new BatchItemResult(directory, BatchItemOutcome.FAILED, PipeliningFtpClient
+                  .getReplyText(mkdReply), null);
+         }
+         results.add(result);
+      }
+      log.info("mkdirs > " + directories.size() + " directories, " + commands.size() + " commands pipelined");
+      return results;
+   }
+
+   /**
+    * Determines which of the specified uploads need not be sent, as the server
+    * already has a file of the same size at least as new.  The <code>SIZE</code>
+    * and <code>MDTM</code> queries for all files are pipelined.
+    * 
+    * @throws FileTransferException If the connection failed
+    */
+   private boolean[] findUnchanged(final PooledFtpConnection connection, final List<TransferRequest> uploads)
+         throws FileTransferException
+   {
+      final boolean[] unchanged = new boolean[uploads.size()];
+      if (uploads.isEmpty())
+      {
+         return unchanged;
+      }
+      final List<String> commands = new ArrayList<String>(uploads.size() * 2);
+      for (final TransferRequest upload : uploads)
+      {
+         commands.add("SIZE " + upload.getRemotePath());
+         commands.add("MDTM " + upload.getRemotePath());
+      }
+      final List<String> replies;
+      try
+      {
+         replies = connection.getClient().pipeline(commands);
+      }
+      catch (final IOException ioe)
+      {
+         this.abandonConnection();
+         throw new FileTransferException("Could not query remote files", ioe);
+      }
+      final SimpleDateFormat mdtmFormat = new SimpleDateFormat(MDTM_FORMAT);
+      mdtmFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      for (int i = 0; i < unchanged.length; i++)
+      {
+         final String sizeReply = replies.get(i * 2);
+         final String mdtmReply = replies.get(i * 2 + 1);
+         if (PipeliningFtpClient.getReplyCode(sizeReply) != FTPReply.FILE_STATUS
+               || PipeliningFtpClient.getReplyCode(mdtmReply) != FTPReply.FILE_STATUS)
+         {
+            continue;
+         }
+         final File localFile = uploads.get(i).getLocalFile();
+         try
+         {
+            final long remoteSize = Long.parseLong(PipeliningFtpClient.getReplyText(sizeReply));
+            final String timestamp = PipeliningFtpClient.getReplyText(mdtmReply);
+            final long remoteModified = mdtmFormat.parse(timestamp.substring(0, Math.min(timestamp.length(),
+                  MDTM_FORMAT.length()))).getTime();
+            // MDTM has only second precision
+            final long localModified = localFile.lastModified() / 1000 * 1000;
+            unchanged[i] = remoteSize == localFile.length() && remoteModified >= localModified;
+         }
+         catch (final NumberFormatException nfe)
+         {
+            log.warning("Could not parse size of " + uploads.get(i).getRemotePath() + ": " + sizeReply);
+         }
+         catch (final ParseException pe)
+         {
+            log.warning("Could not parse time of " + uploads.get(i).getRemotePath() + ": " + mdtmReply);
+         }
+      }
+      return unchanged;
+   }
+
+   /**
+    * Adds the remote directory and file for everything beneath the specified local
+    * directory, in a stable order
+    */
+   private void collectTree(final File localDirectory, final String remoteDirectory,
+         final Set<String> directories, final List<TransferRequest> files) throws FileTransferException
+   {
+      final File[] children = localDirectory.listFiles();
+      if (children == null)
+      {
+         throw new FileTransferException("Could not list local directory: " + localDirectory);
+      }
+      Arrays.sort(children);
+      for (final File child : children)
+      {
+         final String remotePath = resolvePath(remoteDirectory, child.getName());
+         if (child.isDirectory())
+         {
+            directories.add(remotePath);
+            this.collectTree(child, remotePath, directories, files);
+         }
+         else if (child.isFile())
+         {
+            files.add(TransferRequest.upload(child, remotePath));
+         }
+      }
+   }
+
+   /**
+    * Submits the specified request as an item of a batch, whose failure
+    * will be reported rather than raised
+    */
+   private Future<BatchItemResult> submitBatchItem(final TransferRequest request, final String remotePath,
+         final TransferProgressListener listener)
+   {
+      final TransferTask transfer = new TransferTask(this.serverHost, this.serverPort, request, remotePath,
+            listener, false);
+      return this.submitTransfer(transfer, new BatchItemTask(transfer, remotePath));
+   }
+
+   /**
+    * Submits the specified request for asynchronous execution, its remote path
+    * resolved now against the present working directory, such that a later 
+    * change of directory has no bearing upon where it goes
+    */
+   private Future<TransferResult> submitTransfer(final TransferRequest request,
+         final TransferProgressListener listener)
+   {
+      return this.submitTransfer(request, listener, false);
+   }
+
+   /**
+    * Submits the specified request for asynchronous execution, its remote path
+    * resolved now against the present working directory, such that a later 
+    * change of directory has no bearing upon where it goes
+    * 
+    * @param resume Whether to continue from the bytes already present at the destination
+    */
+   private Future<TransferResult> submitTransfer(final TransferRequest request,
+         final TransferProgressListener listener, final boolean resume)
+   {
+      // Precondition checks
+      if (request == null)
+      {
+         throw new IllegalArgumentException("request must be specified");
+      }
+
+      // Resolve upon the caller's Thread; the transfer's own never reads our state
+      final String remotePath = resolvePath(this.attach().getWorkingDirectory(), request.getRemotePath());
+      final TransferTask task = new TransferTask(this.serverHost, this.serverPort, request, remotePath, listener,
+            resume);
+      return this.submitTransfer(task, task);
+   }
+
+   /**
+    * Submits the specified work, which carries out the specified transfer,
+    * for asynchronous execution by this session's transfer scheduler, creating
+    * it if necessary.  The transfer is tracked as active until done, so that
+    * it may be checkpointed upon passivation.
+    */
+   private <T> Future<T> submitTransfer(final TransferTask task, final Callable<T> work)
+   {
+      // Lazily create the scheduler
+      TransferScheduler scheduler = this.transferScheduler;
+      if (scheduler == null)
+      {
+         scheduler = new TransferScheduler(MAX_CONCURRENT_TRANSFERS);
+         this.transferScheduler = scheduler;
+      }
+
+      // Lazily create the tracking set
+      Set<TransferTask> active = this.activeTransfers;
+      if (active == null)
+      {
+         active = Collections.newSetFromMap(new ConcurrentHashMap<TransferTask, Boolean>());
+         this.activeTransfers = active;
+      }
+      final Set<TransferTask> tracking = active;
+
+      // Submit
+      log.fine("Submitting transfer: " + task.getRequest());
+      final FutureTask<T> future = new FutureTask<T>(work)
+      {
+         @Override
+         protected void done()
+         {
+            tracking.remove(task);
+         }
+      };
+      tracking.add(task);
+      scheduler.submit(future);
+      return future;
+   }
+
+   /**
+    * Records a checkpoint for each transfer not yet done, to be resumed
+    * after activation
+    */
+   private void checkpointTransfers()
+   {
+      final Set<TransferTask> active = this.activeTransfers;
+      if (active == null || active.isEmpty())
+      {
+         return;
+      }
+      List<TransferCheckpoint> checkpoints = this.interruptedTransfers;
+      if (checkpoints == null)
+      {
+         checkpoints = new ArrayList<TransferCheckpoint>();
+         this.interruptedTransfers = checkpoints;
+      }
+      for (final TransferTask task : active)
+      {
+         // Resumed where it was headed, whatever the working directory by then
+         final TransferCheckpoint checkpoint = new TransferCheckpoint(task.getRequest().withRemotePath(
+               task.getRemotePath()), task.getBytesTransferred());
+         log.info("Checkpointed transfer: " + checkpoint);
+         checkpoints.add(checkpoint);
+      }
+   }
+
+   /**
+    * Cancels all asynchronous transfers in flight or queued for this session
+    */
+   private void shutdownTransfers()
+   {
+      final TransferScheduler scheduler = this.transferScheduler;
+      if (scheduler == null)
+      {
+         return;
+      }
+      this.transferScheduler = null;
+      this.activeTransfers = null;
+
+      // Interrupt those running, cancel those queued so no caller waits upon them forever, and
+      // let those running wind down, so their connections are released before we go on
+      try
+      {
+         final int cancelled = scheduler.shutdown(TRANSFER_SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+         log.info("Shut down transfers; " + cancelled + " pending transfers will not be run");
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Resolves the specified path against the specified absolute directory
+    * in the manner of the server, normalizing away any "." and ".." segments
+    * 
+    * @param directory Absolute
+    * @param path Absolute, or relative to the directory
+    * @return The absolute path
+    */
+   static String resolvePath(final String directory, final String path)
+   {
+      final String joined = path.startsWith("/") ? path : directory + "/" + path;
+      final LinkedList<String> segments = new LinkedList<String>();
+      for (final String segment : joined.split("/"))
+      {
+         if (segment.length() == 0 || ".".equals(segment))
+         {
+            continue;
+         }
+         if ("..".equals(segment))
+         {
+            if (!segments.isEmpty())
+            {
+               segments.removeLast();
+            }
+            continue;
+         }
+         segments.add(segment);
+      }
+      if (segments.isEmpty())
+      {
+         return "/";
+      }
+      final StringBuilder resolved = new StringBuilder();
+      for (final String segment : segments)
+      {
+         resolved.append('/').append(segment);
+      }
+      return resolved.toString();
+   }
+
+   /**
+    * Obtains the parent of the specified absolute, normalized path
+    */
+   static String getParentPath(final String path)
+   {
+      final int lastSlash = path.lastIndexOf('/');
+      return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+   }
+
+   /**
+    * Adds the specified absolute target directory, along with each ancestor 
+    * which may not yet exist, to the specified set.  Those at or above the 
+    * specified base directory (known to exist) are not added, unless the target
+    * is not beneath the base, in which case all ancestors are added.
+    */
+   static void addDirectories(final Set<String> directories, final String base, final String target)
+   {
+      if (target.equals(base))
+      {
+         return;
+      }
+      final String basePrefix = base.endsWith("/") ? base : base + "/";
+      String path = target.startsWith(basePrefix) ? basePrefix : "/";
+      if (target.length() <= path.length())
+      {
+         return;
+      }
+      for (final String segment : target.substring(path.length()).split("/"))
+      {
+         if (segment.length() == 0)
+         {
+            continue;
+         }
+         path = path.endsWith("/") ? path + segment : path + "/" + segment;
+         directories.add(path);
+      }
+   }
+
+   /**
+    * Writes the compact session state: the server, the present working directory,
+    * and checkpoints of any interrupted transfers.  Connections, executors and 
+    * other runtime state are never written.
+    */
+   private void writeObject(final ObjectOutputStream out) throws IOException
+   {
+      out.defaultWriteObject();
+      out.writeByte(SESSION_STATE_VERSION);
+      this.getServerKey(); // Binds to the configured server if not yet done
+      out.writeUTF(this.serverHost);
+      out.writeInt(this.serverPort);
+      final String pwd = this.getPresentWorkingDirectory();
+      out.writeBoolean(pwd != null);
+      if (pwd != null)
+      {
+         out.writeUTF(pwd);
+      }
+      final List<TransferCheckpoint> checkpoints = this.getInterruptedTransfers();
+      out.writeInt(checkpoints.size());
+      for (final TransferCheckpoint checkpoint : checkpoints)
+      {
+         final TransferRequest request = checkpoint.getRequest();
+         out.writeBoolean(request.getDirection() == TransferDirection.UPLOAD);
+         out.writeUTF(request.getLocalFile().getPath());
+         out.writeUTF(request.getRemotePath());
+         out.writeLong(checkpoint.getBytesTransferred());
+      }
+   }
+
+   /**
+    * Reads the session state written by {@link FileTransferBean#writeObject(ObjectOutputStream)}
+    */
+   private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      final byte version = in.readByte();
+      if (version != SESSION_STATE_VERSION)
+      {
+         throw new InvalidObjectException("Unsupported session state version: " + version);
+      }
+      this.serverHost = in.readUTF();
+      this.serverPort = in.readInt();
+      this.presentWorkingDirectory = in.readBoolean() ? in.readUTF() : null;
+      final int numCheckpoints = in.readInt();
+      if (numCheckpoints > 0)
+      {
+         final List<TransferCheckpoint> checkpoints = new ArrayList<TransferCheckpoint>(numCheckpoints);
+         for (int i = 0; i < numCheckpoints; i++)
+         {
+            final boolean upload = in.readBoolean();
+            final File localFile = new File(in.readUTF());
+            final String remotePath = in.readUTF();
+            final long bytesTransferred = in.readLong();
+            final TransferRequest request = upload
+                  ? TransferRequest.upload(localFile, remotePath)
+                  : TransferRequest.download(remotePath, localFile);
+            checkpoints.add(new TransferCheckpoint(request, bytesTransferred));
+         }
+         this.interruptedTransfers = checkpoints;
+      }
+   }
+
    /**
     * Ensures that the last operation succeeded with a positive
     * reply code.  Otherwise a {@link FileTransferException} 
@@ -332,18 +1128,20 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
     */
    protected void checkLastOperation() throws FileTransferException
    {
-      // Get the client
-      final FTPClient client = this.getClient();
+      this.checkLastOperation(this.getClient());
+   }
 
+   /**
+    * Ensures that the last operation upon the specified client succeeded 
+    * with a positive reply code.  Otherwise a {@link FileTransferException} 
+    * is raised, noting the reply code denoting the error.
+    * 
+    * @throws FileTransferException
+    */
+   protected void checkLastOperation(final FTPClient client) throws FileTransferException
+   {
       // Obtain and check the reply from the connection
-      final int connectReply = client.getReplyCode();
-      if (!FTPReply.isPositiveCompletion(connectReply))
-      {
-         // Indicate the problem
-         throw new FileTransferException("Did not receive positive completion code from server, instead code was: "
-               + connectReply);
-      }
-
+      FtpConnectionPool.checkReply(client);
    }
 
    /* (non-Javadoc)
@@ -377,19 +1175,26 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
    }
 
    /**
-    * @return the client
+    * @return the client of the attached connection, or null if none is attached
     */
    protected final FTPClient getClient()
    {
-      return client;
+      final PooledFtpConnection connection = this.connection;
+      return connection == null ? null : connection.getClient();
    }
 
    /**
-    * @param client the client to set
+    * Obtains the key (host:port) of the server to which this session is bound,
+    * binding to the configured server if not yet done
     */
-   private void setClient(final FTPClient client)
+   String getServerKey()
    {
-      this.client = client;
+      if (this.serverHost == null)
+      {
+         this.serverHost = this.getConnectHost();
+         this.serverPort = this.getConnectPort();
+      }
+      return FtpConnectionPool.getServerKey(this.serverHost, this.serverPort);
    }
 
    /**
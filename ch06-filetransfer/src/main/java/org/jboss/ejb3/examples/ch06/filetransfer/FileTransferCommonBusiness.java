@@ -21,12 +21,15 @@
  */
 package org.jboss.ejb3.examples.ch06.filetransfer;
 
+import java.io.File;
+
 /**
  * Contains the contract for operations common to all
  * business interfaces of the FileTransferEJB.
  * 
  * Includes support for switching present working directories,
- * printing the current working directory, and making directories.
+ * printing the current working directory, making directories,
+ * and sending and receiving files.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -59,6 +62,30 @@ public interface FileTransferCommonBusiness
     */
    String pwd() throws IllegalStateException;
 
+   /**
+    * Sends the specified local file to the specified path on the server, 
+    * blocking until the transfer has completed
+    * 
+    * @param localFile
+    * @param remotePath Relative to the present working directory unless absolute
+    * @return The outcome of the transfer
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer failed
+    */
+   TransferResult upload(File localFile, String remotePath) throws IllegalStateException, FileTransferException;
+
+   /**
+    * Obtains the file at the specified path on the server into the specified local 
+    * file, blocking until the transfer has completed
+    * 
+    * @param remotePath Relative to the present working directory unless absolute
+    * @param localFile
+    * @return The outcome of the transfer
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer failed
+    */
+   TransferResult download(String remotePath, File localFile) throws IllegalStateException, FileTransferException;
+
    /**
     * Denotes that the client is done using this service; flushes
     * any pending operations and does all appropriate cleanup.  If 
@@ -21,12 +21,34 @@
  */
 package org.jboss.ejb3.examples.ch06.filetransfer;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Future;
+
 import javax.ejb.Remove;
 
 /**
  * Local Business interface for the FileTransferEJB.
  * Because this will only be used in EJB environments, we define
  * a method to end the current session.
+ * 
+ * Also exposes asynchronous transfers, which return immediately
+ * with a {@link Future} handle.  Each transfer is carried out upon
+ * a connection of its own, so many transfers may be driven concurrently
+ * from one client Thread; the number in flight at once for a session
+ * is bounded, and those over the limit are queued.  Transfers may be 
+ * cancelled via {@link Future#cancel(boolean)} (passing <code>true</code>),
+ * which takes effect at the next block boundary.
+ * 
+ * Transfers still in flight when the session is passivated are
+ * stopped and checkpointed; they may be resumed after activation,
+ * continuing from the bytes already present at their destination.
+ * 
+ * Batch operations ({@link #mkdirs(String)}, {@link #transferBatch(List, TransferProgressListener)}
+ * and {@link #syncDirectory(File, String, TransferProgressListener)}) send
+ * their control commands pipelined, so that a tree costs a handful of network
+ * round-trips rather than one per directory or file, and report the outcome of
+ * each item rather than failing as a whole.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -42,4 +64,106 @@ public interface FileTransferLocalBusiness extends FileTransferCommonBusiness
     * {@link Remove}
     */
    void endSession();
+
+   /**
+    * Asynchronously sends the specified local file to the specified path on the server
+    * 
+    * @param localFile
+    * @param remotePath Relative to the present working directory unless absolute
+    * @param listener Notified as the transfer progresses; may be null
+    * @return A handle to the pending result
+    * @throws IllegalArgumentException If the file or path is not specified
+    */
+   Future<TransferResult> uploadAsync(File localFile, String remotePath, TransferProgressListener listener)
+         throws IllegalArgumentException;
+
+   /**
+    * Asynchronously obtains the file at the specified path on the server into 
+    * the specified local file
+    * 
+    * @param remotePath Relative to the present working directory unless absolute
+    * @param localFile
+    * @param listener Notified as the transfer progresses; may be null
+    * @return A handle to the pending result
+    * @throws IllegalArgumentException If the file or path is not specified
+    */
+   Future<TransferResult> downloadAsync(String remotePath, File localFile, TransferProgressListener listener)
+         throws IllegalArgumentException;
+
+   /**
+    * Asynchronously carries out all specified transfers, concurrently up to
+    * the session's limit.  The results are reported in request order once 
+    * all have completed; cancelling the returned handle cancels each transfer.
+    * 
+    * @param requests
+    * @param listener Notified as each transfer progresses; may be null
+    * @return A handle to the pending results
+    * @throws IllegalArgumentException If the requests are not specified
+    */
+   Future<List<TransferResult>> transferAsync(List<TransferRequest> requests, TransferProgressListener listener)
+         throws IllegalArgumentException;
+
+   /**
+    * Obtains checkpoints of the transfers which were interrupted by passivation
+    * of this session, and have not since been resumed
+    * 
+    * @return The checkpoints, in no particular order; never null
+    */
+   List<TransferCheckpoint> getInterruptedTransfers();
+
+   /**
+    * Asynchronously resumes all transfers which were interrupted by passivation
+    * of this session, each continuing from the bytes already present at
+    * its destination
+    * 
+    * @param listener Notified as each transfer progresses; may be null
+    * @return A handle to the pending results, in the order of {@link #getInterruptedTransfers()}
+    */
+   Future<List<TransferResult>> resumeInterruptedTransfers(TransferProgressListener listener);
+
+   /**
+    * Makes the specified directory along with any missing parents, in the 
+    * manner of <code>mkdir -p</code>
+    * 
+    * @param directory Relative to the present working directory unless absolute
+    * @return The result for each level which did not already exist above the present
+    *   working directory, parents first
+    * @throws IllegalArgumentException If the directory is not specified
+    * @throws FileTransferException If the directory could not be made
+    */
+   List<BatchItemResult> mkdirs(String directory) throws IllegalArgumentException, FileTransferException;
+
+   /**
+    * Asynchronously carries out all transfers in the specified manifest, concurrently
+    * up to the session's limit.  Missing parent directories of each destination are
+    * made before this method returns.  Unlike {@link #transferAsync(List, TransferProgressListener)},
+    * the failure of one transfer is reported in its result and does not fail the batch.
+    * 
+    * @param manifest
+    * @param listener Notified as each transfer progresses; may be null
+    * @return A handle to the pending results, in manifest order
+    * @throws IllegalArgumentException If the manifest is not specified or contains null
+    * @throws FileTransferException If the connection failed while preparing destinations
+    */
+   Future<List<BatchItemResult>> transferBatch(List<TransferRequest> manifest, TransferProgressListener listener)
+         throws IllegalArgumentException, FileTransferException;
+
+   /**
+    * Asynchronously mirrors the specified local directory tree into the specified
+    * remote directory.  Directories are made, and files unchanged since last sent
+    * (same size, and no newer than the server's copy) are skipped, before this
+    * method returns; the rest are sent concurrently up to the session's limit.
+    * Remote files with no local counterpart are left in place.
+    * 
+    * @param localDirectory
+    * @param remoteDirectory Relative to the present working directory unless absolute
+    * @param listener Notified as each transfer progresses; may be null
+    * @return A handle to the pending results: those for directories, parents first, 
+    *   followed by those for files
+    * @throws IllegalArgumentException If the local directory does not exist, or the remote
+    *   directory is not specified
+    * @throws FileTransferException If the connection failed while preparing the tree
+    */
+   Future<List<BatchItemResult>> syncDirectory(File localDirectory, String remoteDirectory,
+         TransferProgressListener listener) throws IllegalArgumentException, FileTransferException;
 }
@@ -0,0 +1,393 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.logging.Logger;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * VM-wide pool of idle, logged-in FTP connections, keyed by server.
+ * Lets sessions give up their connection upon passivation (or after
+ * a transfer) without logging out, and lets the next session to need one
+ * skip the connect and login round-trips entirely.
+ * 
+ * Idle connections are handed out most-recently-used first, so that
+ * under light load the surplus ages out from the tail; those idle
+ * beyond a threshold are checked with a <code>NOOP</code> before use, 
+ * and those idle too long (or in excess of the per-server limit) are
+ * logged out and disconnected.  When none is idle, a connection is
+ * opened and logged into, needing nothing of the session but the
+ * server, so that transfers may do so upon Threads of their own.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FtpConnectionPool
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FtpConnectionPool.class.getName());
+
+   /**
+    * The maximum number of idle connections retained per server.  In production 
+    * systems would typically be externalized via configurable environment entry.
+    */
+   private static final int MAX_IDLE_PER_SERVER = 16;
+
+   /**
+    * Connections idle longer than this are closed rather than reused, in ms.  Should
+    * be kept under the idle timeout of the server.
+    */
+   private static final long MAX_IDLE_MILLIS = 60 * 1000;
+
+   /**
+    * Connections idle longer than this are validated before being reused, in ms
+    */
+   private static final long VALIDATE_AFTER_IDLE_MILLIS = 5 * 1000;
+
+   /**
+    * The sole instance
+    */
+   private static final FtpConnectionPool INSTANCE = new FtpConnectionPool();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Idle connections by server key, most recently released first
+    */
+   private final ConcurrentMap<String, BlockingDeque<PooledFtpConnection>> idle = new ConcurrentHashMap<String, BlockingDeque<PooledFtpConnection>>();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal constructor; use {@link FtpConnectionPool#getInstance()}
+    */
+   private FtpConnectionPool()
+   {
+
+   }
+
+   /**
+    * Obtains the pool shared by all sessions in this VM
+    */
+   static FtpConnectionPool getInstance()
+   {
+      return INSTANCE;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Takes an idle connection to the specified server from the pool
+    * 
+    * @param serverKey
+    * @return The connection, or null if none is available
+    */
+   PooledFtpConnection borrow(final String serverKey)
+   {
+      final BlockingDeque<PooledFtpConnection> connections = idle.get(serverKey);
+      if (connections == null)
+      {
+         return null;
+      }
+      PooledFtpConnection connection;
+      while ((connection = connections.pollFirst()) != null)
+      {
+         final long idleMillis = System.currentTimeMillis() - connection.getIdleSince();
+         if (idleMillis > MAX_IDLE_MILLIS || !connection.getClient().isConnected())
+         {
+            this.discard(connection);
+            continue;
+         }
+         if (idleMillis > VALIDATE_AFTER_IDLE_MILLIS && !this.isAlive(connection))
+         {
+            this.discard(connection);
+            continue;
+         }
+         log.fine("Reusing pooled connection: " + connection);
+         return connection;
+      }
+      return null;
+   }
+
+   /**
+    * Takes an idle connection to the specified server from the pool, else
+    * opens a new one
+    * 
+    * @param host
+    * @param port
+    * @return The connection, in whichever directory it was last left
+    * @throws FileTransferException If no connection was idle and none could be opened
+    */
+   PooledFtpConnection obtain(final String host, final int port) throws FileTransferException
+   {
+      final PooledFtpConnection connection = this.borrow(getServerKey(host, port));
+      return connection != null ? connection : open(host, port);
+   }
+
+   /**
+    * Returns the specified connection to the pool for reuse; if the pool
+    * is full, the least recently used idle connection is closed in its place
+    * 
+    * @param connection
+    */
+   void release(final PooledFtpConnection connection)
+   {
+      assert connection != null : "connection must be specified";
+      if (!connection.getClient().isConnected())
+      {
+         return;
+      }
+
+      // Get the idle connections for this server, creating if necessary
+      final String serverKey = connection.getServerKey();
+      BlockingDeque<PooledFtpConnection> connections = idle.get(serverKey);
+      if (connections == null)
+      {
+         final BlockingDeque<PooledFtpConnection> created = new LinkedBlockingDeque<PooledFtpConnection>(
+               MAX_IDLE_PER_SERVER);
+         final BlockingDeque<PooledFtpConnection> existing = idle.putIfAbsent(serverKey, created);
+         connections = existing != null ? existing : created;
+      }
+
+      // Put at the head, making room if we must
+      connection.setIdleSince(System.currentTimeMillis());
+      if (!connections.offerFirst(connection))
+      {
+         final PooledFtpConnection evicted = connections.pollLast();
+         if (evicted != null)
+         {
+            this.discard(evicted);
+         }
+         if (!connections.offerFirst(connection))
+         {
+            this.discard(connection);
+            return;
+         }
+      }
+
+      // Age out from the tail
+      PooledFtpConnection oldest;
+      while ((oldest = connections.peekLast()) != null
+            && System.currentTimeMillis() - oldest.getIdleSince() > MAX_IDLE_MILLIS)
+      {
+         if (connections.removeLastOccurrence(oldest))
+         {
+            this.discard(oldest);
+         }
+      }
+   }
+
+   /**
+    * Closes the specified connection, which will not be reused; for instance
+    * because it's in an unknown state following an error or cancellation
+    * 
+    * @param connection
+    */
+   void discard(final PooledFtpConnection connection)
+   {
+      log.fine("Closing connection: " + connection);
+      close(connection.getClient());
+   }
+
+   /**
+    * Closes all idle connections
+    */
+   void clear()
+   {
+      for (final BlockingDeque<PooledFtpConnection> connections : idle.values())
+      {
+         PooledFtpConnection connection;
+         while ((connection = connections.pollFirst()) != null)
+         {
+            this.discard(connection);
+         }
+      }
+   }
+
+   /**
+    * Obtains the number of idle connections held for the specified server
+    */
+   int getIdleCount(final String serverKey)
+   {
+      final BlockingDeque<PooledFtpConnection> connections = idle.get(serverKey);
+      return connections == null ? 0 : connections.size();
+   }
+
+   /**
+    * Obtains the key under which connections to the specified server are pooled
+    */
+   static String getServerKey(final String host, final int port)
+   {
+      return host + ":" + port;
+   }
+
+   /**
+    * Opens a new connection to the specified server eligible for pooling, 
+    * logged in and prepared for binary transfers, noting the directory 
+    * in which the server has placed us
+    * 
+    * @throws FileTransferException If the connection or login failed
+    */
+   static PooledFtpConnection open(final String host, final int port) throws FileTransferException
+   {
+      // Create the client
+      final String serverKey = getServerKey(host, port);
+      final PipeliningFtpClient client = new PipeliningFtpClient();
+      log.fine("Connecting to FTP Server at " + serverKey);
+      try
+      {
+         client.connect(host, port);
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Error in connecting to " + serverKey, ioe);
+      }
+      log.info("Connected to FTP Server at: " + serverKey);
+
+      try
+      {
+         // Check that the connection succeeded
+         checkReply(client);
+
+         // Login
+         client.login("user", "password");
+
+         // Check that the last operation succeeded
+         checkReply(client);
+
+         // Transfer files byte-for-byte, and open data connections from our side
+         client.setFileType(FTP.BINARY_FILE_TYPE);
+         checkReply(client);
+         client.enterLocalPassiveMode();
+      }
+      catch (final Exception e)
+      {
+         close(client);
+         throw new FileTransferException("Could not log in", e);
+      }
+
+      // Note where we've been placed
+      final String home;
+      try
+      {
+         home = client.printWorkingDirectory();
+      }
+      catch (final IOException ioe)
+      {
+         close(client);
+         throw new FileTransferException("Could not determine home directory", ioe);
+      }
+      if (home == null)
+      {
+         close(client);
+         throw new FileTransferException("Could not determine home directory: " + client.getReplyString());
+      }
+      return new PooledFtpConnection(serverKey, client, home);
+   }
+
+   /**
+    * Ensures that the last operation upon the specified client succeeded 
+    * with a positive reply code.  Otherwise a {@link FileTransferException} 
+    * is raised, noting the reply code denoting the error.
+    * 
+    * @throws FileTransferException
+    */
+   static void checkReply(final FTPClient client) throws FileTransferException
+   {
+      final int reply = client.getReplyCode();
+      if (!FTPReply.isPositiveCompletion(reply))
+      {
+         throw new FileTransferException("Did not receive positive completion code from server, instead code was: "
+               + reply);
+      }
+   }
+
+   /**
+    * Logs out of and disconnects the specified client, logging (and otherwise
+    * ignoring) any errors encountered
+    */
+   static void close(final FTPClient client)
+   {
+      if (!client.isConnected())
+      {
+         return;
+      }
+      try
+      {
+         client.logout();
+      }
+      catch (final IOException ioe)
+      {
+         log.warning("Exception encountered in logging out of the FTP client: " + ioe.getMessage());
+      }
+      try
+      {
+         client.disconnect();
+      }
+      catch (final IOException ioe)
+      {
+         log.warning("Exception encountered in disconnecting the FTP client: " + ioe.getMessage());
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Determines whether the server still answers on the specified connection
+    */
+   private boolean isAlive(final PooledFtpConnection connection)
+   {
+      try
+      {
+         return connection.getClient().sendNoOp();
+      }
+      catch (final IOException ioe)
+      {
+         log.fine("Pooled connection " + connection + " is no longer usable: " + ioe.getMessage());
+         return false;
+      }
+   }
+}
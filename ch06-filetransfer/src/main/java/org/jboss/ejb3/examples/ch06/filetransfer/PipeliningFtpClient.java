@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+ * {@link FTPClient} which may send many commands before reading any 
+ * of their replies, so that a run of independent commands (ie. 
+ * <code>MKD</code> for each level of a tree, or <code>SIZE</code> for
+ * each file in a manifest) costs one network round-trip rather
+ * than one apiece.  The server processes the commands in order, 
+ * and so replies arrive in the order the commands were sent.
+ * 
+ * Only commands which do not open a data connection may be pipelined.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class PipeliningFtpClient extends FTPClient
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of commands sent before we stop to read their replies.  Bounds 
+    * the replies the server may have queued for us, so neither side ever blocks 
+    * writing into a full socket buffer while the other is doing the same.
+    */
+   static final int WINDOW_SIZE = 64;
+
+   /**
+    * Line terminator for FTP commands
+    */
+   private static final String CRLF = "\r\n";
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified commands, returning the full reply to each, in order
+    * 
+    * @param commands Complete command lines (ie. "MKD /some/dir"), without terminators
+    * @return The replies, including their reply codes
+    * @throws IOException If the control connection failed, in which case it
+    *   should no longer be used
+    */
+   List<String> pipeline(final List<String> commands) throws IOException
+   {
+      final List<String> replies = new ArrayList<String>(commands.size());
+      for (int start = 0; start < commands.size(); start += WINDOW_SIZE)
+      {
+         final int end = Math.min(commands.size(), start + WINDOW_SIZE);
+
+         // Write the whole window...
+         for (int i = start; i < end; i++)
+         {
+            final String command = commands.get(i);
+            if (command.indexOf('\r') != -1 || command.indexOf('\n') != -1)
+            {
+               throw new IllegalArgumentException("Command may not span lines: " + command);
+            }
+            _controlOutput_.write(command);
+            _controlOutput_.write(CRLF);
+         }
+         _controlOutput_.flush();
+
+         // ...then collect its replies
+         for (int i = start; i < end; i++)
+         {
+            this.getReply();
+            replies.add(this.getReplyString());
+         }
+      }
+      return replies;
+   }
+
+   /**
+    * Obtains the reply code from the specified full reply
+    */
+   static int getReplyCode(final String reply)
+   {
+      try
+      {
+         return Integer.parseInt(reply.substring(0, 3));
+      }
+      catch (final RuntimeException re)
+      {
+         return -1;
+      }
+   }
+
+   /**
+    * Obtains the text following the reply code in the specified full reply
+    */
+   static String getReplyText(final String reply)
+   {
+      return reply.length() > 4 ? reply.substring(4).trim() : "";
+   }
+}
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A connected and logged-in {@link PipeliningFtpClient} which may be handed
+ * between sessions by way of the {@link FtpConnectionPool}.  Tracks
+ * the directory the connection has been changed into so that a 
+ * session attaching to it need only issue a <code>CWD</code> when
+ * its own working directory differs.
+ * 
+ * Not thread-safe; a connection is used by at most one session 
+ * or transfer at a time.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class PooledFtpConnection
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Key (host:port) of the server to which we're connected
+    */
+   private final String serverKey;
+
+   /**
+    * The underlying client
+    */
+   private final PipeliningFtpClient client;
+
+   /**
+    * Absolute path of the directory in which the server placed us upon login
+    */
+   private final String homeDirectory;
+
+   /**
+    * Absolute path of the directory we're presently changed into
+    */
+   private String workingDirectory;
+
+   /**
+    * Time at which the connection was last returned to the pool, in ms since the epoch
+    */
+   private long idleSince;
+
+   /**
+    * Optional commands (or command variants) which the server has told us it does not 
+    * implement, so that we need not ask again over this connection
+    */
+   private final Set<String> unsupportedCommands = new HashSet<String>();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance wrapping the specified client, freshly logged in
+    * and so located in the specified home directory
+    * 
+    * @param serverKey
+    * @param client
+    * @param homeDirectory
+    */
+   PooledFtpConnection(final String serverKey, final PipeliningFtpClient client, final String homeDirectory)
+   {
+      assert serverKey != null : "server key must be specified";
+      assert client != null : "client must be specified";
+      assert homeDirectory != null : "home directory must be specified";
+      this.serverKey = serverKey;
+      this.client = client;
+      this.homeDirectory = homeDirectory;
+      this.workingDirectory = homeDirectory;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether the specified optional command may be supported by the server; 
+    * true unless it's been marked otherwise
+    */
+   boolean isSupported(final String command)
+   {
+      return !unsupportedCommands.contains(command);
+   }
+
+   /**
+    * Marks the specified optional command as not supported by the server
+    */
+   void setUnsupported(final String command)
+   {
+      unsupportedCommands.add(command);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the serverKey
+    */
+   String getServerKey()
+   {
+      return serverKey;
+   }
+
+   /**
+    * @return the client
+    */
+   PipeliningFtpClient getClient()
+   {
+      return client;
+   }
+
+   /**
+    * @return the homeDirectory
+    */
+   String getHomeDirectory()
+   {
+      return homeDirectory;
+   }
+
+   /**
+    * @return the workingDirectory
+    */
+   String getWorkingDirectory()
+   {
+      return workingDirectory;
+   }
+
+   /**
+    * @param workingDirectory the workingDirectory to set
+    */
+   void setWorkingDirectory(final String workingDirectory)
+   {
+      this.workingDirectory = workingDirectory;
+   }
+
+   /**
+    * @return the idleSince
+    */
+   long getIdleSince()
+   {
+      return idleSince;
+   }
+
+   /**
+    * @param idleSince the idleSince to set
+    */
+   void setIdleSince(final long idleSince)
+   {
+      this.idleSince = idleSince;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return serverKey + workingDirectory + " [" + client + "]";
+   }
+}
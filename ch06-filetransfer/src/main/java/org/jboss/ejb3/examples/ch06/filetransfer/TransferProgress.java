@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of the progress of a single transfer, 
+ * passed to a {@link TransferProgressListener}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class TransferProgress implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Value of {@link TransferProgress#getTotalBytes()} if the size is not known
+    */
+   public static final long SIZE_UNKNOWN = -1;
+
+   /**
+    * Nanoseconds in a second
+    */
+   private static final long NANOS_PER_SECOND = 1000L * 1000L * 1000L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The transfer being reported upon
+    */
+   private final TransferRequest request;
+
+   /**
+    * Number of bytes moved so far
+    */
+   private final long bytesTransferred;
+
+   /**
+    * Total number of bytes to be moved, or {@link TransferProgress#SIZE_UNKNOWN}
+    */
+   private final long totalBytes;
+
+   /**
+    * Time elapsed since the transfer began, in nanoseconds
+    */
+   private final long elapsedNanos;
+
+   /**
+    * Whether or not the transfer has completed
+    */
+   private final boolean complete;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new progress snapshot
+    */
+   TransferProgress(final TransferRequest request, final long bytesTransferred, final long totalBytes,
+         final long elapsedNanos, final boolean complete)
+   {
+      this.request = request;
+      this.bytesTransferred = bytesTransferred;
+      this.totalBytes = totalBytes;
+      this.elapsedNanos = elapsedNanos;
+      this.complete = complete;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the average transfer rate so far, in bytes per second
+    */
+   public long getBytesPerSecond()
+   {
+      if (elapsedNanos <= 0)
+      {
+         return 0;
+      }
+      return (long) (bytesTransferred * ((double) NANOS_PER_SECOND / elapsedNanos));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the request
+    */
+   public TransferRequest getRequest()
+   {
+      return request;
+   }
+
+   /**
+    * @return the bytesTransferred
+    */
+   public long getBytesTransferred()
+   {
+      return bytesTransferred;
+   }
+
+   /**
+    * @return the totalBytes, or {@link TransferProgress#SIZE_UNKNOWN}
+    */
+   public long getTotalBytes()
+   {
+      return totalBytes;
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * @return whether the transfer has completed
+    */
+   public boolean isComplete()
+   {
+      return complete;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [request=" + request + ", bytesTransferred=" + bytesTransferred
+            + ", totalBytes=" + totalBytes + ", bytesPerSecond=" + this.getBytesPerSecond() + ", complete="
+            + complete + "]";
+   }
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * Immutable description of a single file to be moved
+ * between the local filesystem and the FTP Server.  Remote
+ * paths which are not absolute are resolved against the
+ * present working directory of the session.
+ * 
+ * The bytes are checksummed as they stream through, by
+ * {@link TransferRequest#DEFAULT_CHECKSUM_ALGORITHM} unless 
+ * another is chosen via {@link TransferRequest#withChecksum(ChecksumAlgorithm)}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class TransferRequest implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Algorithm by which transfers are checksummed unless otherwise requested
+    */
+   public static final ChecksumAlgorithm DEFAULT_CHECKSUM_ALGORITHM = ChecksumAlgorithm.CRC32;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Direction of the transfer
+    */
+   private final TransferDirection direction;
+
+   /**
+    * File on the local filesystem
+    */
+   private final File localFile;
+
+   /**
+    * Path of the file on the server
+    */
+   private final String remotePath;
+
+   /**
+    * Algorithm by which to checksum the bytes moved; null for none
+    */
+   private final ChecksumAlgorithm checksumAlgorithm;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new request; use the static factory methods
+    * 
+    * @throws IllegalArgumentException If any argument is not specified
+    */
+   private TransferRequest(final TransferDirection direction, final File localFile, final String remotePath,
+         final ChecksumAlgorithm checksumAlgorithm) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (direction == null)
+      {
+         throw new IllegalArgumentException("direction must be specified");
+      }
+      if (localFile == null)
+      {
+         throw new IllegalArgumentException("local file must be specified");
+      }
+      if (remotePath == null || remotePath.length() == 0)
+      {
+         throw new IllegalArgumentException("remote path must be specified");
+      }
+
+      // Set
+      this.direction = direction;
+      this.localFile = localFile;
+      this.remotePath = remotePath;
+      this.checksumAlgorithm = checksumAlgorithm;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a request to send the specified local file to the specified remote path
+    * 
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static TransferRequest upload(final File localFile, final String remotePath)
+         throws IllegalArgumentException
+   {
+      return new TransferRequest(TransferDirection.UPLOAD, localFile, remotePath, DEFAULT_CHECKSUM_ALGORITHM);
+   }
+
+   /**
+    * Creates a request to obtain the specified remote path into the specified local file
+    * 
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static TransferRequest download(final String remotePath, final File localFile)
+         throws IllegalArgumentException
+   {
+      return new TransferRequest(TransferDirection.DOWNLOAD, localFile, remotePath, DEFAULT_CHECKSUM_ALGORITHM);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a request for the same transfer, checksummed by the specified
+    * algorithm, or not at all if null
+    */
+   public TransferRequest withChecksum(final ChecksumAlgorithm checksumAlgorithm)
+   {
+      return new TransferRequest(direction, localFile, remotePath, checksumAlgorithm);
+   }
+
+   /**
+    * Obtains a request for the same transfer, to or from the specified remote path
+    */
+   TransferRequest withRemotePath(final String remotePath)
+   {
+      if (this.remotePath.equals(remotePath))
+      {
+         return this;
+      }
+      return new TransferRequest(direction, localFile, remotePath, checksumAlgorithm);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the direction
+    */
+   public TransferDirection getDirection()
+   {
+      return direction;
+   }
+
+   /**
+    * @return the localFile
+    */
+   public File getLocalFile()
+   {
+      return localFile;
+   }
+
+   /**
+    * @return the remotePath
+    */
+   public String getRemotePath()
+   {
+      return remotePath;
+   }
+
+   /**
+    * @return the checksumAlgorithm, or null if the transfer is not to be checksummed
+    */
+   public ChecksumAlgorithm getChecksumAlgorithm()
+   {
+      return checksumAlgorithm;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      final String arrow = direction == TransferDirection.UPLOAD ? " > " : " < ";
+      return localFile.getAbsolutePath() + arrow + remotePath;
+   }
+}
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+
+/**
+ * Immutable outcome of a completed transfer
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class TransferResult implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Nanoseconds in a millisecond
+    */
+   private static final long NANOS_PER_MILLI = 1000L * 1000L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The request which was carried out
+    */
+   private final TransferRequest request;
+
+   /**
+    * Number of bytes moved
+    */
+   private final long bytesTransferred;
+
+   /**
+    * Wall-clock time taken by the transfer, in nanoseconds
+    */
+   private final long elapsedNanos;
+
+   /**
+    * Checksum of the file, in lowercase hexadecimal; null if not computed
+    */
+   private final String checksum;
+
+   /**
+    * Whether the server computed the same checksum over its copy
+    */
+   private final boolean checksumVerified;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new result for a transfer which was not checksummed
+    */
+   TransferResult(final TransferRequest request, final long bytesTransferred, final long elapsedNanos)
+   {
+      this(request, bytesTransferred, elapsedNanos, null, false);
+   }
+
+   /**
+    * Creates a new result
+    * 
+    * @param checksum In lowercase hexadecimal; null if not computed
+    * @param checksumVerified Whether the server computed the same checksum
+    */
+   TransferResult(final TransferRequest request, final long bytesTransferred, final long elapsedNanos,
+         final String checksum, final boolean checksumVerified)
+   {
+      this.request = request;
+      this.bytesTransferred = bytesTransferred;
+      this.elapsedNanos = elapsedNanos;
+      this.checksum = checksum;
+      this.checksumVerified = checksumVerified;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the time taken by the transfer, in milliseconds
+    */
+   public long getElapsedMillis()
+   {
+      return elapsedNanos / NANOS_PER_MILLI;
+   }
+
+   /**
+    * Obtains the average transfer rate, in bytes per second
+    */
+   public long getBytesPerSecond()
+   {
+      return new TransferProgress(request, bytesTransferred, bytesTransferred, elapsedNanos, true)
+            .getBytesPerSecond();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the request
+    */
+   public TransferRequest getRequest()
+   {
+      return request;
+   }
+
+   /**
+    * @return the bytesTransferred
+    */
+   public long getBytesTransferred()
+   {
+      return bytesTransferred;
+   }
+
+   /**
+    * @return the elapsed time in nanoseconds
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * Obtains the checksum of the whole file (including any bytes resumed from)
+    * by the algorithm of the request, in lowercase hexadecimal
+    * 
+    * @return the checksum, or null if not computed
+    */
+   public String getChecksum()
+   {
+      return checksum;
+   }
+
+   /**
+    * Whether the server was able to checksum its copy of the file, and 
+    * obtained the same; if false, the checksum is that of the local
+    * side only.  (A mismatch fails the transfer outright.)
+    * 
+    * @return the checksumVerified
+    */
+   public boolean isChecksumVerified()
+   {
+      return checksumVerified;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [request=" + request + ", bytesTransferred=" + bytesTransferred
+            + ", elapsedMillis=" + this.getElapsedMillis() + ", checksum=" + checksum + ", checksumVerified="
+            + checksumVerified + "]";
+   }
+}
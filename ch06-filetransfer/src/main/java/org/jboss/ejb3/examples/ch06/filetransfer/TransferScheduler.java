@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs the asynchronous transfers of a single session upon Threads shared
+ * by all sessions in this VM, so that the number of transfer Threads is 
+ * bounded however many sessions there are.  Each session may have only 
+ * so many transfers in flight at once (each holds a connection of its own);
+ * those beyond are queued with the session until one of its own completes, 
+ * rather than holding a shared Thread while they wait.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class TransferScheduler
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(TransferScheduler.class.getName());
+
+   /**
+    * The maximum number of Threads carrying out asynchronous transfers for all
+    * sessions in this VM.  In production systems would typically be externalized
+    * via configurable environment entry.
+    */
+   private static final int MAX_TRANSFER_THREADS = 32;
+
+   /**
+    * Time an idle transfer Thread will linger before being released, in seconds
+    */
+   private static final long TRANSFER_THREAD_KEEPALIVE_SECONDS = 30;
+
+   /**
+    * Counter used in naming transfer Threads
+    */
+   private static final AtomicInteger TRANSFER_THREAD_COUNTER = new AtomicInteger();
+
+   /**
+    * Carries out the transfers of all sessions
+    */
+   private static final ExecutorService EXECUTOR;
+   static
+   {
+      final ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_TRANSFER_THREADS, MAX_TRANSFER_THREADS,
+            TRANSFER_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+               @Override
+               public Thread newThread(final Runnable r)
+               {
+                  final Thread thread = new Thread(r, "FileTransfer-" + TRANSFER_THREAD_COUNTER.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      pool.allowCoreThreadTimeOut(true);
+      EXECUTOR = pool;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The most transfers of this session in flight at once
+    */
+   private final int maxInFlight;
+
+   /**
+    * One permit per transfer of this session which may be in flight
+    */
+   private final Semaphore inFlight;
+
+   /**
+    * Transfers submitted but not yet handed to a Thread, in order of submission
+    */
+   private final Queue<FutureTask<?>> queued = new ConcurrentLinkedQueue<FutureTask<?>>();
+
+   /**
+    * Transfers handed to the shared Threads and not yet done
+    */
+   private final Set<Dispatched> running = Collections.newSetFromMap(new ConcurrentHashMap<Dispatched, Boolean>());
+
+   /**
+    * Whether we've been shut down; no further transfers are then run
+    */
+   private volatile boolean shutdown;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance for a single session
+    * 
+    * @param maxInFlight The most transfers of the session in flight at once
+    * @throws IllegalArgumentException If the maximum is not positive
+    */
+   TransferScheduler(final int maxInFlight) throws IllegalArgumentException
+   {
+      if (maxInFlight < 1)
+      {
+         throw new IllegalArgumentException("At least one transfer must be allowed in flight: " + maxInFlight);
+      }
+      this.maxInFlight = maxInFlight;
+      this.inFlight = new Semaphore(maxInFlight);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Runs the specified transfer once fewer than the maximum of this
+    * session's transfers are in flight; if we've been shut down, it's 
+    * cancelled instead
+    */
+   void submit(final FutureTask<?> transfer)
+   {
+      assert transfer != null : "transfer must be specified";
+      queued.add(transfer);
+      if (shutdown)
+      {
+         this.cancelQueued();
+         return;
+      }
+      this.dispatch();
+   }
+
+   /**
+    * Cancels all transfers of this session not yet run, interrupts those 
+    * running (which then fail with the interruption as their cause), and 
+    * waits up to the specified time for those running to wind down (and so 
+    * give back their connections)
+    * 
+    * @return The number of transfers cancelled before they were run
+    * @throws InterruptedException If interrupted while waiting
+    */
+   int shutdown(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      shutdown = true;
+      final int cancelled = this.cancelQueued();
+      for (final Dispatched dispatched : running)
+      {
+         dispatched.stop();
+      }
+
+      // Each running transfer holds a permit until its Thread is done with it
+      if (inFlight.tryAcquire(maxInFlight, timeout, unit))
+      {
+         inFlight.release(maxInFlight);
+      }
+      else
+      {
+         log.warning("Transfers did not stop within " + unit.toMillis(timeout) + "ms");
+      }
+      return cancelled;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Hands queued transfers to the shared Threads for as long as permits remain
+    */
+   private void dispatch()
+   {
+      while (!queued.isEmpty() && inFlight.tryAcquire())
+      {
+         final FutureTask<?> transfer = queued.poll();
+         if (transfer == null)
+         {
+            // Taken by another dispatch in the meantime
+            inFlight.release();
+            continue;
+         }
+         final Dispatched dispatched = new Dispatched(transfer);
+         running.add(dispatched);
+         if (shutdown)
+         {
+            // Either shutdown() sees this as running, or we see it was shut down
+            dispatched.stop();
+         }
+         EXECUTOR.execute(dispatched);
+      }
+   }
+
+   /**
+    * Cancels all transfers not yet handed to a Thread, so no caller waits upon them forever
+    * 
+    * @return The number cancelled
+    */
+   private int cancelQueued()
+   {
+      int cancelled = 0;
+      FutureTask<?> transfer;
+      while ((transfer = queued.poll()) != null)
+      {
+         transfer.cancel(false);
+         cancelled++;
+      }
+      return cancelled;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A transfer handed to the shared Threads; holds one of the session's permits
+    * until done, and may be stopped without disturbing whatever the Thread
+    * running it goes on to run next
+    */
+   private final class Dispatched implements Runnable
+   {
+      private final FutureTask<?> transfer;
+
+      /**
+       * The Thread running the transfer, while it runs; guarded by this
+       */
+      private Thread thread;
+
+      /**
+       * Whether we've been stopped; guarded by this
+       */
+      private boolean stopped;
+
+      Dispatched(final FutureTask<?> transfer)
+      {
+         this.transfer = transfer;
+      }
+
+      /* (non-Javadoc)
+       * @see java.lang.Runnable#run()
+       */
+      @Override
+      public void run()
+      {
+         synchronized (this)
+         {
+            if (stopped)
+            {
+               transfer.cancel(false);
+            }
+            thread = Thread.currentThread();
+         }
+         try
+         {
+            transfer.run();
+         }
+         finally
+         {
+            synchronized (this)
+            {
+               thread = null;
+            }
+            // An interrupt meant for the transfer mustn't carry over to the next upon this Thread
+            Thread.interrupted();
+            running.remove(this);
+            inFlight.release();
+            dispatch();
+         }
+      }
+
+      /**
+       * Interrupts the transfer if running, else ensures it never will run
+       */
+      synchronized void stop()
+      {
+         stopped = true;
+         if (thread != null)
+         {
+            thread.interrupt();
+         }
+      }
+   }
+}
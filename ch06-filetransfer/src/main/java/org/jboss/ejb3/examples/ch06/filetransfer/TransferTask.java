@@ -0,0 +1,571 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * Carries out a single {@link TransferRequest}, streaming the bytes
+ * in blocks so that progress may be reported and cancellation 
+ * (by way of {@link Thread#interrupt()}) honored between blocks.
+ * 
+ * When submitted for asynchronous execution, each task uses a 
+ * connection of its own, as an FTP control connection may only
+ * carry one data transfer at a time.  Such a task is given all it
+ * needs (the server, and a remote path already made absolute) when
+ * created, and so never calls back into the session whose Thread
+ * submitted it; a later change of that session's working directory
+ * has no bearing upon it.  A task may also resume a 
+ * transfer which was interrupted, continuing from the bytes 
+ * already present at the destination.
+ * 
+ * Unless the request says otherwise, the bytes are checksummed as
+ * they pass, by a {@link ChecksumStage} running alongside the transfer;
+ * the checksum is then compared against that computed by the server, 
+ * where the server offers a command to do so.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class TransferTask implements Callable<TransferResult>
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(TransferTask.class.getName());
+
+   /**
+    * Pool of connections shared by all sessions
+    */
+   private static final FtpConnectionPool CONNECTION_POOL = FtpConnectionPool.getInstance();
+
+   /**
+    * Size of the blocks in which we'll move data; progress 
+    * and cancellation are checked once per block
+    */
+   static final int BLOCK_SIZE = 64 * 1024;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Host of the server with which we're transferring
+    */
+   private final String serverHost;
+
+   /**
+    * Port of the server with which we're transferring
+    */
+   private final int serverPort;
+
+   /**
+    * What to transfer, as requested; reported back in progress and results
+    */
+   private final TransferRequest request;
+
+   /**
+    * Path on the server to transfer to or from; absolute unless run upon 
+    * the session's own connection
+    */
+   private final String remotePath;
+
+   /**
+    * Listener to be notified of progress; may be null
+    */
+   private final TransferProgressListener listener;
+
+   /**
+    * Whether to continue from the bytes already present at the destination
+    */
+   private final boolean resume;
+
+   /**
+    * Bytes moved so far, including any resumed from; read by the session
+    * when checkpointing upon passivation
+    */
+   private volatile long bytesTransferred;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new task to or from the path of the request
+    * 
+    * @param serverHost
+    * @param serverPort
+    * @param request
+    * @param listener May be null
+    */
+   TransferTask(final String serverHost, final int serverPort, final TransferRequest request,
+         final TransferProgressListener listener)
+   {
+      this(serverHost, serverPort, request, request.getRemotePath(), listener, false);
+   }
+
+   /**
+    * Creates a new task
+    * 
+    * @param serverHost
+    * @param serverPort
+    * @param request
+    * @param remotePath The path of the request, made absolute if to be run upon a Thread of its own 
+    * @param listener May be null
+    * @param resume Whether to continue from the bytes already present at the destination
+    */
+   TransferTask(final String serverHost, final int serverPort, final TransferRequest request,
+         final String remotePath, final TransferProgressListener listener, final boolean resume)
+   {
+      assert serverHost != null : "server host must be specified";
+      assert request != null : "request must be specified";
+      assert remotePath != null : "remote path must be specified";
+      this.serverHost = serverHost;
+      this.serverPort = serverPort;
+      this.request = request;
+      this.remotePath = remotePath;
+      this.listener = listener;
+      this.resume = resume;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a dedicated connection, performs the transfer, and gives 
+    * the connection back; it's only reused if the transfer completed cleanly.
+    * The remote path must be absolute, as the connection may be in any directory.
+    * 
+    * @see java.util.concurrent.Callable#call()
+    */
+   @Override
+   public TransferResult call() throws FileTransferException
+   {
+      final PooledFtpConnection connection = CONNECTION_POOL.obtain(serverHost, serverPort);
+      boolean reusable = false;
+      try
+      {
+         final TransferResult result = this.execute(connection);
+         reusable = true;
+         return result;
+      }
+      finally
+      {
+         if (reusable)
+         {
+            CONNECTION_POOL.release(connection);
+         }
+         else
+         {
+            CONNECTION_POOL.discard(connection);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Performs the transfer over the specified (connected and logged-in) connection
+    * 
+    * @param connection
+    * @return
+    * @throws FileTransferException If the transfer could not be completed or was cancelled, 
+    *   or the server's checksum of the file differs from ours
+    */
+   TransferResult execute(final PooledFtpConnection connection) throws FileTransferException
+   {
+      final TransferRequest request = this.request;
+      final FTPClient client = connection.getClient();
+      final File localFile = request.getLocalFile();
+      final String remotePath = this.remotePath;
+      final ChecksumAlgorithm algorithm = request.getChecksumAlgorithm();
+      final ChecksumStage stage = algorithm == null ? null : new ChecksumStage(algorithm.newDigest(), BLOCK_SIZE);
+      final long start = System.nanoTime();
+      final long bytes;
+      String checksum = null;
+      boolean checksumVerified = false;
+      try
+      {
+         if (request.getDirection() == TransferDirection.UPLOAD)
+         {
+            // The server's copy is authoritative as to how much arrived
+            final long totalBytes = localFile.length();
+            long offset = resume ? this.getRemoteSize(client, remotePath) : 0;
+            if (offset > totalBytes)
+            {
+               offset = 0;
+            }
+            final InputStream in = new FileInputStream(localFile);
+            try
+            {
+               // The bytes already sent still count toward the checksum
+               if (stage != null)
+               {
+                  this.digestFully(in, offset, stage);
+               }
+               else
+               {
+                  this.skipFully(in, offset);
+               }
+               if (offset > 0)
+               {
+                  client.setRestartOffset(offset);
+               }
+               final OutputStream out = client.storeFileStream(remotePath);
+               if (out == null)
+               {
+                  throw new FileTransferException("Server refused upload to \"" + remotePath + "\": "
+                        + client.getReplyString());
+               }
+               try
+               {
+                  bytes = this.copy(in, out, offset, totalBytes, start, stage);
+               }
+               finally
+               {
+                  out.close();
+               }
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+         else
+         {
+            // Our copy is authoritative as to how much arrived
+            final long offset = resume && localFile.isFile() ? localFile.length() : 0;
+            if (offset > 0)
+            {
+               if (stage != null)
+               {
+                  final InputStream existing = new FileInputStream(localFile);
+                  try
+                  {
+                     this.digestFully(existing, offset, stage);
+                  }
+                  finally
+                  {
+                     existing.close();
+                  }
+               }
+               client.setRestartOffset(offset);
+            }
+            final InputStream in = client.retrieveFileStream(remotePath);
+            if (in == null)
+            {
+               throw new FileTransferException("Server refused download of \"" + remotePath + "\": "
+                     + client.getReplyString());
+            }
+            try
+            {
+               final OutputStream out = new FileOutputStream(localFile, offset > 0);
+               try
+               {
+                  bytes = this.copy(in, out, offset, TransferProgress.SIZE_UNKNOWN, start, stage);
+               }
+               finally
+               {
+                  out.close();
+               }
+            }
+            finally
+            {
+               in.close();
+            }
+         }
+
+         // Read the final reply for the data transfer
+         if (!client.completePendingCommand())
+         {
+            throw new FileTransferException("Transfer " + request + " did not complete: " + client.getReplyString());
+         }
+
+         // The digest has typically caught up by now; check it against the server's
+         if (stage != null)
+         {
+            checksum = ChecksumAlgorithm.toHex(stage.finish());
+            checksumVerified = this.verifyChecksum(connection, algorithm, checksum);
+         }
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Could not transfer " + request, ioe);
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new FileTransferException("Transfer cancelled: " + request, ie);
+      }
+      finally
+      {
+         if (stage != null)
+         {
+            stage.cancel();
+         }
+      }
+
+      // Report completion
+      final long elapsed = System.nanoTime() - start;
+      this.notifyListener(new TransferProgress(request, bytes, bytes, elapsed, true));
+      final TransferResult result = new TransferResult(request, bytes, elapsed, checksum, checksumVerified);
+      log.info("Transferred: " + result);
+      return result;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the request
+    */
+   TransferRequest getRequest()
+   {
+      return request;
+   }
+
+   /**
+    * @return the remotePath
+    */
+   String getRemotePath()
+   {
+      return remotePath;
+   }
+
+   /**
+    * @return the bytesTransferred
+    */
+   long getBytesTransferred()
+   {
+      return bytesTransferred;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Copies all bytes from the specified input to output, reporting progress
+    * after each block, and handing each block to the checksum stage (if any) 
+    * once written
+    * 
+    * @param offset Bytes already present at the destination, counted toward the total
+    * @param stage May be null
+    * @return The number of bytes at the destination, including the offset
+    * @throws FileTransferException If the current Thread has been interrupted (cancelled)
+    */
+   private long copy(final InputStream in, final OutputStream out, final long offset, final long totalBytes,
+         final long start, final ChecksumStage stage) throws IOException, InterruptedException,
+         FileTransferException
+   {
+      final byte[] ownBuffer = stage == null ? new byte[BLOCK_SIZE] : null;
+      long bytes = offset;
+      this.bytesTransferred = bytes;
+      while (true)
+      {
+         final byte[] buffer = stage == null ? ownBuffer : stage.nextBuffer();
+         final int read = in.read(buffer);
+         if (read == -1)
+         {
+            if (stage != null)
+            {
+               stage.discard(buffer);
+            }
+            break;
+         }
+         out.write(buffer, 0, read);
+         if (stage != null)
+         {
+            stage.submit(buffer, read);
+         }
+         bytes += read;
+         this.bytesTransferred = bytes;
+
+         // Honor cancellation between blocks
+         if (Thread.currentThread().isInterrupted())
+         {
+            throw new FileTransferException("Transfer cancelled after " + bytes + " bytes: " + request);
+         }
+
+         this.notifyListener(new TransferProgress(request, bytes, totalBytes, System.nanoTime() - start, false));
+      }
+      return bytes;
+   }
+
+   /**
+    * Obtains the size of the specified file on the server, or 0 if 
+    * it does not exist or the server won't say
+    */
+   private long getRemoteSize(final FTPClient client, final String remotePath) throws IOException
+   {
+      if (client.sendCommand("SIZE", remotePath) != FTPReply.FILE_STATUS)
+      {
+         return 0;
+      }
+      // Reply is of form "213 <size>"
+      final StringTokenizer tokens = new StringTokenizer(client.getReplyString());
+      tokens.nextToken();
+      try
+      {
+         return Long.parseLong(tokens.nextToken().trim());
+      }
+      catch (final RuntimeException re)
+      {
+         log.warning("Could not parse size of \"" + remotePath + "\" from: " + client.getReplyString());
+         return 0;
+      }
+   }
+
+   /**
+    * Checksums the local copy of the file against that reported by the server, 
+    * trying each of the algorithm's verification commands the server hasn't already 
+    * refused over this connection
+    * 
+    * @return true if the server's checksum matched, false if it couldn't provide one
+    * @throws FileTransferException If the server's checksum differs from ours
+    */
+   private boolean verifyChecksum(final PooledFtpConnection connection, final ChecksumAlgorithm algorithm,
+         final String checksum) throws IOException, FileTransferException
+   {
+      final FTPClient client = connection.getClient();
+      final String remotePath = this.remotePath;
+      for (final String command : algorithm.getVerificationCommands())
+      {
+         // HASH is supported (or not) per algorithm, which is first selected with OPTS
+         final boolean hash = ChecksumAlgorithm.COMMAND_HASH.equals(command);
+         final String feature = hash ? command + " " + algorithm.getAlgorithmName() : command;
+         if (!connection.isSupported(feature))
+         {
+            continue;
+         }
+         if (hash && !FTPReply.isPositiveCompletion(client.sendCommand("OPTS", feature)))
+         {
+            connection.setUnsupported(feature);
+            continue;
+         }
+
+         final int reply = client.sendCommand(command, remotePath);
+         if (!FTPReply.isPositiveCompletion(reply))
+         {
+            if (reply == FTPReply.UNRECOGNIZED_COMMAND || reply == FTPReply.COMMAND_NOT_IMPLEMENTED
+                  || reply == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER)
+            {
+               connection.setUnsupported(feature);
+            }
+            continue;
+         }
+         final String serverChecksum = algorithm.parseChecksum(client.getReplyString());
+         if (serverChecksum == null)
+         {
+            log.warning("Could not parse " + algorithm + " checksum of \"" + remotePath + "\" from: "
+                  + client.getReplyString());
+            continue;
+         }
+         if (!serverChecksum.equals(checksum))
+         {
+            throw new FileTransferException(algorithm + " checksum mismatch for " + request + ": local " + checksum
+                  + ", server " + serverChecksum);
+         }
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Reads exactly the specified number of bytes from the stream into the checksum
+    * stage; used for bytes already present at the destination when resuming
+    */
+   private void digestFully(final InputStream in, final long count, final ChecksumStage stage) throws IOException,
+         InterruptedException
+   {
+      long remaining = count;
+      while (remaining > 0)
+      {
+         final byte[] buffer = stage.nextBuffer();
+         final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+         if (read <= 0)
+         {
+            stage.discard(buffer);
+            throw new IOException("Could not read to offset " + count + " of " + request.getLocalFile());
+         }
+         stage.submit(buffer, read);
+         remaining -= read;
+      }
+   }
+
+   /**
+    * Skips exactly the specified number of bytes from the stream
+    */
+   private void skipFully(final InputStream in, final long count) throws IOException
+   {
+      long remaining = count;
+      while (remaining > 0)
+      {
+         final long skipped = in.skip(remaining);
+         if (skipped <= 0)
+         {
+            throw new IOException("Could not skip to offset " + count + " of " + request.getLocalFile());
+         }
+         remaining -= skipped;
+      }
+   }
+
+   /**
+    * Notifies the listener, if any, of the specified progress.  Exceptions
+    * raised by the listener are logged and otherwise ignored so they don't fail the transfer.
+    */
+   private void notifyListener(final TransferProgress progress)
+   {
+      final TransferProgressListener listener = this.listener;
+      if (listener == null)
+      {
+         return;
+      }
+      try
+      {
+         listener.transferProgressed(progress);
+      }
+      catch (final RuntimeException re)
+      {
+         log.warning("Listener " + listener + " failed on " + progress + ": " + re);
+      }
+   }
+}
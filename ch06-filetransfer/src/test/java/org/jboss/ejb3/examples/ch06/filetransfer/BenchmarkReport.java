@@ -0,0 +1,226 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Gathers the results of a benchmark run into named sections, and renders 
+ * them as JSON so that runs may be compared by tooling.  Section values
+ * may be {@link Map}s (rendered as objects), {@link Collection}s (arrays),
+ * {@link Number}s, {@link Boolean}s or anything else (rendered via 
+ * {@link Object#toString()} as a string).
+ * 
+ * Each report is stamped with the environment in which it was made, as 
+ * results are only comparable between runs made alike.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class BenchmarkReport
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Indentation per level of nesting
+    */
+   private static final String INDENT = "  ";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sections of the report, in the order added
+    */
+   private final Map<String, Object> sections = new LinkedHashMap<String, Object>();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new report, stamped with the current environment
+    * 
+    * @param name Name of the benchmark suite
+    */
+   BenchmarkReport(final String name)
+   {
+      final Map<String, Object> environment = new LinkedHashMap<String, Object>();
+      environment.put("suite", name);
+      environment.put("timestamp", String.format("%tFT%<tT%<tz", new Date()));
+      environment.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+      environment.put("maxMemoryBytes", Runtime.getRuntime().maxMemory());
+      environment.put("javaVersion", System.getProperty("java.version"));
+      environment.put("javaVm", System.getProperty("java.vm.name"));
+      environment.put("osName", System.getProperty("os.name"));
+      environment.put("osArch", System.getProperty("os.arch"));
+      sections.put("environment", environment);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Adds (or replaces) the specified section
+    */
+   synchronized void put(final String section, final Object value)
+   {
+      sections.put(section, value);
+   }
+
+   /**
+    * Renders the report as JSON
+    */
+   synchronized String toJson()
+   {
+      final StringBuilder json = new StringBuilder();
+      render(sections, json, "");
+      return json.append('\n').toString();
+   }
+
+   /**
+    * Writes the report as JSON (UTF-8) to the specified file, creating 
+    * parent directories as needed
+    */
+   void writeTo(final File file) throws IOException
+   {
+      final File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+      {
+         throw new IOException("Could not create " + parent);
+      }
+      final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      try
+      {
+         out.write(this.toJson());
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static void render(final Object value, final StringBuilder json, final String indent)
+   {
+      if (value instanceof Map<?, ?>)
+      {
+         final Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+         json.append('{');
+         while (entries.hasNext())
+         {
+            final Map.Entry<?, ?> entry = entries.next();
+            json.append('\n').append(indent).append(INDENT);
+            quote(String.valueOf(entry.getKey()), json);
+            json.append(": ");
+            render(entry.getValue(), json, indent + INDENT);
+            if (entries.hasNext())
+            {
+               json.append(',');
+            }
+         }
+         json.append('\n').append(indent).append('}');
+      }
+      else if (value instanceof Collection<?>)
+      {
+         final Iterator<?> elements = ((Collection<?>) value).iterator();
+         json.append('[');
+         while (elements.hasNext())
+         {
+            json.append('\n').append(indent).append(INDENT);
+            render(elements.next(), json, indent + INDENT);
+            if (elements.hasNext())
+            {
+               json.append(',');
+            }
+         }
+         json.append('\n').append(indent).append(']');
+      }
+      else if (value == null)
+      {
+         json.append("null");
+      }
+      else if (value instanceof Number || value instanceof Boolean)
+      {
+         json.append(value);
+      }
+      else
+      {
+         quote(value.toString(), json);
+      }
+   }
+
+   private static void quote(final String value, final StringBuilder json)
+   {
+      json.append('"');
+      for (int i = 0; i < value.length(); i++)
+      {
+         final char c = value.charAt(i);
+         switch (c)
+         {
+            case '"' :
+               json.append("\\\"");
+               break;
+            case '\\' :
+               json.append("\\\\");
+               break;
+            case '\n' :
+               json.append("\\n");
+               break;
+            case '\r' :
+               json.append("\\r");
+               break;
+            case '\t' :
+               json.append("\\t");
+               break;
+            default :
+               if (c < 0x20)
+               {
+                  json.append(String.format("\\u%04x", (int) c));
+               }
+               else
+               {
+                  json.append(c);
+               }
+         }
+      }
+      json.append('"');
+   }
+}
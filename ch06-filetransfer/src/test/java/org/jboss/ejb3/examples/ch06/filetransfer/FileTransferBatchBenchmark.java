@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures synchronization of a directory tree onto the server
+ * by way of {@link FileTransferLocalBusiness#syncDirectory(File, String, TransferProgressListener)},
+ * against both the same tree sent one command at a time (a <code>mkdir</code> 
+ * per level and an <code>upload</code> per file) and the pure data-transfer
+ * time (all of its bytes sent as a single file).
+ * 
+ * Not run as part of the default build; invoke directly, ie.
+ * <code>mvn test -Dtest=FileTransferBatchBenchmark</code>.  The shape
+ * of the tree may be set via system properties 
+ * {@link FileTransferBatchBenchmark#SYS_PROP_FILES_PER_DIRECTORY} and
+ * {@link FileTransferBatchBenchmark#SYS_PROP_FILE_SIZE}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FileTransferBatchBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FileTransferBatchBenchmark.class.getName());
+
+   /**
+    * Number of directories in the tree, each nested two deep
+    */
+   private static final int NUM_DIRECTORIES = 20;
+
+   /**
+    * Name of the system property denoting the number of files in each directory
+    */
+   public static final String SYS_PROP_FILES_PER_DIRECTORY = "benchmark.filesPerDirectory";
+
+   /**
+    * Name of the system property denoting the size of each file, in bytes
+    */
+   public static final String SYS_PROP_FILE_SIZE = "benchmark.fileSize";
+
+   /**
+    * Number of files in each directory
+    */
+   private static final int FILES_PER_DIRECTORY = Integer.getInteger(SYS_PROP_FILES_PER_DIRECTORY, 10);
+
+   /**
+    * Size of each file, in bytes
+    */
+   private static final int FILE_SIZE = Integer.getInteger(SYS_PROP_FILE_SIZE, 16 * 1024);
+
+   /**
+    * Number of times each approach is run; the median is reported
+    */
+   private static final int RUNS = 7;
+
+   /**
+    * Port to which the FTP Service will bind
+    */
+   private static final int FTP_SERVICE_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   /**
+    * The FTP Service to which we'll connect
+    */
+   private static FtpServerPojo ftpService;
+
+   /**
+    * Scratch directory holding both the local tree and the remote copies
+    */
+   private static File workDirectory;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates and starts the FTP Service, and makes the local tree
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      // Per-command logging by the server would otherwise dominate what we measure
+      Logger.getLogger("org.apache.ftpserver").setLevel(Level.WARNING);
+      Logger.getLogger("org.apache.mina").setLevel(Level.WARNING);
+
+      final FtpServerPojo service = new FtpServerPojo();
+      service.setBindPort(FTP_SERVICE_BIND_PORT);
+      service.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+      service.initializeServer();
+      service.startServer();
+      ftpService = service;
+
+      workDirectory = new File(System.getProperty("java.io.tmpdir"), "ejb31_ch06-batch-benchmark")
+            .getCanonicalFile();
+      deleteRecursive(workDirectory);
+      final Random random = new Random(1);
+      final byte[] contents = new byte[FILE_SIZE];
+      for (int d = 0; d < NUM_DIRECTORIES; d++)
+      {
+         final File directory = new File(workDirectory, "tree/group" + (d % 4) + "/dir" + d);
+         TestCase.assertTrue(directory.mkdirs());
+         for (int f = 0; f < FILES_PER_DIRECTORY; f++)
+         {
+            random.nextBytes(contents);
+            write(new File(directory, "file" + f + ".bin"), contents);
+         }
+      }
+      write(new File(workDirectory, "all.bin"), new byte[NUM_DIRECTORIES * FILES_PER_DIRECTORY * FILE_SIZE]);
+   }
+
+   /**
+    * Removes the scratch directory, closes pooled connections and stops the FTP Service
+    */
+   @AfterClass
+   public static void cleanup() throws Exception
+   {
+      if (workDirectory != null)
+      {
+         deleteRecursive(workDirectory);
+      }
+      FtpConnectionPool.getInstance().clear();
+      if (ftpService != null)
+      {
+         ftpService.stopServer();
+         ftpService = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Compares the approaches
+    */
+   @Test
+   public void treeSynchronization() throws Exception
+   {
+      final FileTransferBean session = new FileTransferBean();
+      session.connect();
+      try
+      {
+         session.cd(workDirectory.getAbsolutePath());
+         final File tree = new File(workDirectory, "tree");
+         final long[] pureData = new long[RUNS];
+         final long[] oneByOne = new long[RUNS];
+         final long[] sync = new long[RUNS];
+         final long[] resync = new long[RUNS];
+         for (int run = 0; run < RUNS; run++)
+         {
+            // All bytes as one file
+            long start = System.nanoTime();
+            session.upload(new File(workDirectory, "all.bin"), "remote-all-" + run + ".bin");
+            pureData[run] = System.nanoTime() - start;
+
+            // One command at a time
+            start = System.nanoTime();
+            this.sendOneByOne(session, tree, "remote-single-" + run);
+            oneByOne[run] = System.nanoTime() - start;
+
+            // Sync onto an empty destination, then again with nothing changed
+            start = System.nanoTime();
+            final List<BatchItemResult> results = session.syncDirectory(tree, "remote-sync-" + run, null).get(60,
+                  TimeUnit.SECONDS);
+            sync[run] = System.nanoTime() - start;
+            for (final BatchItemResult result : results)
+            {
+               TestCase.assertTrue(result.toString(), result.isSucceeded());
+            }
+            start = System.nanoTime();
+            session.syncDirectory(tree, "remote-sync-" + run, null).get(60, TimeUnit.SECONDS);
+            resync[run] = System.nanoTime() - start;
+         }
+
+         final long pureDataMedian = median(pureData);
+         final String summary = String.format("files=%d bytes=%d pureData=%.1fms oneByOne=%.1fms (%.1fx) "
+               + "sync=%.1fms (%.1fx) resyncUnchanged=%.1fms", NUM_DIRECTORIES * FILES_PER_DIRECTORY,
+               NUM_DIRECTORIES * FILES_PER_DIRECTORY * FILE_SIZE, pureDataMedian / 1e6, median(oneByOne) / 1e6,
+               (double) median(oneByOne) / pureDataMedian, median(sync) / 1e6, (double) median(sync)
+                     / pureDataMedian, median(resync) / 1e6);
+         log.info(summary);
+         System.out.println(summary);
+      }
+      finally
+      {
+         session.disconnect();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified tree with one blocking command per directory and file
+    */
+   private void sendOneByOne(final FileTransferBean session, final File localDirectory, final String remoteDirectory)
+   {
+      session.mkdir(remoteDirectory);
+      final File[] children = localDirectory.listFiles();
+      Arrays.sort(children);
+      for (final File child : children)
+      {
+         final String remotePath = remoteDirectory + "/" + child.getName();
+         if (child.isDirectory())
+         {
+            this.sendOneByOne(session, child, remotePath);
+         }
+         else
+         {
+            session.upload(child, remotePath);
+         }
+      }
+   }
+
+   private static long median(final long[] values)
+   {
+      final long[] sorted = values.clone();
+      Arrays.sort(sorted);
+      return sorted[sorted.length / 2];
+   }
+
+   private static void write(final File file, final byte[] contents) throws Exception
+   {
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   private static void deleteRecursive(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            deleteRecursive(child);
+         }
+      }
+      file.delete();
+   }
+}
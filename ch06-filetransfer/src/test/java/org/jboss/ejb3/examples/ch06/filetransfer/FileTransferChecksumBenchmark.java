@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the cost of checksumming transfers as they stream, for each
+ * {@link ChecksumAlgorithm}, against transfers which are not checksummed 
+ * at all.  Also reports the time taken to digest the same bytes alone,
+ * in memory; where the checksum stage overlaps the transfer (given a spare 
+ * CPU), a checksummed transfer should take about the greater of the two 
+ * rather than their sum.
+ * 
+ * Not run as part of the default build; invoke directly, ie.
+ * <code>mvn test -Dtest=FileTransferChecksumBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FileTransferChecksumBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FileTransferChecksumBenchmark.class.getName());
+
+   /**
+    * Size of the file transferred, in bytes
+    */
+   private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+   /**
+    * Number of times each transfer is run; the median is reported
+    */
+   private static final int RUNS = 5;
+
+   /**
+    * Port to which the FTP Service will bind
+    */
+   private static final int FTP_SERVICE_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   /**
+    * The FTP Service to which we'll connect
+    */
+   private static FtpServerPojo ftpService;
+
+   /**
+    * Scratch directory holding both the local file and the remote copies
+    */
+   private static File workDirectory;
+
+   /**
+    * Contents of the file transferred
+    */
+   private static byte[] contents;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates and starts the FTP Service, and makes the local file
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      // Per-command logging by the server would otherwise add to what we measure
+      Logger.getLogger("org.apache.ftpserver").setLevel(Level.WARNING);
+      Logger.getLogger("org.apache.mina").setLevel(Level.WARNING);
+
+      final FtpServerPojo service = new FtpServerPojo();
+      service.setBindPort(FTP_SERVICE_BIND_PORT);
+      service.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+      service.initializeServer();
+      service.startServer();
+      ftpService = service;
+
+      workDirectory = new File(System.getProperty("java.io.tmpdir"), "ejb31_ch06-checksum-benchmark")
+            .getCanonicalFile();
+      deleteRecursive(workDirectory);
+      TestCase.assertTrue(workDirectory.mkdirs());
+      contents = new byte[FILE_SIZE];
+      new Random(1).nextBytes(contents);
+      final OutputStream out = new FileOutputStream(new File(workDirectory, "original.bin"));
+      try
+      {
+         out.write(contents);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Removes the scratch directory, closes pooled connections and stops the FTP Service
+    */
+   @AfterClass
+   public static void cleanup() throws Exception
+   {
+      if (workDirectory != null)
+      {
+         deleteRecursive(workDirectory);
+      }
+      contents = null;
+      FtpConnectionPool.getInstance().clear();
+      if (ftpService != null)
+      {
+         ftpService.stopServer();
+         ftpService = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Compares the algorithms
+    */
+   @Test
+   public void checksummedTransfers() throws Exception
+   {
+      final FileTransferBean session = new FileTransferBean();
+      session.connect();
+      try
+      {
+         session.cd(workDirectory.getAbsolutePath());
+         final File original = new File(workDirectory, "original.bin");
+         final File downloaded = new File(workDirectory, "downloaded.bin");
+         final ChecksumAlgorithm[] algorithms = new ChecksumAlgorithm[]
+         {null, ChecksumAlgorithm.CRC32, ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA_256};
+         final StringBuilder summary = new StringBuilder("bytes=" + FILE_SIZE + " cpus="
+               + Runtime.getRuntime().availableProcessors());
+         for (final ChecksumAlgorithm algorithm : algorithms)
+         {
+            final long[] uploads = new long[RUNS];
+            final long[] downloads = new long[RUNS];
+            final long[] digests = new long[RUNS];
+            for (int run = 0; run < RUNS; run++)
+            {
+               final TransferRequest upload = TransferRequest.upload(original, "uploaded.bin").withChecksum(
+                     algorithm);
+               long start = System.nanoTime();
+               session.transferAsync(Arrays.asList(upload), null).get(60, TimeUnit.SECONDS);
+               uploads[run] = System.nanoTime() - start;
+
+               final TransferRequest download = TransferRequest.download("uploaded.bin", downloaded).withChecksum(
+                     algorithm);
+               start = System.nanoTime();
+               session.transferAsync(Arrays.asList(download), null).get(60, TimeUnit.SECONDS);
+               downloads[run] = System.nanoTime() - start;
+
+               start = System.nanoTime();
+               if (algorithm != null)
+               {
+                  final MessageDigest digest = algorithm.newDigest();
+                  for (int offset = 0; offset < FILE_SIZE; offset += TransferTask.BLOCK_SIZE)
+                  {
+                     digest.update(contents, offset, Math.min(TransferTask.BLOCK_SIZE, FILE_SIZE - offset));
+                  }
+                  digest.digest();
+               }
+               digests[run] = System.nanoTime() - start;
+            }
+            summary.append(String.format(" | %s upload=%.1fms download=%.1fms digestAlone=%.1fms",
+                  algorithm == null ? "NONE" : algorithm.name(), median(uploads) / 1e6, median(downloads) / 1e6,
+                  median(digests) / 1e6));
+         }
+         log.info(summary.toString());
+         System.out.println(summary);
+      }
+      finally
+      {
+         session.disconnect();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static long median(final long[] values)
+   {
+      final long[] sorted = values.clone();
+      Arrays.sort(sorted);
+      return sorted[sorted.length / 2];
+   }
+
+   private static void deleteRecursive(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            deleteRecursive(child);
+         }
+      }
+      file.delete();
+   }
+}
@@ -0,0 +1,275 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.ejb.PostActivate;
+import javax.ejb.PrePassivate;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the per-session cost of passivation and activation of the
+ * {@link FileTransferBean}, mocking the container by invoking the
+ * {@link PrePassivate} and {@link PostActivate} callbacks around a 
+ * serialization roundtrip, followed by the first command upon the 
+ * activated session.
+ * 
+ * Two modes are compared:
+ * <ul>
+ *   <li><em>eager</em>: the connection is logged out and disconnected upon 
+ *   passivation, so that first use after activation must connect, log in and 
+ *   change directory anew (as did the bean before connections were pooled)</li>
+ *   <li><em>lazy</em>: the connection is returned to the pool upon passivation,
+ *   and re-attached upon first use</li>
+ * </ul>
+ * 
+ * Not run as part of the default build; invoke directly, ie.
+ * <code>mvn test -Dtest=FileTransferPassivationBenchmark</code>.  The number
+ * of sessions measured may be set via system property 
+ * {@link FileTransferPassivationBenchmark#SYS_PROP_SESSIONS}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FileTransferPassivationBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FileTransferPassivationBenchmark.class.getName());
+
+   /**
+    * Name of the system property denoting the number of sessions to measure
+    */
+   public static final String SYS_PROP_SESSIONS = "benchmark.sessions";
+
+   /**
+    * Number of sessions run (and discarded) before measurement begins
+    */
+   private static final int WARMUP_SESSIONS = 100;
+
+   /**
+    * Port to which the FTP Service will bind
+    */
+   private static final int FTP_SERVICE_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   /**
+    * The FTP Service to which we'll connect
+    */
+   private static FtpServerPojo ftpService;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates and starts the FTP Service
+    */
+   @BeforeClass
+   public static void createFtpService() throws Exception
+   {
+      final FtpServerPojo service = new FtpServerPojo();
+      service.setBindPort(FTP_SERVICE_BIND_PORT);
+      service.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+      service.initializeServer();
+      service.startServer();
+      ftpService = service;
+   }
+
+   /**
+    * Closes any pooled connections and stops the FTP Service
+    */
+   @AfterClass
+   public static void destroyFtpService() throws Exception
+   {
+      FtpConnectionPool.getInstance().clear();
+      if (ftpService != null)
+      {
+         ftpService.stopServer();
+         ftpService = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Measures passivation and activation in both eager and lazy modes
+    */
+   @Test
+   public void passivationAndActivation() throws Exception
+   {
+      final int sessions = Integer.getInteger(SYS_PROP_SESSIONS, 1000);
+      final String directory = new File(System.getProperty("java.io.tmpdir")).getCanonicalPath();
+
+      // Warm up both paths, then measure
+      for (final boolean eager : new boolean[]
+      {true, false})
+      {
+         this.run(eager, WARMUP_SESSIONS, directory);
+      }
+      for (final boolean eager : new boolean[]
+      {true, false})
+      {
+         final Result result = this.run(eager, sessions, directory);
+         log.info(result.toString());
+         System.out.println(result);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Takes the specified number of sessions through passivation, activation and
+    * first use, timing each phase
+    */
+   private Result run(final boolean eager, final int sessions, final String directory) throws Exception
+   {
+      final FtpConnectionPool pool = FtpConnectionPool.getInstance();
+      final long[] passivateNanos = new long[sessions];
+      final long[] activateNanos = new long[sessions];
+      final long[] firstUseNanos = new long[sessions];
+      long stateBytes = 0;
+      for (int i = 0; i < sessions; i++)
+      {
+         // Set up a session in use
+         final FileTransferBean session = new FileTransferBean();
+         session.connect();
+         session.cd(directory);
+
+         // @PrePassivate and serialize
+         final long passivateStart = System.nanoTime();
+         session.passivate();
+         if (eager)
+         {
+            pool.clear();
+         }
+         final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         final ObjectOutputStream out = new ObjectOutputStream(bytes);
+         out.writeObject(session);
+         out.close();
+         passivateNanos[i] = System.nanoTime() - passivateStart;
+         stateBytes = bytes.size();
+
+         // Deserialize and @PostActivate
+         final long activateStart = System.nanoTime();
+         final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+         final FileTransferBean activated = (FileTransferBean) in.readObject();
+         in.close();
+         activated.activate();
+         activateNanos[i] = System.nanoTime() - activateStart;
+
+         // First command
+         final long firstUseStart = System.nanoTime();
+         activated.cd(directory);
+         firstUseNanos[i] = System.nanoTime() - firstUseStart;
+
+         activated.disconnect();
+      }
+      return new Result(eager ? "eager" : "lazy", sessions, stateBytes, passivateNanos, activateNanos, firstUseNanos);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Timings of one run
+    */
+   private static final class Result
+   {
+      private final String mode;
+
+      private final int sessions;
+
+      private final long stateBytes;
+
+      private final long[] passivateNanos;
+
+      private final long[] activateNanos;
+
+      private final long[] firstUseNanos;
+
+      Result(final String mode, final int sessions, final long stateBytes, final long[] passivateNanos,
+            final long[] activateNanos, final long[] firstUseNanos)
+      {
+         this.mode = mode;
+         this.sessions = sessions;
+         this.stateBytes = stateBytes;
+         this.passivateNanos = passivateNanos;
+         this.activateNanos = activateNanos;
+         this.firstUseNanos = firstUseNanos;
+      }
+
+      /**
+       * Summarizes the specified timings as mean/p50/p99, in microseconds
+       */
+      private static String summarize(final long[] nanos)
+      {
+         final long[] sorted = nanos.clone();
+         Arrays.sort(sorted);
+         long total = 0;
+         for (final long n : sorted)
+         {
+            total += n;
+         }
+         final long mean = total / sorted.length;
+         final long p50 = sorted[(int) (sorted.length * 0.50)];
+         final long p99 = sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))];
+         return String.format("mean=%dus p50=%dus p99=%dus", mean / 1000, p50 / 1000, p99 / 1000);
+      }
+
+      /**
+       * {@inheritDoc}
+       * @see java.lang.Object#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "[" + mode + "] sessions=" + sessions + " state=" + stateBytes + "B passivate={"
+               + summarize(passivateNanos) + "} activate={" + summarize(activateNanos) + "} firstUse={"
+               + summarize(firstUseNanos) + "}";
+      }
+   }
+}
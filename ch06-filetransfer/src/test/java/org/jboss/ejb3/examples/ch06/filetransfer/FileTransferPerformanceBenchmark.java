@@ -0,0 +1,474 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Repeatable performance suite for the {@link FileTransferBean}, run 
+ * against the embedded {@link FtpServerPojo} over loopback.  Measures:
+ * 
+ * <ul>
+ *   <li>Session setup: creating a session and completing its first command, 
+ *   both with a cold connection pool (connect and login) and a warm one</li>
+ *   <li>Per-command latency of <code>cd</code>, <code>mkdir</code> and <code>pwd</code></li>
+ *   <li>Transfer throughput and per-transfer latency, in each direction, across 
+ *   {@link FileTransferPerformanceBenchmark#FILE_SIZES} and 
+ *   {@link FileTransferPerformanceBenchmark#CONCURRENCY_LEVELS} (one session per
+ *   concurrent client)</li>
+ * </ul>
+ * 
+ * Latencies are reported as percentiles, and the whole run is written as JSON
+ * to the file named by system property {@link FileTransferPerformanceBenchmark#SYS_PROP_RESULTS_FILE}.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=FileTransferPerformanceBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FileTransferPerformanceBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FileTransferPerformanceBenchmark.class.getName());
+
+   /**
+    * Name of the system property denoting the file to which results are written
+    */
+   public static final String SYS_PROP_RESULTS_FILE = "benchmark.resultsFile";
+
+   /**
+    * File to which results are written, if not otherwise specified
+    */
+   private static final String DEFAULT_RESULTS_FILE = "target/benchmark/ch06-filetransfer.json";
+
+   /**
+    * Sizes of the files transferred, in bytes
+    */
+   private static final int[] FILE_SIZES = new int[]
+   {4 * 1024, 256 * 1024, 4 * 1024 * 1024};
+
+   /**
+    * Numbers of sessions transferring at once
+    */
+   private static final int[] CONCURRENCY_LEVELS = new int[]
+   {1, 4, 8};
+
+   /**
+    * Bytes each combination of size and concurrency aims to move in each direction; 
+    * sets the number of transfers made, within {@link FileTransferPerformanceBenchmark#MIN_TRANSFERS_PER_SESSION}
+    * and {@link FileTransferPerformanceBenchmark#MAX_TRANSFERS_PER_SESSION}
+    */
+   private static final long TARGET_BYTES = 32 * 1024 * 1024;
+
+   /**
+    * Least number of transfers made by each session, so that percentiles mean something
+    */
+   private static final int MIN_TRANSFERS_PER_SESSION = 4;
+
+   /**
+    * Greatest number of transfers made by each session, so small files don't take all day
+    */
+   private static final int MAX_TRANSFERS_PER_SESSION = 100;
+
+   /**
+    * Number of times each command is run, after warming up
+    */
+   private static final int COMMAND_ITERATIONS = 500;
+
+   /**
+    * Number of sessions set up, after warming up, with the pool cold and warm respectively
+    */
+   private static final int COLD_SESSION_ITERATIONS = 100;
+
+   private static final int WARM_SESSION_ITERATIONS = 500;
+
+   /**
+    * Number of untimed iterations run first, so that we measure steady state
+    */
+   private static final int WARMUP_ITERATIONS = 50;
+
+   /**
+    * Port to which the FTP Service will bind
+    */
+   private static final int FTP_SERVICE_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   /**
+    * The FTP Service to which we'll connect
+    */
+   private static FtpServerPojo ftpService;
+
+   /**
+    * Scratch directory holding both the local files and the remote copies
+    */
+   private static File workDirectory;
+
+   /**
+    * Results of the run
+    */
+   private static BenchmarkReport report;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates and starts the FTP Service, and makes the local files
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      // Per-command logging on either side would otherwise dominate what we measure
+      Logger.getLogger("org.apache.ftpserver").setLevel(Level.WARNING);
+      Logger.getLogger("org.apache.mina").setLevel(Level.WARNING);
+      Logger.getLogger(FileTransferBean.class.getPackage().getName()).setLevel(Level.WARNING);
+
+      final FtpServerPojo service = new FtpServerPojo();
+      service.setBindPort(FTP_SERVICE_BIND_PORT);
+      service.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+      service.initializeServer();
+      service.startServer();
+      ftpService = service;
+
+      workDirectory = new File(System.getProperty("java.io.tmpdir"), "ejb31_ch06-performance-benchmark")
+            .getCanonicalFile();
+      deleteRecursive(workDirectory);
+      TestCase.assertTrue(new File(workDirectory, "remote").mkdirs());
+      final Random random = new Random(1);
+      for (final int size : FILE_SIZES)
+      {
+         final byte[] contents = new byte[size];
+         random.nextBytes(contents);
+         final OutputStream out = new FileOutputStream(getLocalFile(size));
+         try
+         {
+            out.write(contents);
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+
+      report = new BenchmarkReport(FileTransferPerformanceBenchmark.class.getSimpleName());
+   }
+
+   /**
+    * Writes the report, removes the scratch directory, closes pooled 
+    * connections and stops the FTP Service
+    */
+   @AfterClass
+   public static void cleanup() throws Exception
+   {
+      if (report != null)
+      {
+         final File resultsFile = new File(System.getProperty(SYS_PROP_RESULTS_FILE, DEFAULT_RESULTS_FILE));
+         report.writeTo(resultsFile);
+         log.warning("Wrote results to " + resultsFile.getAbsolutePath());
+         System.out.println(report.toJson());
+         report = null;
+      }
+      if (workDirectory != null)
+      {
+         deleteRecursive(workDirectory);
+      }
+      Logger.getLogger(FileTransferBean.class.getPackage().getName()).setLevel(null);
+      FtpConnectionPool.getInstance().clear();
+      if (ftpService != null)
+      {
+         ftpService.stopServer();
+         ftpService = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Measures the time from creating a session until its first command 
+    * completes, with the connection pool both cold and warm
+    */
+   @Test
+   public void sessionSetup() throws Exception
+   {
+      final Map<String, Object> results = new LinkedHashMap<String, Object>();
+      results.put("coldPool", this.measureSessionSetup(COLD_SESSION_ITERATIONS, true).summarize());
+      results.put("warmPool", this.measureSessionSetup(WARM_SESSION_ITERATIONS, false).summarize());
+      report.put("sessionSetup", results);
+   }
+
+   /**
+    * Measures the latency of each command over an established session
+    */
+   @Test
+   public void commandLatency() throws Exception
+   {
+      final File commandDirectory = new File(workDirectory, "remote/commands");
+      TestCase.assertTrue(new File(commandDirectory, "a").mkdirs());
+      TestCase.assertTrue(new File(commandDirectory, "b").mkdirs());
+      final String[] directories = new String[]
+      {new File(commandDirectory, "a").getAbsolutePath(), new File(commandDirectory, "b").getAbsolutePath()};
+
+      final FileTransferBean session = new FileTransferBean();
+      session.connect();
+      try
+      {
+         // cd, alternating between two directories
+         final LatencyRecorder cd = new LatencyRecorder();
+         for (int i = -WARMUP_ITERATIONS; i < COMMAND_ITERATIONS; i++)
+         {
+            final long start = System.nanoTime();
+            session.cd(directories[(i + WARMUP_ITERATIONS) % 2]);
+            record(cd, i, start);
+         }
+
+         // mkdir, a new directory each time
+         final LatencyRecorder mkdir = new LatencyRecorder();
+         for (int i = -WARMUP_ITERATIONS; i < COMMAND_ITERATIONS; i++)
+         {
+            final long start = System.nanoTime();
+            session.mkdir("mkdir" + (i + WARMUP_ITERATIONS));
+            record(mkdir, i, start);
+         }
+
+         // pwd, from the other (empty) directory
+         session.cd(directories[1]);
+         final LatencyRecorder pwd = new LatencyRecorder();
+         for (int i = -WARMUP_ITERATIONS; i < COMMAND_ITERATIONS; i++)
+         {
+            final long start = System.nanoTime();
+            session.pwd();
+            record(pwd, i, start);
+         }
+
+         final Map<String, Object> results = new LinkedHashMap<String, Object>();
+         results.put("cd", cd.summarize());
+         results.put("mkdir", mkdir.summarize());
+         results.put("pwd", pwd.summarize());
+         report.put("commandLatency", results);
+      }
+      finally
+      {
+         session.disconnect();
+      }
+   }
+
+   /**
+    * Measures transfer throughput, and latency per transfer, for each 
+    * combination of direction, file size and concurrency
+    */
+   @Test
+   public void transferThroughput() throws Exception
+   {
+      final List<Object> results = new ArrayList<Object>();
+      for (final int size : FILE_SIZES)
+      {
+         for (final int concurrency : CONCURRENCY_LEVELS)
+         {
+            final long transfersPerSession = Math.max(MIN_TRANSFERS_PER_SESSION, Math.min(
+                  MAX_TRANSFERS_PER_SESSION, TARGET_BYTES / ((long) size * concurrency)));
+            for (final TransferDirection direction : TransferDirection.values())
+            {
+               results.add(this.measureTransfers(direction, size, concurrency, (int) transfersPerSession));
+            }
+         }
+      }
+      report.put("transferThroughput", results);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates sessions and runs a first command on each, recording the time taken
+    * 
+    * @param cold Whether to empty the connection pool before each
+    */
+   private LatencyRecorder measureSessionSetup(final int iterations, final boolean cold)
+   {
+      final String home = workDirectory.getAbsolutePath();
+      final LatencyRecorder recorder = new LatencyRecorder();
+      for (int i = -WARMUP_ITERATIONS; i < iterations; i++)
+      {
+         if (cold)
+         {
+            FtpConnectionPool.getInstance().clear();
+         }
+         final long start = System.nanoTime();
+         final FileTransferBean session = new FileTransferBean();
+         session.connect();
+         session.cd(home);
+         record(recorder, i, start);
+         session.disconnect();
+      }
+      return recorder;
+   }
+
+   /**
+    * Has the specified number of sessions each make the specified number of 
+    * transfers at once, and summarizes the outcome
+    */
+   private Map<String, Object> measureTransfers(final TransferDirection direction, final int size,
+         final int concurrency, final int transfersPerSession) throws Exception
+   {
+      final File localFile = getLocalFile(size);
+      final String remoteDirectory = new File(workDirectory, "remote").getAbsolutePath();
+      final LatencyRecorder recorder = new LatencyRecorder();
+      final CyclicBarrier barrier = new CyclicBarrier(concurrency + 1);
+      final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+      try
+      {
+         // Each client transfers its own file, so there's no contention on the server's copy
+         final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+         for (int c = 0; c < concurrency; c++)
+         {
+            final String remotePath = "client" + c + "-" + size + ".bin";
+            final File downloadedFile = new File(workDirectory, "downloaded-" + remotePath);
+            futures.add(clients.submit(new Callable<Void>()
+            {
+               @Override
+               public Void call() throws Exception
+               {
+                  final FileTransferBean session = new FileTransferBean();
+                  session.connect();
+                  try
+                  {
+                     session.cd(remoteDirectory);
+                     session.upload(localFile, remotePath);
+                     barrier.await();
+                     for (int i = 0; i < transfersPerSession; i++)
+                     {
+                        final long start = System.nanoTime();
+                        if (direction == TransferDirection.UPLOAD)
+                        {
+                           session.upload(localFile, remotePath);
+                        }
+                        else
+                        {
+                           session.download(remotePath, downloadedFile);
+                        }
+                        recorder.record(System.nanoTime() - start);
+                     }
+                     return null;
+                  }
+                  finally
+                  {
+                     session.disconnect();
+                  }
+               }
+            }));
+         }
+
+         // Start all clients at once, and time until the last is done
+         barrier.await();
+         final long start = System.nanoTime();
+         for (final Future<Void> future : futures)
+         {
+            future.get();
+         }
+         final long elapsed = System.nanoTime() - start;
+
+         final long totalBytes = (long) size * concurrency * transfersPerSession;
+         final Map<String, Object> result = new LinkedHashMap<String, Object>();
+         result.put("direction", direction);
+         result.put("fileSizeBytes", size);
+         result.put("concurrency", concurrency);
+         result.put("transfers", recorder.getCount());
+         result.put("totalBytes", totalBytes);
+         result.put("elapsedMillis", Math.round(elapsed / 1e5) / 10.0);
+         result.put("bytesPerSecond", Math.round(totalBytes * 1e9 / elapsed));
+         result.put("transfersPerSecond", Math.round(recorder.getCount() * 1e10 / elapsed) / 10.0);
+         result.put("latency", recorder.summarize());
+         log.warning(direction + " size=" + size + " concurrency=" + concurrency + ": " + result.get("bytesPerSecond")
+               + " B/s");
+         return result;
+      }
+      finally
+      {
+         clients.shutdownNow();
+      }
+   }
+
+   /**
+    * Records the time since the specified start, unless still warming up (negative iteration)
+    */
+   private static void record(final LatencyRecorder recorder, final int iteration, final long start)
+   {
+      final long elapsed = System.nanoTime() - start;
+      if (iteration >= 0)
+      {
+         recorder.record(elapsed);
+      }
+   }
+
+   private static File getLocalFile(final int size)
+   {
+      return new File(workDirectory, "local-" + size + ".bin");
+   }
+
+   private static void deleteRecursive(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            deleteRecursive(child);
+         }
+      }
+      file.delete();
+   }
+}
@@ -22,6 +22,12 @@
 package org.jboss.ejb3.examples.ch06.filetransfer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
@@ -153,6 +159,39 @@ public abstract class FileTransferTestCaseBase
             pwdAfter);
    }
 
+   /**
+    * Tests that a file may be sent to the server and obtained back again
+    * intact
+    */
+   @Test
+   public void testUploadAndDownload() throws Exception
+   {
+      // Log
+      log.info("testUploadAndDownload");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+
+      // Switch to home
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+
+      // Make a file to send
+      final int size = 300 * 1024;
+      final File original = this.createFile(home, "original.bin", size);
+
+      // Roundtrip
+      final String remoteName = "uploaded.bin";
+      final TransferResult uploaded = client.upload(original, remoteName);
+      TestCase.assertEquals("Upload should report all bytes sent", size, uploaded.getBytesTransferred());
+      final File roundtrip = new File(home, "roundtrip.bin");
+      final TransferResult downloaded = client.download(remoteName, roundtrip);
+      TestCase.assertEquals("Download should report all bytes received", size, downloaded.getBytesTransferred());
+
+      // Ensure contents are intact
+      this.assertSameContents(original, roundtrip);
+   }
+
    //-------------------------------------------------------------------------------------||
    // Contracts --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -200,6 +239,60 @@ public abstract class FileTransferTestCaseBase
       return success;
    }
 
+   /**
+    * Creates a file of the specified size in the specified directory, filled with
+    * pseudorandom contents
+    */
+   protected File createFile(final File dir, final String name, final int size) throws Exception
+   {
+      final byte[] contents = new byte[size];
+      new Random(name.hashCode()).nextBytes(contents);
+      final File file = new File(dir, name);
+      final OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents);
+      }
+      finally
+      {
+         out.close();
+      }
+      return file;
+   }
+
+   /**
+    * Ensures that the specified files have identical contents
+    */
+   protected void assertSameContents(final File expected, final File actual) throws Exception
+   {
+      TestCase.assertEquals("File sizes differ: " + actual, expected.length(), actual.length());
+      TestCase.assertTrue("File contents differ: " + actual, Arrays.equals(this.readFile(expected), this
+            .readFile(actual)));
+   }
+
+   /**
+    * Reads the full contents of the specified file
+    */
+   private byte[] readFile(final File file) throws Exception
+   {
+      final byte[] contents = new byte[(int) file.length()];
+      final InputStream in = new FileInputStream(file);
+      try
+      {
+         int offset = 0;
+         int read;
+         while (offset < contents.length && (read = in.read(contents, offset, contents.length - offset)) != -1)
+         {
+            offset += read;
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      return contents;
+   }
+
    /**
     * Obtains the writeable home for these tests, set under the namespace of the
     * IO Temp directory
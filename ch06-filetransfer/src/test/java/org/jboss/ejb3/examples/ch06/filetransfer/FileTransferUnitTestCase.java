@@ -23,12 +23,26 @@ package org.jboss.ejb3.examples.ch06.filetransfer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import javax.ejb.PostActivate;
 import javax.ejb.PrePassivate;
@@ -199,7 +213,7 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
       log.info("testPassivationAndActivation");
 
       // Get the client
-      final FileTransferCommonBusiness client = this.getClient();
+      final FileTransferBean client = this.ftpClient;
 
       // Switch to home
       final String home = getFtpHome().getAbsolutePath();
@@ -209,9 +223,483 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
       final String pwdBefore = client.pwd();
       TestCase.assertEquals("Present working directory should be set to home", home, pwdBefore);
 
+      // Get a new client from passivation/activation roundtrip
+      final FileTransferBean serializedClient = this.passivateAndActivate(client);
+      try
+      {
+         // Test the pwd
+         final String pwdAfter = serializedClient.pwd();
+         TestCase.assertEquals("Present working directory should be the same as before passivation/activation",
+               home, pwdAfter);
+      }
+      finally
+      {
+         serializedClient.disconnect();
+      }
+   }
+
+   /**
+    * Ensures that a transfer in flight when the session is passivated
+    * is checkpointed, survives the passivation/activation roundtrip, and 
+    * may be resumed to completion afterward
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testPassivationCheckpointsAndResumesTransfers() throws Exception
+   {
+      // Log
+      log.info("testPassivationCheckpointsAndResumesTransfers");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+      final File original = this.createFile(home, "passivated-original.bin", 4 * 1024 * 1024);
+
+      // Hold the transfer after its first block until we've passivated
+      final CountDownLatch started = new CountDownLatch(1);
+      final TransferProgressListener listener = new TransferProgressListener()
+      {
+         @Override
+         public void transferProgressed(final TransferProgress progress)
+         {
+            started.countDown();
+            try
+            {
+               new CountDownLatch(1).await();
+            }
+            catch (final InterruptedException ie)
+            {
+               // Stopped; restore the flag so the transfer sees it
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+      final Future<TransferResult> future = client.uploadAsync(original, "passivated-uploaded.bin", listener);
+      TestCase.assertTrue("Transfer should have started", started.await(10, TimeUnit.SECONDS));
+
+      // Passivate and activate
+      final FileTransferBean serializedClient = this.passivateAndActivate(client);
+      try
+      {
+         // The original transfer should have been stopped
+         boolean gotExpectedException = false;
+         try
+         {
+            future.get(10, TimeUnit.SECONDS);
+         }
+         catch (final ExecutionException ee)
+         {
+            gotExpectedException = true;
+         }
+         TestCase.assertTrue("Transfer should have been stopped upon passivation", gotExpectedException);
+
+         // And checkpointed
+         final List<TransferCheckpoint> checkpoints = serializedClient.getInterruptedTransfers();
+         TestCase.assertEquals("Interrupted transfer should have been checkpointed", 1, checkpoints.size());
+         final TransferCheckpoint checkpoint = checkpoints.get(0);
+         TestCase.assertEquals("Checkpoint should hold the path as resolved upon submission", new File(home,
+               "passivated-uploaded.bin").getAbsolutePath(), checkpoint.getRequest().getRemotePath());
+         TestCase.assertEquals(original.getAbsoluteFile(), checkpoint.getRequest().getLocalFile().getAbsoluteFile());
+         TestCase.assertTrue("Checkpoint should note partial progress: " + checkpoint,
+               checkpoint.getBytesTransferred() > 0 && checkpoint.getBytesTransferred() < original.length());
+
+         // Resume to completion
+         final List<TransferResult> results = serializedClient.resumeInterruptedTransfers(null).get(30,
+               TimeUnit.SECONDS);
+         TestCase.assertEquals(1, results.size());
+         TestCase.assertEquals(original.length(), results.get(0).getBytesTransferred());
+         this.assertSameContents(original, new File(home, "passivated-uploaded.bin"));
+         TestCase.assertEquals("Checksum should cover the bytes sent before passivation too", this.crc32(original),
+               results.get(0).getChecksum());
+         TestCase.assertTrue("Resumed transfers should no longer be reported as interrupted", serializedClient
+               .getInterruptedTransfers().isEmpty());
+      }
+      finally
+      {
+         serializedClient.disconnect();
+      }
+   }
+
+   /**
+    * Ensures that many files may be moved concurrently from a single client
+    * Thread using the asynchronous transfer API, and that progress is reported
+    * through to completion for each
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testAsyncBatchTransfers() throws Exception
+   {
+      // Log
+      log.info("testAsyncBatchTransfers");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+
+      // Make some files to send, and the requests to send and get them back
+      final int numFiles = 6;
+      final int size = 512 * 1024;
+      final List<File> originals = new ArrayList<File>();
+      final List<TransferRequest> uploads = new ArrayList<TransferRequest>();
+      final List<TransferRequest> downloads = new ArrayList<TransferRequest>();
+      for (int i = 0; i < numFiles; i++)
+      {
+         final File original = this.createFile(home, "async-original-" + i + ".bin", size);
+         originals.add(original);
+         uploads.add(TransferRequest.upload(original, "async-uploaded-" + i + ".bin"));
+         downloads.add(TransferRequest.download("async-uploaded-" + i + ".bin", new File(home, "async-roundtrip-" + i
+               + ".bin")));
+      }
+
+      // Track the last progress reported for each transfer
+      final ConcurrentMap<TransferRequest, TransferProgress> lastProgress = new ConcurrentHashMap<TransferRequest, TransferProgress>();
+      final TransferProgressListener listener = new TransferProgressListener()
+      {
+         @Override
+         public void transferProgressed(final TransferProgress progress)
+         {
+            lastProgress.put(progress.getRequest(), progress);
+         }
+      };
+
+      // Send all, then get all
+      final Future<List<TransferResult>> uploaded = client.transferAsync(uploads, listener);
+      TestCase.assertEquals("All uploads should have completed", numFiles, uploaded.get(30, TimeUnit.SECONDS).size());
+      final Future<List<TransferResult>> downloaded = client.transferAsync(downloads, listener);
+      final List<TransferResult> results = downloaded.get(30, TimeUnit.SECONDS);
+
+      // Ensure all intact, and progress was reported through to completion
+      for (int i = 0; i < numFiles; i++)
+      {
+         TestCase.assertEquals("Results should be in request order", downloads.get(i), results.get(i).getRequest());
+         this.assertSameContents(originals.get(i), downloads.get(i).getLocalFile());
+         final TransferProgress progress = lastProgress.get(uploads.get(i));
+         TestCase.assertTrue("Final progress should have been reported: " + progress, progress.isComplete());
+         TestCase.assertEquals("Final progress should account for all bytes", size, progress.getBytesTransferred());
+      }
+   }
+
+   /**
+    * Ensures that an asynchronous transfer may be cancelled while in flight,
+    * and that the session remains usable afterward
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testCancelAsyncTransfer() throws Exception
+   {
+      // Log
+      log.info("testCancelAsyncTransfer");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+      final File original = this.createFile(home, "cancel-original.bin", 4 * 1024 * 1024);
+
+      // Hold the transfer after its first block until we've cancelled
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch hold = new CountDownLatch(1);
+      final TransferProgressListener listener = new TransferProgressListener()
+      {
+         @Override
+         public void transferProgressed(final TransferProgress progress)
+         {
+            started.countDown();
+            try
+            {
+               hold.await();
+            }
+            catch (final InterruptedException ie)
+            {
+               // Cancelled; restore the flag so the transfer sees it
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+      final Future<TransferResult> future = client.uploadAsync(original, "cancel-uploaded.bin", listener);
+      TestCase.assertTrue("Transfer should have started", started.await(10, TimeUnit.SECONDS));
+
+      // Cancel
+      TestCase.assertTrue("Transfer should have been cancelled", future.cancel(true));
+      TestCase.assertTrue(future.isCancelled());
+      boolean gotExpectedException = false;
+      try
+      {
+         future.get();
+      }
+      catch (final CancellationException ce)
+      {
+         gotExpectedException = true;
+      }
+      TestCase.assertTrue("Cancelled transfer should not report a result", gotExpectedException);
+
+      // Ensure the session is still good for more transfers
+      final TransferResult result = client.uploadAsync(original, "after-cancel.bin", null).get(30, TimeUnit.SECONDS);
+      TestCase.assertEquals(original.length(), result.getBytesTransferred());
+   }
+
+   /**
+    * Ensures that a relative path given to an asynchronous transfer is resolved
+    * against the present working directory at the time of the call, not at 
+    * whatever time the transfer happens to run
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testAsyncTransferResolvesPathUponSubmission() throws Exception
+   {
+      // Log
+      log.info("testAsyncTransferResolvesPathUponSubmission");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+      final File original = this.createFile(home, "resolved-original.bin", 1024 * 1024);
+      client.mkdir("elsewhere");
+
+      // Hold the transfer until we've moved on
+      final CountDownLatch moved = new CountDownLatch(1);
+      final TransferProgressListener listener = new TransferProgressListener()
+      {
+         @Override
+         public void transferProgressed(final TransferProgress progress)
+         {
+            try
+            {
+               moved.await(10, TimeUnit.SECONDS);
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+      final Future<TransferResult> future = client.uploadAsync(original, "resolved-uploaded.bin", listener);
+      client.cd("elsewhere");
+      moved.countDown();
+
+      // Ensure the file landed where we were when we asked
+      final TransferResult result = future.get(30, TimeUnit.SECONDS);
+      TestCase.assertEquals(original.length(), result.getBytesTransferred());
+      this.assertSameContents(original, new File(home, "resolved-uploaded.bin"));
+      TestCase.assertFalse("Transfer should not follow a later change of directory", new File(home,
+            "elsewhere/resolved-uploaded.bin").exists());
+   }
+
+   /**
+    * Ensures that a deep directory may be made in one call, that levels
+    * which already exist are reported as such, and that the present working
+    * directory is left in place
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMkdirs() throws Exception
+   {
+      // Log
+      log.info("testMkdirs");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+
+      // Make a tree
+      final List<BatchItemResult> made = client.mkdirs("a/b/c/d");
+      TestCase.assertEquals("Each level should be reported", 4, made.size());
+      for (final BatchItemResult result : made)
+      {
+         TestCase.assertEquals(result.toString(), BatchItemOutcome.DONE, result.getOutcome());
+      }
+      TestCase.assertTrue("Deepest level should have been made", new File(home, "a/b/c/d").isDirectory());
+
+      // Extend it
+      final List<BatchItemResult> extended = client.mkdirs("a/b/c/d/e");
+      TestCase.assertEquals(5, extended.size());
+      for (int i = 0; i < 4; i++)
+      {
+         TestCase.assertEquals(extended.get(i).toString(), BatchItemOutcome.SKIPPED, extended.get(i).getOutcome());
+      }
+      TestCase.assertEquals(BatchItemOutcome.DONE, extended.get(4).getOutcome());
+      TestCase.assertTrue(new File(home, "a/b/c/d/e").isDirectory());
+
+      // We should not have moved
+      TestCase.assertEquals("Present working directory should be unchanged", home.getAbsolutePath(), client.pwd());
+   }
+
+   /**
+    * Ensures that a manifest of transfers is carried out into directories
+    * which do not yet exist, with the failure of one item reported without 
+    * affecting the others
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testTransferBatchReportsEachItem() throws Exception
+   {
+      // Log
+      log.info("testTransferBatchReportsEachItem");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+
+      // Make a manifest, one of which can't be sent
+      final int numFiles = 5;
+      final List<File> originals = new ArrayList<File>();
+      final List<TransferRequest> manifest = new ArrayList<TransferRequest>();
+      for (int i = 0; i < numFiles; i++)
+      {
+         final File original = this.createFile(home, "batch-original-" + i + ".bin", 100 * 1024);
+         originals.add(original);
+         manifest.add(TransferRequest.upload(original, "batch/" + (i % 2) + "/uploaded-" + i + ".bin"));
+      }
+      manifest.add(TransferRequest.upload(new File(home, "nonexistent.bin"), "batch/nonexistent.bin"));
+
+      // Send
+      final List<BatchItemResult> results = client.transferBatch(manifest, null).get(30, TimeUnit.SECONDS);
+
+      // Check each
+      TestCase.assertEquals("Each item should be reported", numFiles + 1, results.size());
+      for (int i = 0; i < numFiles; i++)
+      {
+         final BatchItemResult result = results.get(i);
+         TestCase.assertEquals(result.toString(), BatchItemOutcome.DONE, result.getOutcome());
+         TestCase.assertEquals(originals.get(i).length(), result.getTransferResult().getBytesTransferred());
+         this.assertSameContents(originals.get(i), new File(home, "batch/" + (i % 2) + "/uploaded-" + i + ".bin"));
+      }
+      final BatchItemResult failed = results.get(numFiles);
+      TestCase.assertEquals("Missing file should be reported as failed", BatchItemOutcome.FAILED, failed.getOutcome());
+      TestCase.assertFalse(failed.isSucceeded());
+      TestCase.assertNotNull("Failure should be explained", failed.getDetail());
+   }
+
+   /**
+    * Ensures that a local tree may be mirrored onto the server, and that
+    * a subsequent sync sends only what has changed
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testSyncDirectory() throws Exception
+   {
+      // Log
+      log.info("testSyncDirectory");
+
+      // Get the client and switch to home
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+
+      // Make a local tree
+      final File local = new File(home, "sync-local");
+      final File deeper = new File(local, "sub/deeper");
+      TestCase.assertTrue(deeper.mkdirs());
+      final File[] files = new File[]
+      {this.createFile(local, "a.bin", 10 * 1024), this.createFile(new File(local, "sub"), "b.bin", 20 * 1024),
+            this.createFile(deeper, "c.bin", 30 * 1024)};
+      final String[] relativePaths = new String[]
+      {"a.bin", "sub/b.bin", "sub/deeper/c.bin"};
+
+      // Sync: everything should be made and sent
+      final String remoteRoot = home.getAbsolutePath() + "/sync-remote";
+      final List<BatchItemResult> first = client.syncDirectory(local, "sync-remote", null).get(30, TimeUnit.SECONDS);
+      TestCase.assertEquals("Three directories and three files should be reported", 6, first.size());
+      for (final BatchItemResult result : first)
+      {
+         TestCase.assertEquals(result.toString(), BatchItemOutcome.DONE, result.getOutcome());
+      }
+      TestCase.assertEquals(remoteRoot, first.get(0).getRemotePath());
+      for (int i = 0; i < files.length; i++)
+      {
+         this.assertSameContents(files[i], new File(home, "sync-remote/" + relativePaths[i]));
+      }
+
+      // Change one file, and sync again: only it should be sent
+      this.createFile(new File(local, "sub"), "b.bin", 25 * 1024);
+      final List<BatchItemResult> second = client.syncDirectory(local, "sync-remote", null).get(30, TimeUnit.SECONDS);
+      TestCase.assertEquals(6, second.size());
+      for (final BatchItemResult result : second)
+      {
+         final boolean changed = result.getRemotePath().equals(remoteRoot + "/sub/b.bin");
+         TestCase.assertEquals(result.toString(), changed ? BatchItemOutcome.DONE : BatchItemOutcome.SKIPPED, result
+               .getOutcome());
+      }
+      this.assertSameContents(files[1], new File(home, "sync-remote/sub/b.bin"));
+   }
+
+   /**
+    * Ensures that transfers are checksummed as they stream, by the requested 
+    * algorithm, and that the checksum is verified by the server when it supports
+    * doing so (the test server offers only <code>MD5</code>)
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testTransferChecksums() throws Exception
+   {
+      // Log
+      log.info("testTransferChecksums");
+
+      // Get the client and switch to home; the file spans more blocks than the checksum stage has buffers
+      final FileTransferBean client = this.ftpClient;
+      final File home = getFtpHome();
+      client.cd(home.getAbsolutePath());
+      final File original = this.createFile(home, "checksummed-original.bin", 1024 * 1024 + 17);
+
+      // By default, CRC32, which the server can't verify
+      final TransferResult defaulted = client.upload(original, "checksummed-crc32.bin");
+      TestCase.assertEquals(this.crc32(original), defaulted.getChecksum());
+      TestCase.assertFalse("Server should not have verified CRC32", defaulted.isChecksumVerified());
+
+      // MD5, which the server verifies
+      final TransferRequest md5Upload = TransferRequest.upload(original, "checksummed-md5.bin").withChecksum(
+            ChecksumAlgorithm.MD5);
+      final TransferResult md5 = client.transferAsync(Arrays.asList(md5Upload), null).get(30, TimeUnit.SECONDS)
+            .get(0);
+      TestCase.assertEquals(this.digest(original, "MD5"), md5.getChecksum());
+      TestCase.assertTrue("Server should have verified MD5: " + md5, md5.isChecksumVerified());
+
+      // SHA-256 on the way back down
+      final File downloaded = new File(home, "checksummed-downloaded.bin");
+      final TransferRequest sha256Download = TransferRequest.download("checksummed-md5.bin", downloaded)
+            .withChecksum(ChecksumAlgorithm.SHA_256);
+      final TransferResult sha256 = client.transferAsync(Arrays.asList(sha256Download), null).get(30,
+            TimeUnit.SECONDS).get(0);
+      this.assertSameContents(original, downloaded);
+      TestCase.assertEquals(this.digest(original, "SHA-256"), sha256.getChecksum());
+
+      // And none at all, if so requested
+      final TransferRequest unchecked = TransferRequest.upload(original, "checksummed-none.bin").withChecksum(null);
+      final TransferResult none = client.transferAsync(Arrays.asList(unchecked), null).get(30, TimeUnit.SECONDS)
+            .get(0);
+      TestCase.assertNull(none.getChecksum());
+      this.assertSameContents(original, new File(home, "checksummed-none.bin"));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Mocks passivation and activation of the specified client, manually invoking
+    * the {@link PrePassivate} and {@link PostActivate} callbacks around a
+    * serialization roundtrip
+    * 
+    * @return The client brought back from passivated state
+    */
+   private FileTransferBean passivateAndActivate(final FileTransferBean client) throws Exception
+   {
       // Mock @PrePassivate
       log.info("Mock @" + PrePassivate.class.getName());
-      client.disconnect();
+      client.passivate();
 
       // Mock passivation 
       log.info("Mock passivation");
@@ -226,17 +714,61 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
       final ObjectInput objectIn = new ObjectInputStream(inStream);
 
       // Get a new client from passivation/activation roundtrip
-      final FileTransferCommonBusiness serializedClient = (FileTransferCommonBusiness) objectIn.readObject();
+      final FileTransferBean serializedClient = (FileTransferBean) objectIn.readObject();
       objectIn.close();
 
       // Mock @PostActivate
       log.info("Mock @" + PostActivate.class.getName());
-      serializedClient.connect();
+      serializedClient.activate();
+      return serializedClient;
+   }
 
-      // Test the pwd
-      final String pwdAfter = serializedClient.pwd();
-      TestCase.assertEquals("Present working directory should be the same as before passivation/activation", home,
-            pwdAfter);
+   /**
+    * Computes the CRC32 of the specified file, in (zero-padded) lowercase hexadecimal
+    */
+   private String crc32(final File file) throws Exception
+   {
+      final CRC32 crc = new CRC32();
+      final byte[] contents = this.readFile(file);
+      crc.update(contents);
+      return String.format("%08x", crc.getValue());
+   }
+
+   /**
+    * Computes the digest of the specified file by the named algorithm, in lowercase hexadecimal
+    */
+   private String digest(final File file, final String algorithm) throws Exception
+   {
+      final byte[] digest = MessageDigest.getInstance(algorithm).digest(this.readFile(file));
+      final StringBuilder hex = new StringBuilder();
+      for (final byte b : digest)
+      {
+         hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+   }
+
+   /**
+    * Reads the full contents of the specified file
+    */
+   private byte[] readFile(final File file) throws Exception
+   {
+      final byte[] contents = new byte[(int) file.length()];
+      final InputStream in = new FileInputStream(file);
+      try
+      {
+         int offset = 0;
+         int read;
+         while (offset < contents.length && (read = in.read(contents, offset, contents.length - offset)) != -1)
+         {
+            offset += read;
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      return contents;
    }
 
    //-------------------------------------------------------------------------------------||
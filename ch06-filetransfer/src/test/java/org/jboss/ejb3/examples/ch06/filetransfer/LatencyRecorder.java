@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accumulates latency samples, in nanoseconds, and summarizes them as
+ * percentiles (by the nearest-rank method) for a {@link BenchmarkReport}.
+ * 
+ * Thread-safe, so that concurrent workers may record into the same instance.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class LatencyRecorder
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Percentiles reported in the summary
+    */
+   private static final double[] PERCENTILES = new double[]
+   {50, 90, 99, 99.9};
+
+   /**
+    * Nanoseconds in a microsecond
+    */
+   private static final double NANOS_PER_MICRO = 1000.0;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Samples recorded so far; only the first {@link LatencyRecorder#count} are valid
+    */
+   private long[] samples = new long[1024];
+
+   /**
+    * Number of samples recorded
+    */
+   private int count;
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records a sample
+    * 
+    * @param nanos Latency, in nanoseconds
+    */
+   synchronized void record(final long nanos)
+   {
+      if (count == samples.length)
+      {
+         samples = Arrays.copyOf(samples, count * 2);
+      }
+      samples[count++] = nanos;
+   }
+
+   /**
+    * @return The number of samples recorded
+    */
+   synchronized int getCount()
+   {
+      return count;
+   }
+
+   /**
+    * Obtains the specified percentile of the samples recorded, in nanoseconds
+    * 
+    * @param percentile In range (0, 100]
+    * @throws IllegalStateException If no samples have been recorded
+    */
+   synchronized long getPercentile(final double percentile) throws IllegalStateException
+   {
+      return percentile(this.sorted(), percentile);
+   }
+
+   /**
+    * Summarizes the samples (count, mean, percentiles and max, in microseconds) 
+    * as an ordered map suitable for rendering by {@link BenchmarkReport}
+    * 
+    * @throws IllegalStateException If no samples have been recorded
+    */
+   synchronized Map<String, Object> summarize() throws IllegalStateException
+   {
+      final long[] sorted = this.sorted();
+      long total = 0;
+      for (final long sample : sorted)
+      {
+         total += sample;
+      }
+      final Map<String, Object> summary = new LinkedHashMap<String, Object>();
+      summary.put("count", sorted.length);
+      summary.put("meanMicros", round(total / (double) sorted.length / NANOS_PER_MICRO));
+      summary.put("minMicros", round(sorted[0] / NANOS_PER_MICRO));
+      for (final double percentile : PERCENTILES)
+      {
+         final String name = String.valueOf(percentile).replace(".0", "").replace(".", "");
+         summary.put("p" + name + "Micros", round(percentile(sorted, percentile) / NANOS_PER_MICRO));
+      }
+      summary.put("maxMicros", round(sorted[sorted.length - 1] / NANOS_PER_MICRO));
+      return summary;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a sorted copy of the samples
+    */
+   private long[] sorted() throws IllegalStateException
+   {
+      if (count == 0)
+      {
+         throw new IllegalStateException("No samples recorded");
+      }
+      final long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted;
+   }
+
+   /**
+    * Nearest-rank percentile of the specified sorted samples
+    */
+   private static long percentile(final long[] sorted, final double percentile)
+   {
+      final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+   }
+
+   /**
+    * Rounds to one decimal place
+    */
+   private static double round(final double value)
+   {
+      return Math.round(value * 10) / 10.0;
+   }
+}
@@ -0,0 +1,324 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Fetches feeds with conditional GETs.  The validators (<code>ETag</code> and
+ * <code>Last-Modified</code>) of each feed's last successfully parsed response are 
+ * kept, and sent back as <code>If-None-Match</code> and <code>If-Modified-Since</code>; 
+ * when the origin answers <code>304 Not Modified</code>, there is nothing to 
+ * download or parse, and {@link ConditionalFeedFetcher#fetch(URL, FeedParser)} 
+ * says so by returning null.
+ * 
+ * One instance is meant to be reused for all fetches; connections to each
+ * origin are pooled and kept alive between them.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class ConditionalFeedFetcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ConditionalFeedFetcher.class.getName());
+
+   /**
+    * Maximum number of pooled connections to any one origin
+    */
+   private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+   /**
+    * Maximum number of pooled connections in total
+    */
+   private static final int MAX_TOTAL_CONNECTIONS = 32;
+
+   /**
+    * Time allowed to establish a connection, in ms
+    */
+   private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+   /**
+    * Time allowed between bytes of a response, in ms
+    */
+   private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+   /**
+    * Value of the <code>User-Agent</code> header sent
+    */
+   private static final String USER_AGENT = "JBoss EJB 3.x Examples RSS Cache";
+
+   private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+   private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+   private static final String HEADER_ETAG = "ETag";
+
+   private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+   private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+   private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+   private static final String HEADER_USER_AGENT = "User-Agent";
+
+   private static final String ENCODING_GZIP = "gzip";
+
+   /**
+    * Size of the buffer used in reading responses
+    */
+   private static final int BUFFER_SIZE = 8 * 1024;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Pool of connections to feed origins
+    */
+   private final MultiThreadedHttpConnectionManager connectionManager;
+
+   /**
+    * Client, shared by all fetches
+    */
+   private final HttpClient client;
+
+   /**
+    * Validators of the last successfully parsed response, keyed by feed URL
+    */
+   private final ConcurrentMap<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+
+   private final AtomicLong requests = new AtomicLong();
+
+   private final AtomicLong notModified = new AtomicLong();
+
+   private final AtomicLong bytesReceived = new AtomicLong();
+
+   private final AtomicLong parseNanos = new AtomicLong();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new fetcher with its own connection pool
+    */
+   ConditionalFeedFetcher()
+   {
+      final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+      params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+      params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+      params.setConnectionTimeout(CONNECT_TIMEOUT_MILLIS);
+      params.setSoTimeout(READ_TIMEOUT_MILLIS);
+      params.setStaleCheckingEnabled(true);
+      connectionManager = new MultiThreadedHttpConnectionManager();
+      connectionManager.setParams(params);
+      client = new HttpClient(connectionManager);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Fetches the feed at the specified URL, unless it's unchanged since last fetched,
+    * and parses it with the specified parser
+    * 
+    * @param url
+    * @param parser
+    * @return The entries of the feed by key, or null if the origin reports it unchanged
+    * @throws IOException If the feed could not be obtained
+    * @throws FeedException If the feed could not be parsed
+    */
+   Map<String, RomeRssEntry> fetch(final URL url, final FeedParser parser) throws IOException, FeedException
+   {
+      final String key = url.toExternalForm();
+      final GetMethod get = new GetMethod(key);
+      try
+      {
+         get.setFollowRedirects(true);
+         get.setRequestHeader(HEADER_USER_AGENT, USER_AGENT);
+         get.setRequestHeader(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+         final Validators known = validators.get(key);
+         if (known != null)
+         {
+            if (known.etag != null)
+            {
+               get.setRequestHeader(HEADER_IF_NONE_MATCH, known.etag);
+            }
+            if (known.lastModified != null)
+            {
+               get.setRequestHeader(HEADER_IF_MODIFIED_SINCE, known.lastModified);
+            }
+         }
+
+         // Request
+         requests.incrementAndGet();
+         final int status = client.executeMethod(get);
+         if (status == HttpStatus.SC_NOT_MODIFIED)
+         {
+            notModified.incrementAndGet();
+            log.fine("Not modified: " + url);
+            return null;
+         }
+         if (status != HttpStatus.SC_OK)
+         {
+            throw new IOException("Could not fetch " + url + ": HTTP " + status + " " + get.getStatusText());
+         }
+
+         // Read it all before parsing, so we time the parse alone
+         final byte[] body = readFully(get.getResponseBodyAsStream());
+         bytesReceived.addAndGet(body.length);
+         InputStream in = new ByteArrayInputStream(body);
+         final Header contentEncoding = get.getResponseHeader(HEADER_CONTENT_ENCODING);
+         if (contentEncoding != null && ENCODING_GZIP.equalsIgnoreCase(contentEncoding.getValue()))
+         {
+            in = new GZIPInputStream(in);
+         }
+         final long start = System.nanoTime();
+         final Map<String, RomeRssEntry> entries = parser.parse(in);
+         parseNanos.addAndGet(System.nanoTime() - start);
+
+         // Remember how to ask whether it's changed
+         final String etag = getHeaderValue(get, HEADER_ETAG);
+         final String lastModified = getHeaderValue(get, HEADER_LAST_MODIFIED);
+         if (etag != null || lastModified != null)
+         {
+            validators.put(key, new Validators(etag, lastModified));
+         }
+         else
+         {
+            validators.remove(key);
+         }
+         return entries;
+      }
+      finally
+      {
+         // Back to the pool
+         get.releaseConnection();
+      }
+   }
+
+   /**
+    * Forgets the validators of the specified feed, so that it's next fetched in full
+    * 
+    * @param url
+    */
+   void forget(final URL url)
+   {
+      validators.remove(url.toExternalForm());
+   }
+
+   /**
+    * Obtains a snapshot of the work done so far
+    */
+   FeedFetchStatistics getStatistics()
+   {
+      return new FeedFetchStatistics(requests.get(), notModified.get(), bytesReceived.get(), parseNanos.get());
+   }
+
+   /**
+    * Closes all pooled connections; the fetcher may not be used afterward
+    */
+   void shutdown()
+   {
+      connectionManager.shutdown();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static String getHeaderValue(final GetMethod get, final String name)
+   {
+      final Header header = get.getResponseHeader(name);
+      return header == null ? null : header.getValue();
+   }
+
+   private static byte[] readFully(final InputStream in) throws IOException
+   {
+      if (in == null)
+      {
+         return new byte[0];
+      }
+      try
+      {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+         final byte[] buffer = new byte[BUFFER_SIZE];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+         }
+         return out.toByteArray();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Validators of a response, either of which may be null
+    */
+   private static final class Validators
+   {
+      private final String etag;
+
+      private final String lastModified;
+
+      Validators(final String etag, final String lastModified)
+      {
+         this.etag = etag;
+         this.lastModified = lastModified;
+      }
+   }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the work done by the feed fetcher of an RSS Cache: how
+ * many requests were made, how many were answered <code>304 Not Modified</code>
+ * (and so cost neither a download nor a parse), and the bytes and parse 
+ * time spent on the rest.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class FeedFetchStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of requests made of feed origins
+    */
+   private final long requests;
+
+   /**
+    * Number of requests answered <code>304 Not Modified</code>
+    */
+   private final long notModified;
+
+   /**
+    * Bytes of feed content received, as sent over the wire (ie. before decompression)
+    */
+   private final long bytesReceived;
+
+   /**
+    * Time spent parsing feed content, in nanoseconds
+    */
+   private final long parseNanos;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   FeedFetchStatistics(final long requests, final long notModified, final long bytesReceived, final long parseNanos)
+   {
+      this.requests = requests;
+      this.notModified = notModified;
+      this.bytesReceived = bytesReceived;
+      this.parseNanos = parseNanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the requests
+    */
+   public long getRequests()
+   {
+      return requests;
+   }
+
+   /**
+    * @return the number of requests answered <code>304 Not Modified</code>
+    */
+   public long getNotModified()
+   {
+      return notModified;
+   }
+
+   /**
+    * @return the bytesReceived
+    */
+   public long getBytesReceived()
+   {
+      return bytesReceived;
+   }
+
+   /**
+    * @return the parse time in nanoseconds
+    */
+   public long getParseNanos()
+   {
+      return parseNanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [requests=" + requests + ", notModified=" + notModified
+            + ", bytesReceived=" + bytesReceived + ", parseNanos=" + parseNanos + "]";
+   }
+}
@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Parses a fetched feed into its entries, keyed as {@link FeedSnapshot} 
+ * merges them: by the entry's GUID (or Atom ID), or failing that its link
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @see RomeFeedParser
+ * @see StaxFeedParser
+ */
+interface FeedParser
+{
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Parses the feed in the specified stream, which is not closed
+    * 
+    * @param in
+    * @return The entries by key, in feed order; where two share a key, the first stands
+    * @throws IOException If the feed could not be read
+    * @throws FeedException If the feed could not be parsed
+    */
+   Map<String, RomeRssEntry> parse(InputStream in) throws IOException, FeedException;
+}
@@ -0,0 +1,582 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryCursor;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryPage;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssFeedChanges;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+
+/**
+ * Immutable, versioned snapshot of the entries of a feed, along with a 
+ * bounded history of the changes made to them.
+ * 
+ * The entries of a fetched feed are merged into the current snapshot by
+ * entry key (the entry's GUID, or failing that its link; see {@link FeedParser}): 
+ * entries whose content is unchanged are carried over as the same instances, 
+ * and only new or changed entries are kept from the parse.  Each merge which changes anything makes a new version, 
+ * recording what was added, updated and removed, so that the changes since 
+ * any version still remembered may be given to clients in place of all 
+ * entries.  History is bounded by the number of entries it refers to, 
+ * oldest changes being forgotten first.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FeedSnapshot
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Most entries referred to by the history of changes retained
+    */
+   static final int MAX_HISTORY_ENTRIES = 1024;
+
+   /**
+    * Snapshot of no entries, at version 0, from which any later version may be diffed
+    */
+   static final FeedSnapshot EMPTY = new FeedSnapshot(0, 0, Collections.<String, RssEntry> emptyMap(),
+         Collections.<Changes> emptyList());
+
+   /**
+    * Estimated bytes of an entry, exclusive of its Strings
+    */
+   private static final long ENTRY_OVERHEAD = 16 + 4 * 4;
+
+   /**
+    * Estimated bytes of a URL, exclusive of its Strings
+    */
+   private static final long URL_OVERHEAD = 48 + 5 * 40;
+
+   /**
+    * Estimated bytes of a String, exclusive of its characters
+    */
+   private static final long STRING_OVERHEAD = 40 + 16;
+
+   /**
+    * Estimated bytes of an array, exclusive of its elements
+    */
+   private static final long ARRAY_OVERHEAD = 16;
+
+   /**
+    * Estimated bytes of a snapshot, exclusive of its entries
+    */
+   private static final long SNAPSHOT_OVERHEAD = 256;
+
+   /**
+    * Estimated bytes taken in indexing and listing an entry 
+    */
+   private static final long INDEX_OVERHEAD = 48;
+
+   /**
+    * Estimated bytes taken by an entry's reference from history
+    */
+   private static final long HISTORY_OVERHEAD = 48;
+
+   /**
+    * Orders entries most recently published first; those with no date last
+    */
+   private static final Comparator<RssEntry> NEWEST_FIRST = new Comparator<RssEntry>()
+   {
+      @Override
+      public int compare(final RssEntry o1, final RssEntry o2)
+      {
+         final long published1 = ((RomeRssEntry) o1).getPublished();
+         final long published2 = ((RomeRssEntry) o2).getPublished();
+         return published1 > published2 ? -1 : published1 == published2 ? 0 : 1;
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Version of the entries
+    */
+   private final long version;
+
+   /**
+    * Earliest version from which changes are remembered
+    */
+   private final long historyStart;
+
+   /**
+    * Entries in feed order
+    */
+   private final RssEntryList entries;
+
+   /**
+    * Entries in feed order, by key
+    */
+   private final Map<String, RssEntry> entriesByKey;
+
+   /**
+    * The changes of each version since {@link FeedSnapshot#historyStart}, oldest first
+    */
+   private final List<Changes> history;
+
+   /**
+    * Entries most recently published first; sorted lazily
+    */
+   private volatile RssEntryList newestFirst;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private FeedSnapshot(final long version, final long historyStart, final Map<String, RssEntry> entriesByKey,
+         final List<Changes> history)
+   {
+      this.version = version;
+      this.historyStart = historyStart;
+      this.entriesByKey = entriesByKey;
+      this.entries = new RssEntryList(entriesByKey.values());
+      this.history = history;
+   }
+
+   /**
+    * Obtains a snapshot of no entries, at a version later than that specified, and
+    * from which no earlier version may be diffed; for use when the snapshot at 
+    * the specified version has been lost
+    */
+   static FeedSnapshot after(final long version)
+   {
+      return new FeedSnapshot(version + 1, version + 1, Collections.<String, RssEntry> emptyMap(), Collections
+            .<Changes> emptyList());
+   }
+
+   /**
+    * Obtains a snapshot of the specified entries at the specified version, with 
+    * no history; for use when the snapshot at that version has been restored 
+    * (see {@link SnapshotStore}), so clients holding it are sent no changes, and 
+    * clients holding any earlier version are reset
+    * 
+    * @param version
+    * @param entriesByKey Entries by key, in feed order
+    */
+   static FeedSnapshot restore(final long version, final Map<String, RssEntry> entriesByKey)
+   {
+      return new FeedSnapshot(version, version, new LinkedHashMap<String, RssEntry>(entriesByKey), Collections
+            .<Changes> emptyList());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Merges the entries of the specified feed into this snapshot
+    * 
+    * @param feed
+    * @return The merged snapshot; this one if the entries are unchanged
+    */
+   FeedSnapshot merge(final SyndFeed feed)
+   {
+      return this.merge(feed, MAX_HISTORY_ENTRIES);
+   }
+
+   /**
+    * Merges the entries of the specified feed into this snapshot, retaining
+    * no more history than that referring to the specified number of entries
+    * 
+    * @param feed
+    * @param maxHistoryEntries
+    * @return The merged snapshot; this one if the entries are unchanged
+    */
+   FeedSnapshot merge(final SyndFeed feed, final int maxHistoryEntries)
+   {
+      return this.merge(RomeFeedParser.getEntries(feed, Integer.MAX_VALUE, Integer.MAX_VALUE), maxHistoryEntries);
+   }
+
+   /**
+    * Merges the specified parsed entries into this snapshot
+    * 
+    * @param parsed Entries by key, in feed order, as given by a {@link FeedParser}
+    * @return The merged snapshot; this one if the entries are unchanged
+    */
+   FeedSnapshot merge(final Map<String, RomeRssEntry> parsed)
+   {
+      return this.merge(parsed, MAX_HISTORY_ENTRIES);
+   }
+
+   /**
+    * Merges the specified parsed entries into this snapshot, retaining
+    * no more history than that referring to the specified number of entries
+    * 
+    * @param parsed Entries by key, in feed order, as given by a {@link FeedParser}
+    * @param maxHistoryEntries
+    * @return The merged snapshot; this one if the entries are unchanged
+    */
+   FeedSnapshot merge(final Map<String, RomeRssEntry> parsed, final int maxHistoryEntries)
+   {
+      // Carry over what's unchanged
+      final Map<String, RssEntry> merged = new LinkedHashMap<String, RssEntry>();
+      final Map<String, RssEntry> added = new LinkedHashMap<String, RssEntry>();
+      final Map<String, RssEntry> updated = new LinkedHashMap<String, RssEntry>();
+      for (final Map.Entry<String, RomeRssEntry> parsedEntry : parsed.entrySet())
+      {
+         final String key = parsedEntry.getKey();
+         final RssEntry existing = entriesByKey.get(key);
+         RssEntry entry = existing;
+         if (existing == null || !((RomeRssEntry) existing).matches(parsedEntry.getValue()))
+         {
+            entry = parsedEntry.getValue();
+            (existing == null ? added : updated).put(key, entry);
+         }
+         merged.put(key, entry);
+      }
+      final Map<String, RssEntry> removed = new LinkedHashMap<String, RssEntry>();
+      for (final Map.Entry<String, RssEntry> entry : entriesByKey.entrySet())
+      {
+         if (!merged.containsKey(entry.getKey()))
+         {
+            removed.put(entry.getKey(), entry.getValue());
+         }
+      }
+
+      // Unchanged; a reordering alone is still a new version, so a version always has one order
+      if (added.isEmpty() && updated.isEmpty() && removed.isEmpty()
+            && new ArrayList<String>(merged.keySet()).equals(new ArrayList<String>(entriesByKey.keySet())))
+      {
+         return this;
+      }
+
+      // Record the changes, forgetting the oldest as need be
+      final long newVersion = version + 1;
+      final List<Changes> newHistory = new ArrayList<Changes>(history);
+      newHistory.add(new Changes(newVersion, added, updated, removed));
+      int historyEntries = 0;
+      for (final Changes changes : newHistory)
+      {
+         historyEntries += changes.size();
+      }
+      while (!newHistory.isEmpty() && (historyEntries > maxHistoryEntries || newHistory.size() > maxHistoryEntries))
+      {
+         historyEntries -= newHistory.remove(0).size();
+      }
+      final long newHistoryStart = newHistory.isEmpty() ? newVersion : newHistory.get(0).version - 1;
+      return new FeedSnapshot(newVersion, newHistoryStart, merged, Collections.unmodifiableList(newHistory));
+   }
+
+   /**
+    * Obtains the changes made to the entries since the specified version; if 
+    * that's not remembered, all entries are given as added, flagged as a reset 
+    * 
+    * @param sinceVersion
+    * @return
+    */
+   RssFeedChanges getChangesSince(final long sinceVersion)
+   {
+      final List<RssEntry> none = RssEntryList.EMPTY;
+      if (sinceVersion == version)
+      {
+         return new RssFeedChanges(sinceVersion, version, false, none, none, none);
+      }
+      if (sinceVersion < historyStart || sinceVersion > version)
+      {
+         return new RssFeedChanges(sinceVersion, version, true, entries, none, none);
+      }
+
+      // Fold the changes of each later version into one
+      final Map<String, RssEntry> added = new LinkedHashMap<String, RssEntry>();
+      final Map<String, RssEntry> updated = new LinkedHashMap<String, RssEntry>();
+      final Map<String, RssEntry> removed = new LinkedHashMap<String, RssEntry>();
+      for (final Changes changes : history)
+      {
+         if (changes.version <= sinceVersion)
+         {
+            continue;
+         }
+         for (final Map.Entry<String, RssEntry> entry : changes.added.entrySet())
+         {
+            // Removed and added back is, to the client, updated
+            final String key = entry.getKey();
+            (removed.remove(key) != null ? updated : added).put(key, entry.getValue());
+         }
+         for (final Map.Entry<String, RssEntry> entry : changes.updated.entrySet())
+         {
+            final String key = entry.getKey();
+            (added.containsKey(key) ? added : updated).put(key, entry.getValue());
+         }
+         for (final Map.Entry<String, RssEntry> entry : changes.removed.entrySet())
+         {
+            // Added and removed since is, to the client, nothing
+            final String key = entry.getKey();
+            updated.remove(key);
+            if (added.remove(key) == null)
+            {
+               removed.put(key, entry.getValue());
+            }
+         }
+      }
+      return new RssFeedChanges(sinceVersion, version, false, new RssEntryList(added.values()),
+            new RssEntryList(updated.values()), new RssEntryList(removed.values()));
+   }
+
+   /**
+    * Collects the entries of the specified earlier snapshot which this one no longer
+    * has, and those this one has which the earlier didn't, by identity.  Only the 
+    * entries changed in the versions between are visited, unless the earlier 
+    * version is no longer remembered, when all entries of each are collected.
+    * 
+    * @param earlier A snapshot this one was merged from, directly or not
+    * @param removed
+    * @param added
+    */
+   void collectChangesSince(final FeedSnapshot earlier, final Collection<RssEntry> removed,
+         final Collection<RssEntry> added)
+   {
+      if (earlier.version < historyStart || earlier.version > version)
+      {
+         removed.addAll(earlier.entries);
+         added.addAll(entries);
+         return;
+      }
+      final Set<String> keys = new HashSet<String>();
+      for (final Changes changes : history)
+      {
+         if (changes.version > earlier.version)
+         {
+            keys.addAll(changes.added.keySet());
+            keys.addAll(changes.updated.keySet());
+            keys.addAll(changes.removed.keySet());
+         }
+      }
+      for (final String key : keys)
+      {
+         final RssEntry before = earlier.entriesByKey.get(key);
+         final RssEntry after = entriesByKey.get(key);
+         if (before != after)
+         {
+            if (before != null)
+            {
+               removed.add(before);
+            }
+            if (after != null)
+            {
+               added.add(after);
+            }
+         }
+      }
+   }
+
+   /**
+    * Obtains the entries, in feed order
+    * 
+    * @return An unmodifiable list
+    */
+   List<RssEntry> getEntries()
+   {
+      return entries;
+   }
+
+   /**
+    * Obtains at most <code>limit</code> entries, in feed order, starting from that at <code>offset</code>
+    * 
+    * @param offset
+    * @param limit
+    * @return An unmodifiable list, which may be serialized on its own
+    * @throws IllegalArgumentException If the offset or limit is negative
+    */
+   List<RssEntry> getEntries(final int offset, final int limit) throws IllegalArgumentException
+   {
+      if (offset < 0 || limit < 0)
+      {
+         throw new IllegalArgumentException("Offset and limit may not be negative: " + offset + ", " + limit);
+      }
+      return copyOfRange(entries, offset, limit);
+   }
+
+   /**
+    * Obtains the (at most) <code>count</code> most recently published entries, newest first
+    * 
+    * @param count
+    * @return An unmodifiable list, which may be serialized on its own
+    * @throws IllegalArgumentException If the count is negative
+    */
+   List<RssEntry> getNewestEntries(final int count) throws IllegalArgumentException
+   {
+      if (count < 0)
+      {
+         throw new IllegalArgumentException("Count may not be negative: " + count);
+      }
+
+      // Sorted once per snapshot, on first request; a race only sorts twice
+      RssEntryList newest = this.newestFirst;
+      if (newest == null)
+      {
+         final List<RssEntry> sorted = new ArrayList<RssEntry>(entries);
+         Collections.sort(sorted, NEWEST_FIRST);
+         newest = this.newestFirst = new RssEntryList(sorted);
+      }
+      return copyOfRange(newest, 0, count);
+   }
+
+   /**
+    * Obtains a page of at most <code>limit</code> entries, starting from that at <code>offset</code>
+    * 
+    * @param offset
+    * @param limit
+    * @return
+    * @throws IllegalArgumentException If the offset is negative, or the limit not positive
+    */
+   RssEntryPage getPage(final int offset, final int limit) throws IllegalArgumentException
+   {
+      if (limit <= 0)
+      {
+         throw new IllegalArgumentException("Limit must be positive: " + limit);
+      }
+      final List<RssEntry> page = this.getEntries(offset, limit);
+      final int next = offset + page.size();
+      final RssEntryCursor nextCursor = next < entries.size() ? new RssEntryCursor(version, next) : null;
+      return new RssEntryPage(page, entries.size(), nextCursor);
+   }
+
+   /**
+    * Obtains the entries by key, in feed order
+    */
+   Map<String, RssEntry> getEntriesByKey()
+   {
+      return Collections.unmodifiableMap(entriesByKey);
+   }
+
+   /**
+    * Obtains the version of the entries
+    */
+   long getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Estimates the bytes taken in memory by the snapshot, its entries and history
+    */
+   long estimateWeight()
+   {
+      long weight = SNAPSHOT_OVERHEAD;
+      for (final RssEntry entry : entries)
+      {
+         weight += INDEX_OVERHEAD + estimateWeight(entry);
+      }
+      for (final Changes changes : history)
+      {
+         weight += HISTORY_OVERHEAD * changes.size();
+         for (final RssEntry entry : changes.removed.values())
+         {
+            weight += estimateWeight(entry);
+         }
+      }
+      return weight;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Copies at most <code>limit</code> elements, starting from that at <code>offset</code>,
+    * into a new list; a view of the range would serialize the whole
+    */
+   private static RssEntryList copyOfRange(final RssEntryList list, final int offset, final int limit)
+   {
+      final int from = Math.min(offset, list.size());
+      final int to = (int) Math.min((long) from + limit, list.size());
+      return list.copyOfRange(from, to);
+   }
+
+   /**
+    * Estimates the bytes taken in memory by the specified entry
+    */
+   private static long estimateWeight(final RssEntry entry)
+   {
+      if (entry instanceof RomeRssEntry)
+      {
+         // Authors are shared among entries, descriptions held as (perhaps deflated) UTF-8, and links 
+         // as given, parsed only on request
+         final RomeRssEntry romeEntry = (RomeRssEntry) entry;
+         return ENTRY_OVERHEAD + estimateWeight(entry.getTitle()) + ARRAY_OVERHEAD
+               + romeEntry.getDescriptionFootprint() + estimateWeight(romeEntry.getLink());
+      }
+      long weight = ENTRY_OVERHEAD + estimateWeight(entry.getAuthor()) + estimateWeight(entry.getTitle())
+            + estimateWeight(entry.getDescription());
+      final URL url = entry.getUrl();
+      if (url != null)
+      {
+         // A URL holds its parsed components besides its external form
+         weight += URL_OVERHEAD + 2 * estimateWeight(url.toExternalForm());
+      }
+      return weight;
+   }
+
+   private static long estimateWeight(final String value)
+   {
+      return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The changes which made one version, each by entry key
+    */
+   private static final class Changes
+   {
+      private final long version;
+
+      private final Map<String, RssEntry> added;
+
+      private final Map<String, RssEntry> updated;
+
+      private final Map<String, RssEntry> removed;
+
+      Changes(final long version, final Map<String, RssEntry> added, final Map<String, RssEntry> updated,
+            final Map<String, RssEntry> removed)
+      {
+         this.version = version;
+         this.added = added;
+         this.updated = updated;
+         this.removed = removed;
+      }
+
+      int size()
+      {
+         return added.size() + updated.size() + removed.size();
+      }
+   }
+}
@@ -0,0 +1,540 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssFeedChanges;
+
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Cache of the entries of any number of registered feeds, keyed by feed URL.
+ * 
+ * The entries held are bounded both in number of feeds and in (estimated) 
+ * memory, and evicted by the W-TinyLFU policy of {@link WTinyLfuCache}, so 
+ * that feeds in steady demand stay cached.  Each feed is refreshed in the 
+ * background at its own interval, jittered so that feeds registered together 
+ * don't all come due together; refreshes are fetched by a bounded pool of 
+ * workers, and those which can't be queued are skipped until the feed next 
+ * comes due.  Only cached feeds are refreshed; an evicted feed costs nothing 
+ * until it's next requested, when it's fetched on demand.
+ * 
+ * Readers are served the immutable snapshot of entries from the last 
+ * successful fetch.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class MultiFeedCache
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MultiFeedCache.class.getName());
+
+   /**
+    * Most that a refresh interval is varied either way, as a percentage of it
+    */
+   private static final int JITTER_PERCENT = 10;
+
+   /**
+    * Weighs a feed's snapshot by its estimated size in memory, in bytes
+    */
+   private static final WTinyLfuCache.Weigher<String, FeedSnapshot> SNAPSHOT_WEIGHER = new WTinyLfuCache.Weigher<String, FeedSnapshot>()
+   {
+      @Override
+      public long weigh(final String key, final FeedSnapshot snapshot)
+      {
+         return snapshot.estimateWeight();
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Registered feeds, by URL
+    */
+   private final ConcurrentMap<String, Feed> feeds = new ConcurrentHashMap<String, Feed>();
+
+   /**
+    * Snapshots of the cached feeds, by URL
+    */
+   private final WTinyLfuCache<String, FeedSnapshot> cache;
+
+   /**
+    * Fetches feeds, keeping the validators of those cached
+    */
+   private final ConditionalFeedFetcher fetcher = new ConditionalFeedFetcher();
+
+   /**
+    * Parses fetched feeds
+    */
+   private volatile FeedParser parser = new RomeFeedParser(Integer.MAX_VALUE);
+
+   /**
+    * Signals when feeds come due for refresh
+    */
+   private final ScheduledExecutorService scheduler;
+
+   /**
+    * Fetches feeds
+    */
+   private final ThreadPoolExecutor fetchPool;
+
+   /**
+    * Source of jitter
+    */
+   private final Random random = new Random();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new, empty cache.  Threads are started only as feeds are registered.
+    * 
+    * @param maximumFeeds The most feeds whose entries will be cached
+    * @param maximumBytes The most (estimated) memory the cached entries will take
+    * @param fetchThreads The number of workers fetching feeds
+    * @param fetchQueueCapacity The most fetches which may wait upon a worker
+    * @throws IllegalArgumentException If any of the bounds is not positive
+    */
+   MultiFeedCache(final int maximumFeeds, final long maximumBytes, final int fetchThreads,
+         final int fetchQueueCapacity) throws IllegalArgumentException
+   {
+      cache = new WTinyLfuCache<String, FeedSnapshot>(maximumFeeds, maximumBytes, SNAPSHOT_WEIGHER);
+      scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("RssFeedRefreshScheduler"));
+      fetchPool = new ThreadPoolExecutor(fetchThreads, fetchThreads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(fetchQueueCapacity), new DaemonThreadFactory("RssFeedFetcher"));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Registers the specified feed, to be refreshed at the specified interval, and 
+    * begins fetching it in the background.  Registering a feed already registered
+    * changes its interval, from its next refresh on.
+    * 
+    * @param url
+    * @param refreshIntervalMillis
+    * @throws IllegalArgumentException If the URL is not specified, or the interval is not positive
+    */
+   void register(final URL url, final long refreshIntervalMillis) throws IllegalArgumentException
+   {
+      if (url == null)
+      {
+         throw new IllegalArgumentException("Feed URL must be specified");
+      }
+      if (refreshIntervalMillis <= 0)
+      {
+         throw new IllegalArgumentException("Refresh interval must be positive: " + refreshIntervalMillis);
+      }
+
+      // Already registered?
+      final Feed feed = new Feed(url, refreshIntervalMillis);
+      final Feed existing = feeds.putIfAbsent(feed.key, feed);
+      if (existing != null)
+      {
+         existing.refreshIntervalMillis = refreshIntervalMillis;
+         log.info("Changed refresh interval of " + url + " to " + refreshIntervalMillis + "ms");
+         return;
+      }
+
+      // Fetch now, and first refresh anywhere within the first interval
+      log.info("Registered " + url + ", refreshed every " + refreshIntervalMillis + "ms");
+      this.submit(feed);
+      this.schedule(feed, (long) (random.nextDouble() * refreshIntervalMillis));
+   }
+
+   /**
+    * Unregisters the specified feed, dropping its entries
+    * 
+    * @param url
+    * @return Whether the feed was registered
+    */
+   boolean unregister(final URL url)
+   {
+      final Feed feed = feeds.remove(url.toExternalForm());
+      if (feed == null)
+      {
+         return false;
+      }
+      final Future<?> nextRefresh = feed.nextRefresh;
+      if (nextRefresh != null)
+      {
+         nextRefresh.cancel(false);
+      }
+      synchronized (feed)
+      {
+         cache.remove(feed.key);
+         fetcher.forget(url);
+      }
+      log.info("Unregistered " + url);
+      return true;
+   }
+
+   /**
+    * Obtains the entries of the specified feed, fetching the feed if they're not cached
+    * 
+    * @param url
+    * @return An unmodifiable snapshot of the entries
+    * @throws IllegalArgumentException If the feed is not registered
+    */
+   List<RssEntry> getEntries(final URL url) throws IllegalArgumentException
+   {
+      return this.getSnapshot(url).getEntries();
+   }
+
+   /**
+    * Obtains the changes made to the entries of the specified feed since the
+    * specified version, fetching the feed if it's not cached
+    * 
+    * @param url
+    * @param version
+    * @return
+    * @throws IllegalArgumentException If the feed is not registered
+    */
+   RssFeedChanges getChangesSince(final URL url, final long version) throws IllegalArgumentException
+   {
+      return this.getSnapshot(url).getChangesSince(version);
+   }
+
+   /**
+    * Obtains the number of feeds whose entries are cached
+    */
+   int getCachedFeedCount()
+   {
+      return cache.size();
+   }
+
+   /**
+    * Sets the parser used for all subsequent fetches
+    * 
+    * @param parser
+    * @throws IllegalArgumentException If the parser is not specified
+    */
+   void setParser(final FeedParser parser) throws IllegalArgumentException
+   {
+      if (parser == null)
+      {
+         throw new IllegalArgumentException("parser must be specified");
+      }
+      this.parser = parser;
+   }
+
+   /**
+    * Stops all refreshes, and closes all pooled connections; the cache may not be used afterward
+    */
+   void shutdown()
+   {
+      scheduler.shutdownNow();
+      fetchPool.shutdownNow();
+      fetcher.shutdown();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the snapshot of the specified feed, fetching the feed if it's not cached
+    */
+   private FeedSnapshot getSnapshot(final URL url) throws IllegalArgumentException
+   {
+      final String key = url.toExternalForm();
+      final Feed feed = feeds.get(key);
+      if (feed == null)
+      {
+         throw new IllegalArgumentException("Feed is not registered: " + url);
+      }
+
+      // Cached?
+      final FeedSnapshot snapshot = cache.get(key);
+      if (snapshot != null)
+      {
+         return snapshot;
+      }
+
+      // Fetch it, unless another has done so while we waited 
+      synchronized (feed)
+      {
+         final FeedSnapshot loaded = cache.peek(key);
+         if (loaded != null)
+         {
+            return loaded;
+         }
+         try
+         {
+            return this.load(feed);
+         }
+         catch (final FeedException fe)
+         {
+            throw new RuntimeException(fe);
+         }
+         catch (final IOException ioe)
+         {
+            throw new RuntimeException(ioe);
+         }
+      }
+   }
+
+   /**
+    * Signals the specified feed to come due after the specified delay
+    */
+   private void schedule(final Feed feed, final long delayMillis)
+   {
+      try
+      {
+         feed.nextRefresh = scheduler.schedule(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               MultiFeedCache.this.onRefreshDue(feed);
+            }
+         }, delayMillis, TimeUnit.MILLISECONDS);
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         // Shut down
+         log.fine("Not scheduling refresh of " + feed.url + "; shut down");
+      }
+   }
+
+   /**
+    * Submits a refresh of the specified feed, and signals it to come due 
+    * again after its interval, varied by up to {@link MultiFeedCache#JITTER_PERCENT}
+    * either way
+    */
+   private void onRefreshDue(final Feed feed)
+   {
+      // Unregistered since
+      if (feeds.get(feed.key) != feed)
+      {
+         return;
+      }
+      this.submit(feed);
+      final long interval = feed.refreshIntervalMillis;
+      final long jitter = (long) ((random.nextDouble() * 2 - 1) * interval * JITTER_PERCENT / 100);
+      this.schedule(feed, interval + jitter);
+   }
+
+   /**
+    * Has a worker fetch the specified feed, unless a fetch is already pending,
+    * or no worker can take it
+    */
+   private void submit(final Feed feed)
+   {
+      if (!feed.fetchPending.compareAndSet(false, true))
+      {
+         return;
+      }
+      try
+      {
+         fetchPool.execute(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  MultiFeedCache.this.refresh(feed);
+               }
+               finally
+               {
+                  feed.fetchPending.set(false);
+               }
+            }
+         });
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         feed.fetchPending.set(false);
+         log.warning("All feed fetchers busy; skipping refresh of " + feed.url);
+      }
+   }
+
+   /**
+    * Refreshes the specified feed in the background: a feed not cached is 
+    * fetched only if it's never yet been, and a failure leaves the 
+    * entries as they are
+    */
+   private void refresh(final Feed feed)
+   {
+      synchronized (feed)
+      {
+         // Unregistered since
+         if (feeds.get(feed.key) != feed)
+         {
+            return;
+         }
+         try
+         {
+            // Not cached; fetched on first registration, otherwise left until next requested
+            final FeedSnapshot current = cache.peek(feed.key);
+            if (current == null)
+            {
+               if (!feed.loaded)
+               {
+                  this.load(feed);
+               }
+               return;
+            }
+
+            // Changed?
+            final Map<String, RomeRssEntry> parsed = fetcher.fetch(feed.url, parser);
+            if (parsed == null)
+            {
+               log.fine("Unchanged: " + feed.url);
+               return;
+            }
+            final FeedSnapshot merged = current.merge(parsed);
+            if (merged != current && cache.replace(feed.key, merged))
+            {
+               feed.lastVersion = merged.getVersion();
+            }
+         }
+         catch (final Exception e)
+         {
+            log.log(Level.WARNING, "Could not refresh " + feed.url + "; keeping current entries", e);
+         }
+      }
+   }
+
+   /**
+    * Fetches the specified feed in full and caches its entries; the caller
+    * must hold the feed's monitor
+    */
+   private FeedSnapshot load(final Feed feed) throws IOException, FeedException
+   {
+      // We've no entries to fall back on, so ask for the full feed
+      fetcher.forget(feed.url);
+      final Map<String, RomeRssEntry> parsed = fetcher.fetch(feed.url, parser);
+
+      // Versioned on from any snapshot lost to eviction, so clients holding that are reset
+      final FeedSnapshot snapshot = FeedSnapshot.after(feed.lastVersion).merge(parsed);
+      feed.loaded = true;
+      feed.lastVersion = snapshot.getVersion();
+      if (feeds.get(feed.key) == feed)
+      {
+         cache.put(feed.key, snapshot);
+      }
+      return snapshot;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A registered feed; its monitor serializes fetches of it
+    */
+   private static final class Feed
+   {
+      private final URL url;
+
+      private final String key;
+
+      private volatile long refreshIntervalMillis;
+
+      /**
+       * When the feed next comes due
+       */
+      private volatile Future<?> nextRefresh;
+
+      /**
+       * Whether a fetch is queued or under way
+       */
+      private final AtomicBoolean fetchPending = new AtomicBoolean();
+
+      /**
+       * Whether the feed has ever been fetched in full; guarded by the feed's monitor
+       */
+      private boolean loaded;
+
+      /**
+       * Version of the feed's last snapshot; guarded by the feed's monitor
+       */
+      private long lastVersion;
+
+      Feed(final URL url, final long refreshIntervalMillis)
+      {
+         this.url = url;
+         this.key = url.toExternalForm();
+         this.refreshIntervalMillis = refreshIntervalMillis;
+      }
+   }
+
+   /**
+    * Creates named daemon threads, so an undeployed cache never holds up shutdown
+    */
+   static final class DaemonThreadFactory implements ThreadFactory
+   {
+      private final String name;
+
+      private final AtomicInteger count = new AtomicInteger();
+
+      DaemonThreadFactory(final String name)
+      {
+         this.name = name;
+      }
+
+      /* (non-Javadoc)
+       * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+       */
+      @Override
+      public Thread newThread(final Runnable runnable)
+      {
+         final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.io.FeedException;
+import com.sun.syndication.io.SyndFeedInput;
+import com.sun.syndication.io.XmlReader;
+
+/**
+ * Parses feeds of any format with the java.net Rome API, which builds the 
+ * whole document as a tree, then the whole feed, before its entries are 
+ * taken; see {@link StaxFeedParser} for large feeds.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class RomeFeedParser implements FeedParser
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Most entries taken of a feed
+    */
+   private final int maxEntries;
+
+   /**
+    * Most characters kept of each description
+    */
+   private final int maxDescriptionLength;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a parser taking at most the specified number of entries of each feed
+    * 
+    * @param maxEntries
+    * @throws IllegalArgumentException If the maximum is not positive
+    */
+   RomeFeedParser(final int maxEntries) throws IllegalArgumentException
+   {
+      this(maxEntries, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Creates a parser taking at most the specified number of entries of each feed, 
+    * truncating descriptions to at most the specified number of characters
+    * 
+    * @param maxEntries
+    * @param maxDescriptionLength
+    * @throws IllegalArgumentException If either maximum is not positive
+    */
+   RomeFeedParser(final int maxEntries, final int maxDescriptionLength) throws IllegalArgumentException
+   {
+      if (maxEntries <= 0)
+      {
+         throw new IllegalArgumentException("Maximum entries must be positive: " + maxEntries);
+      }
+      if (maxDescriptionLength <= 0)
+      {
+         throw new IllegalArgumentException("Maximum description length must be positive: " + maxDescriptionLength);
+      }
+      this.maxEntries = maxEntries;
+      this.maxDescriptionLength = maxDescriptionLength;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.impl.rome.FeedParser#parse(java.io.InputStream)
+    */
+   @Override
+   public Map<String, RomeRssEntry> parse(final InputStream in) throws IOException, FeedException
+   {
+      return getEntries(new SyndFeedInput().build(new XmlReader(in)), maxEntries, maxDescriptionLength);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains (at most the specified number of) the entries of the specified feed, by key
+    * 
+    * @param feed
+    * @param maxEntries
+    * @param maxDescriptionLength Most characters kept of each description
+    * @return
+    */
+   static Map<String, RomeRssEntry> getEntries(final SyndFeed feed, final int maxEntries,
+         final int maxDescriptionLength)
+   {
+      // The Rome API doesn't provide for generics, so suppress the warning
+      @SuppressWarnings("unchecked")
+      final List<SyndEntry> syndEntries = (List<SyndEntry>) feed.getEntries();
+      final Map<String, RomeRssEntry> entries = new LinkedHashMap<String, RomeRssEntry>();
+      for (final SyndEntry syndEntry : syndEntries)
+      {
+         if (entries.size() == maxEntries)
+         {
+            break;
+         }
+         final String key = getKey(syndEntry);
+         if (!entries.containsKey(key))
+         {
+            entries.put(key, new RomeRssEntry(syndEntry, maxDescriptionLength));
+         }
+      }
+      return entries;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static String getKey(final SyndEntry entry)
+   {
+      final String uri = entry.getUri();
+      return uri != null && uri.length() > 0 ? uri : entry.getLink();
+   }
+}
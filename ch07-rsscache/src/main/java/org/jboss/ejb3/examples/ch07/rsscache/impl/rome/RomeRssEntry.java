@@ -21,8 +21,25 @@
  */
 package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
 
@@ -31,12 +48,85 @@ import com.sun.syndication.feed.synd.SyndEntry;
 
 /**
  * The java.net Rome implementation of an RSS Entry
+ * 
+ * The link is held as given (having been checked to parse), and parsed 
+ * into a {@link URL} only as {@link RomeRssEntry#getUrl()} is called.  
+ * Entries are held compactly, as a cache holds many: authors, which repeat
+ * across entries and feeds, are shared among all entries; descriptions are
+ * held as UTF-8, deflated where long enough for that to pay.  A deflated
+ * description is inflated upon the first call to {@link RomeRssEntry#getDescription()}
+ * and kept, softly, for those after, such that entries read often pay once while
+ * the memory of those read rarely may be taken back.  Parsers may also truncate 
+ * descriptions (see {@link RomeRssEntry#truncate(String, int)}).
+ * Serialized compactly, by hand; lists of entries are better still
+ * serialized as an {@link RssEntryList}, which shares repeated strings 
+ * among its entries.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
-public class RomeRssEntry implements RssEntry
+public class RomeRssEntry implements RssEntry, Externalizable
 {
 
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Value of {@link RomeRssEntry#getPublished()} for entries with no publication date
+    */
+   static final long UNKNOWN = Long.MIN_VALUE;
+
+   /**
+    * Descriptions are held as UTF-8
+    */
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   /**
+    * Shortest description, in UTF-8 bytes, which is deflated
+    */
+   private static final int COMPRESSION_THRESHOLD = 256;
+
+   /**
+    * Longest description, in UTF-8 bytes, accepted upon deserialization, such that
+    * a corrupt stream can't have us allocate without bound
+    */
+   static final int MAX_DESCRIPTION_LENGTH = 16 * 1024 * 1024;
+
+   /**
+    * Authors of all entries, each shared among those it wrote; weakly held, so 
+    * authors of no entry are let go.  Guarded by itself.
+    */
+   private static final Map<String, WeakReference<String>> AUTHORS = new WeakHashMap<String, WeakReference<String>>();
+
+   /**
+    * Deflates descriptions; one per thread, as each is costly to create
+    */
+   private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>()
+   {
+      @Override
+      protected Deflater initialValue()
+      {
+         return new Deflater(Deflater.BEST_SPEED, true);
+      }
+   };
+
+   /**
+    * Inflates descriptions; one per thread, as each is costly to create
+    */
+   private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>()
+   {
+      @Override
+      protected Inflater initialValue()
+      {
+         return new Inflater(true);
+      }
+   };
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -47,9 +137,21 @@ public class RomeRssEntry implements RssEntry
    private String author;
 
    /**
-    * The short description of the entry
+    * The short description of the entry, in UTF-8, deflated if shorter than 
+    * {@link RomeRssEntry#descriptionLength}
+    */
+   private byte[] description;
+
+   /**
+    * Length of the description in UTF-8 bytes
     */
-   private String description;
+   private int descriptionLength;
+
+   /**
+    * The description as last inflated, softly held; null if never inflated or 
+    * not deflated
+    */
+   private volatile SoftReference<String> inflatedDescription;
 
    /**
     * The title of the entry
@@ -57,38 +159,72 @@ public class RomeRssEntry implements RssEntry
    private String title;
 
    /**
-    * The link to the entry
+    * The link to the entry, a valid URL (or null if deserialized so)
+    */
+   private String link;
+
+   /**
+    * When the entry was published (or failing that, updated), in ms since the epoch
     */
-   private URL url;
+   private long published;
 
    //-------------------------------------------------------------------------------------||
-   // Constructor ------------------------------------------------------------------------||
+   // Constructors -----------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
     * Constructor
     * 
     * @param entry The Rome API's RSS Entry representation
+    * @param maxDescriptionLength Most characters of the description kept
     * @throws IllegalArgumentException If the entry is not specified 
     */
-   RomeRssEntry(final SyndEntry entry) throws IllegalArgumentException
+   RomeRssEntry(final SyndEntry entry, final int maxDescriptionLength) throws IllegalArgumentException
    {
       // Set properties
-      this.author = entry.getAuthor();
+      this.author = intern(entry.getAuthor());
       final SyndContent content = entry.getDescription();
-      this.description = content.getValue();
+      this.setDescription(content == null ? null : truncate(content.getValue(), maxDescriptionLength));
       this.title = entry.getTitle();
       final String urlString = entry.getLink();
-      URL url = null;
       try
       {
-         url = new URL(urlString);
+         // Only to check it parses; we keep the String
+         new URL(urlString);
       }
       catch (final MalformedURLException murle)
       {
          throw new RuntimeException("Obtained invalid URL from Rome RSS entry: " + entry, murle);
       }
-      this.url = url;
+      this.link = urlString;
+      this.published = getPublished(entry);
+   }
+
+   /**
+    * Constructor
+    * 
+    * @param author
+    * @param title
+    * @param description
+    * @param link A valid URL, or null
+    * @param published
+    */
+   RomeRssEntry(final String author, final String title, final String description, final String link,
+         final long published)
+   {
+      this.author = intern(author);
+      this.title = title;
+      this.setDescription(description);
+      this.link = link;
+      this.published = published;
+   }
+
+   /**
+    * No-arg constructor, required of {@link Externalizable}; not for other use
+    */
+   public RomeRssEntry()
+   {
+
    }
 
    //-------------------------------------------------------------------------------------||
@@ -110,7 +246,26 @@ public class RomeRssEntry implements RssEntry
    @Override
    public String getDescription()
    {
-      return this.description;
+      final byte[] description = this.description;
+      if (description == null)
+      {
+         return null;
+      }
+      if (description.length == this.descriptionLength)
+      {
+         // Not deflated, so cheap to decode
+         return new String(description, UTF_8);
+      }
+
+      // Inflate only if not already kept; a race inflates twice, harmlessly
+      final SoftReference<String> kept = this.inflatedDescription;
+      String inflated = kept == null ? null : kept.get();
+      if (inflated == null)
+      {
+         inflated = new String(this.getDescriptionUtf8(), UTF_8);
+         this.inflatedDescription = new SoftReference<String>(inflated);
+      }
+      return inflated;
    }
 
    /* (non-Javadoc)
@@ -122,13 +277,177 @@ public class RomeRssEntry implements RssEntry
       return this.title;
    }
 
-   /* (non-Javadoc)
+   /**
+    * Parses the link anew on each call, so the URL returned is the caller's own
+    * 
     * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry#getUrl()
     */
    @Override
    public URL getUrl()
    {
-      return ProtectExportUtil.copyUrl(this.url);
+      if (this.link == null)
+      {
+         return null;
+      }
+      try
+      {
+         return new URL(this.link);
+      }
+      catch (final MalformedURLException murle)
+      {
+         throw new RuntimeException("Entry has an invalid URL: " + this.link, murle);
+      }
+   }
+
+   /* (non-Javadoc)
+    * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+    */
+   @Override
+   public void writeExternal(final ObjectOutput out) throws IOException
+   {
+      RssEntryList.writeString(out, this.author);
+      RssEntryList.writeString(out, this.title);
+      RssEntryList.writeString(out, this.link);
+      out.writeLong(this.published);
+      this.writeDescription(out);
+   }
+
+   /* (non-Javadoc)
+    * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+    */
+   @Override
+   public void readExternal(final ObjectInput in) throws IOException
+   {
+      this.author = intern(RssEntryList.readString(in));
+      this.title = RssEntryList.readString(in);
+      this.link = RssEntryList.readString(in);
+      this.published = in.readLong();
+      this.readDescription(in);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether this entry has the same content as the specified entry,
+    * and so may stand for it
+    * 
+    * @param entry
+    * @return
+    */
+   boolean matches(final RomeRssEntry entry)
+   {
+      // Descriptions are deflated alike, if at all, so compare as held
+      return equal(this.author, entry.author) && equal(this.title, entry.title)
+            && this.descriptionLength == entry.descriptionLength && Arrays.equals(this.description, entry.description)
+            && equal(this.link, entry.link) && this.published == entry.published;
+   }
+
+   /**
+    * Writes the description as held, so it's inflated only when asked for
+    * 
+    * @param out
+    * @throws IOException
+    */
+   void writeDescription(final DataOutput out) throws IOException
+   {
+      if (this.description == null)
+      {
+         RssEntryList.writeVarInt(out, 0);
+         return;
+      }
+      RssEntryList.writeVarInt(out, this.descriptionLength + 1);
+      RssEntryList.writeVarInt(out, this.description.length);
+      out.write(this.description);
+   }
+
+   /**
+    * Reads the description written by {@link RomeRssEntry#writeDescription(DataOutput)}; 
+    * for deserialization only
+    * 
+    * @param in
+    * @throws IOException
+    */
+   void readDescription(final DataInput in) throws IOException
+   {
+      this.inflatedDescription = null;
+      final int written = RssEntryList.readVarInt(in);
+      if (written == 0)
+      {
+         this.description = null;
+         this.descriptionLength = 0;
+         return;
+      }
+      final int length = written - 1;
+      if (length < 0 || length > MAX_DESCRIPTION_LENGTH)
+      {
+         throw new InvalidObjectException("Description of " + length + " bytes is not within the most accepted, "
+               + MAX_DESCRIPTION_LENGTH);
+      }
+      final int heldLength = RssEntryList.readVarInt(in);
+      if (heldLength < 0 || heldLength > length)
+      {
+         throw new InvalidObjectException("Description held in " + heldLength + " bytes, not within its "
+               + length);
+      }
+      final byte[] description = new byte[heldLength];
+      in.readFully(description);
+      this.description = description;
+      this.descriptionLength = length;
+   }
+
+   /**
+    * Obtains the bytes taken by the description as held
+    */
+   int getDescriptionFootprint()
+   {
+      return this.description == null ? 0 : this.description.length;
+   }
+
+   /**
+    * Obtains the link to the entry, as given
+    */
+   String getLink()
+   {
+      return this.link;
+   }
+
+   /**
+    * Obtains the specified description cut to at most the specified number of 
+    * characters, without splitting a character or leaving a markup tag open
+    * 
+    * @param description
+    * @param maxLength
+    * @return The description, or null if none is specified
+    */
+   static String truncate(final String description, final int maxLength)
+   {
+      if (description == null || description.length() <= maxLength)
+      {
+         return description;
+      }
+      int end = maxLength;
+      if (end > 0 && Character.isHighSurrogate(description.charAt(end - 1)))
+      {
+         end--;
+      }
+      final int tagStart = description.lastIndexOf('<', end - 1);
+      if (tagStart >= 0 && description.lastIndexOf('>', end - 1) < tagStart)
+      {
+         end = tagStart;
+      }
+      return description.substring(0, end);
+   }
+
+   /**
+    * Obtains when the entry was published (or failing that, updated)
+    * 
+    * @return Time in ms since the epoch, or {@link RomeRssEntry#UNKNOWN}
+    */
+   long getPublished()
+   {
+      return this.published;
    }
 
    //-------------------------------------------------------------------------------------||
@@ -144,7 +463,118 @@ public class RomeRssEntry implements RssEntry
       final StringBuilder sb = new StringBuilder();
       sb.append(this.getTitle());
       sb.append(" - ");
-      sb.append(this.url.toExternalForm());
+      sb.append(this.link);
       return sb.toString();
    }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the description in UTF-8, inflating it if need be; the array 
+    * returned is not to be modified
+    * 
+    * @return The description, or null if there's none
+    */
+   private byte[] getDescriptionUtf8()
+   {
+      final byte[] description = this.description;
+      if (description == null || description.length == this.descriptionLength)
+      {
+         return description;
+      }
+      final Inflater inflater = INFLATERS.get();
+      try
+      {
+         inflater.reset();
+         inflater.setInput(description);
+         final byte[] utf8 = new byte[this.descriptionLength];
+         int inflated = 0;
+         while (inflated < utf8.length)
+         {
+            final int read = inflater.inflate(utf8, inflated, utf8.length - inflated);
+            if (read == 0 && (inflater.finished() || inflater.needsInput()))
+            {
+               throw new IllegalStateException("Description of " + this + " is truncated");
+            }
+            inflated += read;
+         }
+         return utf8;
+      }
+      catch (final DataFormatException dfe)
+      {
+         throw new IllegalStateException("Description of " + this + " is corrupt", dfe);
+      }
+   }
+
+   /**
+    * Holds the specified description in UTF-8, deflated if that pays
+    */
+   private void setDescription(final String description)
+   {
+      if (description == null)
+      {
+         this.description = null;
+         this.descriptionLength = 0;
+         return;
+      }
+      this.inflatedDescription = null;
+      final byte[] utf8 = description.getBytes(UTF_8);
+      this.description = utf8;
+      this.descriptionLength = utf8.length;
+      if (utf8.length < COMPRESSION_THRESHOLD)
+      {
+         return;
+      }
+      final Deflater deflater = DEFLATERS.get();
+      deflater.reset();
+      deflater.setInput(utf8);
+      deflater.finish();
+
+      // Kept only if smaller
+      final byte[] buffer = new byte[utf8.length - 1];
+      int deflated = 0;
+      while (!deflater.finished() && deflated < buffer.length)
+      {
+         deflated += deflater.deflate(buffer, deflated, buffer.length - deflated);
+      }
+      if (deflater.finished())
+      {
+         this.description = Arrays.copyOf(buffer, deflated);
+      }
+   }
+
+   /**
+    * Obtains the instance of the specified author shared among all entries
+    */
+   private static String intern(final String author)
+   {
+      if (author == null)
+      {
+         return null;
+      }
+      synchronized (AUTHORS)
+      {
+         final WeakReference<String> shared = AUTHORS.get(author);
+         final String existing = shared == null ? null : shared.get();
+         if (existing != null)
+         {
+            return existing;
+         }
+         AUTHORS.put(author, new WeakReference<String>(author));
+         return author;
+      }
+   }
+
+   private static long getPublished(final SyndEntry entry)
+   {
+      final Date published = entry.getPublishedDate() != null ? entry.getPublishedDate() : entry.getUpdatedDate();
+      return published == null ? UNKNOWN : published.getTime();
+   }
+
+   private static boolean equal(final String a, final String b)
+   {
+      return a == null ? b == null : a.equals(b);
+   }
 }
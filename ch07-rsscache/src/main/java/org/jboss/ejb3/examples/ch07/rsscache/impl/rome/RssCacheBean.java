@@ -1,42 +1,86 @@
 package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
 import javax.ejb.Remote;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryCursor;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryPage;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssFeedChanges;
 
-import com.sun.syndication.feed.synd.SyndEntry;
-import com.sun.syndication.feed.synd.SyndFeed;
-import com.sun.syndication.fetcher.FeedFetcher;
-import com.sun.syndication.fetcher.FetcherException;
-import com.sun.syndication.fetcher.impl.HttpClientFeedFetcher;
 import com.sun.syndication.io.FeedException;
 
 /**
  * Singleton EJB, to be eagerly instantiated upon application deployment,
  * exposing a cached view of an RSS Feed
+ * 
+ * The cached entries are held as an immutable snapshot.  A refresh fetches 
+ * and parses the feed, merges it into a new snapshot (carrying over unchanged 
+ * entries, and recording what changed so clients may ask for only that; see 
+ * {@link FeedSnapshot}) without holding any lock readers would contend for, 
+ * and then publishes it with a single atomic reference swap.
+ * Readers therefore never wait on a refresh (however slow the feed's origin), 
+ * and always see the last complete snapshot; should a refresh fail, the 
+ * previous snapshot remains in place.
+ * 
+ * The entries are indexed for search (see {@link SearchIndex}) as each refresh
+ * changes them, the index too being immutable and published in the same 
+ * atomic swap as its snapshot, so searches likewise never wait on a refresh,
+ * and always agree with the entries read; only entries added or updated by
+ * a refresh are indexed.
+ * 
+ * Feeds are fetched with conditional GETs over pooled connections; when
+ * the origin reports the feed unchanged, the refresh ends there, with 
+ * nothing downloaded or parsed and the current snapshot kept.
+ * 
+ * Any number of further feeds may be registered, and are then cached 
+ * by URL (see {@link MultiFeedCache}) and refreshed in the background.
+ * 
+ * Feeds are parsed by Rome unless the "feedParser" env-entry names the 
+ * streaming parser ("stax"; see {@link StaxFeedParser}), which reads
+ * only the entries it keeps, so is better suited to very large feeds; 
+ * the "maxFeedEntries" env-entry then bounds how many are kept of each.
+ * With either parser, the "maxDescriptionLength" env-entry bounds the 
+ * characters kept of each entry's description.
+ * 
+ * Each refresh which changes the entries also writes them to disk (see 
+ * {@link SnapshotStore}), in the directory named by the "snapshotDirectory"
+ * env-entry, else under the server's data directory.  Upon startup, the 
+ * snapshot last written is served at once, and the feed refreshed in the 
+ * background, so startup and first reads don't wait upon the feed's origin.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
 @Singleton
 @Startup
 @Remote(RssCacheCommonBusiness.class)
-// Explicitly declare Container Managed Concurrency, which is unnecessary; it's the default
-@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+// We handle concurrency ourselves: Container Managed Concurrency would have readers
+// wait upon a WRITE lock held by refresh() for the full network latency of the fetch
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class RssCacheBean implements RssCacheCommonBusiness
 {
 
@@ -49,6 +93,88 @@ public class RssCacheBean implements RssCacheCommonBusiness
     */
    private static final Logger log = Logger.getLogger(RssCacheBean.class.getName());
 
+   /**
+    * Number of recent snapshots kept, so that cursors over them may still be followed
+    */
+   private static final int PINNED_SNAPSHOTS = 8;
+
+   /**
+    * The most registered feeds whose entries will be cached
+    */
+   private static final int MAX_CACHED_FEEDS = 10000;
+
+   /**
+    * The most memory the entries of registered feeds will take, in bytes
+    */
+   private static final long MAX_CACHED_FEED_BYTES = 256L * 1024 * 1024;
+
+   /**
+    * The number of workers fetching registered feeds
+    */
+   private static final int FEED_FETCH_THREADS = 8;
+
+   /**
+    * The most fetches of registered feeds which may wait upon a worker
+    */
+   private static final int FEED_FETCH_QUEUE_CAPACITY = 1024;
+
+   /**
+    * Name of the environment entry naming the feed parser, either {@link #FEED_PARSER_ROME}
+    * or {@link #FEED_PARSER_STAX}
+    */
+   private static final String ENV_ENTRY_NAME_FEED_PARSER = "feedParser";
+
+   /**
+    * Name of the environment entry representing the most entries kept of each feed
+    */
+   private static final String ENV_ENTRY_NAME_MAX_FEED_ENTRIES = "maxFeedEntries";
+
+   /**
+    * Feed parser backed by Rome, building the whole feed in memory
+    */
+   static final String FEED_PARSER_ROME = "rome";
+
+   /**
+    * Streaming feed parser, reading only the entries kept
+    */
+   static final String FEED_PARSER_STAX = "stax";
+
+   /**
+    * Name of the environment entry representing the most characters kept of each description
+    */
+   private static final String ENV_ENTRY_NAME_MAX_DESCRIPTION_LENGTH = "maxDescriptionLength";
+
+   /**
+    * Default feed parser
+    */
+   private static final String DEFAULT_FEED_PARSER = FEED_PARSER_ROME;
+
+   /**
+    * Default most entries kept of each feed; all of them
+    */
+   private static final int DEFAULT_MAX_FEED_ENTRIES = Integer.MAX_VALUE;
+
+   /**
+    * Default most characters kept of each description; all of them
+    */
+   private static final int DEFAULT_MAX_DESCRIPTION_LENGTH = Integer.MAX_VALUE;
+
+   /**
+    * Name of the environment entry naming the directory to which snapshots are written
+    */
+   private static final String ENV_ENTRY_NAME_SNAPSHOT_DIRECTORY = "snapshotDirectory";
+
+   /**
+    * System property naming the server's data directory, under which snapshots are 
+    * written by default
+    */
+   private static final String SYSTEM_PROPERTY_SERVER_DATA_DIR = "jboss.server.data.dir";
+
+   /**
+    * Directory, under the server's data directory, to which snapshots are written by default
+    */
+   private static final String DEFAULT_SNAPSHOT_SUBDIRECTORY = "rsscache";
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -56,12 +182,74 @@ public class RssCacheBean implements RssCacheCommonBusiness
    /**
     * URL pointing to the RSS Feed
     */
-   private URL url;
+   private volatile URL url;
+
+   /**
+    * Name of the feed parser, injected via the env-entry of the same name
+    */
+   @Resource(name = ENV_ENTRY_NAME_FEED_PARSER)
+   private String feedParserName;
 
    /**
-    * Cached RSS Entries for the feed
+    * Most entries kept of each feed, injected via the env-entry of the same name
     */
-   private List<RssEntry> entries;
+   @Resource(name = ENV_ENTRY_NAME_MAX_FEED_ENTRIES)
+   private Integer maxFeedEntries;
+
+   /**
+    * Most characters kept of each description, injected via the env-entry of the same name
+    */
+   @Resource(name = ENV_ENTRY_NAME_MAX_DESCRIPTION_LENGTH)
+   private Integer maxDescriptionLength;
+
+   /**
+    * Parses fetched feeds; resolved from the env-entries upon first use
+    */
+   private volatile FeedParser feedParser;
+
+   /**
+    * Directory to which snapshots are written, injected via the env-entry of the same name
+    */
+   @Resource(name = ENV_ENTRY_NAME_SNAPSHOT_DIRECTORY)
+   private String snapshotDirectory;
+
+   /**
+    * Persists snapshots; null if there's nowhere configured to write them
+    */
+   private volatile SnapshotStore snapshotStore;
+
+   /**
+    * Cached RSS Entries for the feed, with their index for search; immutable, 
+    * replaced whole by each refresh which changes them
+    */
+   private final AtomicReference<Published> published = new AtomicReference<Published>(Published.EMPTY);
+
+   /**
+    * The most recent snapshots, by version, for cursors to follow
+    */
+   private final ConcurrentMap<Long, FeedSnapshot> recentSnapshots = new ConcurrentHashMap<Long, FeedSnapshot>();
+
+   /**
+    * Versions of {@link RssCacheBean#recentSnapshots}, oldest first; guarded by this bean's monitor
+    */
+   private final Deque<Long> recentVersions = new ArrayDeque<Long>();
+
+   /**
+    * Fetches the feed, reused across refreshes so as to keep its validators and pooled connections
+    */
+   private final ConditionalFeedFetcher feedFetcher = new ConditionalFeedFetcher();
+
+   /**
+    * Cached entries of the registered feeds
+    */
+   private final MultiFeedCache registeredFeeds = new MultiFeedCache(MAX_CACHED_FEEDS, MAX_CACHED_FEED_BYTES,
+         FEED_FETCH_THREADS, FEED_FETCH_QUEUE_CAPACITY);
+
+   /**
+    * Refreshes the feed after startup from a persisted snapshot
+    */
+   private final ExecutorService backgroundRefresher = Executors
+         .newSingleThreadExecutor(new MultiFeedCache.DaemonThreadFactory("RssCacheRefresher"));
 
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
@@ -71,32 +259,91 @@ public class RssCacheBean implements RssCacheCommonBusiness
     * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntries()
     */
    @Override
-   @Lock(LockType.READ)
    public List<RssEntry> getEntries()
    {
-      return entries;
+      // No locking; the snapshot is immutable
+      return published.get().snapshot.getEntries();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntries(int, int)
+    */
+   @Override
+   public List<RssEntry> getEntries(final int offset, final int limit) throws IllegalArgumentException
+   {
+      return published.get().snapshot.getEntries(offset, limit);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getNewestEntries(int)
+    */
+   @Override
+   public List<RssEntry> getNewestEntries(final int count) throws IllegalArgumentException
+   {
+      return published.get().snapshot.getNewestEntries(count);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntryPage(org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryCursor, int)
+    */
+   @Override
+   public RssEntryPage getEntryPage(final RssEntryCursor cursor, final int limit) throws IllegalArgumentException
+   {
+      // Start from the current snapshot
+      final FeedSnapshot current = published.get().snapshot;
+      if (cursor == null)
+      {
+         return current.getPage(0, limit);
+      }
+
+      // Carry on in the snapshot of the cursor
+      final long version = cursor.getVersion();
+      final FeedSnapshot pinned = current.getVersion() == version ? current : recentSnapshots.get(version);
+      if (pinned == null)
+      {
+         throw new IllegalArgumentException("Cursor has expired, as the feed has been refreshed since: " + cursor);
+      }
+      return pinned.getPage(cursor.getOffset(), limit);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getChangesSince(long)
+    */
+   @Override
+   public RssFeedChanges getChangesSince(final long version)
+   {
+      return published.get().snapshot.getChangesSince(version);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#search(java.lang.String, int)
+    */
+   @Override
+   public List<RssEntry> search(final String query, final int limit) throws IllegalArgumentException
+   {
+      // No locking; the index is immutable
+      return published.get().searchIndex.search(query, limit);
    }
 
    /* (non-Javadoc)
     * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getUrl()
     */
-   @Lock(LockType.READ)
    @Override
    public URL getUrl()
    {
-      // Return a copy so we don't export mutable state to the client
-      return ProtectExportUtil.copyUrl(this.url);
+      // No copy needed; a URL exposes no means to change it
+      return this.url;
    }
 
    /**
+    * Refreshes are serialized with respect to one another (so that an older
+    * fetch may never publish over a newer one), but never block readers.
+    * 
     * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#refresh()
     * @throws IllegalStateException If the URL has not been set
     */
-   @PostConstruct
    @Override
-   // Block all readers and writers until we're done here; Optional metadata, WRITE is the default
-   @Lock(LockType.WRITE)
-   public void refresh() throws IllegalStateException
+   public synchronized void refresh() throws IllegalStateException
    {
 
       // Obtain the URL
@@ -108,47 +355,163 @@ public class RssCacheBean implements RssCacheCommonBusiness
       log.info("Requested: " + url);
 
       // Obtain the feed
-      final FeedFetcher feedFetcher = new HttpClientFeedFetcher();
-      SyndFeed feed = null;
+      Map<String, RomeRssEntry> parsed = null;
       try
       {
-         feed = feedFetcher.retrieveFeed(url);
+         parsed = feedFetcher.fetch(url, this.getFeedParser());
       }
       catch (final FeedException fe)
       {
          throw new RuntimeException(fe);
       }
-      catch (final FetcherException fe)
-      {
-         throw new RuntimeException(fe);
-      }
       catch (final IOException ioe)
       {
          throw new RuntimeException(ioe);
       }
 
-      // Make a new list for the entries
-      final List<RssEntry> rssEntries = new ArrayList<RssEntry>();
+      // Unchanged since we last parsed it, so the snapshot we have stands
+      if (parsed == null)
+      {
+         log.info("Unchanged: " + url);
+         return;
+      }
 
-      // For each entry
-      @SuppressWarnings("unchecked")
-      // The Rome API doesn't provide for generics, so suppress the warning
-      final List<SyndEntry> list = (List<SyndEntry>) feed.getEntries();
-      for (final SyndEntry entry : list)
+      // Merge, so unchanged entries are carried over
+      final Published last = this.published.get();
+      final FeedSnapshot current = last.snapshot;
+      final FeedSnapshot merged = current.merge(parsed);
+      if (merged == current)
       {
-         // Make a new entry
-         final RssEntry rssEntry = new RomeRssEntry(entry);
+         log.info("Entries unchanged: " + url);
+         return;
+      }
+
+      // Index only the entries changed
+      final List<RssEntry> removed = new ArrayList<RssEntry>();
+      final List<RssEntry> added = new ArrayList<RssEntry>();
+      merged.collectChangesSince(current, removed, added);
+      final SearchIndex indexed = last.searchIndex.update(removed, added);
 
-         // Place in the list
-         rssEntries.add(rssEntry);
-         log.fine("Found new RSS Entry: " + rssEntry);
+      // Publish the new snapshot and its index to readers
+      this.publish(merged, indexed);
+      log.info("Refreshed " + url + " to version " + merged.getVersion() + ": "
+            + merged.getChangesSince(current.getVersion()));
+
+      // Persist, so a restart may serve these at once
+      this.writeSnapshot(url, merged);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntries(java.net.URL)
+    */
+   @Override
+   public List<RssEntry> getEntries(final URL url) throws IllegalArgumentException
+   {
+      if (url == null)
+      {
+         throw new IllegalArgumentException("Feed URL must be specified");
+      }
+      return registeredFeeds.getEntries(url);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getChangesSince(java.net.URL, long)
+    */
+   @Override
+   public RssFeedChanges getChangesSince(final URL url, final long version) throws IllegalArgumentException
+   {
+      if (url == null)
+      {
+         throw new IllegalArgumentException("Feed URL must be specified");
+      }
+      return registeredFeeds.getChangesSince(url, version);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#registerFeed(java.net.URL, long)
+    */
+   @Override
+   public void registerFeed(final URL url, final long refreshIntervalMillis) throws IllegalArgumentException
+   {
+      // Kept as given; a URL exposes no means to change it
+      this.getFeedParser();
+      registeredFeeds.register(url, refreshIntervalMillis);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#unregisterFeed(java.net.URL)
+    */
+   @Override
+   public boolean unregisterFeed(final URL url)
+   {
+      if (url == null)
+      {
+         return false;
+      }
+      return registeredFeeds.unregister(url);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serves the snapshot last persisted, if any, and refreshes in the background; 
+    * else refreshes before returning
+    * 
+    * @throws IllegalStateException If the URL has not been set
+    */
+   @PostConstruct
+   public synchronized void start() throws IllegalStateException
+   {
+      // Obtain the URL
+      final URL url = this.url;
+      if (url == null)
+      {
+         throw new IllegalStateException("The Feed URL has not been set");
       }
 
-      // Protect the entries from mutation from exporting the client view
-      final List<RssEntry> protectedEntries = Collections.unmodifiableList(rssEntries);
+      // Nothing to serve until we've fetched
+      this.snapshotStore = this.createSnapshotStore();
+      final FeedSnapshot restored = this.readSnapshot(url);
+      if (restored == null)
+      {
+         this.refresh();
+         return;
+      }
 
-      // Set the entries in the cache
-      this.entries = protectedEntries;
+      // Serve what we last had
+      this.publish(restored, SearchIndex.EMPTY.update(Collections.<RssEntry> emptyList(), restored.getEntries()));
+      log.info("Restored " + url + " at version " + restored.getVersion() + " with "
+            + restored.getEntries().size() + " entries");
+
+      // And catch up with the origin; a failure leaves the restored snapshot in place
+      backgroundRefresher.execute(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               refresh();
+            }
+            catch (final RuntimeException re)
+            {
+               log.log(Level.WARNING, "Could not refresh " + url + " after restoring its snapshot", re);
+            }
+         }
+      });
+   }
+
+   /**
+    * Stops refreshing registered feeds, and closes the pooled connections to feed origins
+    */
+   @PreDestroy
+   public void shutdown()
+   {
+      backgroundRefresher.shutdownNow();
+      registeredFeeds.shutdown();
+      feedFetcher.shutdown();
    }
 
    //-------------------------------------------------------------------------------------||
@@ -156,7 +519,166 @@ public class RssCacheBean implements RssCacheCommonBusiness
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Sets the URL pointing to the feed
+    * Obtains the feed parser, creating it from the env-entries (or their defaults) 
+    * upon first use, and handing it to the registered feeds
+    * 
+    * @throws IllegalStateException If the env-entries name no known parser or a non-positive maximum
+    */
+   private FeedParser getFeedParser() throws IllegalStateException
+   {
+      FeedParser parser = this.feedParser;
+      if (parser != null)
+      {
+         return parser;
+      }
+      synchronized (this)
+      {
+         parser = this.feedParser;
+         if (parser != null)
+         {
+            return parser;
+         }
+
+         // Fall back on the defaults where not supplied
+         String name = this.feedParserName;
+         if (name == null)
+         {
+            name = DEFAULT_FEED_PARSER;
+         }
+         final int maxEntries = this.maxFeedEntries == null ? DEFAULT_MAX_FEED_ENTRIES : this.maxFeedEntries;
+         if (maxEntries <= 0)
+         {
+            throw new IllegalStateException(ENV_ENTRY_NAME_MAX_FEED_ENTRIES + " must be positive: " + maxEntries);
+         }
+         final int maxDescriptionLength = this.maxDescriptionLength == null ? DEFAULT_MAX_DESCRIPTION_LENGTH
+               : this.maxDescriptionLength;
+         if (maxDescriptionLength <= 0)
+         {
+            throw new IllegalStateException(ENV_ENTRY_NAME_MAX_DESCRIPTION_LENGTH + " must be positive: "
+                  + maxDescriptionLength);
+         }
+
+         // Create
+         if (FEED_PARSER_ROME.equals(name))
+         {
+            parser = new RomeFeedParser(maxEntries, maxDescriptionLength);
+         }
+         else if (FEED_PARSER_STAX.equals(name))
+         {
+            parser = new StaxFeedParser(maxEntries, maxDescriptionLength);
+         }
+         else
+         {
+            throw new IllegalStateException("Unknown " + ENV_ENTRY_NAME_FEED_PARSER + ": " + name);
+         }
+         log.info("Configured feed parser is: " + name + ", keeping at most " + maxEntries
+               + " entries, and " + maxDescriptionLength + " characters of each description");
+         registeredFeeds.setParser(parser);
+         this.feedParser = parser;
+         return parser;
+      }
+   }
+
+   /**
+    * Creates the store of snapshots in the directory named by the env-entry, else 
+    * under the server's data directory
+    * 
+    * @return The store, or null if there's no directory
+    */
+   private SnapshotStore createSnapshotStore()
+   {
+      File directory = this.snapshotDirectory == null ? null : new File(this.snapshotDirectory);
+      if (directory == null)
+      {
+         final String dataDirectory = System.getProperty(SYSTEM_PROPERTY_SERVER_DATA_DIR);
+         if (dataDirectory == null)
+         {
+            log.info("No snapshot directory has been supplied via env-entry, nor is there a server data "
+                  + "directory; snapshots will not be persisted");
+            return null;
+         }
+         directory = new File(dataDirectory, DEFAULT_SNAPSHOT_SUBDIRECTORY);
+      }
+      log.info("Configured snapshot directory is: " + directory);
+      return new SnapshotStore(directory);
+   }
+
+   /**
+    * Reads the snapshot last persisted of the feed at the specified URL
+    * 
+    * @return The snapshot, or null if there's none to be read
+    */
+   private FeedSnapshot readSnapshot(final URL url)
+   {
+      final SnapshotStore store = this.snapshotStore;
+      if (store == null)
+      {
+         return null;
+      }
+      try
+      {
+         return store.read(url);
+      }
+      catch (final IOException ioe)
+      {
+         log.log(Level.WARNING, "Could not read the snapshot of " + url + "; fetching in full", ioe);
+         return null;
+      }
+   }
+
+   /**
+    * Persists the specified snapshot of the feed at the specified URL, if there's somewhere 
+    * to; a failure is logged, and leaves the snapshot last persisted in place
+    */
+   private void writeSnapshot(final URL url, final FeedSnapshot snapshot)
+   {
+      final SnapshotStore store = this.snapshotStore;
+      if (store == null)
+      {
+         return;
+      }
+      try
+      {
+         store.write(url, snapshot);
+      }
+      catch (final IOException ioe)
+      {
+         log.log(Level.WARNING, "Could not write the snapshot of " + url, ioe);
+      }
+   }
+
+   /**
+    * Publishes the specified snapshot and its index to readers in one atomic swap, 
+    * and keeps the snapshot a while for cursors, evicting the oldest kept beyond 
+    * {@link RssCacheBean#PINNED_SNAPSHOTS}; versions needn't be contiguous
+    * 
+    * @param snapshot
+    * @param searchIndex
+    */
+   synchronized void publish(final FeedSnapshot snapshot, final SearchIndex searchIndex)
+   {
+      this.published.set(new Published(snapshot, searchIndex));
+      final Long version = snapshot.getVersion();
+      if (recentSnapshots.put(version, snapshot) == null)
+      {
+         recentVersions.addLast(version);
+      }
+      while (recentVersions.size() > PINNED_SNAPSHOTS)
+      {
+         recentSnapshots.remove(recentVersions.removeFirst());
+      }
+   }
+
+   /**
+    * Obtains a snapshot of the work done in fetching the feed so far
+    */
+   FeedFetchStatistics getFetchStatistics()
+   {
+      return feedFetcher.getStatistics();
+   }
+
+   /**
+    * Sets the URL pointing to the feed, and starts as upon construction
     * 
     * @param url
     * @throws IllegalArgumentException If the URL is null
@@ -166,7 +688,44 @@ public class RssCacheBean implements RssCacheCommonBusiness
       // Set the URL
       this.url = url;
 
-      // Refresh
-      this.refresh();
+      // Start
+      this.start();
+   }
+
+   /**
+    * Sets the directory to which snapshots are written, in place of the env-entry;
+    * takes effect upon {@link RssCacheBean#start()}
+    * 
+    * @param directory
+    */
+   void setSnapshotDirectory(final File directory)
+   {
+      this.snapshotDirectory = directory == null ? null : directory.getPath();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A snapshot of the entries along with their index, published together so 
+    * that readers never see one without the other
+    */
+   private static final class Published
+   {
+      /**
+       * Nothing yet fetched
+       */
+      private static final Published EMPTY = new Published(FeedSnapshot.EMPTY, SearchIndex.EMPTY);
+
+      private final FeedSnapshot snapshot;
+
+      private final SearchIndex searchIndex;
+
+      Published(final FeedSnapshot snapshot, final SearchIndex searchIndex)
+      {
+         this.snapshot = snapshot;
+         this.searchIndex = searchIndex;
+      }
    }
 }
@@ -0,0 +1,420 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+
+/**
+ * Immutable list of {@link RssEntry}s, serialized compactly for
+ * transport over the remote view.  Authors and link origins 
+ * (scheme and host) repeat from entry to entry in a feed, so 
+ * each is written once per list and thereafter referenced
+ * by index; links travel as Strings, parsed only by 
+ * {@link RssEntry#getUrl()} on the receiving side, and descriptions 
+ * as held by {@link RomeRssEntry}, so deflated descriptions are 
+ * inflated only when asked for.  The same form is written to disk 
+ * by {@link SnapshotStore}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class RssEntryList extends AbstractList<RssEntry> implements RandomAccess, Externalizable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Version of the wire format written by {@link RssEntryList#write(DataOutput)}
+    */
+   private static final byte FORMAT_VERSION = 2;
+
+   /**
+    * Strings are written as UTF-8
+    */
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   /**
+    * Shared instance of the empty list
+    */
+   static final RssEntryList EMPTY = new RssEntryList(new RssEntry[0]);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The entries; never modified once the list is constructed or read
+    */
+   private RssEntry[] entries;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructors -----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a list holding a copy of the specified entries
+    * 
+    * @param entries
+    */
+   RssEntryList(final Collection<? extends RssEntry> entries)
+   {
+      this(entries.toArray(new RssEntry[entries.size()]));
+   }
+
+   private RssEntryList(final RssEntry[] entries)
+   {
+      this.entries = entries;
+   }
+
+   /**
+    * No-arg constructor, required of {@link Externalizable}; not for other use
+    */
+   public RssEntryList()
+   {
+      this(new RssEntry[0]);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.util.AbstractList#get(int)
+    */
+   @Override
+   public RssEntry get(final int index)
+   {
+      return this.entries[index];
+   }
+
+   /* (non-Javadoc)
+    * @see java.util.AbstractCollection#size()
+    */
+   @Override
+   public int size()
+   {
+      return this.entries.length;
+   }
+
+   /* (non-Javadoc)
+    * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+    */
+   @Override
+   public void writeExternal(final ObjectOutput out) throws IOException
+   {
+      this.write(out);
+   }
+
+   /* (non-Javadoc)
+    * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+    */
+   @Override
+   public void readExternal(final ObjectInput in) throws IOException
+   {
+      this.entries = read(in).entries;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the entries in the compact form
+    * 
+    * @param out
+    * @throws IOException
+    */
+   void write(final DataOutput out) throws IOException
+   {
+      out.writeByte(FORMAT_VERSION);
+      writeVarInt(out, this.entries.length);
+      final Map<String, Integer> authors = new HashMap<String, Integer>();
+      final Map<String, Integer> origins = new HashMap<String, Integer>();
+      for (final RssEntry entry : this.entries)
+      {
+         // Entries of our own are written as held, their descriptions perhaps deflated
+         final RomeRssEntry romeEntry;
+         if (entry instanceof RomeRssEntry)
+         {
+            romeEntry = (RomeRssEntry) entry;
+         }
+         else
+         {
+            final URL url = entry.getUrl();
+            final String foreignLink = url == null ? null : url.toExternalForm();
+            romeEntry = new RomeRssEntry(entry.getAuthor(), entry.getTitle(), entry.getDescription(), foreignLink,
+                  RomeRssEntry.UNKNOWN);
+         }
+         final String link = romeEntry.getLink();
+         writeShared(out, entry.getAuthor(), authors);
+         if (link == null)
+         {
+            writeShared(out, null, origins);
+            writeString(out, null);
+         }
+         else
+         {
+            final int originEnd = getOriginEnd(link);
+            writeShared(out, link.substring(0, originEnd), origins);
+            writeString(out, link.substring(originEnd));
+         }
+         writeString(out, entry.getTitle());
+         out.writeLong(romeEntry.getPublished());
+         romeEntry.writeDescription(out);
+      }
+   }
+
+   /**
+    * Reads a list written by {@link RssEntryList#write(DataOutput)}
+    * 
+    * @param in
+    * @return
+    * @throws IOException
+    */
+   static RssEntryList read(final DataInput in) throws IOException
+   {
+      final byte version = in.readByte();
+      if (version != FORMAT_VERSION)
+      {
+         throw new InvalidObjectException("Unsupported " + RssEntryList.class.getSimpleName() + " format: "
+               + version);
+      }
+      final int size = readVarInt(in);
+      final RssEntry[] entries = new RssEntry[size];
+      final List<String> authors = new ArrayList<String>();
+      final List<String> origins = new ArrayList<String>();
+      for (int i = 0; i < size; i++)
+      {
+         final String author = readShared(in, authors);
+         final String origin = readShared(in, origins);
+         final String rest = readString(in);
+         final String link = origin == null ? null : origin + rest;
+         final String title = readString(in);
+         final long published = in.readLong();
+         final RomeRssEntry entry = new RomeRssEntry(author, title, null, link, published);
+         entry.readDescription(in);
+         entries[i] = entry;
+      }
+      return new RssEntryList(entries);
+   }
+
+   /**
+    * Returns a list of the entries in the specified range of this list
+    * 
+    * @param fromIndex Inclusive
+    * @param toIndex Exclusive
+    * @return
+    */
+   RssEntryList copyOfRange(final int fromIndex, final int toIndex)
+   {
+      if (fromIndex == 0 && toIndex == this.entries.length)
+      {
+         return this;
+      }
+      final RssEntry[] range = new RssEntry[toIndex - fromIndex];
+      System.arraycopy(this.entries, fromIndex, range, 0, range.length);
+      return new RssEntryList(range);
+   }
+
+   /**
+    * Writes the specified, possibly null, String as a length 
+    * (plus one, zero denoting null) followed by its UTF-8 bytes
+    * 
+    * @param out
+    * @param value
+    * @throws IOException
+    */
+   static void writeString(final DataOutput out, final String value) throws IOException
+   {
+      if (value == null)
+      {
+         writeVarInt(out, 0);
+         return;
+      }
+      final byte[] bytes = value.getBytes(UTF_8);
+      writeVarInt(out, bytes.length + 1);
+      out.write(bytes);
+   }
+
+   /**
+    * Reads a String written by {@link RssEntryList#writeString(DataOutput, String)}
+    * 
+    * @param in
+    * @return
+    * @throws IOException
+    */
+   static String readString(final DataInput in) throws IOException
+   {
+      final int length = readVarInt(in) - 1;
+      if (length < 0)
+      {
+         return null;
+      }
+      final byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, UTF_8);
+   }
+
+   /**
+    * Writes the specified non-negative int in 7-bit groups, low first, 
+    * so small values take a single byte
+    * 
+    * @param out
+    * @param value
+    * @throws IOException
+    */
+   static void writeVarInt(final DataOutput out, final int value) throws IOException
+   {
+      int remaining = value;
+      while ((remaining & ~0x7F) != 0)
+      {
+         out.writeByte((remaining & 0x7F) | 0x80);
+         remaining >>>= 7;
+      }
+      out.writeByte(remaining);
+   }
+
+   /**
+    * Reads an int written by {@link RssEntryList#writeVarInt(DataOutput, int)}
+    * 
+    * @param in
+    * @return
+    * @throws IOException
+    */
+   static int readVarInt(final DataInput in) throws IOException
+   {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7)
+      {
+         final int b = in.readUnsignedByte();
+         value |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+         {
+            return value;
+         }
+      }
+      throw new InvalidObjectException("Malformed variable-length int");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the specified String as a reference into the specified dictionary:
+    * zero for null, the index plus one of a String already written, or 
+    * the next index plus one followed by the String itself
+    */
+   private static void writeShared(final DataOutput out, final String value, final Map<String, Integer> written)
+         throws IOException
+   {
+      if (value == null)
+      {
+         writeVarInt(out, 0);
+         return;
+      }
+      final Integer index = written.get(value);
+      if (index != null)
+      {
+         writeVarInt(out, index.intValue() + 1);
+         return;
+      }
+      final int next = written.size();
+      written.put(value, next);
+      writeVarInt(out, next + 1);
+      writeString(out, value);
+   }
+
+   /**
+    * Reads a String written by {@link RssEntryList#writeShared(DataOutput, String, Map)}
+    */
+   private static String readShared(final DataInput in, final List<String> read) throws IOException
+   {
+      final int code = readVarInt(in);
+      if (code == 0)
+      {
+         return null;
+      }
+      final int index = code - 1;
+      if (index < read.size())
+      {
+         return read.get(index);
+      }
+      if (index != read.size())
+      {
+         throw new InvalidObjectException("Shared string reference out of order: " + index);
+      }
+      final String value = readString(in);
+      read.add(value);
+      return value;
+   }
+
+   /**
+    * Obtains the index just past the origin ("scheme://authority") of the specified
+    * link, or 0 if it has none
+    */
+   private static int getOriginEnd(final String link)
+   {
+      final int separator = link.indexOf("://");
+      if (separator < 0)
+      {
+         return 0;
+      }
+      final int authorityStart = separator + 3;
+      final int pathStart = link.indexOf('/', authorityStart);
+      final int queryStart = link.indexOf('?', authorityStart);
+      final int fragmentStart = link.indexOf('#', authorityStart);
+      int end = link.length();
+      for (final int candidate : new int[]
+      {pathStart, queryStart, fragmentStart})
+      {
+         if (candidate >= 0 && candidate < end)
+         {
+            end = candidate;
+         }
+      }
+      return end;
+   }
+}
@@ -0,0 +1,851 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+
+/**
+ * Immutable inverted index over the author, title and description of 
+ * {@link RssEntry}s, answering ranked term and phrase queries.
+ * 
+ * The index is made of segments, each indexing a batch of entries once, as 
+ * they were added.  Updating the index with the entries removed and added by 
+ * a refresh marks those removed as deleted (in a copy of the deletions of only 
+ * the segments concerned) and indexes those added as a new segment, leaving 
+ * this index as it was; unchanged entries are never indexed again.  Segments 
+ * are merged as they come, each at most half the size of that before it, 
+ * so there are only logarithmically many and each entry is reindexed 
+ * only logarithmically often; a segment mostly deleted is compacted.
+ * 
+ * A query is of terms and "quoted phrases", all of which an entry must contain
+ * to match; matches are ranked by BM25, with terms in the title counting 
+ * for more than those in the author, and those for more than in the description.
+ * Terms are runs of letters and digits, case-insensitive; markup in 
+ * descriptions is skipped.  Once as many hits as asked for are found, blocks of 
+ * docs which by their greatest term frequency and least length could not 
+ * score better are skipped.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class SearchIndex
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Index of no entries
+    */
+   static final SearchIndex EMPTY = new SearchIndex(new Segment[0], new BitSet[0]);
+
+   /**
+    * BM25 term frequency saturation
+    */
+   private static final float K1 = 1.2f;
+
+   /**
+    * BM25 length normalization
+    */
+   private static final float B = 0.75f;
+
+   /**
+    * Slack allowed a block's bound, against rounding
+    */
+   private static final float BOUND_MARGIN = 1.0001f;
+
+   /**
+    * Times an occurrence in the title counts
+    */
+   private static final int TITLE_WEIGHT = 3;
+
+   /**
+    * Times an occurrence in the author counts
+    */
+   private static final int AUTHOR_WEIGHT = 2;
+
+   /**
+    * Times an occurrence in the description counts
+    */
+   private static final int DESCRIPTION_WEIGHT = 1;
+
+   /**
+    * Postings are grouped in blocks of this many docs (a power of 2), each with a bound 
+    * on the score of its docs, so blocks which can't make the best hits may be skipped
+    */
+   private static final int BLOCK_SIZE = 64;
+
+   /**
+    * Longest entity reference (ie. <code>&amp;hellip;</code>) skipped as such in text
+    */
+   private static final int MAX_ENTITY_LENGTH = 10;
+
+   /**
+    * Orders hits worst first: by score, then latest indexed
+    */
+   private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>()
+   {
+      @Override
+      public int compare(final Hit o1, final Hit o2)
+      {
+         if (o1.score != o2.score)
+         {
+            return o1.score < o2.score ? -1 : 1;
+         }
+         return o1.order > o2.order ? -1 : o1.order == o2.order ? 0 : 1;
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Segments, oldest first
+    */
+   private final Segment[] segments;
+
+   /**
+    * Entries deleted from each segment, or null if none; never modified once set
+    */
+   private final BitSet[] deleted;
+
+   /**
+    * Number of entries indexed and not deleted
+    */
+   private final int size;
+
+   /**
+    * Total weighted length of the entries indexed and not deleted
+    */
+   private final long totalLength;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private SearchIndex(final Segment[] segments, final BitSet[] deleted)
+   {
+      this.segments = segments;
+      this.deleted = deleted;
+      int size = 0;
+      long totalLength = 0;
+      for (int s = 0; s < segments.length; s++)
+      {
+         size += segments[s].docs.length;
+         totalLength += segments[s].totalLength;
+         final BitSet bits = deleted[s];
+         if (bits != null)
+         {
+            size -= bits.cardinality();
+            for (int doc = bits.nextSetBit(0); doc >= 0; doc = bits.nextSetBit(doc + 1))
+            {
+               totalLength -= segments[s].lengths[doc];
+            }
+         }
+      }
+      this.size = size;
+      this.totalLength = totalLength;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains an index of the entries of this one, less those removed, plus those added;
+    * this index is unchanged
+    * 
+    * @param removed Entries indexed, by identity
+    * @param added Entries not indexed
+    * @return
+    */
+   SearchIndex update(final Collection<? extends RssEntry> removed, final Collection<? extends RssEntry> added)
+   {
+      if (removed.isEmpty() && added.isEmpty())
+      {
+         return this;
+      }
+
+      // Delete, copying the deletions of each segment concerned once
+      final List<Segment> newSegments = new ArrayList<Segment>(Arrays.asList(segments));
+      final List<BitSet> newDeleted = new ArrayList<BitSet>(Arrays.asList(deleted));
+      final boolean[] copied = new boolean[segments.length];
+      for (final RssEntry entry : removed)
+      {
+         for (int s = 0; s < segments.length; s++)
+         {
+            final int doc = segments[s].getDoc(entry);
+            if (doc < 0)
+            {
+               continue;
+            }
+            if (!copied[s])
+            {
+               final BitSet bits = newDeleted.get(s);
+               newDeleted.set(s, bits == null ? new BitSet(segments[s].docs.length) : (BitSet) bits.clone());
+               copied[s] = true;
+            }
+            newDeleted.get(s).set(doc);
+            break;
+         }
+      }
+
+      // Index what's added as its own segment
+      if (!added.isEmpty())
+      {
+         newSegments.add(new Segment(added));
+         newDeleted.add(null);
+      }
+
+      // Drop segments wholly deleted, and compact those mostly so
+      for (int s = newSegments.size() - 1; s >= 0; s--)
+      {
+         final int live = getLive(newSegments, newDeleted, s);
+         if (live == 0)
+         {
+            newSegments.remove(s);
+            newDeleted.remove(s);
+         }
+         else if (live * 2 < newSegments.get(s).docs.length)
+         {
+            newSegments.set(s, new Segment(getLiveDocs(newSegments, newDeleted, s)));
+            newDeleted.set(s, null);
+         }
+      }
+
+      // Merge the newest into that before it, for as long as it's at least half the size
+      for (int s = newSegments.size() - 1; s > 0
+            && getLive(newSegments, newDeleted, s) * 2 >= getLive(newSegments, newDeleted, s - 1); s--)
+      {
+         final List<RssEntry> merged = getLiveDocs(newSegments, newDeleted, s - 1);
+         merged.addAll(getLiveDocs(newSegments, newDeleted, s));
+         newSegments.remove(s);
+         newDeleted.remove(s);
+         newSegments.set(s - 1, new Segment(merged));
+         newDeleted.set(s - 1, null);
+      }
+      return new SearchIndex(newSegments.toArray(new Segment[newSegments.size()]), newDeleted
+            .toArray(new BitSet[newDeleted.size()]));
+   }
+
+   /**
+    * Obtains the (at most) <code>limit</code> entries best matching the specified query, best first
+    * 
+    * @param query Terms and "quoted phrases", all of which must match
+    * @param limit
+    * @return
+    * @throws IllegalArgumentException If the query is not specified, or the limit is not positive
+    */
+   RssEntryList search(final String query, final int limit) throws IllegalArgumentException
+   {
+      if (query == null)
+      {
+         throw new IllegalArgumentException("Query must be specified");
+      }
+      if (limit <= 0)
+      {
+         throw new IllegalArgumentException("Limit must be positive: " + limit);
+      }
+      final List<List<String>> phrases = parse(query);
+      if (phrases.isEmpty() || size == 0)
+      {
+         return RssEntryList.EMPTY;
+      }
+
+      // Each distinct term once, weighted by its rarity across segments
+      final Map<String, Integer> termIndexes = new LinkedHashMap<String, Integer>();
+      final int[][] phraseTerms = new int[phrases.size()][];
+      for (int p = 0; p < phraseTerms.length; p++)
+      {
+         final List<String> phrase = phrases.get(p);
+         phraseTerms[p] = new int[phrase.size()];
+         for (int t = 0; t < phraseTerms[p].length; t++)
+         {
+            Integer index = termIndexes.get(phrase.get(t));
+            if (index == null)
+            {
+               index = termIndexes.size();
+               termIndexes.put(phrase.get(t), index);
+            }
+            phraseTerms[p][t] = index;
+         }
+      }
+      final String[] terms = termIndexes.keySet().toArray(new String[termIndexes.size()]);
+      final float[] idfs = new float[terms.length];
+      for (int t = 0; t < terms.length; t++)
+      {
+         int docFrequency = 0;
+         for (final Segment segment : segments)
+         {
+            final Postings postings = segment.postings.get(terms[t]);
+            docFrequency += postings == null ? 0 : postings.docs.length;
+         }
+         if (docFrequency == 0)
+         {
+            return RssEntryList.EMPTY;
+         }
+         idfs[t] = (float) Math.log(1 + (size - docFrequency + 0.5) / (docFrequency + 0.5));
+      }
+
+      // Keep the best as we go
+      final float averageLength = (float) totalLength / size;
+      final PriorityQueue<Hit> best = new PriorityQueue<Hit>(limit + 1, WORST_FIRST);
+      for (int s = 0; s < segments.length; s++)
+      {
+         segments[s].search(s, terms, idfs, phraseTerms, deleted[s], averageLength, limit, best);
+      }
+      final Hit[] hits = best.toArray(new Hit[best.size()]);
+      Arrays.sort(hits, WORST_FIRST);
+      final List<RssEntry> entries = new ArrayList<RssEntry>(hits.length);
+      for (int i = hits.length - 1; i >= 0; i--)
+      {
+         entries.add(hits[i].entry);
+      }
+      return new RssEntryList(entries);
+   }
+
+   /**
+    * Obtains the number of entries indexed
+    */
+   int size()
+   {
+      return size;
+   }
+
+   /**
+    * Obtains the number of segments of the index
+    */
+   int getSegmentCount()
+   {
+      return segments.length;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parses the specified query into phrases of terms; a bare word of several terms 
+    * (ie. "ejb-3.1") is taken as a phrase, and a term as a phrase of one
+    */
+   static List<List<String>> parse(final String query)
+   {
+      final List<List<String>> phrases = new ArrayList<List<String>>();
+      final String[] quoted = query.split("\"", -1);
+      for (int i = 0; i < quoted.length; i++)
+      {
+         final boolean inQuotes = i % 2 == 1;
+         for (final String words : inQuotes ? new String[]
+         {quoted[i]} : quoted[i].split("\\s+"))
+         {
+            final List<String> terms = new ArrayList<String>();
+            tokenize(words, terms);
+            if (!terms.isEmpty())
+            {
+               phrases.add(terms);
+            }
+         }
+      }
+      return phrases;
+   }
+
+   /**
+    * Adds to the specified list the terms of the specified text, in order
+    */
+   static void tokenize(final String text, final List<String> terms)
+   {
+      if (text == null)
+      {
+         return;
+      }
+      final int length = text.length();
+      final StringBuilder term = new StringBuilder();
+      for (int i = 0; i < length; i++)
+      {
+         final char c = text.charAt(i);
+         if (Character.isLetterOrDigit(c))
+         {
+            term.append(Character.toLowerCase(c));
+            continue;
+         }
+         if (term.length() > 0)
+         {
+            terms.add(term.toString());
+            term.setLength(0);
+         }
+
+         // Skip markup and entity references
+         if (c == '<')
+         {
+            final int end = text.indexOf('>', i);
+            i = end < 0 ? length : end;
+         }
+         else if (c == '&')
+         {
+            final int end = text.indexOf(';', i);
+            if (end > 0 && end - i <= MAX_ENTITY_LENGTH)
+            {
+               i = end;
+            }
+         }
+      }
+      if (term.length() > 0)
+      {
+         terms.add(term.toString());
+      }
+   }
+
+   /**
+    * Obtains the BM25 score of a term of the specified frequency in a doc of the specified length, 
+    * before weighting by the term's rarity; increases with frequency, and decreases with length
+    */
+   private static float getTermScore(final int frequency, final int length, final float averageLength)
+   {
+      return frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+   }
+
+   private static int getLive(final List<Segment> segments, final List<BitSet> deleted, final int s)
+   {
+      final BitSet bits = deleted.get(s);
+      return segments.get(s).docs.length - (bits == null ? 0 : bits.cardinality());
+   }
+
+   private static List<RssEntry> getLiveDocs(final List<Segment> segments, final List<BitSet> deleted, final int s)
+   {
+      final RssEntry[] docs = segments.get(s).docs;
+      final BitSet bits = deleted.get(s);
+      final List<RssEntry> live = new ArrayList<RssEntry>(docs.length);
+      for (int doc = 0; doc < docs.length; doc++)
+      {
+         if (bits == null || !bits.get(doc))
+         {
+            live.add(docs[doc]);
+         }
+      }
+      return live;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Immutable index of a batch of entries, each known within by its position (doc) in the batch
+    */
+   private static final class Segment
+   {
+      /**
+       * The entries, by doc
+       */
+      private final RssEntry[] docs;
+
+      /**
+       * Docs by entry identity
+       */
+      private final Map<RssEntry, Integer> docsByEntry;
+
+      /**
+       * Weighted length of each doc, in terms
+       */
+      private final int[] lengths;
+
+      /**
+       * Sum of {@link Segment#lengths}
+       */
+      private final long totalLength;
+
+      /**
+       * Where each term occurs
+       */
+      private final Map<String, Postings> postings;
+
+      Segment(final Collection<? extends RssEntry> entries)
+      {
+         this.docs = entries.toArray(new RssEntry[entries.size()]);
+         this.docsByEntry = new IdentityHashMap<RssEntry, Integer>(docs.length);
+         this.lengths = new int[docs.length];
+         final Map<String, PostingsBuilder> builders = new HashMap<String, PostingsBuilder>();
+         final List<String> terms = new ArrayList<String>();
+         long totalLength = 0;
+         for (int doc = 0; doc < docs.length; doc++)
+         {
+            docsByEntry.put(docs[doc], doc);
+
+            // Fields follow one another, a position apart so no phrase spans two
+            int position = 0;
+            int length = 0;
+            final String[] fields =
+            {docs[doc].getAuthor(), docs[doc].getTitle(), docs[doc].getDescription()};
+            final int[] weights =
+            {AUTHOR_WEIGHT, TITLE_WEIGHT, DESCRIPTION_WEIGHT};
+            for (int f = 0; f < fields.length; f++)
+            {
+               terms.clear();
+               tokenize(fields[f], terms);
+               for (final String term : terms)
+               {
+                  PostingsBuilder builder = builders.get(term);
+                  if (builder == null)
+                  {
+                     builder = new PostingsBuilder();
+                     builders.put(term, builder);
+                  }
+                  builder.add(doc, position++, weights[f]);
+               }
+               length += weights[f] * terms.size();
+               position++;
+            }
+            lengths[doc] = length;
+            totalLength += length;
+         }
+         this.totalLength = totalLength;
+         this.postings = new HashMap<String, Postings>(builders.size() * 4 / 3 + 1);
+         for (final Iterator<Map.Entry<String, PostingsBuilder>> it = builders.entrySet().iterator(); it.hasNext();)
+         {
+            // Let each builder go as it's built, so the postings are not held twice over
+            final Map.Entry<String, PostingsBuilder> entry = it.next();
+            postings.put(entry.getKey(), entry.getValue().build(lengths));
+            it.remove();
+         }
+      }
+
+      /**
+       * Obtains the doc of the specified entry, or -1 if it's not in this segment
+       */
+      int getDoc(final RssEntry entry)
+      {
+         final Integer doc = docsByEntry.get(entry);
+         return doc == null ? -1 : doc.intValue();
+      }
+
+      /**
+       * Offers each doc not deleted containing all the specified phrases to the best hits
+       */
+      void search(final int segment, final String[] terms, final float[] idfs, final int[][] phraseTerms,
+            final BitSet deleted, final float averageLength, final int limit, final PriorityQueue<Hit> best)
+      {
+         // Walk the rarest term's docs, seeking each in the others
+         final Postings[] lists = new Postings[terms.length];
+         final Integer[] order = new Integer[terms.length];
+         for (int t = 0; t < terms.length; t++)
+         {
+            lists[t] = postings.get(terms[t]);
+            if (lists[t] == null)
+            {
+               return;
+            }
+            order[t] = t;
+         }
+         Arrays.sort(order, new Comparator<Integer>()
+         {
+            @Override
+            public int compare(final Integer o1, final Integer o2)
+            {
+               return lists[o1].docs.length - lists[o2].docs.length;
+            }
+         });
+         final int[] at = new int[terms.length];
+         final Postings lead = lists[order[0]];
+         float othersBound = 0;
+         for (int j = 1; j < order.length; j++)
+         {
+            final Postings list = lists[order[j]];
+            othersBound += idfs[order[j]] * getTermScore(list.maxFrequency, list.minLength, averageLength);
+         }
+         candidates : for (int i = 0; i < lead.docs.length; i++)
+         {
+            // Skip a block which can't better the worst of the best so far
+            if (i % BLOCK_SIZE == 0 && best.size() == limit)
+            {
+               final int block = i / BLOCK_SIZE;
+               final float bound = idfs[order[0]]
+                     * getTermScore(lead.blockMaxFrequencies[block], lead.blockMinLengths[block], averageLength)
+                     + othersBound;
+               if (bound * BOUND_MARGIN < best.peek().score)
+               {
+                  i += BLOCK_SIZE - 1;
+                  continue;
+               }
+            }
+            final int doc = lead.docs[i];
+            at[order[0]] = i;
+            for (int j = 1; j < order.length; j++)
+            {
+               final Postings list = lists[order[j]];
+               final int found = list.seek(at[order[j]], doc);
+               if (found == list.docs.length)
+               {
+                  return;
+               }
+               at[order[j]] = found;
+               if (list.docs[found] != doc)
+               {
+                  continue candidates;
+               }
+            }
+            if (deleted != null && deleted.get(doc))
+            {
+               continue;
+            }
+
+            // Score, and keep should it be among the best and have the phrases, checked last as costliest
+            float score = 0;
+            for (int t = 0; t < terms.length; t++)
+            {
+               score += idfs[t] * getTermScore(lists[t].frequencies[at[t]], lengths[doc], averageLength);
+            }
+            final boolean full = best.size() == limit;
+            if (full && score <= best.peek().score)
+            {
+               continue;
+            }
+            for (final int[] phrase : phraseTerms)
+            {
+               if (phrase.length > 1 && !containsPhrase(phrase, lists, at))
+               {
+                  continue candidates;
+               }
+            }
+            if (full)
+            {
+               best.poll();
+            }
+            best.add(new Hit(docs[doc], score, ((long) segment << 32) | doc));
+         }
+      }
+
+      /**
+       * Returns whether the current doc of each list has the terms of the specified phrase in sequence
+       */
+      private static boolean containsPhrase(final int[] phrase, final Postings[] lists, final int[] at)
+      {
+         final Postings first = lists[phrase[0]];
+         final int firstAt = at[phrase[0]];
+         starts : for (int p = first.positionStarts[firstAt]; p < first.positionStarts[firstAt + 1]; p++)
+         {
+            final int start = first.positions[p];
+            for (int t = 1; t < phrase.length; t++)
+            {
+               final Postings list = lists[phrase[t]];
+               final int from = list.positionStarts[at[phrase[t]]];
+               final int to = list.positionStarts[at[phrase[t]] + 1];
+               if (Arrays.binarySearch(list.positions, from, to, start + t) < 0)
+               {
+                  continue starts;
+               }
+            }
+            return true;
+         }
+         return false;
+      }
+   }
+
+   /**
+    * Immutable record of the docs in which a term occurs, its weighted frequency in 
+    * each, and the positions at which it occurs in each
+    */
+   private static final class Postings
+   {
+      /**
+       * Docs, ascending
+       */
+      private final int[] docs;
+
+      /**
+       * Weighted frequency in each doc
+       */
+      private final int[] frequencies;
+
+      /**
+       * Start of each doc's positions; the last element ends the last doc's
+       */
+      private final int[] positionStarts;
+
+      /**
+       * Positions, ascending within each doc
+       */
+      private final int[] positions;
+
+      /**
+       * Greatest frequency in each block of docs
+       */
+      private final int[] blockMaxFrequencies;
+
+      /**
+       * Least length of the docs in each block
+       */
+      private final int[] blockMinLengths;
+
+      /**
+       * Greatest frequency in any doc
+       */
+      private final int maxFrequency;
+
+      /**
+       * Least length of any doc
+       */
+      private final int minLength;
+
+      Postings(final int[] docs, final int[] frequencies, final int[] positionStarts, final int[] positions,
+            final int[] lengths)
+      {
+         this.docs = docs;
+         this.frequencies = frequencies;
+         this.positionStarts = positionStarts;
+         this.positions = positions;
+         final int blocks = (docs.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+         this.blockMaxFrequencies = new int[blocks];
+         this.blockMinLengths = new int[blocks];
+         Arrays.fill(blockMinLengths, Integer.MAX_VALUE);
+         int maxFrequency = 0;
+         int minLength = Integer.MAX_VALUE;
+         for (int i = 0; i < docs.length; i++)
+         {
+            final int block = i / BLOCK_SIZE;
+            blockMaxFrequencies[block] = Math.max(blockMaxFrequencies[block], frequencies[i]);
+            blockMinLengths[block] = Math.min(blockMinLengths[block], lengths[docs[i]]);
+            maxFrequency = Math.max(maxFrequency, frequencies[i]);
+            minLength = Math.min(minLength, lengths[docs[i]]);
+         }
+         this.maxFrequency = maxFrequency;
+         this.minLength = minLength;
+      }
+
+      /**
+       * Obtains the index of the first doc no less than that specified, from the specified 
+       * index on, or the number of docs if there's none; gallops, then bisects
+       */
+      int seek(final int from, final int doc)
+      {
+         int low = from;
+         int step = 1;
+         int high = from;
+         while (high < docs.length && docs[high] < doc)
+         {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+         }
+         high = Math.min(high, docs.length);
+         while (low < high)
+         {
+            final int middle = (low + high) >>> 1;
+            if (docs[middle] < doc)
+            {
+               low = middle + 1;
+            }
+            else
+            {
+               high = middle;
+            }
+         }
+         return low;
+      }
+   }
+
+   /**
+    * Accumulates {@link Postings} as docs are tokenized in order
+    */
+   private static final class PostingsBuilder
+   {
+      private int[] docs = new int[2];
+
+      private int[] frequencies = new int[2];
+
+      private int[] positionStarts = new int[3];
+
+      private int[] positions = new int[2];
+
+      private int docCount;
+
+      private int positionCount;
+
+      void add(final int doc, final int position, final int weight)
+      {
+         if (docCount == 0 || docs[docCount - 1] != doc)
+         {
+            if (docCount == docs.length)
+            {
+               docs = Arrays.copyOf(docs, docCount * 2);
+               frequencies = Arrays.copyOf(frequencies, docCount * 2);
+               positionStarts = Arrays.copyOf(positionStarts, docCount * 2 + 1);
+            }
+            docs[docCount] = doc;
+            positionStarts[docCount] = positionCount;
+            docCount++;
+         }
+         frequencies[docCount - 1] += weight;
+         if (positionCount == positions.length)
+         {
+            positions = Arrays.copyOf(positions, positionCount * 2);
+         }
+         positions[positionCount++] = position;
+      }
+
+      /**
+       * Builds the postings, given the lengths of all docs
+       */
+      Postings build(final int[] lengths)
+      {
+         final int[] starts = Arrays.copyOf(positionStarts, docCount + 1);
+         starts[docCount] = positionCount;
+         return new Postings(Arrays.copyOf(docs, docCount), Arrays.copyOf(frequencies, docCount), starts, Arrays
+               .copyOf(positions, positionCount), lengths);
+      }
+   }
+
+   /**
+    * An entry matched, and its score
+    */
+   private static final class Hit
+   {
+      private final RssEntry entry;
+
+      private final float score;
+
+      /**
+       * Segment and doc, by which hits of equal score are ranked
+       */
+      private final long order;
+
+      Hit(final RssEntry entry, final float score, final long order)
+      {
+         this.entry = entry;
+         this.score = score;
+         this.order = order;
+      }
+   }
+}
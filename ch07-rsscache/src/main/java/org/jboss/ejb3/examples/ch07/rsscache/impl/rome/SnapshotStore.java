@@ -0,0 +1,324 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+
+/**
+ * Persists the latest {@link FeedSnapshot} of each feed to disk, one file per 
+ * feed URL, so that a restarted cache may serve the entries at once rather
+ * than wait upon the feed's origin.
+ * 
+ * A file holds the feed URL, the snapshot version and the entry keys, followed 
+ * by the entries in the compact form of {@link RssEntryList}; keys which are 
+ * the entry's link (as most are) are not repeated.  Each write goes to a 
+ * temporary file which is then renamed over the last, so a failure part way 
+ * leaves the previous snapshot intact.  Files are read by mapping them into 
+ * memory, and anything not a complete snapshot of the requested feed is 
+ * reported as unreadable.  Thread-safe, though concurrent writes of the same 
+ * feed are not expected.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class SnapshotStore
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Leads every snapshot file ("RSSC")
+    */
+   private static final int MAGIC = 0x52535343;
+
+   /**
+    * Version of the file format
+    */
+   private static final byte FORMAT_VERSION = 1;
+
+   /**
+    * Suffix of snapshot files
+    */
+   private static final String SUFFIX = ".snapshot";
+
+   /**
+    * Suffix of snapshot files being written
+    */
+   private static final String SUFFIX_TEMP = ".tmp";
+
+   /**
+    * Digest of the feed URL naming its snapshot file
+    */
+   private static final String FILE_NAME_DIGEST_ALGORITHM = "SHA-1";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Directory holding the snapshot files; created upon first write
+    */
+   private final File directory;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a store of snapshots in the specified directory
+    * 
+    * @param directory
+    * @throws IllegalArgumentException If the directory is not specified
+    */
+   SnapshotStore(final File directory) throws IllegalArgumentException
+   {
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("directory must be specified");
+      }
+      this.directory = directory;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the specified snapshot of the feed at the specified URL, replacing any before
+    * 
+    * @param url
+    * @param snapshot
+    * @throws IOException If the snapshot could not be written; any written before is kept
+    */
+   void write(final URL url, final FeedSnapshot snapshot) throws IOException
+   {
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IOException("Could not create snapshot directory: " + directory);
+      }
+      final File file = this.getFile(url);
+      final File temp = new File(directory, file.getName() + SUFFIX_TEMP);
+      try
+      {
+         final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+         try
+         {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(url.toExternalForm());
+            out.writeLong(snapshot.getVersion());
+            final Map<String, RssEntry> entriesByKey = snapshot.getEntriesByKey();
+            final List<RssEntry> entries = new ArrayList<RssEntry>(entriesByKey.size());
+            RssEntryList.writeVarInt(out, entriesByKey.size());
+            for (final Map.Entry<String, RssEntry> entry : entriesByKey.entrySet())
+            {
+               final String key = entry.getKey();
+               RssEntryList.writeString(out, key.equals(((RomeRssEntry) entry.getValue()).getLink()) ? null : key);
+               entries.add(entry.getValue());
+            }
+            new RssEntryList(entries).write(out);
+         }
+         finally
+         {
+            out.close();
+         }
+
+         // Replace the last; some platforms won't rename over an existing file
+         if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+         {
+            throw new IOException("Could not rename " + temp + " to " + file);
+         }
+      }
+      catch (final IOException ioe)
+      {
+         temp.delete();
+         throw ioe;
+      }
+   }
+
+   /**
+    * Reads the snapshot last written of the feed at the specified URL
+    * 
+    * @param url
+    * @return The snapshot, or null if none has been written
+    * @throws IOException If the snapshot could not be read, or is not a complete snapshot of the feed
+    */
+   FeedSnapshot read(final URL url) throws IOException
+   {
+      final File file = this.getFile(url);
+      if (!file.isFile())
+      {
+         return null;
+      }
+
+      // Map the file; the mapping outlives the channel
+      final ByteBuffer buffer;
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try
+      {
+         buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+      }
+      finally
+      {
+         raf.close();
+      }
+
+      // Read
+      final DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+      try
+      {
+         if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION)
+         {
+            throw new IOException("Not a snapshot of a supported format: " + file);
+         }
+         final String snapshotUrl = in.readUTF();
+         if (!snapshotUrl.equals(url.toExternalForm()))
+         {
+            throw new IOException("Snapshot " + file + " is of another feed: " + snapshotUrl);
+         }
+         final long version = in.readLong();
+         final String[] keys = new String[RssEntryList.readVarInt(in)];
+         for (int i = 0; i < keys.length; i++)
+         {
+            keys[i] = RssEntryList.readString(in);
+         }
+         final RssEntryList entries = RssEntryList.read(in);
+         if (entries.size() != keys.length || buffer.hasRemaining())
+         {
+            throw new IOException("Snapshot " + file + " is malformed");
+         }
+         final Map<String, RssEntry> entriesByKey = new LinkedHashMap<String, RssEntry>();
+         for (int i = 0; i < keys.length; i++)
+         {
+            final RomeRssEntry entry = (RomeRssEntry) entries.get(i);
+            entriesByKey.put(keys[i] == null ? entry.getLink() : keys[i], entry);
+         }
+         return FeedSnapshot.restore(version, entriesByKey);
+      }
+      catch (final RuntimeException re)
+      {
+         // Lengths and indexes read from a corrupt file may be anything
+         throw new IOException("Snapshot " + file + " is malformed: " + re);
+      }
+   }
+
+   /**
+    * Obtains the file holding the snapshot of the feed at the specified URL
+    */
+   File getFile(final URL url)
+   {
+      final byte[] digest;
+      try
+      {
+         digest = MessageDigest.getInstance(FILE_NAME_DIGEST_ALGORITHM).digest(
+               url.toExternalForm().getBytes("UTF-8"));
+      }
+      catch (final NoSuchAlgorithmException nsae)
+      {
+         throw new RuntimeException("Could not obtain the " + FILE_NAME_DIGEST_ALGORITHM + " digest", nsae);
+      }
+      catch (final UnsupportedEncodingException uee)
+      {
+         throw new RuntimeException(uee);
+      }
+      final StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+      for (final byte b : digest)
+      {
+         name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return new File(directory, name.append(SUFFIX).toString());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads the remaining bytes of a buffer
+    */
+   private static final class ByteBufferInputStream extends InputStream
+   {
+      private final ByteBuffer buffer;
+
+      ByteBufferInputStream(final ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.InputStream#read()
+       */
+      @Override
+      public int read()
+      {
+         return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.InputStream#read(byte[], int, int)
+       */
+      @Override
+      public int read(final byte[] bytes, final int offset, final int length)
+      {
+         if (length == 0)
+         {
+            return 0;
+         }
+         if (!buffer.hasRemaining())
+         {
+            return -1;
+         }
+         final int read = Math.min(length, buffer.remaining());
+         buffer.get(bytes, offset, read);
+         return read;
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.InputStream#available()
+       */
+      @Override
+      public int available()
+      {
+         return buffer.remaining();
+      }
+   }
+}
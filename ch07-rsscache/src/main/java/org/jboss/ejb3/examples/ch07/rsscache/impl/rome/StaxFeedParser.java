@@ -0,0 +1,566 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Parses RSS (0.9x, 1.0 and 2.0) and Atom 1.0 feeds by streaming their XML
+ * with StAX, building each entry directly as it's read, with nothing
+ * held of the document but the entry underway.  Once the maximum number 
+ * of entries is read, the rest of the feed is left unread.
+ * 
+ * Entries are taken as {@link RomeFeedParser} would have them, save that 
+ * XHTML content in Atom entries is given as its text alone; DTDs and 
+ * external entities are not processed.  Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class StaxFeedParser implements FeedParser
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final String NAMESPACE_ATOM = "http://www.w3.org/2005/Atom";
+
+   private static final String NAMESPACE_DC = "http://purl.org/dc/elements/1.1/";
+
+   private static final String NAMESPACE_RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+   private static final String NAMESPACE_RSS_090 = "http://my.netscape.com/rdf/simple/0.9/";
+
+   private static final String NAMESPACE_RSS_10 = "http://purl.org/rss/1.0/";
+
+   private static final String LINK_REL_ALTERNATE = "alternate";
+
+   /**
+    * Formats of RFC 822 dates, as in RSS
+    */
+   private static final String[] DATE_FORMATS_RFC822 =
+   {"EEE, dd MMM yy HH:mm:ss z", "EEE, dd MMM yy HH:mm z", "dd MMM yy HH:mm:ss z", "dd MMM yy HH:mm z"};
+
+   /**
+    * Formats of W3C dates, as in Atom and Dublin Core, once any zone designator is given as RFC 822
+    */
+   private static final String[] DATE_FORMATS_W3C =
+   {"yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd'T'HH:mm:ssZ", "yyyy-MM-dd'T'HH:mmZ", "yyyy-MM-dd", "yyyy-MM",
+         "yyyy"};
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Most entries read of a feed
+    */
+   private final int maxEntries;
+
+   /**
+    * Most characters kept of each description
+    */
+   private final int maxDescriptionLength;
+
+   /**
+    * Creates readers; guarded by itself, as factories needn't be thread-safe
+    */
+   private final XMLInputFactory factory;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a parser reading at most the specified number of entries of each feed
+    * 
+    * @param maxEntries
+    * @throws IllegalArgumentException If the maximum is not positive
+    */
+   StaxFeedParser(final int maxEntries) throws IllegalArgumentException
+   {
+      this(maxEntries, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Creates a parser reading at most the specified number of entries of each feed, 
+    * truncating descriptions to at most the specified number of characters
+    * 
+    * @param maxEntries
+    * @param maxDescriptionLength
+    * @throws IllegalArgumentException If either maximum is not positive
+    */
+   StaxFeedParser(final int maxEntries, final int maxDescriptionLength) throws IllegalArgumentException
+   {
+      if (maxEntries <= 0)
+      {
+         throw new IllegalArgumentException("Maximum entries must be positive: " + maxEntries);
+      }
+      if (maxDescriptionLength <= 0)
+      {
+         throw new IllegalArgumentException("Maximum description length must be positive: " + maxDescriptionLength);
+      }
+      this.maxEntries = maxEntries;
+      this.maxDescriptionLength = maxDescriptionLength;
+      factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.impl.rome.FeedParser#parse(java.io.InputStream)
+    */
+   @Override
+   public Map<String, RomeRssEntry> parse(final InputStream in) throws IOException, FeedException
+   {
+      final Map<String, RomeRssEntry> entries = new LinkedHashMap<String, RomeRssEntry>();
+      final DateParser dateParser = new DateParser();
+      XMLStreamReader reader = null;
+      try
+      {
+         synchronized (factory)
+         {
+            reader = factory.createXMLStreamReader(in);
+         }
+         while (entries.size() < maxEntries && reader.hasNext())
+         {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+            {
+               continue;
+            }
+            final String name = reader.getLocalName();
+            final boolean atom = NAMESPACE_ATOM.equals(reader.getNamespaceURI());
+            if (!atom && "item".equals(name))
+            {
+               readItem(reader, entries, dateParser);
+            }
+            else if (atom && "entry".equals(name))
+            {
+               readAtomEntry(reader, entries, dateParser);
+            }
+         }
+         return entries;
+      }
+      catch (final XMLStreamException xse)
+      {
+         throw new FeedException("Could not parse feed: " + xse.getMessage(), xse);
+      }
+      finally
+      {
+         if (reader != null)
+         {
+            try
+            {
+               reader.close();
+            }
+            catch (final XMLStreamException xse)
+            {
+               // Nothing more to read anyway
+            }
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reads an RSS item, the reader being at its start, leaving the reader at its end
+    */
+   private void readItem(final XMLStreamReader reader, final Map<String, RomeRssEntry> entries,
+         final DateParser dateParser) throws XMLStreamException, FeedException
+   {
+      final String about = reader.getAttributeValue(NAMESPACE_RDF, "about");
+      String title = null;
+      String link = null;
+      String description = null;
+      String author = null;
+      String creator = null;
+      String guid = null;
+      boolean guidIsPermaLink = true;
+      String pubDate = null;
+      String dcDate = null;
+      while (reader.next() != XMLStreamConstants.END_ELEMENT)
+      {
+         if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+         {
+            continue;
+         }
+         final String name = reader.getLocalName();
+         final String namespace = reader.getNamespaceURI();
+         if (namespace == null || namespace.length() == 0 || NAMESPACE_RSS_10.equals(namespace)
+               || NAMESPACE_RSS_090.equals(namespace))
+         {
+            if ("title".equals(name))
+            {
+               title = readText(reader);
+            }
+            else if ("link".equals(name))
+            {
+               link = trim(readText(reader));
+            }
+            else if ("description".equals(name))
+            {
+               description = readText(reader);
+            }
+            else if ("author".equals(name))
+            {
+               author = readText(reader);
+            }
+            else if ("guid".equals(name))
+            {
+               guidIsPermaLink = !"false".equalsIgnoreCase(reader.getAttributeValue(null, "isPermaLink"));
+               guid = trim(readText(reader));
+            }
+            else if ("pubDate".equals(name))
+            {
+               pubDate = readText(reader);
+            }
+            else
+            {
+               skip(reader);
+            }
+         }
+         else if (NAMESPACE_DC.equals(namespace) && "creator".equals(name) && creator == null)
+         {
+            creator = readText(reader);
+         }
+         else if (NAMESPACE_DC.equals(namespace) && "date".equals(name) && dcDate == null)
+         {
+            dcDate = readText(reader);
+         }
+         else
+         {
+            skip(reader);
+         }
+      }
+
+      // As Rome would have it: the GUID is the key, and failing a link, a permalink
+      if (link == null && guid != null && guidIsPermaLink)
+      {
+         link = guid;
+      }
+      final long published = pubDate != null ? dateParser.parseRfc822(pubDate) : dateParser.parseW3c(dcDate);
+      add(entries, guid != null ? guid : about, creator != null ? creator : author, title, description, link,
+            published);
+   }
+
+   /**
+    * Reads an Atom entry, the reader being at its start, leaving the reader at its end
+    */
+   private void readAtomEntry(final XMLStreamReader reader, final Map<String, RomeRssEntry> entries,
+         final DateParser dateParser) throws XMLStreamException, FeedException
+   {
+      String id = null;
+      String title = null;
+      String link = null;
+      boolean linkIsAlternate = false;
+      String summary = null;
+      String author = null;
+      String published = null;
+      String updated = null;
+      while (reader.next() != XMLStreamConstants.END_ELEMENT)
+      {
+         if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+         {
+            continue;
+         }
+         final String name = reader.getLocalName();
+         if (!NAMESPACE_ATOM.equals(reader.getNamespaceURI()))
+         {
+            skip(reader);
+         }
+         else if ("id".equals(name))
+         {
+            id = trim(readText(reader));
+         }
+         else if ("title".equals(name))
+         {
+            title = readText(reader);
+         }
+         else if ("link".equals(name))
+         {
+            // The first alternate, or failing any, the first
+            final String rel = reader.getAttributeValue(null, "rel");
+            final boolean alternate = rel == null || LINK_REL_ALTERNATE.equals(rel);
+            if (link == null || (alternate && !linkIsAlternate))
+            {
+               link = trim(reader.getAttributeValue(null, "href"));
+               linkIsAlternate = alternate;
+            }
+            skip(reader);
+         }
+         else if ("summary".equals(name))
+         {
+            summary = readText(reader);
+         }
+         else if ("author".equals(name) && author == null)
+         {
+            author = readAtomAuthorName(reader);
+         }
+         else if ("published".equals(name))
+         {
+            published = readText(reader);
+         }
+         else if ("updated".equals(name))
+         {
+            updated = readText(reader);
+         }
+         else
+         {
+            skip(reader);
+         }
+      }
+      final long date = published != null ? dateParser.parseW3c(published) : dateParser.parseW3c(updated);
+      add(entries, id, author, title, summary, link, date);
+   }
+
+   /**
+    * Reads the name of an Atom person, the reader being at its start, leaving the reader at its end
+    */
+   private static String readAtomAuthorName(final XMLStreamReader reader) throws XMLStreamException
+   {
+      String name = null;
+      while (reader.next() != XMLStreamConstants.END_ELEMENT)
+      {
+         if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+         {
+            continue;
+         }
+         if (NAMESPACE_ATOM.equals(reader.getNamespaceURI()) && "name".equals(reader.getLocalName()))
+         {
+            name = readText(reader);
+         }
+         else
+         {
+            skip(reader);
+         }
+      }
+      return name;
+   }
+
+   /**
+    * Adds the specified entry under the specified key, or failing one its link, unless it's already taken
+    */
+   private void add(final Map<String, RomeRssEntry> entries, final String key, final String author,
+         final String title, final String description, final String link, final long published)
+         throws FeedException
+   {
+      if (link == null)
+      {
+         throw new FeedException("Feed entry has no link: " + title);
+      }
+      try
+      {
+         // Only to check it parses
+         new URL(link);
+      }
+      catch (final MalformedURLException murle)
+      {
+         throw new FeedException("Feed entry has an invalid link: " + link, murle);
+      }
+      final String entryKey = key != null && key.length() > 0 ? key : link;
+      if (!entries.containsKey(entryKey))
+      {
+         entries.put(entryKey, new RomeRssEntry(author, title, RomeRssEntry.truncate(description,
+               maxDescriptionLength), link, published));
+      }
+   }
+
+   /**
+    * Reads all text within the current element, the reader being at its start, 
+    * leaving the reader at its end
+    */
+   private static String readText(final XMLStreamReader reader) throws XMLStreamException
+   {
+      String text = "";
+      StringBuilder more = null;
+      for (int depth = 1; depth > 0;)
+      {
+         switch (reader.next())
+         {
+            case XMLStreamConstants.START_ELEMENT :
+               depth++;
+               break;
+            case XMLStreamConstants.END_ELEMENT :
+               depth--;
+               break;
+            case XMLStreamConstants.CHARACTERS :
+            case XMLStreamConstants.CDATA :
+            case XMLStreamConstants.SPACE :
+               // Most text comes in one piece; only build should it not
+               if (text.length() == 0)
+               {
+                  text = reader.getText();
+               }
+               else
+               {
+                  if (more == null)
+                  {
+                     more = new StringBuilder(text);
+                  }
+                  more.append(reader.getText());
+               }
+               break;
+            default :
+               break;
+         }
+      }
+      return more == null ? text : more.toString();
+   }
+
+   /**
+    * Skips the current element, the reader being at its start, leaving the reader at its end
+    */
+   private static void skip(final XMLStreamReader reader) throws XMLStreamException
+   {
+      for (int depth = 1; depth > 0;)
+      {
+         final int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT)
+         {
+            depth++;
+         }
+         else if (event == XMLStreamConstants.END_ELEMENT)
+         {
+            depth--;
+         }
+      }
+   }
+
+   private static String trim(final String value)
+   {
+      return value == null ? null : value.trim();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parses dates as Rome would, in ms since the epoch; {@link DateFormat}s 
+    * not being thread-safe, one instance is used per parse
+    */
+   private static final class DateParser
+   {
+      private final DateFormat[] rfc822 = createFormats(DATE_FORMATS_RFC822);
+
+      private final DateFormat[] w3c = createFormats(DATE_FORMATS_W3C);
+
+      long parseRfc822(final String date)
+      {
+         if (date == null)
+         {
+            return RomeRssEntry.UNKNOWN;
+         }
+         String text = date.trim();
+         if (text.endsWith(" UT"))
+         {
+            text = text + "C";
+         }
+         return parse(rfc822, text);
+      }
+
+      long parseW3c(final String date)
+      {
+         if (date == null)
+         {
+            return RomeRssEntry.UNKNOWN;
+         }
+
+         // Zone designators as RFC 822 would have them ("Z" or "+hh:mm" to "+hhmm")
+         String text = date.trim();
+         if (text.endsWith("Z"))
+         {
+            text = text.substring(0, text.length() - 1) + "+0000";
+         }
+         else if (text.length() > 6 && text.charAt(text.length() - 3) == ':'
+               && (text.charAt(text.length() - 6) == '+' || text.charAt(text.length() - 6) == '-'))
+         {
+            text = text.substring(0, text.length() - 3) + text.substring(text.length() - 2);
+         }
+
+         // Milliseconds at most
+         final int fraction = text.indexOf('.');
+         if (fraction > 0)
+         {
+            int end = fraction + 1;
+            while (end < text.length() && Character.isDigit(text.charAt(end)))
+            {
+               end++;
+            }
+            text = text.substring(0, fraction) + (text.substring(fraction, end) + "000").substring(0, 4)
+                  + text.substring(end);
+         }
+         return parse(w3c, text);
+      }
+
+      private static long parse(final DateFormat[] formats, final String text)
+      {
+         for (final DateFormat format : formats)
+         {
+            // The whole of it, lest a shorter format match only the start
+            final ParsePosition position = new ParsePosition(0);
+            final Date parsed = format.parse(text, position);
+            if (parsed != null && position.getIndex() == text.length())
+            {
+               return parsed.getTime();
+            }
+         }
+         return RomeRssEntry.UNKNOWN;
+      }
+
+      private static DateFormat[] createFormats(final String[] patterns)
+      {
+         final DateFormat[] formats = new DateFormat[patterns.length];
+         for (int i = 0; i < patterns.length; i++)
+         {
+            formats[i] = new SimpleDateFormat(patterns[i], Locale.US);
+            formats[i].setLenient(false);
+         }
+         return formats;
+      }
+   }
+}
@@ -0,0 +1,553 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache evicting by the W-TinyLFU policy.  New entries enter a small 
+ * LRU admission window (1% of capacity); entries falling out of the window 
+ * then compete for a place in the main space (the remaining 99%, segmented 
+ * into probation and protected LRU queues) against its next eviction victim, 
+ * and whichever has been requested less often (by a compact, periodically 
+ * aged count-min sketch of recent requests) is evicted.  A burst of one-off 
+ * requests is so kept from flushing out entries in steady demand, which 
+ * plain LRU would not manage.
+ * 
+ * The cache is bounded both in the number of entries and in their total 
+ * weight, as reported by a {@link Weigher}; whichever bound is exceeded
+ * first causes eviction.
+ * 
+ * All operations are O(1), and guarded by the cache's monitor.  
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+final class WTinyLfuCache<K, V>
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Share of the capacity given to the admission window
+    */
+   private static final int WINDOW_PERCENT = 1;
+
+   /**
+    * Share of the main space given to the protected queue
+    */
+   private static final int PROTECTED_PERCENT = 80;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * All entries, by key
+    */
+   private final Map<K, Node<K, V>> data = new HashMap<K, Node<K, V>>();
+
+   /**
+    * Recency-ordered queues, least recently used first
+    */
+   private final AccessQueue<K, V> window = new AccessQueue<K, V>();
+
+   private final AccessQueue<K, V> probation = new AccessQueue<K, V>();
+
+   private final AccessQueue<K, V> protectedQueue = new AccessQueue<K, V>();
+
+   /**
+    * Estimates how often each key has been requested of late
+    */
+   private final FrequencySketch sketch;
+
+   /**
+    * Weighs entries
+    */
+   private final Weigher<? super K, ? super V> weigher;
+
+   private final int maximumSize;
+
+   private final long maximumWeight;
+
+   private final int maximumWindowSize;
+
+   private final long maximumWindowWeight;
+
+   private final int maximumProtectedSize;
+
+   private final long maximumProtectedWeight;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new, empty cache
+    * 
+    * @param maximumSize The maximum number of entries
+    * @param maximumWeight The maximum total weight of entries
+    * @param weigher Weighs each entry
+    * @throws IllegalArgumentException If either maximum is not positive, or the weigher is not specified
+    */
+   WTinyLfuCache(final int maximumSize, final long maximumWeight, final Weigher<? super K, ? super V> weigher)
+         throws IllegalArgumentException
+   {
+      if (maximumSize <= 0)
+      {
+         throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+      }
+      if (maximumWeight <= 0)
+      {
+         throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+      }
+      if (weigher == null)
+      {
+         throw new IllegalArgumentException("Weigher must be specified");
+      }
+      this.maximumSize = maximumSize;
+      this.maximumWeight = maximumWeight;
+      this.weigher = weigher;
+      this.maximumWindowSize = Math.max(1, maximumSize * WINDOW_PERCENT / 100);
+      this.maximumWindowWeight = Math.max(1, maximumWeight / 100 * WINDOW_PERCENT);
+      this.maximumProtectedSize = (maximumSize - maximumWindowSize) * PROTECTED_PERCENT / 100;
+      this.maximumProtectedWeight = (maximumWeight - maximumWindowWeight) / 100 * PROTECTED_PERCENT;
+      this.sketch = new FrequencySketch(maximumSize);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the value cached under the specified key, recording the request
+    * (hit or miss) toward the key's admission 
+    * 
+    * @param key
+    * @return The value, or null if not cached
+    */
+   synchronized V get(final K key)
+   {
+      sketch.increment(key);
+      final Node<K, V> node = data.get(key);
+      if (node == null)
+      {
+         return null;
+      }
+      onAccess(node);
+      return node.value;
+   }
+
+   /**
+    * Obtains the value cached under the specified key, without recording a request
+    * 
+    * @param key
+    * @return The value, or null if not cached
+    */
+   synchronized V peek(final K key)
+   {
+      final Node<K, V> node = data.get(key);
+      return node == null ? null : node.value;
+   }
+
+   /**
+    * Returns whether a value is cached under the specified key, without recording a request
+    */
+   synchronized boolean containsKey(final K key)
+   {
+      return data.containsKey(key);
+   }
+
+   /**
+    * Caches the specified value, replacing any already cached under the key.  A new 
+    * entry is subject to admission, so may well be evicted at once.  This is not 
+    * recorded as a request; callers will typically put after a {@link WTinyLfuCache#get(Object)} 
+    * has missed, which was.
+    * 
+    * @param key
+    * @param value
+    * @throws IllegalArgumentException If the key or value is null, or the value weighs less than nothing
+    */
+   synchronized void put(final K key, final V value) throws IllegalArgumentException
+   {
+      final long weight = this.weigh(key, value);
+      final Node<K, V> existing = data.get(key);
+      if (existing != null)
+      {
+         this.setValue(existing, value, weight);
+      }
+      else
+      {
+         final Node<K, V> node = new Node<K, V>(key, value, weight);
+         data.put(key, node);
+         window.addLast(node);
+      }
+      this.evict();
+   }
+
+   /**
+    * Replaces the value cached under the specified key, if any; a key not 
+    * cached is left that way
+    * 
+    * @param key
+    * @param value
+    * @return Whether the value was replaced
+    * @throws IllegalArgumentException If the key or value is null, or the value weighs less than nothing
+    */
+   synchronized boolean replace(final K key, final V value) throws IllegalArgumentException
+   {
+      final long weight = this.weigh(key, value);
+      final Node<K, V> existing = data.get(key);
+      if (existing == null)
+      {
+         return false;
+      }
+      this.setValue(existing, value, weight);
+      this.evict();
+      return true;
+   }
+
+   /**
+    * Removes the value cached under the specified key
+    * 
+    * @param key
+    * @return The value removed, or null if none was cached
+    */
+   synchronized V remove(final K key)
+   {
+      final Node<K, V> node = data.remove(key);
+      if (node == null)
+      {
+         return null;
+      }
+      node.queue.remove(node);
+      return node.value;
+   }
+
+   /**
+    * Obtains the number of entries cached
+    */
+   synchronized int size()
+   {
+      return data.size();
+   }
+
+   /**
+    * Obtains the total weight of the entries cached
+    */
+   synchronized long weight()
+   {
+      return window.weight + probation.weight + protectedQueue.weight;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private long weigh(final K key, final V value) throws IllegalArgumentException
+   {
+      if (key == null || value == null)
+      {
+         throw new IllegalArgumentException("Neither key nor value may be null");
+      }
+      final long weight = weigher.weigh(key, value);
+      if (weight < 0)
+      {
+         throw new IllegalArgumentException("Weight may not be negative: " + weight + " for " + key);
+      }
+      return weight;
+   }
+
+   private void setValue(final Node<K, V> node, final V value, final long weight)
+   {
+      node.queue.weight += weight - node.weight;
+      node.weight = weight;
+      node.value = value;
+   }
+
+   /**
+    * Moves a requested entry along: to the back of its queue, or from probation to protected
+    */
+   private void onAccess(final Node<K, V> node)
+   {
+      if (node.queue != probation)
+      {
+         node.queue.moveToBack(node);
+         return;
+      }
+
+      // Promote, demoting the protected LRU to make room as needed
+      probation.remove(node);
+      protectedQueue.addLast(node);
+      while (protectedQueue.count > 1
+            && (protectedQueue.count > maximumProtectedSize || protectedQueue.weight > maximumProtectedWeight))
+      {
+         final Node<K, V> demoted = protectedQueue.first();
+         protectedQueue.remove(demoted);
+         probation.addLast(demoted);
+      }
+   }
+
+   /**
+    * Brings the cache back within its bounds
+    */
+   private void evict()
+   {
+      // Entries overflowing the window become candidates for the main space
+      Node<K, V> candidate = null;
+      while (window.count > maximumWindowSize || window.weight > maximumWindowWeight)
+      {
+         final Node<K, V> node = window.first();
+         window.remove(node);
+         probation.addLast(node);
+         if (candidate == null)
+         {
+            candidate = node;
+         }
+      }
+
+      // Each candidate must displace a victim, the probation LRU, by being the more frequent
+      while (data.size() > maximumSize || this.weight() > maximumWeight)
+      {
+         Node<K, V> victim = probation.first();
+         if (victim == null)
+         {
+            victim = protectedQueue.first();
+         }
+         if (victim == null)
+         {
+            victim = window.first();
+         }
+         if (candidate == null || candidate == victim)
+         {
+            if (candidate == victim)
+            {
+               candidate = probation.next(candidate);
+            }
+            this.evict(victim);
+         }
+         else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key))
+         {
+            this.evict(victim);
+         }
+         else
+         {
+            final Node<K, V> next = probation.next(candidate);
+            this.evict(candidate);
+            candidate = next;
+         }
+      }
+   }
+
+   private void evict(final Node<K, V> node)
+   {
+      data.remove(node.key);
+      node.queue.remove(node);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Weighs cache entries, in whatever unit the maximum weight is given
+    */
+   interface Weigher<K, V>
+   {
+      /**
+       * Obtains the weight of the specified entry; never negative
+       */
+      long weigh(K key, V value);
+   }
+
+   /**
+    * A cache entry, linked into one of the queues
+    */
+   private static final class Node<K, V>
+   {
+      private final K key;
+
+      private V value;
+
+      private long weight;
+
+      private AccessQueue<K, V> queue;
+
+      private Node<K, V> previous;
+
+      private Node<K, V> next;
+
+      Node(final K key, final V value, final long weight)
+      {
+         this.key = key;
+         this.value = value;
+         this.weight = weight;
+      }
+   }
+
+   /**
+    * Doubly-linked queue of entries, least recently used first, keeping
+    * count of the entries and their weight
+    */
+   private static final class AccessQueue<K, V>
+   {
+      private final Node<K, V> head = new Node<K, V>(null, null, 0);
+
+      private int count;
+
+      private long weight;
+
+      AccessQueue()
+      {
+         head.previous = head;
+         head.next = head;
+      }
+
+      Node<K, V> first()
+      {
+         return this.next(head);
+      }
+
+      Node<K, V> next(final Node<K, V> node)
+      {
+         return node.next == head ? null : node.next;
+      }
+
+      void addLast(final Node<K, V> node)
+      {
+         node.previous = head.previous;
+         node.next = head;
+         head.previous.next = node;
+         head.previous = node;
+         node.queue = this;
+         count++;
+         weight += node.weight;
+      }
+
+      void remove(final Node<K, V> node)
+      {
+         node.previous.next = node.next;
+         node.next.previous = node.previous;
+         node.previous = null;
+         node.next = null;
+         node.queue = null;
+         count--;
+         weight -= node.weight;
+      }
+
+      void moveToBack(final Node<K, V> node)
+      {
+         this.remove(node);
+         this.addLast(node);
+      }
+   }
+
+   /**
+    * Count-min sketch of request frequency: four rows of 4-bit counters, 
+    * each key counted in one counter per row and estimated by the least 
+    * of them.  All counters are halved once enough requests have been 
+    * counted, so that the estimate reflects recent demand.
+    */
+   private static final class FrequencySketch
+   {
+      /**
+       * Odd multipliers hashing a key to its counter in each row
+       */
+      private static final int[] SEEDS =
+      {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+      private static final int MAXIMUM_COUNT = 15;
+
+      private static final int MAXIMUM_EXPECTED_SIZE = 1 << 24;
+
+      private final byte[][] counters;
+
+      private final int shift;
+
+      private final int sampleSize;
+
+      private int samples;
+
+      FrequencySketch(final int expectedSize)
+      {
+         // Four counters per row for each expected key, for few collisions
+         final int size = Math.min(Math.max(expectedSize, 16), MAXIMUM_EXPECTED_SIZE);
+         final int width = Integer.highestOneBit(size - 1) << 3;
+         counters = new byte[SEEDS.length][width];
+         shift = 32 - Integer.numberOfTrailingZeros(width);
+         sampleSize = 10 * size;
+      }
+
+      void increment(final Object key)
+      {
+         final int hash = spread(key.hashCode());
+         boolean added = false;
+         for (int i = 0; i < SEEDS.length; i++)
+         {
+            final int index = (hash * SEEDS[i]) >>> shift;
+            if (counters[i][index] < MAXIMUM_COUNT)
+            {
+               counters[i][index]++;
+               added = true;
+            }
+         }
+         if (added && ++samples >= sampleSize)
+         {
+            this.age();
+         }
+      }
+
+      int frequency(final Object key)
+      {
+         final int hash = spread(key.hashCode());
+         int frequency = MAXIMUM_COUNT;
+         for (int i = 0; i < SEEDS.length; i++)
+         {
+            frequency = Math.min(frequency, counters[i][(hash * SEEDS[i]) >>> shift]);
+         }
+         return frequency;
+      }
+
+      private void age()
+      {
+         for (final byte[] row : counters)
+         {
+            for (int i = 0; i < row.length; i++)
+            {
+               row[i] >>= 1;
+            }
+         }
+         samples >>>= 1;
+      }
+
+      private static int spread(int hash)
+      {
+         hash ^= hash >>> 16;
+         hash *= 0x45D9F3B;
+         return hash ^ (hash >>> 16);
+      }
+   }
+}
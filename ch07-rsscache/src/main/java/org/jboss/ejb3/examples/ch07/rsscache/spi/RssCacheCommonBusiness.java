@@ -42,6 +42,71 @@ public interface RssCacheCommonBusiness
     */
    List<RssEntry> getEntries();
 
+   /**
+    * Returns at most <code>limit</code> entries in the RSS Feed represented by 
+    * {@link RssCacheCommonBusiness#getUrl()}, in feed order, starting from the 
+    * entry at <code>offset</code>; clients may so obtain only those entries they'll 
+    * use.  This list will not support mutation and is read-only.
+    * 
+    * @param offset
+    * @param limit
+    * @return
+    * @throws IllegalArgumentException If the offset or limit is negative
+    */
+   List<RssEntry> getEntries(int offset, int limit) throws IllegalArgumentException;
+
+   /**
+    * Returns the (at most) <code>count</code> most recently published entries
+    * in the RSS Feed represented by {@link RssCacheCommonBusiness#getUrl()}, newest first. 
+    * Entries with no publication date are taken to be older than those with one,
+    * and otherwise keep their feed order.  This list will not support mutation 
+    * and is read-only.
+    * 
+    * @param count
+    * @return
+    * @throws IllegalArgumentException If the count is negative
+    */
+   List<RssEntry> getNewestEntries(int count) throws IllegalArgumentException;
+
+   /**
+    * Returns a page of at most <code>limit</code> entries in the RSS Feed represented by 
+    * {@link RssCacheCommonBusiness#getUrl()}, following on from the specified cursor, or 
+    * from the first entry of the current snapshot if no cursor is specified.  Paging 
+    * through with the cursor of each page sees the entries as they stood in that one 
+    * snapshot, however the feed is refreshed in the meantime.  See {@link RssEntryIterator}.
+    * 
+    * @param cursor
+    * @param limit
+    * @return
+    * @throws IllegalArgumentException If the limit is not positive, or the cursor has expired
+    */
+   RssEntryPage getEntryPage(RssEntryCursor cursor, int limit) throws IllegalArgumentException;
+
+   /**
+    * Returns the changes made to the entries in the RSS Feed represented by 
+    * {@link RssCacheCommonBusiness#getUrl()} since the specified version; 
+    * clients may so poll for changes in place of obtaining all entries each time.
+    * Version 0 precedes all entries.
+    * 
+    * @param version The version of the entries held by the client
+    * @return
+    */
+   RssFeedChanges getChangesSince(long version);
+
+   /**
+    * Returns the (at most) <code>limit</code> entries in the RSS Feed represented by 
+    * {@link RssCacheCommonBusiness#getUrl()} which best match the specified query, 
+    * best first.  The query is of terms and "quoted phrases", all of which an 
+    * entry's author, title and description must together contain to match; 
+    * matching is case-insensitive.  This list will not support mutation and is read-only.
+    * 
+    * @param query
+    * @param limit
+    * @return
+    * @throws IllegalArgumentException If the query is not specified, or the limit is not positive
+    */
+   List<RssEntry> search(String query, int limit) throws IllegalArgumentException;
+
    /**
     * Returns the URL of the RSS Feed
     * 
@@ -54,4 +119,46 @@ public interface RssCacheCommonBusiness
     */
    void refresh();
 
+   /**
+    * Returns all entries in the registered RSS Feed at the specified URL,
+    * fetching the feed should its entries not be cached.
+    * This list will not support mutation and is read-only.
+    * 
+    * @param url
+    * @return
+    * @throws IllegalArgumentException If the feed has not been registered
+    */
+   List<RssEntry> getEntries(URL url) throws IllegalArgumentException;
+
+   /**
+    * Returns the changes made to the entries in the registered RSS Feed 
+    * at the specified URL since the specified version
+    * 
+    * @param url
+    * @param version The version of the entries held by the client
+    * @return
+    * @throws IllegalArgumentException If the feed has not been registered
+    * @see RssCacheCommonBusiness#getChangesSince(long)
+    */
+   RssFeedChanges getChangesSince(URL url, long version) throws IllegalArgumentException;
+
+   /**
+    * Registers the RSS Feed at the specified URL, to be cached and refreshed 
+    * in the background at (about) the specified interval.  Registering a 
+    * feed already registered changes its refresh interval.
+    * 
+    * @param url
+    * @param refreshIntervalMillis
+    * @throws IllegalArgumentException If the URL is not specified, or the interval is not positive
+    */
+   void registerFeed(URL url, long refreshIntervalMillis) throws IllegalArgumentException;
+
+   /**
+    * Unregisters the RSS Feed at the specified URL, discarding its cached entries
+    * 
+    * @param url
+    * @return Whether the feed had been registered
+    */
+   boolean unregisterFeed(URL url);
+
 }
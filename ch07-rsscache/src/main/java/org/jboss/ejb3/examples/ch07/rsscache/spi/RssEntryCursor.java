@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.spi;
+
+import java.io.Serializable;
+
+/**
+ * Position within a snapshot of the entries of an RSS Feed, from which 
+ * the next {@link RssEntryPage} may be obtained.  A cursor stays with the 
+ * snapshot it was obtained from, even as the feed is refreshed, so that 
+ * paging through the entries sees each once; snapshots are kept only 
+ * for a while, after which the cursor expires.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class RssEntryCursor implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Version of the snapshot
+    */
+   private final long version;
+
+   /**
+    * Index of the next entry within the snapshot
+    */
+   private final int offset;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new cursor
+    * 
+    * @param version Version of the snapshot
+    * @param offset Index of the next entry within the snapshot
+    * @throws IllegalArgumentException If the offset is negative
+    */
+   public RssEntryCursor(final long version, final int offset) throws IllegalArgumentException
+   {
+      if (offset < 0)
+      {
+         throw new IllegalArgumentException("Offset may not be negative: " + offset);
+      }
+      this.version = version;
+      this.offset = offset;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the version of the snapshot
+    */
+   public long getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Obtains the index of the next entry within the snapshot
+    */
+   public int getOffset()
+   {
+      return offset;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [version=" + version + ", offset=" + offset + "]";
+   }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.spi;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Client-side iterator over all entries of the RSS Feed cached by an
+ * {@link RssCacheCommonBusiness}, as they stood when iteration began.  
+ * Entries are obtained a page at a time, as iteration reaches them, so 
+ * a client which stops early transfers only what it's looked at.
+ * 
+ * Not thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class RssEntryIterator implements Iterator<RssEntry>
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The cache paged through
+    */
+   private final RssCacheCommonBusiness cache;
+
+   /**
+    * Most entries obtained in each call
+    */
+   private final int pageSize;
+
+   /**
+    * Entries of the current page
+    */
+   private List<RssEntry> page;
+
+   /**
+    * Index of the next entry within the current page
+    */
+   private int index;
+
+   /**
+    * Cursor to the next page, or null if the current is the last
+    */
+   private RssEntryCursor nextCursor;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new iterator, obtaining the first page
+    * 
+    * @param cache The cache to page through
+    * @param pageSize Most entries to obtain in each call
+    * @throws IllegalArgumentException If the cache is not specified or the page size is not positive
+    */
+   public RssEntryIterator(final RssCacheCommonBusiness cache, final int pageSize) throws IllegalArgumentException
+   {
+      if (cache == null)
+      {
+         throw new IllegalArgumentException("Cache must be specified");
+      }
+      if (pageSize <= 0)
+      {
+         throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+      }
+      this.cache = cache;
+      this.pageSize = pageSize;
+      this.setPage(cache.getEntryPage(null, pageSize));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.util.Iterator#hasNext()
+    */
+   @Override
+   public boolean hasNext()
+   {
+      while (index == page.size() && nextCursor != null)
+      {
+         this.setPage(cache.getEntryPage(nextCursor, pageSize));
+      }
+      return index < page.size();
+   }
+
+   /* (non-Javadoc)
+    * @see java.util.Iterator#next()
+    */
+   @Override
+   public RssEntry next()
+   {
+      if (!this.hasNext())
+      {
+         throw new NoSuchElementException();
+      }
+      return page.get(index++);
+   }
+
+   /**
+    * Unsupported; the entries are read-only
+    * 
+    * @see java.util.Iterator#remove()
+    * @throws UnsupportedOperationException
+    */
+   @Override
+   public void remove() throws UnsupportedOperationException
+   {
+      throw new UnsupportedOperationException("Entries are read-only");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private void setPage(final RssEntryPage page)
+   {
+      this.page = page.getEntries();
+      this.index = 0;
+      this.nextCursor = page.getNextCursor();
+   }
+}
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.spi;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the entries of an RSS Feed, as they stood in one snapshot, 
+ * along with the cursor from which to obtain the next page.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class RssEntryPage implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Entries of the page
+    */
+   private final List<RssEntry> entries;
+
+   /**
+    * Total number of entries in the snapshot
+    */
+   private final int totalEntries;
+
+   /**
+    * Cursor to the next page, or null if this is the last
+    */
+   private final RssEntryCursor nextCursor;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new page
+    * 
+    * @param entries Entries of the page
+    * @param totalEntries Total number of entries in the snapshot
+    * @param nextCursor Cursor to the next page, or null if this is the last
+    * @throws IllegalArgumentException If the entries are not specified
+    */
+   public RssEntryPage(final List<RssEntry> entries, final int totalEntries, final RssEntryCursor nextCursor)
+         throws IllegalArgumentException
+   {
+      if (entries == null)
+      {
+         throw new IllegalArgumentException("Entries must be specified");
+      }
+      this.entries = Collections.unmodifiableList(entries);
+      this.totalEntries = totalEntries;
+      this.nextCursor = nextCursor;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the entries of the page, in feed order
+    */
+   public List<RssEntry> getEntries()
+   {
+      return entries;
+   }
+
+   /**
+    * Obtains the total number of entries in the snapshot paged through
+    */
+   public int getTotalEntries()
+   {
+      return totalEntries;
+   }
+
+   /**
+    * Obtains the cursor from which to obtain the next page, or null if this is the last
+    */
+   public RssEntryCursor getNextCursor()
+   {
+      return nextCursor;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName() + " [entries=" + entries.size() + ", totalEntries=" + totalEntries
+            + ", nextCursor=" + nextCursor + "]";
+   }
+}
@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.spi;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes made to the entries of an RSS Feed between two versions of
+ * its cached view, so that a client holding the entries as of one 
+ * version may bring them up to date without obtaining them all again.
+ * 
+ * To apply: if {@link RssFeedChanges#isReset()}, the changes could not be 
+ * determined (the client's version is too old to be remembered, or unknown), 
+ * so the client's entries are to be replaced whole by {@link RssFeedChanges#getAdded()}.
+ * Otherwise, the client removes the entries in {@link RssFeedChanges#getRemoved()}, 
+ * replaces those it holds with the same URL by the entries in {@link RssFeedChanges#getUpdated()},
+ * and adds those in {@link RssFeedChanges#getAdded()}.  Either way, it then 
+ * holds the entries as of {@link RssFeedChanges#getVersion()}, from which it
+ * may ask for changes next.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class RssFeedChanges implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Serial Version UID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The version from which changes were requested
+    */
+   private final long sinceVersion;
+
+   /**
+    * The version the changes bring the entries up to
+    */
+   private final long version;
+
+   /**
+    * Whether the changes could not be determined, and all entries are given as added
+    */
+   private final boolean reset;
+
+   private final List<RssEntry> added;
+
+   private final List<RssEntry> updated;
+
+   private final List<RssEntry> removed;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new set of changes
+    * 
+    * @param sinceVersion The version from which changes were requested
+    * @param version The version the changes bring the entries up to
+    * @param reset Whether the changes could not be determined, and all entries are given as added
+    * @param added Entries added
+    * @param updated Entries whose content changed
+    * @param removed Entries removed
+    * @throws IllegalArgumentException If any of the lists is not specified
+    */
+   public RssFeedChanges(final long sinceVersion, final long version, final boolean reset,
+         final List<RssEntry> added, final List<RssEntry> updated, final List<RssEntry> removed)
+         throws IllegalArgumentException
+   {
+      if (added == null || updated == null || removed == null)
+      {
+         throw new IllegalArgumentException("Lists of changes must be specified");
+      }
+      this.sinceVersion = sinceVersion;
+      this.version = version;
+      this.reset = reset;
+      this.added = Collections.unmodifiableList(added);
+      this.updated = Collections.unmodifiableList(updated);
+      this.removed = Collections.unmodifiableList(removed);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the version from which changes were requested
+    */
+   public long getSinceVersion()
+   {
+      return sinceVersion;
+   }
+
+   /**
+    * Obtains the version the changes bring the entries up to
+    */
+   public long getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Returns whether the changes could not be determined, in which case 
+    * {@link RssFeedChanges#getAdded()} holds all entries as of {@link RssFeedChanges#getVersion()}
+    */
+   public boolean isReset()
+   {
+      return reset;
+   }
+
+   /**
+    * Obtains the entries added, in feed order
+    */
+   public List<RssEntry> getAdded()
+   {
+      return added;
+   }
+
+   /**
+    * Obtains the entries whose content has changed, in their new form
+    */
+   public List<RssEntry> getUpdated()
+   {
+      return updated;
+   }
+
+   /**
+    * Obtains the entries removed, in their last form
+    */
+   public List<RssEntry> getRemoved()
+   {
+      return removed;
+   }
+
+   /**
+    * Returns whether there are no changes at all
+    */
+   public boolean isEmpty()
+   {
+      return !reset && added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      final StringBuilder sb = new StringBuilder();
+      sb.append(this.getClass().getSimpleName());
+      sb.append(" [");
+      sb.append(sinceVersion);
+      sb.append(" -> ");
+      sb.append(version);
+      if (reset)
+      {
+         sb.append(", reset");
+      }
+      sb.append(", added=");
+      sb.append(added.size());
+      sb.append(", updated=");
+      sb.append(updated.size());
+      sb.append(", removed=");
+      sb.append(removed.size());
+      sb.append("]");
+      return sb.toString();
+   }
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LockType;
+
+/**
+ * Mocks the concurrency management the EJB Container applies to a 
+ * @Singleton, so that POJO tests see the blocking behavior clients
+ * of the real bean would.  Invocations through the proxy take the 
+ * bean's read or write lock as designated by {@link javax.ejb.Lock}
+ * on the bean method, else on its declaring class, else WRITE
+ * (the default); unless the bean declares Bean Managed Concurrency, 
+ * in which case no locks are taken at all.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class ContainerConcurrencyProxy implements InvocationHandler
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The bean instance
+    */
+   private final Object bean;
+
+   /**
+    * The lock the Container holds for the bean instance
+    */
+   private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private ContainerConcurrencyProxy(final Object bean)
+   {
+      this.bean = bean;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a proxy for the specified bean instance, exposing the specified 
+    * business interface with Container concurrency semantics
+    */
+   public static <T> T create(final T bean, final Class<T> businessInterface)
+   {
+      return businessInterface.cast(Proxy.newProxyInstance(businessInterface.getClassLoader(), new Class<?>[]
+      {businessInterface}, new ContainerConcurrencyProxy(bean)));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+    */
+   @Override
+   public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+   {
+      final Method beanMethod = bean.getClass().getMethod(method.getName(), method.getParameterTypes());
+      final Lock held = this.getLock(beanMethod);
+      if (held != null)
+      {
+         held.lock();
+      }
+      try
+      {
+         return beanMethod.invoke(bean, args);
+      }
+      catch (final InvocationTargetException ite)
+      {
+         throw ite.getCause();
+      }
+      finally
+      {
+         if (held != null)
+         {
+            held.unlock();
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the lock the Container would take to invoke the specified 
+    * bean method, or null if none
+    */
+   private Lock getLock(final Method beanMethod)
+   {
+      // Bean Managed Concurrency; the bean handles its own
+      for (Class<?> c = bean.getClass(); c != null; c = c.getSuperclass())
+      {
+         final ConcurrencyManagement management = c.getAnnotation(ConcurrencyManagement.class);
+         if (management != null)
+         {
+            if (management.value() == ConcurrencyManagementType.BEAN)
+            {
+               return null;
+            }
+            break;
+         }
+      }
+
+      // Method-level metadata overrides class-level, which overrides the default
+      javax.ejb.Lock metadata = beanMethod.getAnnotation(javax.ejb.Lock.class);
+      if (metadata == null)
+      {
+         metadata = beanMethod.getDeclaringClass().getAnnotation(javax.ejb.Lock.class);
+      }
+      final LockType type = metadata == null ? LockType.WRITE : metadata.value();
+      return type == LockType.READ ? lock.readLock() : lock.writeLock();
+   }
+}
@@ -0,0 +1,388 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.impl.rome.TestRssCacheBean;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryIterator;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mortbay.jetty.Server;
+
+/**
+ * Measures what remote clients pay to read a 10,000 entry feed whole, 
+ * against reading it a page at a time, or only its newest entries: the 
+ * bytes serialized per call, and the latency of each call including 
+ * (de)serialization of arguments and return value, as made of the 
+ * <code>@Remote</code> view.
+ * 
+ * The feed is the mock 15 entry feed, scaled up with unique links.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=RssCachePagingBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RssCachePagingBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(RssCachePagingBenchmark.class.getName());
+
+   /**
+    * Number of entries in the feed
+    */
+   private static final int ENTRIES = 10000;
+
+   /**
+    * Number of entries a client renders at once
+    */
+   private static final int PAGE_SIZE = 50;
+
+   /**
+    * Number of entries obtained per call when reading the whole feed a page at a time
+    */
+   private static final int BULK_PAGE_SIZE = 1000;
+
+   /**
+    * Number of times each read is made, after as many again to warm up; the median is reported
+    */
+   private static final int RUNS = 10;
+
+   /**
+    * Filename of the scaled feed
+    */
+   private static final String FILENAME_RSS_FEED = "benchmark_" + ENTRIES + "_entries.rss";
+
+   /**
+    * Matches each entry of the template feed
+    */
+   private static final Pattern ITEM = Pattern.compile("<item>.*?</item>", Pattern.DOTALL);
+
+   /**
+    * The HTTP Server serving the feed
+    */
+   private static Server httpServer;
+
+   /**
+    * The bean under test
+    */
+   private static TestRssCacheBean bean;
+
+   /**
+    * The bean as seen by a remote client
+    */
+   private static RssCacheCommonBusiness remote;
+
+   /**
+    * The scaled feed
+    */
+   private static File feedFile;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scales up the mock feed, serves it, and caches it
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      // Per-entry logging would otherwise add to what we measure
+      Logger.getLogger("org.jboss.ejb3.examples.ch07.rsscache").setLevel(Level.WARNING);
+
+      // Scale up the mock feed
+      final File baseDirectory = new File(RssCachePagingBenchmark.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI());
+      final String template = readFully(new File(baseDirectory,
+            RssCacheTestCaseBase.FILENAME_RSS_MOCK_FEED_15_ENTRIES));
+      final List<String> items = new ArrayList<String>();
+      final Matcher matcher = ITEM.matcher(template);
+      while (matcher.find())
+      {
+         items.add(matcher.group());
+      }
+      feedFile = new File(baseDirectory, FILENAME_RSS_FEED);
+      final Writer writer = new FileWriter(feedFile);
+      try
+      {
+         writer.write(template.substring(0, template.indexOf("<item>")));
+         for (int i = 0; i < ENTRIES; i++)
+         {
+            writer.write(items.get(i % items.size()).replace("</link>", "#" + i + "</link>").replace("</guid>",
+                  "#" + i + "</guid>"));
+         }
+         writer.write(template.substring(template.lastIndexOf("</item>") + "</item>".length()));
+      }
+      finally
+      {
+         writer.close();
+      }
+
+      // Serve and cache it
+      httpServer = new Server(RssCacheTestCaseBase.HTTP_TEST_BIND_PORT);
+      httpServer.setHandler(new RssCacheTestCaseBase.StaticFileHandler());
+      httpServer.start();
+      bean = new TestRssCacheBean();
+      bean.setUrl(new URL("http://localhost:" + RssCacheTestCaseBase.HTTP_TEST_BIND_PORT + "/" + FILENAME_RSS_FEED));
+      Assert.assertEquals(ENTRIES, bean.getEntries().size());
+      remote = PassByValueProxy.create(bean);
+   }
+
+   /**
+    * Stops the HTTP Server and removes the scaled feed
+    */
+   @AfterClass
+   public static void cleanup() throws Exception
+   {
+      if (bean != null)
+      {
+         bean.shutdown();
+         bean = null;
+      }
+      remote = null;
+      if (httpServer != null)
+      {
+         httpServer.stop();
+         httpServer = null;
+      }
+      if (feedFile != null && !feedFile.delete())
+      {
+         log.warning("Scaled feed was not cleaned up properly: " + feedFile);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Compares the ways of reading entries
+    */
+   @Test
+   public void remoteReads() throws Exception
+   {
+      final StringBuilder summary = new StringBuilder("entries=" + ENTRIES);
+      summary.append(measure("getEntries()", new Read()
+      {
+         @Override
+         public int read()
+         {
+            return remote.getEntries().size();
+         }
+      }));
+      summary.append(measure("getEntries(0," + PAGE_SIZE + ")", new Read()
+      {
+         @Override
+         public int read()
+         {
+            return remote.getEntries(0, PAGE_SIZE).size();
+         }
+      }));
+      summary.append(measure("getNewestEntries(" + PAGE_SIZE + ")", new Read()
+      {
+         @Override
+         public int read()
+         {
+            return remote.getNewestEntries(PAGE_SIZE).size();
+         }
+      }));
+      summary.append(measure("getEntryPage(null," + PAGE_SIZE + ")", new Read()
+      {
+         @Override
+         public int read()
+         {
+            return remote.getEntryPage(null, PAGE_SIZE).getEntries().size();
+         }
+      }));
+      summary.append(measure("RssEntryIterator(" + BULK_PAGE_SIZE + ") whole feed", new Read()
+      {
+         @Override
+         public int read()
+         {
+            int count = 0;
+            final Iterator<RssEntry> iterator = new RssEntryIterator(remote, BULK_PAGE_SIZE);
+            while (iterator.hasNext())
+            {
+               iterator.next();
+               count++;
+            }
+            return count;
+         }
+      }));
+      log.info(summary.toString());
+      System.out.println(summary);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Makes the specified read repeatedly, reporting the median latency and the bytes serialized
+    */
+   private static String measure(final String name, final Read read)
+   {
+      final long[] nanos = new long[RUNS];
+      long bytes = 0;
+      long calls = 0;
+      int entries = 0;
+      for (int run = -RUNS; run < RUNS; run++)
+      {
+         final long bytesBefore = PassByValueProxy.bytes;
+         final long callsBefore = PassByValueProxy.calls;
+         final long start = System.nanoTime();
+         entries = read.read();
+         if (run >= 0)
+         {
+            nanos[run] = System.nanoTime() - start;
+            bytes += PassByValueProxy.bytes - bytesBefore;
+            calls += PassByValueProxy.calls - callsBefore;
+         }
+      }
+      Arrays.sort(nanos);
+      return String.format(" | %s entries=%d calls=%d bytes=%,d median=%.2fms", name, entries, calls / RUNS,
+            bytes / RUNS, nanos[RUNS / 2] / 1e6);
+   }
+
+   private static String readFully(final File file) throws IOException
+   {
+      final StringBuilder sb = new StringBuilder();
+      final Reader reader = new FileReader(file);
+      try
+      {
+         final char[] buffer = new char[8192];
+         int read;
+         while ((read = reader.read(buffer)) != -1)
+         {
+            sb.append(buffer, 0, read);
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return sb.toString();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A read of entries, returning how many were read
+    */
+   private interface Read
+   {
+      int read();
+   }
+
+   /**
+    * Invokes upon the bean as a remote client would: arguments and return values
+    * are passed by value, through Java serialization, and the bytes serialized 
+    * are counted.  Used from one thread at a time.
+    */
+   private static final class PassByValueProxy implements InvocationHandler
+   {
+      private static long bytes;
+
+      private static long calls;
+
+      private final RssCacheCommonBusiness target;
+
+      private PassByValueProxy(final RssCacheCommonBusiness target)
+      {
+         this.target = target;
+      }
+
+      static RssCacheCommonBusiness create(final RssCacheCommonBusiness target)
+      {
+         return (RssCacheCommonBusiness) Proxy.newProxyInstance(RssCacheCommonBusiness.class.getClassLoader(),
+               new Class<?>[]
+               {RssCacheCommonBusiness.class}, new PassByValueProxy(target));
+      }
+
+      /* (non-Javadoc)
+       * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+       */
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+      {
+         calls++;
+         final Object[] copiedArgs = args == null ? null : (Object[]) copy(args);
+         try
+         {
+            return copy(method.invoke(target, copiedArgs));
+         }
+         catch (final InvocationTargetException ite)
+         {
+            throw ite.getCause();
+         }
+      }
+
+      private static Object copy(final Object value) throws IOException, ClassNotFoundException
+      {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream();
+         final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+         objectOut.writeObject(value);
+         objectOut.close();
+         bytes += out.size();
+         return new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject();
+      }
+   }
+}
@@ -3,16 +3,22 @@ package org.jboss.ejb3.examples.ch07.rsscache;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -22,10 +28,12 @@ import junit.framework.Assert;
 
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryIterator;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.HttpConnection;
 import org.mortbay.jetty.Server;
 import org.mortbay.jetty.handler.AbstractHandler;
 
@@ -75,6 +83,21 @@ public abstract class RssCacheTestCaseBase
     */
    static final int HTTP_TEST_BIND_PORT = 12345;
 
+   /**
+    * Number of further feeds registered with the cache
+    */
+   private static final int REGISTERED_FEEDS = 3;
+
+   /**
+    * Interval at which registered feeds are refreshed, in ms
+    */
+   private static final long REGISTERED_FEED_REFRESH_INTERVAL_MILLIS = 100;
+
+   /**
+    * Time allowed a registered feed to be refreshed in the background, in ms
+    */
+   private static final long REGISTERED_FEED_REFRESH_TIMEOUT_MILLIS = 10 * 1000;
+
    /**
     * Content type of an RSS feed 
     */
@@ -90,6 +113,20 @@ public abstract class RssCacheTestCaseBase
     */
    private static final char NEWLINE = '\n';
 
+   private static final String HEADER_ETAG = "ETag";
+
+   private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+   private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+   private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+   /**
+    * Time the HTTP Server waits before answering each request, in ms; 
+    * may be set by tests to mock a slow feed origin
+    */
+   static volatile long responseDelayMillis;
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -212,6 +249,171 @@ public abstract class RssCacheTestCaseBase
 
    }
 
+   /**
+    * Ensures that entries may be obtained a page at a time, or newest first, and that 
+    * a cursor carries on through the snapshot it started in, despite a refresh
+    */
+   @Test
+   public void testPagedEntries() throws Exception
+   {
+      // Log
+      log.info("testPagedEntries");
+
+      // Get the RSS Cache Bean
+      final RssCacheCommonBusiness rssCache = this.getRssCacheBean();
+      final List<RssEntry> all = rssCache.getEntries();
+      this.ensureExpectedEntries(all, EXPECTED_15_RSS_ENTRIES);
+
+      // Ranges
+      Assert.assertEquals(all.subList(0, 4), rssCache.getEntries(0, 4));
+      Assert.assertEquals(all.subList(12, 15), rssCache.getEntries(12, 4));
+      Assert.assertEquals(0, rssCache.getEntries(15, 4).size());
+      Assert.assertEquals(all, rssCache.getEntries(0, Integer.MAX_VALUE));
+
+      // The mock feed is listed newest first
+      Assert.assertEquals(all.subList(0, 3), rssCache.getNewestEntries(3));
+
+      // Page through, refreshing to a different feed part way
+      final Iterator<RssEntry> iterator = new RssEntryIterator(rssCache, 4);
+      final List<RssEntry> iterated = new ArrayList<RssEntry>();
+      iterated.add(iterator.next());
+      writeToRssFeedFile(getMock5EntriesRssFile());
+      try
+      {
+         rssCache.refresh();
+         this.ensureExpectedEntries(rssCache.getEntries(), EXPECTED_5_RSS_ENTRIES);
+         while (iterator.hasNext())
+         {
+            iterated.add(iterator.next());
+         }
+         Assert.assertEquals("Cursor should have stayed with the snapshot it started in", all, iterated);
+      }
+      finally
+      {
+         writeToRssFeedFile(getMock15EntriesRssFile());
+         rssCache.refresh();
+      }
+   }
+
+   /**
+    * Ensures that entries may be searched by term and phrase, title matches first,
+    * and that the index follows a refresh
+    */
+   @Test
+   public void testSearch() throws Exception
+   {
+      // Log
+      log.info("testSearch");
+
+      // Get the RSS Cache Bean
+      final RssCacheCommonBusiness rssCache = this.getRssCacheBean();
+
+      // Terms
+      final List<String> resteasy = titlesOf(rssCache.search("RESTEasy", 15));
+      Assert.assertTrue(resteasy.toString(), resteasy.size() >= 3);
+      for (final String title : resteasy.subList(0, 3))
+      {
+         Assert.assertTrue("Title matches should rank first: " + resteasy, title.startsWith("RESTEasy"));
+      }
+      Assert.assertEquals(1, rssCache.search("resteasy 1.1 released", 1).size());
+
+      // Phrases
+      final String phrase = "\"open source SOA\"";
+      final List<String> openSourceSoa = titlesOf(rssCache.search(phrase, 15));
+      Assert.assertTrue(openSourceSoa.toString(), openSourceSoa.contains("The Benefits of an Open Source SOA"));
+      Assert.assertTrue(openSourceSoa.toString(), openSourceSoa
+            .contains("Economic Depression and the Rise of Open Source SOA and Business Rules"));
+
+      // Refresh to fewer entries
+      writeToRssFeedFile(getMock5EntriesRssFile());
+      try
+      {
+         rssCache.refresh();
+         Assert.assertFalse(titlesOf(rssCache.search(phrase, 15)).contains("The Benefits of an Open Source SOA"));
+         Assert.assertEquals(Arrays.asList("RESTEasy 1.1 Released"), titlesOf(rssCache.search("resteasy released",
+               15)));
+      }
+      finally
+      {
+         writeToRssFeedFile(getMock15EntriesRssFile());
+         rssCache.refresh();
+      }
+      Assert.assertEquals(resteasy, titlesOf(rssCache.search("RESTEasy", 15)));
+   }
+
+   /**
+    * Ensures that further feeds may be registered, served from the cache by URL 
+    * and refreshed in the background, and unregistered
+    */
+   @Test
+   public void testRegisteredFeeds() throws Exception
+   {
+      // Log
+      log.info("testRegisteredFeeds");
+
+      // Get the RSS Cache Bean
+      final RssCacheCommonBusiness rssCache = this.getRssCacheBean();
+
+      // Register feeds
+      final File[] files = new File[REGISTERED_FEEDS];
+      final URL[] urls = new URL[REGISTERED_FEEDS];
+      try
+      {
+         for (int i = 0; i < REGISTERED_FEEDS; i++)
+         {
+            final String filename = "registered_" + i + ".rss";
+            files[i] = getFileFromBase(filename);
+            writeToFile(getMock15EntriesRssFile(), files[i]);
+            urls[i] = new URL("http://localhost:" + HTTP_TEST_BIND_PORT + "/" + filename);
+            rssCache.registerFeed(urls[i], REGISTERED_FEED_REFRESH_INTERVAL_MILLIS);
+         }
+
+         // Each is served by URL
+         for (final URL url : urls)
+         {
+            this.ensureExpectedEntries(rssCache.getEntries(url), EXPECTED_15_RSS_ENTRIES);
+         }
+
+         // Change one, and it's refreshed in the background, with no call to refresh()
+         writeToFile(getMock5EntriesRssFile(), files[0]);
+         final long deadline = System.currentTimeMillis() + REGISTERED_FEED_REFRESH_TIMEOUT_MILLIS;
+         while (rssCache.getEntries(urls[0]).size() != EXPECTED_5_RSS_ENTRIES
+               && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(REGISTERED_FEED_REFRESH_INTERVAL_MILLIS / 2);
+         }
+         this.ensureExpectedEntries(rssCache.getEntries(urls[0]), EXPECTED_5_RSS_ENTRIES);
+         this.ensureExpectedEntries(rssCache.getEntries(urls[1]), EXPECTED_15_RSS_ENTRIES);
+
+         // Unregister
+         Assert.assertTrue("Feed should have been registered", rssCache.unregisterFeed(urls[0]));
+         Assert.assertFalse("Feed should no longer be registered", rssCache.unregisterFeed(urls[0]));
+         try
+         {
+            rssCache.getEntries(urls[0]);
+            Assert.fail("Unregistered feed should not be served");
+         }
+         catch (final IllegalArgumentException expected)
+         {
+            // Good
+         }
+      }
+      finally
+      {
+         for (int i = 0; i < REGISTERED_FEEDS; i++)
+         {
+            if (urls[i] != null)
+            {
+               rssCache.unregisterFeed(urls[i]);
+            }
+            if (files[i] != null && !files[i].delete())
+            {
+               log.warning("Registered RSS Feed File was not cleaned up properly: " + files[i]);
+            }
+         }
+      }
+   }
+
    //-------------------------------------------------------------------------------------||
    // Contracts --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -239,6 +441,19 @@ public abstract class RssCacheTestCaseBase
       log.info("Got expected " + expectedSize + " RSS entries");
    }
 
+   /**
+    * Obtains the titles of the specified entries, in order
+    */
+   static List<String> titlesOf(final List<RssEntry> entries)
+   {
+      final List<String> titles = new ArrayList<String>();
+      for (final RssEntry entry : entries)
+      {
+         titles.add(entry.getTitle());
+      }
+      return titles;
+   }
+
    /**
     * Obtains the base of the code source
     */
@@ -253,10 +468,21 @@ public abstract class RssCacheTestCaseBase
     * @param templateFile
     * @throws Exception
     */
-   private static void writeToRssFeedFile(final File templateFile) throws Exception
+   static void writeToRssFeedFile(final File templateFile) throws Exception
+   {
+      writeToFile(templateFile, getRssFeedFile());
+   }
+
+   /**
+    * Writes the contents of the template file to the specified file
+    * 
+    * @param templateFile
+    * @param rssFile
+    * @throws Exception
+    */
+   private static void writeToFile(final File templateFile, final File rssFile) throws Exception
    {
       // Get a writer to the target file
-      final File rssFile = getRssFeedFile();
       final PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(rssFile)));
 
       // Get a reader to the default mock template file
@@ -281,7 +507,7 @@ public abstract class RssCacheTestCaseBase
     * @return
     * @throws Exception
     */
-   private static File getRssFeedFile() throws Exception
+   static File getRssFeedFile() throws Exception
    {
       final File baseFile = getBaseDirectory();
       final File rssFile = new File(baseFile, FILENAME_RSS_FEED);
@@ -293,7 +519,7 @@ public abstract class RssCacheTestCaseBase
     * @return
     * @throws Exception
     */
-   private static File getMock15EntriesRssFile() throws Exception
+   static File getMock15EntriesRssFile() throws Exception
    {
       return getFileFromBase(FILENAME_RSS_MOCK_FEED_15_ENTRIES);
    }
@@ -303,7 +529,7 @@ public abstract class RssCacheTestCaseBase
     * @return
     * @throws Exception
     */
-   private static File getMock5EntriesRssFile() throws Exception
+   static File getMock5EntriesRssFile() throws Exception
    {
       return getFileFromBase(FILENAME_RSS_MOCK_FEED_5_ENTRIES);
    }
@@ -322,6 +548,29 @@ public abstract class RssCacheTestCaseBase
       return mockTemplateFile;
    }
 
+   /**
+    * Obtains an entity tag for the specified file, derived from its contents
+    */
+   private static String getETag(final File file) throws IOException
+   {
+      final CRC32 crc = new CRC32();
+      final InputStream in = new FileInputStream(file);
+      try
+      {
+         final byte[] buffer = new byte[4096];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            crc.update(buffer, 0, read);
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      return "\"" + Long.toHexString(crc.getValue()) + "-" + file.length() + "\"";
+   }
+
    /**
     * Obtains the base directory in which test files are located
     * @return
@@ -341,7 +590,7 @@ public abstract class RssCacheTestCaseBase
    /**
     * Jetty Handler to serve a static character file from the web root
     */
-   private static class StaticFileHandler extends AbstractHandler implements Handler
+   static class StaticFileHandler extends AbstractHandler implements Handler
    {
       /*
        * (non-Javadoc)
@@ -350,6 +599,21 @@ public abstract class RssCacheTestCaseBase
       public void handle(final String target, final HttpServletRequest request, final HttpServletResponse response,
             final int dispatch) throws IOException, ServletException
       {
+         // Mock a slow origin if requested
+         final long delay = responseDelayMillis;
+         if (delay > 0)
+         {
+            try
+            {
+               Thread.sleep(delay);
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               throw new ServletException("Interrupted while delaying response", ie);
+            }
+         }
+
          // Set content type and status before we write anything to the stream
          response.setContentType(CONTENT_TYPE_RSS);
          response.setStatus(HttpServletResponse.SC_OK);
@@ -376,6 +640,22 @@ public abstract class RssCacheTestCaseBase
             return;
          }
 
+         // Support conditional GETs, as a well-behaved feed origin would
+         final String etag = getETag(file);
+         final long lastModified = file.lastModified();
+         response.setHeader(HEADER_ETAG, etag);
+         response.setDateHeader(HEADER_LAST_MODIFIED, lastModified);
+         final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+         final long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+         final boolean unchanged = ifNoneMatch != null ? ifNoneMatch.equals(etag) : ifModifiedSince != -1
+               && lastModified / 1000 <= ifModifiedSince / 1000;
+         if (unchanged)
+         {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            HttpConnection.getCurrentConnection().getRequest().setHandled(true);
+            return;
+         }
+
          // Write out each line
          final BufferedReader reader = new BufferedReader(new FileReader(file));
          final PrintWriter writer = response.getWriter();
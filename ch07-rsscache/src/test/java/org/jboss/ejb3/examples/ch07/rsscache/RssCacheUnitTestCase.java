@@ -21,14 +21,28 @@
  */
 package org.jboss.ejb3.examples.ch07.rsscache;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.impl.rome.FeedFetchStatistics;
 import org.jboss.ejb3.examples.ch07.rsscache.impl.rome.TestRssCacheBean;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssFeedChanges;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 /**
  * Unit Tests for the RssCache classes, 
@@ -53,6 +67,21 @@ public class RssCacheUnitTestCase extends RssCacheTestCaseBase
     */
    private static RssCacheCommonBusiness bean;
 
+   /**
+    * How long the feed origin takes to answer while we measure readers, in ms
+    */
+   private static final long SLOW_ORIGIN_DELAY_MILLIS = 1000;
+
+   /**
+    * Number of reads made to establish the baseline latency
+    */
+   private static final int BASELINE_READS = 10000;
+
+   /**
+    * Number of refreshes made of an unchanged feed
+    */
+   private static final int UNCHANGED_REFRESHES = 10;
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -95,6 +124,266 @@ public class RssCacheUnitTestCase extends RssCacheTestCaseBase
       bean = null;
    }
 
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that readers are not held up by a refresh in progress, even when
+    * the feed origin is slow: the p99 latency of {@link RssCacheCommonBusiness#getEntries()}
+    * during a refresh should stay flat, nowhere near the time taken by the origin.  
+    * Invocations are made with the locking semantics of the EJB Container.
+    */
+   @Test
+   public void testGetEntriesLatencyUnaffectedBySlowRefresh() throws Exception
+   {
+      // Log
+      log.info("testGetEntriesLatencyUnaffectedBySlowRefresh");
+
+      // Invoke as the Container would
+      final RssCacheCommonBusiness cache = ContainerConcurrencyProxy.create(bean, RssCacheCommonBusiness.class);
+      final int expectedSize = cache.getEntries().size();
+
+      // Baseline, with no refresh under way
+      final long[] baseline = new long[BASELINE_READS];
+      for (int i = 0; i < baseline.length; i++)
+      {
+         final long start = System.nanoTime();
+         cache.getEntries();
+         baseline[i] = System.nanoTime() - start;
+      }
+
+      // Read continually while a refresh waits on a slow origin
+      final ExecutorService refresher = Executors.newSingleThreadExecutor();
+      long[] duringRefresh = new long[BASELINE_READS];
+      int reads = 0;
+      responseDelayMillis = SLOW_ORIGIN_DELAY_MILLIS;
+      try
+      {
+         final long refreshStart = System.nanoTime();
+         final Future<?> refresh = refresher.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               cache.refresh();
+            }
+         });
+         while (!refresh.isDone())
+         {
+            final long start = System.nanoTime();
+            final List<RssEntry> entries = cache.getEntries();
+            final long elapsed = System.nanoTime() - start;
+            Assert.assertEquals("Readers should see the last complete snapshot", expectedSize, entries.size());
+            if (reads == duringRefresh.length)
+            {
+               duringRefresh = Arrays.copyOf(duringRefresh, reads * 2);
+            }
+            duringRefresh[reads++] = elapsed;
+         }
+         refresh.get();
+         Assert.assertTrue("Refresh should have waited on the slow origin",
+               System.nanoTime() - refreshStart >= TimeUnit.MILLISECONDS.toNanos(SLOW_ORIGIN_DELAY_MILLIS));
+      }
+      finally
+      {
+         responseDelayMillis = 0;
+         refresher.shutdownNow();
+      }
+
+      // Compare
+      final long baselineP99 = percentile99(baseline, baseline.length);
+      final long refreshP99 = percentile99(duringRefresh, reads);
+      log.info("getEntries p99: " + baselineP99 / 1000 + "us at rest, " + refreshP99 / 1000 + "us over " + reads
+            + " reads during a " + SLOW_ORIGIN_DELAY_MILLIS + "ms refresh");
+      Assert.assertTrue("Readers should have proceeded throughout the refresh, but made only " + reads + " reads",
+            reads > 1000);
+      Assert.assertTrue("getEntries p99 during refresh should stay flat, was " + refreshP99 + "ns",
+            refreshP99 < TimeUnit.MILLISECONDS.toNanos(SLOW_ORIGIN_DELAY_MILLIS) / 100);
+   }
+
+   /**
+    * Ensures that refreshing an unchanged feed costs only a conditional GET: 
+    * the origin answers <code>304 Not Modified</code>, so nothing is downloaded
+    * or parsed and the cached snapshot is kept, while a changed feed is 
+    * fetched and parsed in full
+    */
+   @Test
+   public void testConditionalRefreshSkipsUnchangedFeed() throws Exception
+   {
+      // Log
+      log.info("testConditionalRefreshSkipsUnchangedFeed");
+
+      // Prime the validators
+      final TestRssCacheBean cache = (TestRssCacheBean) bean;
+      cache.refresh();
+      final List<RssEntry> cached = cache.getEntries();
+      final FeedFetchStatistics start = cache.getFetchStatistics();
+
+      // Refresh while unchanged
+      for (int i = 0; i < UNCHANGED_REFRESHES; i++)
+      {
+         cache.refresh();
+      }
+      final FeedFetchStatistics unchanged = cache.getFetchStatistics();
+      Assert.assertEquals(UNCHANGED_REFRESHES, unchanged.getRequests() - start.getRequests());
+      Assert.assertEquals("Origin should have reported the feed unchanged", UNCHANGED_REFRESHES,
+            unchanged.getNotModified() - start.getNotModified());
+      Assert.assertEquals("Nothing should have been downloaded", start.getBytesReceived(),
+            unchanged.getBytesReceived());
+      Assert.assertEquals("Nothing should have been parsed", start.getParseNanos(), unchanged.getParseNanos());
+      Assert.assertSame("Snapshot should have been kept", cached, cache.getEntries());
+
+      // Change the feed, and it's fetched in full
+      writeToRssFeedFile(getMock5EntriesRssFile());
+      try
+      {
+         cache.refresh();
+         final FeedFetchStatistics changed = cache.getFetchStatistics();
+         Assert.assertEquals("Changed feed should not be reported unchanged", unchanged.getNotModified(),
+               changed.getNotModified());
+         final long feedBytes = changed.getBytesReceived() - unchanged.getBytesReceived();
+         final long feedParseNanos = changed.getParseNanos() - unchanged.getParseNanos();
+         Assert.assertEquals("Changed feed should have been downloaded", getRssFeedFile().length(), feedBytes);
+         Assert.assertTrue("Changed feed should have been parsed", feedParseNanos > 0);
+         Assert.assertEquals(5, cache.getEntries().size());
+         log.info("Conditional GETs saved " + UNCHANGED_REFRESHES * feedBytes + " bytes and ~"
+               + UNCHANGED_REFRESHES * feedParseNanos / 1000 + "us of parsing over " + UNCHANGED_REFRESHES
+               + " refreshes of an unchanged feed");
+      }
+      finally
+      {
+         writeToRssFeedFile(getMock15EntriesRssFile());
+         cache.refresh();
+      }
+   }
+
+   /**
+    * Ensures that a refresh carries over unchanged entries as the same instances,
+    * and that clients may obtain only what's changed since the version they hold
+    */
+   @Test
+   public void testChangesSince() throws Exception
+   {
+      // Log
+      log.info("testChangesSince");
+
+      // Take the current version
+      bean.refresh();
+      final List<RssEntry> before = bean.getEntries();
+      final long version = bean.getChangesSince(0).getVersion();
+      Assert.assertTrue("Nothing should have changed", bean.getChangesSince(version).isEmpty());
+
+      // The 5 entry feed is the first 5 of the 15
+      writeToRssFeedFile(getMock5EntriesRssFile());
+      try
+      {
+         bean.refresh();
+         final List<RssEntry> after = bean.getEntries();
+         for (int i = 0; i < after.size(); i++)
+         {
+            Assert.assertSame("Unchanged entry should have been carried over", before.get(i), after.get(i));
+         }
+         final RssFeedChanges changes = bean.getChangesSince(version);
+         log.info("Changes since " + version + ": " + changes);
+         Assert.assertEquals(version + 1, changes.getVersion());
+         Assert.assertFalse(changes.isReset());
+         Assert.assertEquals(0, changes.getAdded().size());
+         Assert.assertEquals(0, changes.getUpdated().size());
+         Assert.assertEquals(before.subList(after.size(), before.size()), changes.getRemoved());
+      }
+      finally
+      {
+         writeToRssFeedFile(getMock15EntriesRssFile());
+         bean.refresh();
+      }
+
+      // Back again; the entries removed and added back are, to a client holding the first version, updated
+      final RssFeedChanges restored = bean.getChangesSince(version + 1);
+      Assert.assertEquals(before.size() - 5, restored.getAdded().size());
+      final RssFeedChanges roundTrip = bean.getChangesSince(version);
+      Assert.assertEquals(0, roundTrip.getAdded().size());
+      Assert.assertEquals(before.size() - 5, roundTrip.getUpdated().size());
+      Assert.assertEquals(0, roundTrip.getRemoved().size());
+   }
+
+   /**
+    * Measures the time to the first entry upon startup, from a slow origin and from
+    * the snapshot persisted by the last run: the latter should be served at once, 
+    * as it stood, while the origin is caught up with in the background
+    */
+   @Test
+   public void testTimeToFirstEntryFromSnapshot() throws Exception
+   {
+      // Log
+      log.info("testTimeToFirstEntryFromSnapshot");
+
+      final File directory = createTempDirectory();
+      final URL url = new URL(getBaseConnectUrl(), FILENAME_RSS_FEED);
+      TestRssCacheBean cold = null;
+      TestRssCacheBean warm = null;
+      responseDelayMillis = SLOW_ORIGIN_DELAY_MILLIS;
+      try
+      {
+         // With no snapshot, startup waits upon the origin
+         cold = new TestRssCacheBean();
+         cold.setSnapshotDirectory(directory);
+         long start = System.nanoTime();
+         cold.setUrl(url);
+         final List<RssEntry> fetched = cold.getEntries();
+         final long coldNanos = System.nanoTime() - start;
+         Assert.assertFalse("Entries should have been fetched", fetched.isEmpty());
+
+         // With the snapshot that fetch persisted, it doesn't
+         warm = new TestRssCacheBean();
+         warm.setSnapshotDirectory(directory);
+         start = System.nanoTime();
+         warm.setUrl(url);
+         final List<RssEntry> restored = warm.getEntries();
+         final long warmNanos = System.nanoTime() - start;
+         log.info("Time to first entry: " + coldNanos / 1000000 + "ms from an origin taking "
+               + SLOW_ORIGIN_DELAY_MILLIS + "ms, " + warmNanos / 1000 + "us from the snapshot");
+         Assert.assertEquals("Snapshot should hold the entries as fetched", titlesOf(fetched), titlesOf(restored));
+         for (int i = 0; i < fetched.size(); i++)
+         {
+            Assert.assertEquals(fetched.get(i).getUrl(), restored.get(i).getUrl());
+            Assert.assertEquals(fetched.get(i).getDescription(), restored.get(i).getDescription());
+         }
+         Assert.assertEquals("Snapshot should be at the version persisted", cold.getChangesSince(0).getVersion(),
+               warm.getChangesSince(0).getVersion());
+         Assert.assertTrue("Snapshot should have been served without waiting upon the origin, took " + warmNanos
+               + "ns", warmNanos < TimeUnit.MILLISECONDS.toNanos(SLOW_ORIGIN_DELAY_MILLIS) / 2);
+
+         // Caught up with in the background; unchanged, so the snapshot stands
+         final long deadline = System.currentTimeMillis() + SLOW_ORIGIN_DELAY_MILLIS * 10;
+         while (warm.getFetchStatistics().getParseNanos() == 0 && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(10);
+         }
+         Assert.assertEquals("Feed should have been refreshed in the background", 1, warm.getFetchStatistics()
+               .getRequests());
+         Assert.assertTrue("Feed should have been parsed in the background",
+               warm.getFetchStatistics().getParseNanos() > 0);
+      }
+      finally
+      {
+         responseDelayMillis = 0;
+         if (cold != null)
+         {
+            cold.shutdown();
+         }
+         if (warm != null)
+         {
+            warm.shutdown();
+         }
+         for (final File file : directory.listFiles())
+         {
+            file.delete();
+         }
+         directory.delete();
+      }
+   }
+
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -113,6 +402,29 @@ public class RssCacheUnitTestCase extends RssCacheTestCaseBase
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates a new, empty, temporary directory
+    */
+   private static File createTempDirectory() throws IOException
+   {
+      final File directory = File.createTempFile("rsscache", "");
+      if (!directory.delete() || !directory.mkdir())
+      {
+         throw new IOException("Could not create temporary directory: " + directory);
+      }
+      return directory;
+   }
+
+   /**
+    * Obtains the 99th percentile of the first <code>count</code> samples
+    */
+   private static long percentile99(final long[] samples, final int count)
+   {
+      final long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted[(int) Math.ceil(0.99 * count) - 1];
+   }
+
    /**
     * Obtains the base of the code source
     */
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the time taken, and memory allocated, in parsing a feed of 20,000 
+ * entries with each of the {@link FeedParser}s: Rome, and the streaming 
+ * {@link StaxFeedParser}, both reading the whole feed and keeping only its 
+ * first entries.
+ * 
+ * The feed is the mock feed of 15 entries, scaled up with unique links and GUIDs.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=FeedParserBenchmark -DargLine=-Xmx4g</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FeedParserBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FeedParserBenchmark.class.getName());
+
+   /**
+    * Number of entries in the feed
+    */
+   private static final int ENTRIES = 20000;
+
+   /**
+    * Entries kept when only the first are wanted
+    */
+   private static final int FIRST_ENTRIES = 100;
+
+   /**
+    * Number of times each parser is measured, after as many again to warm up
+    */
+   private static final int RUNS = 5;
+
+   /**
+    * Matches each item of the mock feed
+    */
+   private static final Pattern ITEM = Pattern.compile("<item>.*?</item>", Pattern.DOTALL);
+
+   /**
+    * The feed parsed
+    */
+   private static byte[] feed;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Scales up the mock feed
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      final String template = new String(readFully("15_entries.rss"), "UTF-8");
+      final List<String> items = new ArrayList<String>();
+      final Matcher matcher = ITEM.matcher(template);
+      while (matcher.find())
+      {
+         items.add(matcher.group());
+      }
+      final StringBuilder sb = new StringBuilder(template.substring(0, template.indexOf("<item>")));
+      for (int i = 0; i < ENTRIES; i++)
+      {
+         sb.append(items.get(i % items.size()).replace("</link>", "#" + i + "</link>").replace("</guid>",
+               "#" + i + "</guid>"));
+      }
+      sb.append(template.substring(template.lastIndexOf("</item>") + "</item>".length()));
+      feed = sb.toString().getBytes("UTF-8");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Measures each parser
+    */
+   @Test
+   public void parse() throws Exception
+   {
+      final StringBuilder summary = new StringBuilder(String.format("entries=%d bytes=%.1fMB", ENTRIES,
+            feed.length / 1e6));
+      summary.append(measure("rome", new RomeFeedParser(Integer.MAX_VALUE), ENTRIES));
+      summary.append(measure("stax", new StaxFeedParser(Integer.MAX_VALUE), ENTRIES));
+      summary.append(measure("rome-first" + FIRST_ENTRIES, new RomeFeedParser(FIRST_ENTRIES), FIRST_ENTRIES));
+      summary.append(measure("stax-first" + FIRST_ENTRIES, new StaxFeedParser(FIRST_ENTRIES), FIRST_ENTRIES));
+      log.info(summary.toString());
+      System.out.println(summary);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parses the feed repeatedly, reporting the median time taken and memory allocated
+    */
+   private static String measure(final String name, final FeedParser parser, final int expectedEntries)
+         throws Exception
+   {
+      final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+      final long thread = Thread.currentThread().getId();
+      final long[] nanos = new long[RUNS];
+      final long[] allocated = new long[RUNS];
+      for (int run = -RUNS; run < RUNS; run++)
+      {
+         final long startBytes = threads.getThreadAllocatedBytes(thread);
+         final long start = System.nanoTime();
+         final int parsed = parser.parse(new ByteArrayInputStream(feed)).size();
+         if (run >= 0)
+         {
+            nanos[run] = System.nanoTime() - start;
+            allocated[run] = threads.getThreadAllocatedBytes(thread) - startBytes;
+         }
+         if (parsed != expectedEntries)
+         {
+            throw new IllegalStateException(name + " parsed " + parsed + " entries, expected " + expectedEntries);
+         }
+      }
+      Arrays.sort(nanos);
+      Arrays.sort(allocated);
+      return String.format(" | %s=%.0fms allocated=%.0fMB", name, nanos[RUNS / 2] / 1e6,
+            allocated[RUNS / 2] / 1e6);
+   }
+
+   private static byte[] readFully(final String resource) throws Exception
+   {
+      final InputStream in = FeedParserBenchmark.class.getClassLoader().getResourceAsStream(resource);
+      try
+      {
+         final ByteArrayOutputStream out = new ByteArrayOutputStream();
+         final byte[] buffer = new byte[8192];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+         }
+         return out.toByteArray();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+}
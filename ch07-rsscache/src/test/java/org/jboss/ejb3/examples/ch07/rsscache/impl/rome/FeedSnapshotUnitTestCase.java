@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssFeedChanges;
+import org.junit.Test;
+
+import com.sun.syndication.feed.synd.SyndContentImpl;
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndEntryImpl;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+/**
+ * Unit Tests of the merging and diffing of {@link FeedSnapshot}s
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FeedSnapshotUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that entries are keyed by GUID, unchanged entries are carried over 
+    * as the same instances, and changes are folded across versions as a client
+    * would see them
+    */
+   @Test
+   public void testMergeAndChangesSince()
+   {
+      final FeedSnapshot v1 = FeedSnapshot.EMPTY.merge(newFeed(entry("a", "A"), entry("b", "B"), entry("c", "C")));
+      Assert.assertEquals(1, v1.getVersion());
+      Assert.assertSame("Unchanged feed should leave the snapshot as is", v1, v1.merge(newFeed(entry("a", "A"),
+            entry("b", "B"), entry("c", "C"))));
+
+      // Update b, remove c, add d
+      final FeedSnapshot v2 = v1.merge(newFeed(entry("a", "A"), entry("b", "B2"), entry("d", "D")));
+      Assert.assertEquals(2, v2.getVersion());
+      Assert.assertSame("Unchanged entry should have been carried over", v1.getEntries().get(0), v2.getEntries()
+            .get(0));
+      assertChanges(v2.getChangesSince(1), false, titles("D"), titles("B2"), titles("C"));
+
+      // Remove d (added since v1), re-add c (removed since v1), update a
+      final FeedSnapshot v3 = v2.merge(newFeed(entry("a", "A3"), entry("b", "B2"), entry("c", "C")));
+      assertChanges(v3.getChangesSince(2), false, titles("C"), titles("A3"), titles("D"));
+      assertChanges(v3.getChangesSince(1), false, titles(), titles("B2", "C", "A3"), titles());
+      assertChanges(v3.getChangesSince(0), false, titles("A3", "B2", "C"), titles(), titles());
+      assertChanges(v3.getChangesSince(3), false, titles(), titles(), titles());
+
+      // A version never handed out resets
+      assertChanges(v3.getChangesSince(4), true, titles("A3", "B2", "C"), titles(), titles());
+   }
+
+   /**
+    * Ensures that history is bounded by the entries it refers to, and that 
+    * clients behind what's remembered are reset
+    */
+   @Test
+   public void testHistoryBounded()
+   {
+      final int maxHistoryEntries = 10;
+      FeedSnapshot snapshot = FeedSnapshot.EMPTY.merge(newFeed(entry("a", "A0"), entry("b", "B0")),
+            maxHistoryEntries);
+      for (int i = 1; i <= 20; i++)
+      {
+         // Updates one entry per version
+         snapshot = snapshot.merge(newFeed(entry("a", "A" + i), entry("b", "B0")), maxHistoryEntries);
+      }
+      Assert.assertEquals(21, snapshot.getVersion());
+      assertChanges(snapshot.getChangesSince(11), false, titles(), titles("A20"), titles());
+      assertChanges(snapshot.getChangesSince(10), true, titles("A20", "B0"), titles(), titles());
+
+      // A snapshot which has lost what came before is versioned on, and resets clients 
+      final FeedSnapshot reloaded = FeedSnapshot.after(snapshot.getVersion()).merge(newFeed(entry("a", "A20")));
+      Assert.assertTrue(reloaded.getVersion() > snapshot.getVersion());
+      assertChanges(reloaded.getChangesSince(snapshot.getVersion()), true, titles("A20"), titles(), titles());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static void assertChanges(final RssFeedChanges changes, final boolean reset, final List<String> added,
+         final List<String> updated, final List<String> removed)
+   {
+      Assert.assertEquals("Reset of " + changes, reset, changes.isReset());
+      Assert.assertEquals("Added in " + changes, added, titlesOf(changes.getAdded()));
+      Assert.assertEquals("Updated in " + changes, updated, titlesOf(changes.getUpdated()));
+      Assert.assertEquals("Removed in " + changes, removed, titlesOf(changes.getRemoved()));
+   }
+
+   private static List<String> titles(final String... titles)
+   {
+      final List<String> list = new ArrayList<String>();
+      for (final String title : titles)
+      {
+         list.add(title);
+      }
+      return list;
+   }
+
+   private static List<String> titlesOf(final List<RssEntry> entries)
+   {
+      final List<String> titles = new ArrayList<String>();
+      for (final RssEntry entry : entries)
+      {
+         titles.add(entry.getTitle());
+      }
+      return titles;
+   }
+
+   /**
+    * Creates an entry with the specified GUID and title, and a link differing from 
+    * the GUID so it's plain which is the key
+    */
+   private static SyndEntry entry(final String guid, final String title)
+   {
+      final SyndEntry entry = new SyndEntryImpl();
+      entry.setUri("urn:entry:" + guid);
+      entry.setLink("http://localhost/" + guid + "/" + title);
+      entry.setTitle(title);
+      entry.setAuthor("author");
+      final SyndContentImpl description = new SyndContentImpl();
+      description.setValue("Description of " + title);
+      entry.setDescription(description);
+      return entry;
+   }
+
+   private static SyndFeed newFeed(final SyndEntry... entries)
+   {
+      final SyndFeed feed = new SyndFeedImpl();
+      final List<SyndEntry> list = new ArrayList<SyndEntry>();
+      for (final SyndEntry entry : entries)
+      {
+         list.add(entry);
+      }
+      feed.setEntries(list);
+      return feed;
+   }
+}
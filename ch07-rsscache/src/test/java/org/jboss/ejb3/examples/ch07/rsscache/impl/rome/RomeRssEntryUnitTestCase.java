@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit Tests of the compact in-memory form of {@link RomeRssEntry}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RomeRssEntryUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that long descriptions are held deflated, short ones as they are,
+    * and that either reads back as given
+    */
+   @Test
+   public void testDescriptions() throws Exception
+   {
+      final String longDescription = repeat("<p>The quick brown fox \u2603 jumps over the lazy dog.</p>", 50);
+      final RomeRssEntry compressed = entry(longDescription);
+      Assert.assertEquals(longDescription, compressed.getDescription());
+      Assert.assertTrue("Long description should be held deflated",
+            compressed.getDescriptionFootprint() < longDescription.getBytes(UTF_8).length);
+
+      final String shortDescription = "Short \u00fcnicode description";
+      final RomeRssEntry plain = entry(shortDescription);
+      Assert.assertEquals(shortDescription, plain.getDescription());
+      Assert.assertEquals(shortDescription.getBytes(UTF_8).length, plain.getDescriptionFootprint());
+
+      final RomeRssEntry none = entry(null);
+      Assert.assertNull(none.getDescription());
+      Assert.assertEquals(0, none.getDescriptionFootprint());
+      Assert.assertEquals("", entry("").getDescription());
+   }
+
+   /**
+    * Ensures that a deflated description is inflated once, and then kept
+    */
+   @Test
+   public void testInflatedDescriptionKept() throws Exception
+   {
+      final String longDescription = repeat("Inflated but once. ", 40);
+      final RomeRssEntry entry = entry(longDescription);
+      final String first = entry.getDescription();
+      Assert.assertEquals(longDescription, first);
+      Assert.assertSame("Inflated description should be kept", first, entry.getDescription());
+   }
+
+   /**
+    * Ensures that a description read back is bounded in length, and held
+    * within that length, before anything is allocated for it
+    */
+   @Test
+   public void testReadDescriptionBounded() throws Exception
+   {
+      assertDescriptionRejected(RomeRssEntry.MAX_DESCRIPTION_LENGTH + 2, 10);
+      assertDescriptionRejected(Integer.MAX_VALUE, 10);
+      assertDescriptionRejected(11, 20);
+      assertDescriptionRejected(11, -1);
+
+      // Within bounds still reads
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      entry("Read back").writeDescription(new DataOutputStream(bytes));
+      final RomeRssEntry read = entry(null);
+      read.readDescription(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+      Assert.assertEquals("Read back", read.getDescription());
+   }
+
+   /**
+    * Ensures that entries are matched on their descriptions as held
+    */
+   @Test
+   public void testMatches()
+   {
+      final String description = repeat("Repeated content. ", 40);
+      Assert.assertTrue(entry(description).matches(entry(new String(description))));
+      Assert.assertFalse(entry(description).matches(entry(description + "!")));
+      Assert.assertFalse(entry(description).matches(entry(null)));
+      Assert.assertTrue(entry(null).matches(entry(null)));
+   }
+
+   /**
+    * Ensures the held description survives serialization unchanged
+    */
+   @Test
+   public void testSerializedDescription() throws Exception
+   {
+      final String description = repeat("Serialized as held; ", 30);
+      final RomeRssEntry entry = entry(description);
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(entry);
+      out.close();
+      final RomeRssEntry copy = (RomeRssEntry) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+            .readObject();
+      Assert.assertEquals(description, copy.getDescription());
+      Assert.assertEquals(entry.getDescriptionFootprint(), copy.getDescriptionFootprint());
+      Assert.assertTrue(entry.matches(copy));
+   }
+
+   /**
+    * Ensures that equal authors are shared among entries
+    */
+   @Test
+   public void testSharedAuthors()
+   {
+      final RomeRssEntry first = new RomeRssEntry(new String("ALR"), "First", null, null, 0L);
+      final RomeRssEntry second = new RomeRssEntry(new String("ALR"), "Second", null, null, 0L);
+      Assert.assertSame(first.getAuthor(), second.getAuthor());
+   }
+
+   /**
+    * Ensures that descriptions are truncated without splitting a character
+    * or leaving a tag open
+    */
+   @Test
+   public void testTruncate()
+   {
+      Assert.assertNull(RomeRssEntry.truncate(null, 10));
+      Assert.assertEquals("Short", RomeRssEntry.truncate("Short", 10));
+      Assert.assertEquals("Exactly 10", RomeRssEntry.truncate("Exactly 10", 10));
+      Assert.assertEquals("Cut here", RomeRssEntry.truncate("Cut here and no further", 8));
+      Assert.assertEquals("Before ", RomeRssEntry.truncate("Before <a href=\"x\">link</a>", 12));
+      Assert.assertEquals("<b>Bold</b>", RomeRssEntry.truncate("<b>Bold</b> text", 11));
+      Assert.assertEquals("Snow", RomeRssEntry.truncate("Snow\ud83c\udf28", 5));
+      Assert.assertEquals("", RomeRssEntry.truncate("<open", 3));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static RomeRssEntry entry(final String description)
+   {
+      return new RomeRssEntry("ALR", "Title", description, "http://example.com/entry", 1000L);
+   }
+
+   private static void assertDescriptionRejected(final int written, final int heldLength) throws Exception
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      RssEntryList.writeVarInt(out, written);
+      RssEntryList.writeVarInt(out, heldLength);
+      out.close();
+      try
+      {
+         entry(null).readDescription(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+         Assert.fail("Description of " + written + " written, held in " + heldLength + ", should be rejected");
+      }
+      catch (final InvalidObjectException expected)
+      {
+         // Good
+      }
+   }
+
+   private static String repeat(final String value, final int times)
+   {
+      final StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < times; i++)
+      {
+         builder.append(value);
+      }
+      return builder.toString();
+   }
+}
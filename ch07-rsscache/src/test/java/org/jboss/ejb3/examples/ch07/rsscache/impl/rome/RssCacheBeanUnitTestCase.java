@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntryCursor;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the publishing of snapshots by the {@link RssCacheBean}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RssCacheBeanUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of snapshots published, more than are kept for cursors
+    */
+   private static final int PUBLISHED_SNAPSHOTS = 10;
+
+   /**
+    * Number of snapshots kept for cursors; as in the bean
+    */
+   private static final int PINNED_SNAPSHOTS = 8;
+
+   /**
+    * Gap between the versions published
+    */
+   private static final long VERSION_STEP = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that cursors may be followed over the most recent snapshots, and 
+    * only those, though their versions are not contiguous
+    */
+   @Test
+   public void testRecentSnapshotsEvictedOldestFirst()
+   {
+      final RssCacheBean bean = new RssCacheBean();
+      try
+      {
+         for (int i = 1; i <= PUBLISHED_SNAPSHOTS; i++)
+         {
+            final FeedSnapshot snapshot = snapshot(i * VERSION_STEP);
+            bean.publish(snapshot, SearchIndex.EMPTY.update(Collections.<RssEntry> emptyList(), snapshot
+                  .getEntries()));
+         }
+
+         for (int i = 1; i <= PUBLISHED_SNAPSHOTS; i++)
+         {
+            final RssEntryCursor cursor = new RssEntryCursor(i * VERSION_STEP, 0);
+            if (i <= PUBLISHED_SNAPSHOTS - PINNED_SNAPSHOTS)
+            {
+               try
+               {
+                  bean.getEntryPage(cursor, 1);
+                  Assert.fail("Cursor over an evicted snapshot should have expired: " + cursor);
+               }
+               catch (final IllegalArgumentException expected)
+               {
+                  // Good
+               }
+            }
+            else
+            {
+               Assert.assertEquals("Entry " + i * VERSION_STEP, bean.getEntryPage(cursor, 1).getEntries().get(0)
+                     .getTitle());
+            }
+         }
+      }
+      finally
+      {
+         bean.shutdown();
+      }
+   }
+
+   /**
+    * Ensures that the entries searched are those of the snapshot published with them
+    */
+   @Test
+   public void testSearchAgreesWithEntries()
+   {
+      final RssCacheBean bean = new RssCacheBean();
+      try
+      {
+         final FeedSnapshot snapshot = snapshot(VERSION_STEP);
+         bean.publish(snapshot, SearchIndex.EMPTY.update(Collections.<RssEntry> emptyList(), snapshot
+               .getEntries()));
+         Assert.assertEquals(bean.getEntries(), bean.search("entry", 10));
+      }
+      finally
+      {
+         bean.shutdown();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static FeedSnapshot snapshot(final long version)
+   {
+      final Map<String, RssEntry> entries = new LinkedHashMap<String, RssEntry>();
+      entries.put("entry" + version, new RomeRssEntry("ALR", "Entry " + version, null, "http://example.com/"
+            + version, version));
+      return FeedSnapshot.restore(version, entries);
+   }
+}
@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.io.SyndFeedInput;
+import com.sun.syndication.io.XmlReader;
+
+/**
+ * Measures the heap taken by 100,000 entries held as {@link RomeRssEntry}s, 
+ * against that taken by entries as {@link RomeRssEntry} once held them: 
+ * each property a String of its own, and the link a {@link URL}.  Entries 
+ * are also measured with their descriptions truncated, and the time taken 
+ * to create the entries, and to obtain all their descriptions, is reported.
+ * 
+ * The entries are those of the mock 15 entry feed, repeated with unique links,
+ * each with Strings of its own as if parsed from a feed.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=RssEntryFootprintBenchmark -DargLine=-Xmx4g</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RssEntryFootprintBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(RssEntryFootprintBenchmark.class.getName());
+
+   /**
+    * Number of entries measured
+    */
+   private static final int ENTRIES = 100000;
+
+   /**
+    * Most characters kept of each description, when truncated
+    */
+   private static final int MAX_DESCRIPTION_LENGTH = 500;
+
+   /**
+    * Filename of the mock feed, relative to the test classes
+    */
+   private static final String FILENAME_RSS_MOCK_FEED_15_ENTRIES = "15_entries.rss";
+
+   /**
+    * The entries of the mock feed
+    */
+   private static final List<RomeRssEntry> templates = new ArrayList<RomeRssEntry>();
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parses the mock feed
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      final File baseDirectory = new File(RssEntryFootprintBenchmark.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI());
+      final SyndFeed feed = new SyndFeedInput().build(new XmlReader(new File(baseDirectory,
+            FILENAME_RSS_MOCK_FEED_15_ENTRIES)));
+      @SuppressWarnings("unchecked")
+      final List<SyndEntry> syndEntries = feed.getEntries();
+      for (final SyndEntry syndEntry : syndEntries)
+      {
+         templates.add(new RomeRssEntry(syndEntry, Integer.MAX_VALUE));
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Compares the forms
+    */
+   @Test
+   public void footprint() throws Exception
+   {
+      final StringBuilder summary = new StringBuilder("entries=" + ENTRIES);
+      summary.append(measure("original", new EntryFactory()
+      {
+         @Override
+         public Object create(final RomeRssEntry template, final String link) throws Exception
+         {
+            return new OriginalFormEntry(copy(template.getAuthor()), copy(template.getTitle()), copy(template
+                  .getDescription()), new URL(link), template.getPublished());
+         }
+      }));
+      summary.append(measure("compact", new EntryFactory()
+      {
+         @Override
+         public Object create(final RomeRssEntry template, final String link)
+         {
+            return new RomeRssEntry(copy(template.getAuthor()), copy(template.getTitle()), copy(template
+                  .getDescription()), link, template.getPublished());
+         }
+      }));
+      summary.append(measure("compact, descriptions truncated to " + MAX_DESCRIPTION_LENGTH, new EntryFactory()
+      {
+         @Override
+         public Object create(final RomeRssEntry template, final String link)
+         {
+            return new RomeRssEntry(copy(template.getAuthor()), copy(template.getTitle()), RomeRssEntry.truncate(
+                  copy(template.getDescription()), MAX_DESCRIPTION_LENGTH), link, template.getPublished());
+         }
+      }));
+      log.info(summary.toString());
+      System.out.println(summary);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the entries in some form, reporting the heap they take, and the time taken to 
+    * create them and to obtain all their descriptions
+    */
+   private static String measure(final String name, final EntryFactory factory) throws Exception
+   {
+      // Warm up
+      for (int i = 0; i < ENTRIES / 10; i++)
+      {
+         factory.create(templates.get(i % templates.size()), "http://localhost/warmup");
+      }
+
+      final long before = usedHeap();
+      final long start = System.nanoTime();
+      final List<Object> entries = new ArrayList<Object>(ENTRIES);
+      for (int i = 0; i < ENTRIES; i++)
+      {
+         final RomeRssEntry template = templates.get(i % templates.size());
+         entries.add(factory.create(template, template.getLink() + "#" + i));
+      }
+      final long createNanos = System.nanoTime() - start;
+      final long bytes = usedHeap() - before;
+
+      final long describeStart = System.nanoTime();
+      long characters = 0;
+      for (final Object entry : entries)
+      {
+         final String description = entry instanceof RomeRssEntry
+               ? ((RomeRssEntry) entry).getDescription()
+               : ((OriginalFormEntry) entry).description;
+         characters += description.length();
+      }
+      final long describeNanos = System.nanoTime() - describeStart;
+      return String.format(" | %s: %.1fMB (%d bytes/entry) create=%dms getDescription=%dms (%d chars)", name,
+            bytes / 1e6, bytes / ENTRIES, createNanos / 1000000, describeNanos / 1000000, characters);
+   }
+
+   private static long usedHeap() throws InterruptedException
+   {
+      final Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 4; i++)
+      {
+         System.gc();
+         Thread.sleep(100);
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+
+   private static String copy(final String value)
+   {
+      return value == null ? null : new String(value.toCharArray());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an entry, in some form, like the specified entry but with the specified link
+    */
+   private interface EntryFactory
+   {
+      Object create(RomeRssEntry template, String link) throws Exception;
+   }
+
+   /**
+    * An entry in the form {@link RomeRssEntry} once had
+    */
+   private static final class OriginalFormEntry
+   {
+      @SuppressWarnings("unused")
+      private final String author;
+
+      private final String description;
+
+      @SuppressWarnings("unused")
+      private final String title;
+
+      @SuppressWarnings("unused")
+      private final URL url;
+
+      @SuppressWarnings("unused")
+      private final long published;
+
+      OriginalFormEntry(final String author, final String title, final String description, final URL url,
+            final long published)
+      {
+         this.author = author;
+         this.description = description;
+         this.title = title;
+         this.url = url;
+         this.published = published;
+      }
+   }
+}
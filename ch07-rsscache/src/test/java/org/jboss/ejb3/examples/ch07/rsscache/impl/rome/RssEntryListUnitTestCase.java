@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the compact serialized form of {@link RssEntryList}
+ * and {@link RomeRssEntry}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RssEntryListUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures every property survives a round trip, whether null, shared
+    * among entries or not, and however the link is made up
+    */
+   @Test
+   public void testRoundTrip() throws Exception
+   {
+      final List<RssEntry> entries = new ArrayList<RssEntry>();
+      entries.add(new RomeRssEntry("ALR", "First", "Description", "http://example.com/a/1.html", 1000L));
+      entries.add(new RomeRssEntry("ALR", "Second", null, "http://example.com/a/2.html?x=y#z", 2000L));
+      entries.add(new RomeRssEntry(null, null, "\u00dcnicode \u2603", "https://other.org:8443",
+            RomeRssEntry.UNKNOWN));
+      entries.add(new RomeRssEntry("Someone Else", "", "", "http://example.com?q", -1L));
+      entries.add(new RomeRssEntry("ALR", "No link", "", null, 0L));
+      final RssEntryList list = new RssEntryList(entries);
+
+      final RssEntryList copy = roundTrip(list);
+      Assert.assertEquals(entries.size(), copy.size());
+      for (int i = 0; i < entries.size(); i++)
+      {
+         assertSameContent((RomeRssEntry) entries.get(i), copy.get(i));
+      }
+      Assert.assertSame("Shared author should be read once", copy.get(0).getAuthor(), copy.get(1).getAuthor());
+
+      // Entries are equally serializable on their own
+      assertSameContent((RomeRssEntry) entries.get(1), roundTrip(entries.get(1)));
+   }
+
+   /**
+    * Ensures entries of other implementations are written by their properties
+    */
+   @Test
+   public void testForeignEntries() throws Exception
+   {
+      final RssEntry foreign = new RssEntry()
+      {
+         public URL getUrl()
+         {
+            try
+            {
+               return new URL("http://example.com/foreign");
+            }
+            catch (final IOException ioe)
+            {
+               throw new RuntimeException(ioe);
+            }
+         }
+
+         public String getTitle()
+         {
+            return "Foreign";
+         }
+
+         public String getDescription()
+         {
+            return "From elsewhere";
+         }
+
+         public String getAuthor()
+         {
+            return "ALR";
+         }
+      };
+      final RssEntry copy = roundTrip(new RssEntryList(Collections.singletonList(foreign))).get(0);
+      Assert.assertEquals(foreign.getTitle(), copy.getTitle());
+      Assert.assertEquals(foreign.getDescription(), copy.getDescription());
+      Assert.assertEquals(foreign.getAuthor(), copy.getAuthor());
+      Assert.assertEquals(foreign.getUrl(), copy.getUrl());
+   }
+
+   /**
+    * Ensures that a feed's worth of entries with repeated authors and hosts 
+    * is written in fewer bytes than the same entries in default serialized form
+    */
+   @Test
+   public void testCompact() throws Exception
+   {
+      final List<RssEntry> entries = new ArrayList<RssEntry>();
+      final List<DefaultFormEntry> defaultForm = new ArrayList<DefaultFormEntry>();
+      for (int i = 0; i < 100; i++)
+      {
+         final RomeRssEntry entry = new RomeRssEntry("Author " + (i % 3), "Title " + i, "Description " + i,
+               "http://www.example.com/blog/" + i + ".html", i);
+         entries.add(entry);
+         defaultForm.add(new DefaultFormEntry(entry));
+      }
+      final int compact = serialize(new RssEntryList(entries)).length;
+      final int standard = serialize(defaultForm).length;
+      Assert.assertTrue("Compact form of " + compact + " bytes not less than half of the " + standard
+            + " bytes of the default", compact * 2 < standard);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static void assertSameContent(final RomeRssEntry expected, final RssEntry actual)
+   {
+      Assert.assertTrue(actual instanceof RomeRssEntry);
+      final RomeRssEntry romeEntry = (RomeRssEntry) actual;
+      Assert.assertEquals(expected.getAuthor(), romeEntry.getAuthor());
+      Assert.assertEquals(expected.getTitle(), romeEntry.getTitle());
+      Assert.assertEquals(expected.getDescription(), romeEntry.getDescription());
+      Assert.assertEquals(expected.getLink(), romeEntry.getLink());
+      Assert.assertEquals(expected.getUrl(), romeEntry.getUrl());
+      Assert.assertEquals(expected.getPublished(), romeEntry.getPublished());
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> T roundTrip(final T value) throws Exception
+   {
+      return (T) new ObjectInputStream(new ByteArrayInputStream(serialize(value))).readObject();
+   }
+
+   private static byte[] serialize(final Object value) throws IOException
+   {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+      objectOut.writeObject(value);
+      objectOut.close();
+      return out.toByteArray();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * An entry as it was serialized by default: its properties, and a {@link URL}
+    */
+   static final class DefaultFormEntry implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final String author;
+
+      private final String description;
+
+      private final String title;
+
+      private final URL url;
+
+      private final long published;
+
+      DefaultFormEntry(final RomeRssEntry entry)
+      {
+         this.author = entry.getAuthor();
+         this.description = entry.getDescription();
+         this.title = entry.getTitle();
+         this.url = entry.getUrl();
+         this.published = entry.getPublished();
+      }
+   }
+}
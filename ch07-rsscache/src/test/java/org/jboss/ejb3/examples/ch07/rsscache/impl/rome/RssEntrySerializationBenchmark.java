@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.io.SyndFeedInput;
+import com.sun.syndication.io.XmlReader;
+
+/**
+ * Compares the size and speed of serializing a 10,000 entry response 
+ * in the compact form of {@link RssEntryList} against that which 
+ * {@link RomeRssEntry} had by default: an unmodifiable {@link ArrayList}
+ * of entries each holding its properties and a {@link java.net.URL}.
+ * 
+ * The entries are those of the mock 15 entry feed, repeated with unique links;
+ * their descriptions are long, so each form is also measured without them, 
+ * as headlines.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=RssEntrySerializationBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RssEntrySerializationBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(RssEntrySerializationBenchmark.class.getName());
+
+   /**
+    * Number of entries in the response
+    */
+   private static final int ENTRIES = 10000;
+
+   /**
+    * Number of times each form is written and read, after as many again to warm up; the median is reported
+    */
+   private static final int RUNS = 20;
+
+   /**
+    * Filename of the mock feed, relative to the test classes
+    */
+   private static final String FILENAME_RSS_MOCK_FEED_15_ENTRIES = "15_entries.rss";
+
+   /**
+    * The response in compact form
+    */
+   private static List<RssEntry> compact;
+
+   /**
+    * The same response in the default form
+    */
+   private static List<RssEntryListUnitTestCase.DefaultFormEntry> defaultForm;
+
+   /**
+    * The response without descriptions, in compact form
+    */
+   private static List<RssEntry> compactHeadlines;
+
+   /**
+    * The response without descriptions, in the default form
+    */
+   private static List<RssEntryListUnitTestCase.DefaultFormEntry> defaultFormHeadlines;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parses the mock feed and scales up its entries
+    */
+   @BeforeClass
+   public static void setup() throws Exception
+   {
+      final File baseDirectory = new File(RssEntrySerializationBenchmark.class.getProtectionDomain()
+            .getCodeSource().getLocation().toURI());
+      final SyndFeed feed = new SyndFeedInput().build(new XmlReader(new File(baseDirectory,
+            FILENAME_RSS_MOCK_FEED_15_ENTRIES)));
+      @SuppressWarnings("unchecked")
+      final List<SyndEntry> syndEntries = feed.getEntries();
+      final List<RssEntry> entries = new ArrayList<RssEntry>();
+      final List<RssEntryListUnitTestCase.DefaultFormEntry> defaultEntries = 
+         new ArrayList<RssEntryListUnitTestCase.DefaultFormEntry>();
+      final List<RssEntry> headlines = new ArrayList<RssEntry>();
+      final List<RssEntryListUnitTestCase.DefaultFormEntry> defaultHeadlines = 
+         new ArrayList<RssEntryListUnitTestCase.DefaultFormEntry>();
+      for (int i = 0; i < ENTRIES; i++)
+      {
+         final SyndEntry syndEntry = (SyndEntry) syndEntries.get(i % syndEntries.size()).clone();
+         syndEntry.setLink(syndEntry.getLink() + "#" + i);
+         final RomeRssEntry parsed = new RomeRssEntry(syndEntry, Integer.MAX_VALUE);
+
+         // Distinct Strings, as parsed from distinct entries; shared instances would be written once by default
+         final RomeRssEntry entry = new RomeRssEntry(copy(parsed.getAuthor()), copy(parsed.getTitle()),
+               copy(parsed.getDescription()), parsed.getLink(), parsed.getPublished());
+         entries.add(entry);
+         defaultEntries.add(new RssEntryListUnitTestCase.DefaultFormEntry(entry));
+         final RomeRssEntry headline = new RomeRssEntry(entry.getAuthor(), entry.getTitle(), null,
+               entry.getLink(), entry.getPublished());
+         headlines.add(headline);
+         defaultHeadlines.add(new RssEntryListUnitTestCase.DefaultFormEntry(headline));
+      }
+      compact = Collections.unmodifiableList(new RssEntryList(entries));
+      defaultForm = Collections.unmodifiableList(defaultEntries);
+      compactHeadlines = Collections.unmodifiableList(new RssEntryList(headlines));
+      defaultFormHeadlines = Collections.unmodifiableList(defaultHeadlines);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Compares the forms
+    */
+   @Test
+   public void serialization() throws Exception
+   {
+      final StringBuilder summary = new StringBuilder("entries=" + ENTRIES);
+      summary.append(measure("default", defaultForm));
+      summary.append(measure("compact", compact));
+      summary.append(measure("default headlines", defaultFormHeadlines));
+      summary.append(measure("compact headlines", compactHeadlines));
+      log.info(summary.toString());
+      System.out.println(summary);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes and reads the specified response repeatedly, reporting its size and the median 
+    * time taken each way
+    */
+   private static String measure(final String name, final List<?> response) throws Exception
+   {
+      final long[] writeNanos = new long[RUNS];
+      final long[] readNanos = new long[RUNS];
+      byte[] bytes = null;
+      for (int run = -RUNS; run < RUNS; run++)
+      {
+         final long start = System.nanoTime();
+         bytes = serialize(response);
+         final long written = System.nanoTime();
+         final List<?> read = (List<?>) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+         final long end = System.nanoTime();
+         if (read.size() != response.size())
+         {
+            throw new IllegalStateException("Read " + read.size() + " of " + response.size() + " entries");
+         }
+         if (run >= 0)
+         {
+            writeNanos[run] = written - start;
+            readNanos[run] = end - written;
+         }
+      }
+      Arrays.sort(writeNanos);
+      Arrays.sort(readNanos);
+      final double writeMillis = writeNanos[RUNS / 2] / 1e6;
+      final double readMillis = readNanos[RUNS / 2] / 1e6;
+      return String.format(" | %s bytes=%,d write=%.2fms (%.0f MB/s) read=%.2fms (%.0f MB/s)", name,
+            bytes.length, writeMillis, bytes.length / writeMillis / 1e3, readMillis, bytes.length / readMillis
+                  / 1e3);
+   }
+
+   private static String copy(final String value)
+   {
+      return value == null ? null : new String(value);
+   }
+
+   private static byte[] serialize(final Object value) throws IOException
+   {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+      objectOut.writeObject(value);
+      objectOut.close();
+      return out.toByteArray();
+   }
+}
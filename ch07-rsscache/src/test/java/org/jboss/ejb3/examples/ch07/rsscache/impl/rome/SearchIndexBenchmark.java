@@ -0,0 +1,266 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the latency of queries of a {@link SearchIndex} of 1,000,000 
+ * entries, and the time taken to index them, and to update the index with
+ * what a refresh changes.
+ * 
+ * The entries are generated: titles and descriptions of words drawn from a 
+ * vocabulary by Zipf's law, as natural language is, so that queries may be of
+ * rare, middling and common terms.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=SearchIndexBenchmark -DargLine=-Xmx4g</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class SearchIndexBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(SearchIndexBenchmark.class.getName());
+
+   /**
+    * Number of entries indexed
+    */
+   private static final int ENTRIES = 1000000;
+
+   /**
+    * Number of distinct words
+    */
+   private static final int VOCABULARY = 50000;
+
+   /**
+    * Number of distinct authors
+    */
+   private static final int AUTHORS = 2000;
+
+   /**
+    * Words in each title
+    */
+   private static final int TITLE_WORDS = 6;
+
+   /**
+    * Words in each description
+    */
+   private static final int DESCRIPTION_WORDS = 24;
+
+   /**
+    * Entries removed, and as many added, by the refresh measured
+    */
+   private static final int REFRESH_CHANGES = 500;
+
+   /**
+    * Number of results asked of each query
+    */
+   private static final int LIMIT = 10;
+
+   /**
+    * Number of times each query is made, after as many again to warm up
+    */
+   private static final int RUNS = 1000;
+
+   /**
+    * The entries indexed
+    */
+   private static List<RssEntry> entries;
+
+   /**
+    * The index measured
+    */
+   private static SearchIndex index;
+
+   /**
+    * Time taken to index the entries
+    */
+   private static long indexNanos;
+
+   /**
+    * Generates words
+    */
+   private static final Random random = new Random(1);
+
+   /**
+    * Cumulative probability of each word rank, by Zipf's law
+    */
+   private static double[] cumulative;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Generates and indexes the entries
+    */
+   @BeforeClass
+   public static void setup()
+   {
+      cumulative = new double[VOCABULARY];
+      double sum = 0;
+      for (int rank = 0; rank < VOCABULARY; rank++)
+      {
+         sum += 1.0 / (rank + 1);
+         cumulative[rank] = sum;
+      }
+      for (int rank = 0; rank < VOCABULARY; rank++)
+      {
+         cumulative[rank] /= sum;
+      }
+      final String[] authors = new String[AUTHORS];
+      for (int i = 0; i < AUTHORS; i++)
+      {
+         authors[i] = "Author " + word(i);
+      }
+      entries = new ArrayList<RssEntry>(ENTRIES);
+      for (int i = 0; i < ENTRIES; i++)
+      {
+         entries.add(newEntry(i, authors[random.nextInt(AUTHORS)]));
+      }
+      final long start = System.nanoTime();
+      index = SearchIndex.EMPTY.update(Collections.<RssEntry> emptyList(), entries);
+      indexNanos = System.nanoTime() - start;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Benchmarks -------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Measures updates and queries
+    */
+   @Test
+   public void search()
+   {
+      final StringBuilder summary = new StringBuilder(String.format("entries=%d index=%.1fs", ENTRIES,
+            indexNanos / 1e9));
+
+      // A refresh which changes a few entries
+      final List<RssEntry> removed = new ArrayList<RssEntry>(entries.subList(0, REFRESH_CHANGES));
+      final List<RssEntry> added = new ArrayList<RssEntry>();
+      for (int i = 0; i < REFRESH_CHANGES; i++)
+      {
+         added.add(newEntry(ENTRIES + i, "Author " + word(i)));
+      }
+      final long start = System.nanoTime();
+      final SearchIndex refreshed = index.update(removed, added);
+      summary.append(String.format(" | update(-%d,+%d)=%.1fms segments=%d", REFRESH_CHANGES, REFRESH_CHANGES,
+            (System.nanoTime() - start) / 1e6, refreshed.getSegmentCount()));
+      index = refreshed;
+
+      // Queries, from rare to common, and of a phrase known to occur
+      final List<String> terms = new ArrayList<String>();
+      SearchIndex.tokenize(entries.get(ENTRIES / 2).getDescription(), terms);
+      summary.append(measure("rare", word(VOCABULARY - 1)));
+      summary.append(measure("middling", word(999)));
+      summary.append(measure("common", word(99)));
+      summary.append(measure("commonest", word(0)));
+      summary.append(measure("middling+common", word(999) + " " + word(99)));
+      summary.append(measure("phrase", "\"" + terms.get(0) + " " + terms.get(1) + "\""));
+      log.info(summary.toString());
+      System.out.println(summary);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Makes the specified query repeatedly, reporting the median and 99th percentile latency
+    */
+   private static String measure(final String name, final String query)
+   {
+      final long[] nanos = new long[RUNS];
+      int hits = 0;
+      for (int run = -RUNS; run < RUNS; run++)
+      {
+         final long start = System.nanoTime();
+         hits = index.search(query, LIMIT).size();
+         if (run >= 0)
+         {
+            nanos[run] = System.nanoTime() - start;
+         }
+      }
+      Arrays.sort(nanos);
+      return String.format(" | %s %s hits=%d median=%.3fms p99=%.3fms", name, query, hits, nanos[RUNS / 2] / 1e6,
+            nanos[RUNS * 99 / 100] / 1e6);
+   }
+
+   private static RssEntry newEntry(final int i, final String author)
+   {
+      return new RomeRssEntry(author, words(TITLE_WORDS), words(DESCRIPTION_WORDS), "http://localhost/entries/"
+            + i, i);
+   }
+
+   /**
+    * Obtains the specified number of words, drawn by Zipf's law
+    */
+   private static String words(final int count)
+   {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < count; i++)
+      {
+         if (i > 0)
+         {
+            sb.append(' ');
+         }
+         final int found = Arrays.binarySearch(cumulative, random.nextDouble());
+         sb.append(word(Math.min(found < 0 ? -found - 1 : found, VOCABULARY - 1)));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Obtains the word of the specified rank
+    */
+   private static String word(final int rank)
+   {
+      final StringBuilder sb = new StringBuilder();
+      int remaining = rank;
+      do
+      {
+         sb.append((char) ('a' + remaining % 26));
+         remaining /= 26;
+      }
+      while (remaining > 0);
+      return sb.append("x").toString();
+   }
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the ranking, phrase matching and incremental updating of a {@link SearchIndex}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class SearchIndexUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that all terms must match, titles rank above descriptions, 
+    * and phrases match only terms in sequence within one field
+    */
+   @Test
+   public void testQueries()
+   {
+      final RssEntry inTitle = entry("ALR", "EJB 3.1 Released", "The spec is <b>final</b>");
+      final RssEntry inDescription = entry("ALR", "News", "All about EJB 3.1 and more, in the release notes");
+      final RssEntry apart = entry("Someone Else", "Singleton Beans", "EJB 3.0 had none, but 3.1 does");
+      final RssEntry acrossFields = entry("Jay EJB", "3.1 Overview", "Nothing else &amp; more");
+      final SearchIndex index = SearchIndex.EMPTY.update(Collections.<RssEntry> emptyList(), list(inTitle,
+            inDescription, apart, acrossFields));
+      Assert.assertEquals(4, index.size());
+
+      // Terms, case-insensitive, ranked
+      Assert.assertEquals(list(inTitle, acrossFields, inDescription, apart), index.search("ejb", 10));
+      Assert.assertEquals(list(inTitle, acrossFields), index.search("ejb", 2));
+      Assert.assertEquals(list(inTitle), index.search("EJB released", 10));
+      Assert.assertEquals(list(inTitle), index.search("ejb final", 10));
+      Assert.assertEquals(list(), index.search("ejb missing", 10));
+      Assert.assertEquals(list(), index.search("  ", 10));
+
+      // Markup and entity references are not terms
+      Assert.assertEquals(list(), index.search("b", 10));
+      Assert.assertEquals(list(), index.search("amp", 10));
+
+      // Phrases, quoted or of one word
+      Assert.assertEquals(list(inTitle, inDescription), index.search("\"EJB 3.1\"", 10));
+      Assert.assertEquals(list(inTitle, inDescription), index.search("ejb-3.1", 10));
+      Assert.assertEquals(list(inDescription), index.search("\"release notes\" ejb", 10));
+      Assert.assertEquals(list(), index.search("\"notes release\"", 10));
+   }
+
+   /**
+    * Ensures that an index updated many times over finds what one built 
+    * afresh would, and stays in few segments
+    */
+   @Test
+   public void testUpdates()
+   {
+      final Random random = new Random(1);
+      final String[] words =
+      {"alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta"};
+      final List<RssEntry> live = new ArrayList<RssEntry>();
+      SearchIndex index = SearchIndex.EMPTY;
+      for (int round = 0; round < 200; round++)
+      {
+         final List<RssEntry> removed = new ArrayList<RssEntry>();
+         for (int i = live.size() - 1; i >= 0; i--)
+         {
+            if (random.nextInt(10) == 0)
+            {
+               removed.add(live.remove(i));
+            }
+         }
+         final List<RssEntry> added = new ArrayList<RssEntry>();
+         for (int i = random.nextInt(20); i > 0; i--)
+         {
+            added.add(entry("author", words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+                  words[random.nextInt(words.length)]));
+         }
+         live.addAll(added);
+         index = index.update(removed, added);
+         Assert.assertEquals(live.size(), index.size());
+         Assert.assertTrue("Too many segments: " + index.getSegmentCount(), index.getSegmentCount() <= 1 + 2
+               * (32 - Integer.numberOfLeadingZeros(live.size())));
+      }
+      final SearchIndex rebuilt = SearchIndex.EMPTY.update(Collections.<RssEntry> emptyList(), live);
+      for (final String query : new String[]
+      {"alpha", "beta gamma", "\"delta epsilon\"", "author zeta", "eta theta alpha"})
+      {
+         Assert.assertEquals(query, new HashSet<RssEntry>(rebuilt.search(query, live.size())),
+               new HashSet<RssEntry>(index.search(query, live.size())));
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static RssEntry entry(final String author, final String title, final String description)
+   {
+      return new RomeRssEntry(author, title, description, "http://localhost/" + title.hashCode(),
+            RomeRssEntry.UNKNOWN);
+   }
+
+   private static List<RssEntry> list(final RssEntry... entries)
+   {
+      final List<RssEntry> list = new ArrayList<RssEntry>();
+      for (final RssEntry entry : entries)
+      {
+         list.add(entry);
+      }
+      return list;
+   }
+}
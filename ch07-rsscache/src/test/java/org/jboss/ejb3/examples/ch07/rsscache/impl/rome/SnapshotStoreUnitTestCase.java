@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the persistence of {@link FeedSnapshot}s by the {@link SnapshotStore}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class SnapshotStoreUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private File directory;
+
+   private SnapshotStore store;
+
+   private URL url;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void createStore() throws Exception
+   {
+      directory = File.createTempFile("snapshots", "");
+      Assert.assertTrue(directory.delete());
+
+      // Not created until written to
+      store = new SnapshotStore(new File(directory, "nested"));
+      url = new URL("http://example.com/feed.rss");
+   }
+
+   @After
+   public void deleteStore()
+   {
+      delete(directory);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a snapshot is read back with its version, keys, entries and order, 
+    * and that each write replaces the last
+    */
+   @Test
+   public void testRoundTrip() throws Exception
+   {
+      Assert.assertNull("Nothing should have been written yet", store.read(url));
+
+      final Map<String, RomeRssEntry> parsed = new LinkedHashMap<String, RomeRssEntry>();
+      parsed.put("http://example.com/2", new RomeRssEntry("ALR", "Keyed by link", "Two", "http://example.com/2",
+            2000L));
+      parsed.put("urn:guid:1", new RomeRssEntry(null, "Keyed by GUID", null, "http://example.com/1", 1000L));
+      parsed.put("urn:guid:3", new RomeRssEntry("ALR", "No link", "\u2603", null, RomeRssEntry.UNKNOWN));
+      final FeedSnapshot snapshot = FeedSnapshot.EMPTY.merge(parsed).merge(parsed);
+      store.write(url, snapshot);
+
+      final FeedSnapshot read = store.read(url);
+      Assert.assertEquals(snapshot.getVersion(), read.getVersion());
+      Assert.assertEquals(new ArrayList<String>(parsed.keySet()), new ArrayList<String>(read.getEntriesByKey()
+            .keySet()));
+      for (final Map.Entry<String, RomeRssEntry> entry : parsed.entrySet())
+      {
+         Assert.assertTrue("Entry " + entry.getKey() + " should be as written", entry.getValue().matches(
+               (RomeRssEntry) read.getEntriesByKey().get(entry.getKey())));
+      }
+
+      // Clients holding the version persisted are told of no changes; those holding any other are reset
+      Assert.assertTrue(read.getChangesSince(read.getVersion()).isEmpty());
+      Assert.assertTrue(read.getChangesSince(read.getVersion() - 1).isReset());
+
+      // Merging the same entries changes nothing; other entries make the next version
+      Assert.assertSame(read, read.merge(parsed));
+      parsed.remove("urn:guid:3");
+      store.write(url, read.merge(parsed));
+      final FeedSnapshot next = store.read(url);
+      Assert.assertEquals(read.getVersion() + 1, next.getVersion());
+      Assert.assertEquals(2, next.getEntries().size());
+      Assert.assertEquals("Only the snapshot should remain", 1, store.getFile(url).getParentFile().list().length);
+   }
+
+   /**
+    * Ensures that a snapshot of another feed, or one cut short, is not read as the feed's
+    */
+   @Test
+   public void testUnreadable() throws Exception
+   {
+      final Map<String, RomeRssEntry> parsed = new LinkedHashMap<String, RomeRssEntry>();
+      parsed.put("urn:guid:1", new RomeRssEntry("ALR", "Title", "Description", "http://example.com/1", 1000L));
+      store.write(url, FeedSnapshot.EMPTY.merge(parsed));
+
+      // Written under another feed's name
+      final URL other = new URL("http://example.com/other.rss");
+      Assert.assertTrue(store.getFile(url).renameTo(store.getFile(other)));
+      assertUnreadable(other);
+
+      // Cut short
+      store.write(url, FeedSnapshot.EMPTY.merge(parsed));
+      final File file = store.getFile(url);
+      for (final long length : new long[]
+      {file.length() - 1, 20, 3, 0})
+      {
+         final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         try
+         {
+            raf.setLength(length);
+         }
+         finally
+         {
+            raf.close();
+         }
+         assertUnreadable(url);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private void assertUnreadable(final URL url)
+   {
+      try
+      {
+         store.read(url);
+         Assert.fail("Snapshot of " + url + " should not have been read");
+      }
+      catch (final IOException expected)
+      {
+         // Good
+      }
+   }
+
+   private static void delete(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Unit Tests of the {@link StaxFeedParser}, ensuring it reads the same 
+ * entries as the {@link RomeFeedParser}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StaxFeedParserUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final String[] FEEDS =
+   {"5_entries.rss", "15_entries.rss"};
+
+   private static final String ATOM_FEED = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+         + "<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>Feed</title><id>urn:feed</id>"
+         + "<updated>2009-07-01T12:00:00Z</updated><author><name>Feed Author</name></author>"
+         + "<entry><title>First</title><link rel=\"alternate\" href=\"http://example.com/1\"/>"
+         + "<id>urn:entry:1</id><published>2009-07-01T10:00:00Z</published><updated>2009-07-01T11:00:00Z</updated>"
+         + "<summary>One &amp; only</summary><author><name>Author A</name></author></entry>"
+         + "<entry><title>Second</title><link rel=\"edit\" href=\"http://example.com/edit/2\"/>"
+         + "<link href=\"http://example.com/2\"/><id>urn:entry:2</id><updated>2009-07-01T12:00:00Z</updated>"
+         + "<summary>Two</summary><author><name>Author B</name></author></entry></feed>";
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that the same entries are read as by Rome, in the same order, from each fixture
+    */
+   @Test
+   public void testMatchesRome() throws Exception
+   {
+      for (final String feed : FEEDS)
+      {
+         assertMatch(feed, parse(new RomeFeedParser(Integer.MAX_VALUE), feed),
+               parse(new StaxFeedParser(Integer.MAX_VALUE), feed));
+      }
+   }
+
+   /**
+    * Ensures that at most the specified number of entries are read, these being the first
+    */
+   @Test
+   public void testMaxEntries() throws Exception
+   {
+      final Map<String, RomeRssEntry> all = parse(new StaxFeedParser(Integer.MAX_VALUE), "15_entries.rss");
+      final Map<String, RomeRssEntry> first = parse(new StaxFeedParser(5), "15_entries.rss");
+      Assert.assertEquals(15, all.size());
+      Assert.assertEquals(new ArrayList<String>(all.keySet()).subList(0, 5), new ArrayList<String>(first.keySet()));
+      assertMatch("15_entries.rss", parse(new RomeFeedParser(5), "15_entries.rss"), first);
+   }
+
+   /**
+    * Ensures that Atom entries are read as Rome reads them
+    */
+   @Test
+   public void testAtom() throws Exception
+   {
+      final Map<String, RomeRssEntry> stax = new StaxFeedParser(Integer.MAX_VALUE).parse(stream(ATOM_FEED));
+      assertMatch("Atom", new RomeFeedParser(Integer.MAX_VALUE).parse(stream(ATOM_FEED)), stax);
+      final RomeRssEntry second = stax.get("urn:entry:2");
+      Assert.assertEquals("http://example.com/2", second.getLink());
+      Assert.assertEquals("Updated date should stand in for the missing published date",
+            DatatypeConverter.parseDateTime("2009-07-01T12:00:00Z").getTimeInMillis(), second
+                  .getPublished());
+      Assert.assertEquals("One & only", stax.get("urn:entry:1").getDescription());
+   }
+
+   /**
+    * Ensures that of entries sharing a key the first stands, and that an entry
+    * without a valid link fails the parse
+    */
+   @Test
+   public void testDuplicatesAndInvalidLinks() throws Exception
+   {
+      final String duplicates = "<rss version=\"2.0\"><channel><title>Feed</title>"
+            + "<item><guid>g</guid><title>First</title><link>http://example.com/1</link></item>"
+            + "<item><guid>g</guid><title>Second</title><link>http://example.com/2</link></item>"
+            + "</channel></rss>";
+      final Map<String, RomeRssEntry> entries = new StaxFeedParser(Integer.MAX_VALUE).parse(stream(duplicates));
+      Assert.assertEquals(1, entries.size());
+      Assert.assertEquals("First", entries.get("g").getTitle());
+
+      final String invalid = "<rss version=\"2.0\"><channel><title>Feed</title>"
+            + "<item><guid>g</guid><title>First</title><link>not a url</link></item></channel></rss>";
+      try
+      {
+         new StaxFeedParser(Integer.MAX_VALUE).parse(stream(invalid));
+         Assert.fail("An entry with an invalid link should fail the parse");
+      }
+      catch (final FeedException expected)
+      {
+         // Good
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static void assertMatch(final String feed, final Map<String, RomeRssEntry> expected,
+         final Map<String, RomeRssEntry> actual)
+   {
+      Assert.assertEquals("Keys of " + feed, new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual
+            .keySet()));
+      final Iterator<RomeRssEntry> actualEntries = actual.values().iterator();
+      for (final RomeRssEntry entry : expected.values())
+      {
+         final RomeRssEntry other = actualEntries.next();
+         Assert.assertTrue("Entry of " + feed + " differs; expected " + entry + ", was " + other, entry
+               .matches(other));
+      }
+   }
+
+   private static Map<String, RomeRssEntry> parse(final FeedParser parser, final String resource)
+         throws IOException, FeedException
+   {
+      final InputStream in = StaxFeedParserUnitTestCase.class.getClassLoader().getResourceAsStream(resource);
+      Assert.assertNotNull("Could not find " + resource, in);
+      try
+      {
+         return parser.parse(in);
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   private static InputStream stream(final String feed) throws IOException
+   {
+      return new ByteArrayInputStream(feed.getBytes("UTF-8"));
+   }
+}
@@ -21,6 +21,7 @@
  */
 package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
 
+import java.io.File;
 import java.net.URL;
 
 /**
@@ -44,4 +45,22 @@ public class TestRssCacheBean extends RssCacheBean
    {
       super.setUrl(url);
    }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.impl.rome.RssCacheBean#setSnapshotDirectory(java.io.File)
+    */
+   @Override
+   public void setSnapshotDirectory(final File directory)
+   {
+      super.setSnapshotDirectory(directory);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.impl.rome.RssCacheBean#getFetchStatistics()
+    */
+   @Override
+   public FeedFetchStatistics getFetchStatistics()
+   {
+      return super.getFetchStatistics();
+   }
 }
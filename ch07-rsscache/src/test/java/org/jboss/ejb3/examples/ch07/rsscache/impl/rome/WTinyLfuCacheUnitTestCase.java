@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit Tests of the eviction policy of the {@link WTinyLfuCache}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class WTinyLfuCacheUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(WTinyLfuCacheUnitTestCase.class.getName());
+
+   /**
+    * Maximum number of entries of the caches under test
+    */
+   private static final int MAXIMUM_SIZE = 100;
+
+   /**
+    * Number of keys in steady demand
+    */
+   private static final int HOT_KEYS = MAXIMUM_SIZE / 2;
+
+   /**
+    * Number of keys requested once only
+    */
+   private static final int SCANNED_KEYS = 100 * MAXIMUM_SIZE;
+
+   /**
+    * Weighs a String by its length
+    */
+   private static final WTinyLfuCache.Weigher<Integer, String> LENGTH_WEIGHER = new WTinyLfuCache.Weigher<Integer, String>()
+   {
+      @Override
+      public long weigh(final Integer key, final String value)
+      {
+         return value.length();
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures the cache holds no more than its maximum number of entries
+    */
+   @Test
+   public void testBoundedBySize()
+   {
+      final WTinyLfuCache<Integer, String> cache = newCache(MAXIMUM_SIZE, Long.MAX_VALUE);
+      for (int i = 0; i < 10 * MAXIMUM_SIZE; i++)
+      {
+         getOrPut(cache, i, "value");
+         Assert.assertTrue("Cache exceeded its maximum size", cache.size() <= MAXIMUM_SIZE);
+      }
+      Assert.assertEquals(MAXIMUM_SIZE, cache.size());
+   }
+
+   /**
+    * Ensures the cache holds no more than its maximum weight of entries, 
+    * and turns away entries heavier than that outright
+    */
+   @Test
+   public void testBoundedByWeight()
+   {
+      final long maximumWeight = 1000;
+      final WTinyLfuCache<Integer, String> cache = newCache(MAXIMUM_SIZE, maximumWeight);
+      for (int i = 0; i < MAXIMUM_SIZE; i++)
+      {
+         getOrPut(cache, i, "0123456789012345678901234567890123456789");
+         Assert.assertTrue("Cache exceeded its maximum weight", cache.weight() <= maximumWeight);
+      }
+      Assert.assertEquals(maximumWeight / 40, cache.size());
+
+      // Too heavy to hold at all
+      final StringBuilder heavy = new StringBuilder();
+      for (int i = 0; i <= maximumWeight; i++)
+      {
+         heavy.append('x');
+      }
+      cache.put(-1, heavy.toString());
+      Assert.assertFalse("Entry heavier than the cache should not be held", cache.containsKey(-1));
+      Assert.assertTrue(cache.weight() <= maximumWeight);
+
+      // Growing an entry in place is bounded too
+      cache.put(MAXIMUM_SIZE - 1, "x");
+      Assert.assertTrue(cache.replace(MAXIMUM_SIZE - 1, heavy.toString()));
+      Assert.assertTrue("Cache exceeded its maximum weight on replace", cache.weight() <= maximumWeight);
+   }
+
+   /**
+    * Ensures that keys in steady demand stay cached through a scan of many 
+    * keys requested once only, which would flush an LRU cache of the same size
+    */
+   @Test
+   public void testFrequentKeysSurviveScan()
+   {
+      final WTinyLfuCache<Integer, String> cache = newCache(MAXIMUM_SIZE, Long.MAX_VALUE);
+
+      // Establish demand
+      for (int i = 0; i < 10 * HOT_KEYS; i++)
+      {
+         getOrPut(cache, i % HOT_KEYS, "hot");
+      }
+
+      // Scan, while the hot keys are still requested now and again
+      int hotRequests = 0;
+      int hotHits = 0;
+      for (int i = 0; i < SCANNED_KEYS; i++)
+      {
+         getOrPut(cache, HOT_KEYS + i, "scanned");
+         if (i % 2 == 0)
+         {
+            hotRequests++;
+            if (getOrPut(cache, i / 2 % HOT_KEYS, "hot"))
+            {
+               hotHits++;
+            }
+         }
+      }
+
+      // An LRU cache would hit only when a hot key is requested within MAXIMUM_SIZE of its last request
+      final double hitRatio = (double) hotHits / hotRequests;
+      log.info("Hit ratio of keys in steady demand through a scan of " + SCANNED_KEYS + " keys: " + hitRatio);
+      Assert.assertTrue("Keys in steady demand should have stayed cached, hit ratio was " + hitRatio,
+            hitRatio > 0.9);
+      int hotCached = 0;
+      for (int i = 0; i < HOT_KEYS; i++)
+      {
+         if (cache.containsKey(i))
+         {
+            hotCached++;
+         }
+      }
+      Assert.assertTrue("Only " + hotCached + " of " + HOT_KEYS + " hot keys still cached",
+            hotCached > HOT_KEYS * 9 / 10);
+   }
+
+   /**
+    * Ensures that {@link WTinyLfuCache#replace(Object, Object)} caches nothing new, 
+    * and {@link WTinyLfuCache#remove(Object)} releases the weight of what's removed
+    */
+   @Test
+   public void testReplaceAndRemove()
+   {
+      final WTinyLfuCache<Integer, String> cache = newCache(MAXIMUM_SIZE, Long.MAX_VALUE);
+      Assert.assertFalse(cache.replace(1, "one"));
+      Assert.assertFalse(cache.containsKey(1));
+      cache.put(1, "one");
+      Assert.assertTrue(cache.replace(1, "uno"));
+      Assert.assertEquals("uno", cache.peek(1));
+      Assert.assertEquals(3, cache.weight());
+      Assert.assertEquals("uno", cache.remove(1));
+      Assert.assertNull(cache.remove(1));
+      Assert.assertEquals(0, cache.size());
+      Assert.assertEquals(0, cache.weight());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static WTinyLfuCache<Integer, String> newCache(final int maximumSize, final long maximumWeight)
+   {
+      return new WTinyLfuCache<Integer, String>(maximumSize, maximumWeight, LENGTH_WEIGHER);
+   }
+
+   /**
+    * Requests the specified key, caching the specified value on a miss
+    * 
+    * @return Whether the request hit
+    */
+   private static boolean getOrPut(final WTinyLfuCache<Integer, String> cache, final int key, final String value)
+   {
+      if (cache.get(key) != null)
+      {
+         return true;
+      }
+      cache.put(key, value);
+      return false;
+   }
+}
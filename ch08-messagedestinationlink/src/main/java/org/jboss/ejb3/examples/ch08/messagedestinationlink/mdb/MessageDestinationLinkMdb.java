@@ -21,9 +21,9 @@
  */
 package org.jboss.ejb3.examples.ch08.messagedestinationlink.mdb;
 
-import java.util.concurrent.CountDownLatch;
 import java.util.logging.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.ejb.ActivationConfigProperty;
 import javax.ejb.MessageDriven;
 import javax.jms.JMSException;
@@ -31,9 +31,16 @@ import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
 
+import org.jboss.ejb3.examples.ch08.messagedestinationlink.api.MessageDestinationLinkConstants;
+import org.jboss.ejb3.examples.testsupport.metrics.MessageMetrics;
+
 /**
  * MDB which is linked to a SLSB via the deployment descriptor; obtains messages
- * and caches them as a class member for obtaining from a test later
+ * and records them in a {@link ReceiveTracker}, such that tests and monitoring may
+ * count them, see the most recent, and wait until some number have arrived.  The time
+ * each message waited in the queue and took to process, the rate of consumption
+ * and any failures are recorded in {@link MessageMetrics}, shared by all instances
+ * and given back by each as it's discarded.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -54,14 +61,9 @@ public class MessageDestinationLinkMdb implements MessageListener
    private static final Logger log = Logger.getLogger(MessageDestinationLinkMdb.class.getName());
 
    /**
-    * Shared latch, so tests can wait until the MDB is processed.  In POJO
-    * testing this is wholly unnecessary as we've got a single-threaded environment, but 
-    * when testing in an EJB Container running in the *same* JVM as the test, the test 
-    * can use this to wait until the MDB has been invoked, strengthening the integrity
-    * of the test.  It's not recommended to put this piece into a production EJB; instead
-    * test an extension of your EJB which adds this (and only this) support.
+    * Most recent messages kept by {@link MessageDestinationLinkMdb#RECEIVED}
     */
-   public static CountDownLatch LATCH = new CountDownLatch(1);
+   private static final int RECENT_CAPACITY = 64;
 
    /**
     * Name of this EJB, to match the ejb-name used in the deployment descriptor
@@ -69,11 +71,22 @@ public class MessageDestinationLinkMdb implements MessageListener
    static final String NAME_EJB = "MessageDestinationLinkMdb";
 
    /**
-    * Last message received; never use this in production (as many Threads/instances
-    * may concurrently have access).  Here we do so safely within the confines
-    * of our test environment.
+    * Messages received by all instances.  When testing in an EJB Container running 
+    * in the *same* JVM as the test, the test can use this to wait until the MDB has 
+    * been invoked, and to see what it got, strengthening the integrity of the test.
+    * Recording takes no locks, so instances receiving concurrently don't contend
+    * upon it.
+    */
+   public static final ReceiveTracker RECEIVED = new ReceiveTracker(RECENT_CAPACITY);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Metrics shared by all instances, obtained upon first consumption
     */
-   public static String LAST_MESSAGE;
+   private MessageMetrics metrics;
 
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
@@ -85,6 +98,61 @@ public class MessageDestinationLinkMdb implements MessageListener
     */
    @Override
    public void onMessage(final Message message)
+   {
+      final long start = System.nanoTime();
+      final MessageMetrics metrics = this.getMetrics();
+      try
+      {
+         this.receive(message);
+      }
+      catch (final RuntimeException re)
+      {
+         metrics.recordFailure(re);
+         throw re;
+      }
+      metrics.recordConsumed(getTimestamp(message), System.currentTimeMillis(), System.nanoTime() - start);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Gives back our metrics, such that they're unregistered once no instance remains
+    */
+   @PreDestroy
+   void releaseMetrics()
+   {
+      if (metrics != null)
+      {
+         metrics.release();
+         metrics = null;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the metrics of this consumer
+    */
+   private MessageMetrics getMetrics()
+   {
+      MessageMetrics metrics = this.metrics;
+      if (metrics == null)
+      {
+         metrics = MessageMetrics.getInstance(MessageDestinationLinkConstants.NAME_MESSAGE_DESTINATION_LINK_REF,
+               NAME_EJB);
+         this.metrics = metrics;
+      }
+      return metrics;
+   }
+
+   /**
+    * Records the contents of the specified message as received
+    */
+   private void receive(final Message message)
    {
       // Cast
       if (!(message instanceof TextMessage))
@@ -104,12 +172,28 @@ public class MessageDestinationLinkMdb implements MessageListener
          throw new RuntimeException("Could not get contents of message: " + txtMessage, e);
       }
       log.info("Received message with contents: " + contents);
-      LAST_MESSAGE = contents;
 
-      // Count down the latch so that the test knows we're here
-      log.info("Counting down the latch...");
-      LATCH.countDown();
+      // Record, so that the test knows we're here
+      RECEIVED.record(contents);
+   }
 
+   /**
+    * Obtains the time the specified message was sent, or 0 if not known
+    */
+   private static long getTimestamp(final Message message)
+   {
+      if (message == null)
+      {
+         return 0;
+      }
+      try
+      {
+         return message.getJMSTimestamp();
+      }
+      catch (final JMSException jmse)
+      {
+         return 0;
+      }
    }
 
 }
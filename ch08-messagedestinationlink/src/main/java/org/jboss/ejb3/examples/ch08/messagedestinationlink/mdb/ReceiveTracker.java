@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.mdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tracks the messages received by any number of concurrent consumers, such that
+ * tests and monitoring may observe consumption without racing it: a count of 
+ * messages received, the last of them, a bounded ring of the most recent, and 
+ * the means to wait until some number have been received.  Recording takes no 
+ * locks; consumers only wake those waiting, if any.
+ * 
+ * Each message is given a sequence number in the order consumers began to record
+ * it.  As consumers run concurrently, a message may finish being recorded before 
+ * one of lower sequence; the count of messages received counts only those 
+ * finished, and so is safe to wait upon.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class ReceiveTracker
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Orders messages by sequence
+    */
+   private static final Comparator<ReceivedMessage> BY_SEQUENCE = new Comparator<ReceivedMessage>()
+   {
+      @Override
+      public int compare(final ReceivedMessage o1, final ReceivedMessage o2)
+      {
+         return o1.getSequence() < o2.getSequence() ? -1 : o1.getSequence() == o2.getSequence() ? 0 : 1;
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Next sequence number to be given
+    */
+   private final AtomicLong nextSequence = new AtomicLong();
+
+   /**
+    * Messages finished being recorded
+    */
+   private final AtomicLong received = new AtomicLong();
+
+   /**
+    * Message of the highest sequence recorded, or null if none
+    */
+   private final AtomicReference<ReceivedMessage> last = new AtomicReference<ReceivedMessage>();
+
+   /**
+    * Most recent messages, each at the slot of its sequence masked by {@link ReceiveTracker#mask}
+    */
+   private final AtomicReferenceArray<ReceivedMessage> recent;
+
+   /**
+    * Masks a sequence to its slot in {@link ReceiveTracker#recent}
+    */
+   private final int mask;
+
+   /**
+    * Threads waiting upon messages being received
+    */
+   private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a tracker keeping at least the specified number of the most recent messages;
+    * the number is rounded up to a power of 2
+    * 
+    * @throws IllegalArgumentException If the capacity is not positive, or too great
+    */
+   public ReceiveTracker(final int recentCapacity) throws IllegalArgumentException
+   {
+      if (recentCapacity <= 0 || recentCapacity > 1 << 30)
+      {
+         throw new IllegalArgumentException("recentCapacity must be positive and at most 2^30: " + recentCapacity);
+      }
+      int slots = 1;
+      while (slots < recentCapacity)
+      {
+         slots <<= 1;
+      }
+      this.recent = new AtomicReferenceArray<ReceivedMessage>(slots);
+      this.mask = slots - 1;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records receipt of a message with the specified contents, waking any waiting 
+    * upon the number since received.  Safe for concurrent use.
+    * 
+    * @return The message as recorded
+    */
+   public ReceivedMessage record(final String contents)
+   {
+      final ReceivedMessage message = new ReceivedMessage(this.nextSequence.getAndIncrement(), contents, System
+            .currentTimeMillis());
+      this.recent.set((int) (message.getSequence() & this.mask), message);
+
+      // Keep the last unless one of higher sequence has beaten us to it
+      for (ReceivedMessage current = this.last.get(); current == null
+            || current.getSequence() < message.getSequence(); current = this.last.get())
+      {
+         if (this.last.compareAndSet(current, message))
+         {
+            break;
+         }
+      }
+
+      // Count only once recorded, then wake those whose wait is over
+      final long received = this.received.incrementAndGet();
+      if (!this.waiters.isEmpty())
+      {
+         for (final Waiter waiter : this.waiters)
+         {
+            if (waiter.count <= received)
+            {
+               LockSupport.unpark(waiter.thread);
+            }
+         }
+      }
+      return message;
+   }
+
+   /**
+    * Obtains the number of messages received
+    */
+   public long getReceived()
+   {
+      return this.received.get();
+   }
+
+   /**
+    * Obtains the message of the highest sequence received, or null if none have been
+    */
+   public ReceivedMessage getLast()
+   {
+      return this.last.get();
+   }
+
+   /**
+    * Obtains the most recent messages received, in order of sequence, up to the
+    * capacity of the ring.  Consumers may overwrite the ring as it's read, so
+    * fewer may be returned under heavy load.
+    */
+   public List<ReceivedMessage> getRecent()
+   {
+      final long newest = this.nextSequence.get() - 1;
+      final List<ReceivedMessage> messages = new ArrayList<ReceivedMessage>(this.recent.length());
+      for (int i = 0; i < this.recent.length(); i++)
+      {
+         final ReceivedMessage message = this.recent.get(i);
+         if (message != null && message.getSequence() > newest - this.recent.length())
+         {
+            messages.add(message);
+         }
+      }
+      Collections.sort(messages, BY_SEQUENCE);
+      return messages;
+   }
+
+   /**
+    * Waits until at least the specified number of messages have been received 
+    * in all, or the timeout passes.  To wait upon messages yet to be sent, 
+    * add to {@link ReceiveTracker#getReceived()} as of before sending.
+    * 
+    * @return Whether the number were received in time
+    * @throws InterruptedException If interrupted while waiting
+    */
+   public boolean awaitReceived(final long count, final long timeout, final TimeUnit unit)
+         throws InterruptedException
+   {
+      if (this.received.get() >= count)
+      {
+         return true;
+      }
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      final Waiter waiter = new Waiter(count, Thread.currentThread());
+      this.waiters.add(waiter);
+      try
+      {
+         // We're registered before checking, so a message counted after is sure to wake us
+         while (this.received.get() < count)
+         {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+               return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted())
+            {
+               throw new InterruptedException();
+            }
+         }
+         return true;
+      }
+      finally
+      {
+         this.waiters.remove(waiter);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A message as received
+    */
+   public static final class ReceivedMessage
+   {
+      private final long sequence;
+
+      private final String contents;
+
+      private final long receivedMillis;
+
+      ReceivedMessage(final long sequence, final String contents, final long receivedMillis)
+      {
+         this.sequence = sequence;
+         this.contents = contents;
+         this.receivedMillis = receivedMillis;
+      }
+
+      /**
+       * Obtains the sequence number given the message, from 0
+       */
+      public long getSequence()
+      {
+         return sequence;
+      }
+
+      /**
+       * Obtains the contents of the message
+       */
+      public String getContents()
+      {
+         return contents;
+      }
+
+      /**
+       * Obtains the time the message was received, in milliseconds since the epoch
+       */
+      public long getReceivedMillis()
+      {
+         return receivedMillis;
+      }
+
+      /* (non-Javadoc)
+       * @see java.lang.Object#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return String.format("%s [sequence=%d, contents=%s, receivedMillis=%d]", this.getClass().getSimpleName(),
+               sequence, contents, receivedMillis);
+      }
+   }
+
+   /**
+    * A thread waiting until some number of messages have been received
+    */
+   private static final class Waiter
+   {
+      private final long count;
+
+      private final Thread thread;
+
+      Waiter(final long count, final Thread thread)
+      {
+         this.count = count;
+         this.thread = thread;
+      }
+   }
+}
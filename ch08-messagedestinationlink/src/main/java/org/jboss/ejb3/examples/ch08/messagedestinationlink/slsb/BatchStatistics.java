@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.io.Serializable;
+
+/**
+ * Value object describing the sizes of the batches of messages committed
+ * by a {@link QueueSenderPool}, as of when it was obtained
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class BatchStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of batches committed
+    */
+   private final long batches;
+
+   /**
+    * Number of messages committed among all batches
+    */
+   private final long messages;
+
+   /**
+    * Number of messages in the largest batch
+    */
+   private final int largestBatch;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   BatchStatistics(final long batches, final long messages, final int largestBatch)
+   {
+      this.batches = batches;
+      this.messages = messages;
+      this.largestBatch = largestBatch;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the number of batches committed
+    */
+   public long getBatches()
+   {
+      return batches;
+   }
+
+   /**
+    * Obtains the number of messages committed among all batches
+    */
+   public long getMessages()
+   {
+      return messages;
+   }
+
+   /**
+    * Obtains the number of messages in the largest batch
+    */
+   public int getLargestBatch()
+   {
+      return largestBatch;
+   }
+
+   /**
+    * Obtains the mean number of messages in a batch, or 0 if none were committed
+    */
+   public double getAverageBatch()
+   {
+      return batches == 0 ? 0 : (double) messages / batches;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return String.format("%s [batches=%d, messages=%d, average=%.1f, largest=%d]", this.getClass().getSimpleName(),
+            batches, messages, this.getAverageBatch(), largestBatch);
+   }
+}
@@ -0,0 +1,294 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Queue;
+
+/**
+ * Gathers messages sent concurrently to one queue into batches, each committed 
+ * in one transaction by way of {@link QueueSenderPool#send(Queue, List)}.  Each
+ * sender names the most messages it will have committed together with its own, 
+ * and the longest time it will wait for others to join; a batch is sent once it 
+ * holds as many messages as the least of its senders' maximums, or once the 
+ * shortest of their linger times has passed, whichever is sooner.  So senders 
+ * asking for different limits still share batches, and no sender's limits are 
+ * exceeded.  Each sender waits until the batch holding its message has been 
+ * committed, so a return still means the broker has the message; batching 
+ * helps only where there are many concurrent senders.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class MessageBatcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Pool through which batches are sent
+    */
+   private final QueueSenderPool pool;
+
+   /**
+    * Queue to which batches are sent
+    */
+   private final Queue queue;
+
+   /**
+    * Sends batches which have lingered long enough
+    */
+   private final ScheduledExecutorService scheduler;
+
+   /**
+    * The batch presently taking messages, if any; guarded by "this"
+    */
+   private Batch open;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new batcher
+    * 
+    * @param pool
+    * @param queue
+    * @param scheduler
+    */
+   MessageBatcher(final QueueSenderPool pool, final Queue queue, final ScheduledExecutorService scheduler)
+   {
+      this.pool = pool;
+      this.queue = queue;
+      this.scheduler = scheduler;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Adds a text message with the specified contents to the open batch,
+    * returning once that batch has been committed
+    * 
+    * @param contents
+    * @param maxBatchSize Most messages to be committed together with this one
+    * @param lingerMillis Longest time, in milliseconds, to wait for more messages
+    * @throws JMSException If the batch could not be sent
+    * @throws IllegalArgumentException If the maximum batch size is not positive or the
+    *   linger time is negative
+    */
+   void send(final String contents, final int maxBatchSize, final long lingerMillis) throws JMSException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxBatchSize <= 0)
+      {
+         throw new IllegalArgumentException("maxBatchSize must be positive, was: " + maxBatchSize);
+      }
+      if (lingerMillis < 0)
+      {
+         throw new IllegalArgumentException("lingerMillis must not be negative, was: " + lingerMillis);
+      }
+
+      final Batch batch;
+      final Future<?> timeout;
+      final boolean full;
+      synchronized (this)
+      {
+         if (this.open == null)
+         {
+            this.open = new Batch();
+         }
+         batch = this.open;
+         batch.contents.add(contents);
+         batch.maxSize = Math.min(batch.maxSize, maxBatchSize);
+         full = batch.contents.size() >= batch.maxSize;
+         if (full)
+         {
+            this.open = null;
+         }
+         else
+         {
+            // Send no later than this sender will wait
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+            if (batch.timeout == null || deadline - batch.deadline < 0)
+            {
+               if (batch.timeout != null)
+               {
+                  batch.timeout.cancel(false);
+               }
+               batch.deadline = deadline;
+               batch.timeout = this.scheduler.schedule(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     flushIfOpen(batch);
+                  }
+               }, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+         }
+         timeout = batch.timeout;
+      }
+
+      // Whoever fills a batch sends it
+      if (full)
+      {
+         if (timeout != null)
+         {
+            timeout.cancel(false);
+         }
+         this.flush(batch);
+      }
+      batch.await();
+   }
+
+   /**
+    * Sends the open batch, if any, without waiting for it to linger
+    */
+   void flush()
+   {
+      final Batch batch;
+      synchronized (this)
+      {
+         batch = this.open;
+      }
+      if (batch != null)
+      {
+         this.flushIfOpen(batch);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified batch, unless it's already been closed (and so sent by another)
+    */
+   private void flushIfOpen(final Batch batch)
+   {
+      synchronized (this)
+      {
+         if (this.open != batch)
+         {
+            return;
+         }
+         this.open = null;
+      }
+      this.flush(batch);
+   }
+
+   /**
+    * Sends the specified closed batch, releasing those waiting upon it
+    */
+   private void flush(final Batch batch)
+   {
+      try
+      {
+         this.pool.send(this.queue, batch.contents);
+      }
+      catch (final JMSException jmse)
+      {
+         batch.failure = jmse;
+      }
+      catch (final RuntimeException re)
+      {
+         final JMSException jmse = new JMSException("Could not send batch: " + re);
+         jmse.initCause(re);
+         batch.failure = jmse;
+      }
+      finally
+      {
+         batch.done.countDown();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Messages to be committed together, and the outcome once they are
+    */
+   private static final class Batch
+   {
+      private final List<String> contents = new ArrayList<String>();
+
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      /**
+       * Least of the maximum sizes asked for by senders so far; guarded by the batcher
+       */
+      private int maxSize = Integer.MAX_VALUE;
+
+      /**
+       * Time, in nanos, at which the batch is to be sent; guarded by the batcher
+       */
+      private long deadline;
+
+      /**
+       * Sends the batch upon its deadline; guarded by the batcher
+       */
+      private Future<?> timeout;
+
+      private volatile JMSException failure;
+
+      /**
+       * Waits until the batch has been sent, rethrowing any failure
+       */
+      void await() throws JMSException
+      {
+         boolean interrupted = false;
+         while (true)
+         {
+            try
+            {
+               this.done.await();
+               break;
+            }
+            catch (final InterruptedException ie)
+            {
+               // The message is already on its way, so wait it out
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+         if (this.failure != null)
+         {
+            throw this.failure;
+         }
+      }
+   }
+}
@@ -0,0 +1,559 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+
+/**
+ * Bounded, in-memory outbox of messages to be sent to one queue, drained by
+ * a dedicated sender thread such that those putting messages in needn't wait
+ * upon the broker.  Putting in and taking out are lock-free: a 
+ * {@link ConcurrentLinkedQueue} bounded by a count reserved by compare-and-set.
+ * What happens to a message put into a full outbox is set by an {@link OverflowPolicy};
+ * only those waiting for room, should it be to {@link OverflowPolicy#BLOCK}, wait upon 
+ * a monitor, notified as messages are taken out.
+ * 
+ * The sender takes as many messages as have gathered, up to a limit, and sends
+ * them upon a {@link QueueSenderPool} together in one transaction (or alone, if 
+ * there's but one).  Each message put in gets a {@link Future} completed once it's 
+ * been sent, or failed with the {@link JMSException} if it couldn't be.  
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class MessageOutbox
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MessageOutbox.class.getName());
+
+   /**
+    * Longest time the sender thread waits before looking again for messages
+    */
+   private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Pool through which messages are sent
+    */
+   private final QueueSenderPool pool;
+
+   /**
+    * Queue to which messages are sent
+    */
+   private final javax.jms.Queue queue;
+
+   /**
+    * Most messages held
+    */
+   private final int capacity;
+
+   /**
+    * What to do with messages put into a full outbox
+    */
+   private final OverflowPolicy overflowPolicy;
+
+   /**
+    * Most messages sent together
+    */
+   private final int maxDrain;
+
+   /**
+    * Messages waiting to be sent
+    */
+   private final Queue<PendingMessage> pending = new ConcurrentLinkedQueue<PendingMessage>();
+
+   /**
+    * Number of messages held, including those reserved but not yet added
+    */
+   private final AtomicInteger size = new AtomicInteger();
+
+   /**
+    * Monitor upon which those putting messages into a full outbox wait for room
+    */
+   private final Object room = new Object();
+
+   /**
+    * Number of those waiting upon {@link MessageOutbox#room}
+    */
+   private final AtomicInteger waitingForRoom = new AtomicInteger();
+
+   /**
+    * Number of messages discarded as the outbox was full
+    */
+   private final AtomicLong dropped = new AtomicLong();
+
+   /**
+    * Thread sending the messages
+    */
+   private final Thread senderThread;
+
+   /**
+    * Whether the sender thread is, or is about to be, waiting for messages
+    */
+   private volatile boolean senderWaiting;
+
+   /**
+    * Whether we take new messages
+    */
+   private volatile boolean open = true;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new outbox and starts its sender thread
+    * 
+    * @param pool
+    * @param queue
+    * @param capacity
+    * @param overflowPolicy
+    * @param maxDrain
+    * @throws IllegalArgumentException If the capacity or maximum drained is not positive,
+    *   or the overflow policy is not specified
+    */
+   MessageOutbox(final QueueSenderPool pool, final javax.jms.Queue queue, final int capacity,
+         final OverflowPolicy overflowPolicy, final int maxDrain) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (capacity <= 0)
+      {
+         throw new IllegalArgumentException("capacity must be positive, was: " + capacity);
+      }
+      if (overflowPolicy == null)
+      {
+         throw new IllegalArgumentException("overflowPolicy must be specified");
+      }
+      if (maxDrain <= 0)
+      {
+         throw new IllegalArgumentException("maxDrain must be positive, was: " + maxDrain);
+      }
+
+      this.pool = pool;
+      this.queue = queue;
+      this.capacity = capacity;
+      this.overflowPolicy = overflowPolicy;
+      this.maxDrain = maxDrain;
+      this.senderThread = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            drain();
+         }
+      }, "MessageOutbox-" + queue);
+      this.senderThread.setDaemon(true);
+      this.senderThread.start();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Puts a text message with the specified contents into the outbox, to be sent
+    * by the sender thread
+    * 
+    * @param contents
+    * @return A {@link Future} completed once the message has been sent
+    * @throws RejectedExecutionException If the outbox has been closed, or is full and 
+    *   our policy is to {@link OverflowPolicy#FAIL}, or we were interrupted waiting for room
+    */
+   Future<Void> send(final String contents) throws RejectedExecutionException
+   {
+      final PendingMessage message = new PendingMessage(contents);
+      if (!this.reserve())
+      {
+         if (this.overflowPolicy == OverflowPolicy.DROP && this.open)
+         {
+            this.dropped.incrementAndGet();
+            message.cancel(false);
+            return message;
+         }
+         throw new RejectedExecutionException(this.open ? "Outbox of " + this.capacity + " messages is full"
+               : "Outbox has been closed");
+      }
+      this.pending.add(message);
+
+      // Should we have closed meanwhile, the sender and close() may both have finished
+      // before our message was added, so take it back if it's still there
+      if (!this.open && this.pending.remove(message))
+      {
+         this.release();
+         throw new RejectedExecutionException("Outbox has been closed");
+      }
+      if (this.senderWaiting)
+      {
+         LockSupport.unpark(this.senderThread);
+      }
+      return message;
+   }
+
+   /**
+    * Stops taking new messages, and waits up to the specified time for 
+    * those already taken to be sent
+    * 
+    * @return Whether all messages were sent in time
+    */
+   boolean close(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      this.open = false;
+      synchronized (this.room)
+      {
+         this.room.notifyAll();
+      }
+      LockSupport.unpark(this.senderThread);
+      this.senderThread.join(unit.toMillis(timeout));
+      if (this.senderThread.isAlive())
+      {
+         return false;
+      }
+
+      // Fail any put in as we closed, after the sender had finished
+      PendingMessage message;
+      while ((message = this.pending.poll()) != null)
+      {
+         this.release();
+         if (message.start())
+         {
+            message.complete(new JMSException("Outbox was closed before the message could be sent"));
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Obtains the number of messages waiting to be sent
+    */
+   int getDepth()
+   {
+      return this.size.get();
+   }
+
+   /**
+    * Obtains the number of messages discarded as the outbox was full
+    */
+   long getDropped()
+   {
+      return this.dropped.get();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Reserves room for a message, waiting for it if our policy is to
+    * {@link OverflowPolicy#BLOCK}
+    * 
+    * @return Whether room was reserved
+    * @throws RejectedExecutionException If interrupted waiting for room
+    */
+   private boolean reserve() throws RejectedExecutionException
+   {
+      while (this.open)
+      {
+         final int held = this.size.get();
+         if (held < this.capacity)
+         {
+            if (this.size.compareAndSet(held, held + 1))
+            {
+               return true;
+            }
+         }
+         else if (this.overflowPolicy == OverflowPolicy.BLOCK)
+         {
+            this.awaitRoom();
+         }
+         else
+         {
+            return false;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Waits until there's room in the outbox, or it's closed
+    * 
+    * @throws RejectedExecutionException If interrupted
+    */
+   private void awaitRoom() throws RejectedExecutionException
+   {
+      synchronized (this.room)
+      {
+         // Say we're waiting before looking, such that a message taken out after
+         // we look will see us, and notify
+         this.waitingForRoom.incrementAndGet();
+         try
+         {
+            while (this.open && this.size.get() >= this.capacity)
+            {
+               this.room.wait();
+            }
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for room in the outbox", ie);
+         }
+         finally
+         {
+            this.waitingForRoom.decrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Gives back the room held by a message taken out, notifying one waiting for it
+    */
+   private void release()
+   {
+      this.size.decrementAndGet();
+      if (this.waitingForRoom.get() > 0)
+      {
+         synchronized (this.room)
+         {
+            this.room.notify();
+         }
+      }
+   }
+
+   /**
+    * Sends messages as they come until closed and empty; run by the sender thread
+    */
+   private void drain()
+   {
+      final List<PendingMessage> messages = new ArrayList<PendingMessage>(this.maxDrain);
+      final List<String> contents = new ArrayList<String>(this.maxDrain);
+      while (true)
+      {
+         // Take what's gathered, leaving those which were cancelled
+         PendingMessage message;
+         while (messages.size() < this.maxDrain && (message = this.pending.poll()) != null)
+         {
+            this.release();
+            if (message.start())
+            {
+               messages.add(message);
+               contents.add(message.contents);
+            }
+         }
+
+         if (messages.isEmpty())
+         {
+            if (!this.open && this.pending.isEmpty())
+            {
+               return;
+            }
+
+            // Wait to be woken by the next message; look once more first,
+            // as one may have come before we said we were waiting
+            this.senderWaiting = true;
+            if (this.pending.isEmpty() && this.open)
+            {
+               LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+            }
+            this.senderWaiting = false;
+            continue;
+         }
+
+         JMSException failure = null;
+         try
+         {
+            if (contents.size() == 1)
+            {
+               this.pool.send(this.queue, contents.get(0));
+            }
+            else
+            {
+               this.pool.send(this.queue, contents);
+            }
+         }
+         catch (final JMSException jmse)
+         {
+            log.log(Level.WARNING, "Could not send " + contents.size() + " message(s) from the outbox", jmse);
+            failure = jmse;
+         }
+         catch (final RuntimeException re)
+         {
+            log.log(Level.WARNING, "Could not send " + contents.size() + " message(s) from the outbox", re);
+            failure = new JMSException("Could not send: " + re);
+            failure.initCause(re);
+         }
+         for (final PendingMessage sent : messages)
+         {
+            sent.complete(failure);
+         }
+         messages.clear();
+         contents.clear();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A message in the outbox, and the {@link Future} of its sending
+    */
+   private static final class PendingMessage implements Future<Void>
+   {
+
+      private static final int NEW = 0;
+
+      private static final int SENDING = 1;
+
+      private static final int DONE = 2;
+
+      private static final int CANCELLED = 3;
+
+      private static final AtomicIntegerFieldUpdater<PendingMessage> STATE = AtomicIntegerFieldUpdater.newUpdater(
+            PendingMessage.class, "state");
+
+      private final String contents;
+
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      private volatile int state = NEW;
+
+      private volatile JMSException failure;
+
+      PendingMessage(final String contents)
+      {
+         this.contents = contents;
+      }
+
+      /**
+       * Claims the message for sending
+       * 
+       * @return False if it was cancelled
+       */
+      boolean start()
+      {
+         return STATE.compareAndSet(this, NEW, SENDING);
+      }
+
+      void complete(final JMSException failure)
+      {
+         this.failure = failure;
+         this.state = DONE;
+         this.done.countDown();
+      }
+
+      /* (non-Javadoc)
+       * @see java.util.concurrent.Future#cancel(boolean)
+       */
+      @Override
+      public boolean cancel(final boolean mayInterruptIfRunning)
+      {
+         if (STATE.compareAndSet(this, NEW, CANCELLED))
+         {
+            this.done.countDown();
+            return true;
+         }
+         return false;
+      }
+
+      /* (non-Javadoc)
+       * @see java.util.concurrent.Future#isCancelled()
+       */
+      @Override
+      public boolean isCancelled()
+      {
+         return this.state == CANCELLED;
+      }
+
+      /* (non-Javadoc)
+       * @see java.util.concurrent.Future#isDone()
+       */
+      @Override
+      public boolean isDone()
+      {
+         return this.state >= DONE;
+      }
+
+      /* (non-Javadoc)
+       * @see java.util.concurrent.Future#get()
+       */
+      @Override
+      public Void get() throws InterruptedException, ExecutionException
+      {
+         this.done.await();
+         return this.getOutcome();
+      }
+
+      /* (non-Javadoc)
+       * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+       */
+      @Override
+      public Void get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException
+      {
+         if (!this.done.await(timeout, unit))
+         {
+            throw new TimeoutException();
+         }
+         return this.getOutcome();
+      }
+
+      private Void getOutcome() throws ExecutionException
+      {
+         if (this.state == CANCELLED)
+         {
+            throw new CancellationException();
+         }
+         if (this.failure != null)
+         {
+            throw new ExecutionException(this.failure);
+         }
+         return null;
+      }
+   }
+}
@@ -21,18 +21,17 @@
  */
 package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
 
-import java.util.logging.Level;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Local;
 import javax.ejb.Stateless;
 import javax.jms.JMSException;
 import javax.jms.Queue;
-import javax.jms.QueueConnection;
-import javax.jms.QueueConnectionFactory;
-import javax.jms.QueueSender;
-import javax.jms.QueueSession;
 import javax.jms.TextMessage;
 
 import org.jboss.ejb3.examples.ch08.messagedestinationlink.api.MessageDestinationLinkConstants;
@@ -72,10 +71,12 @@ public class MessageSendingBean implements MessageSendingBusiness
    private Queue queue;
 
    /**
-    * Connection factory for making new Queue connections
+    * Shared connection and cached sessions through which we send; making
+    * a connection, session and sender for each message would cost several
+    * round trips to the broker
     */
-   @Resource(name = MessageDestinationLinkConstants.JNDI_NAME_CONNECTION_FACTORY, mappedName = MessageDestinationLinkConstants.JNDI_NAME_CONNECTION_FACTORY)
-   private QueueConnectionFactory connectionFactory;
+   @EJB
+   private QueueSenderPoolBean senderPool;
 
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
@@ -94,77 +95,108 @@ public class MessageSendingBean implements MessageSendingBusiness
          throw new IllegalArgumentException("contents must be specified");
       }
 
-      // Create a connection
-      final QueueConnection connection;
+      // Send upon the shared connection
       try
       {
-         connection = connectionFactory.createQueueConnection();
+         senderPool.send(queue, contents);
+         log.info("Sent to MDB: " + contents);
       }
       catch (final JMSException jmse)
       {
-         throw new RuntimeException("Could not create new connection", jmse);
+         throw new RuntimeException("Could not send message", jmse);
       }
+   }
 
-      // Create a session
-      final QueueSession session;
-      try
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb.MessageSendingBusiness#sendMessages(java.util.List)
+    */
+   @Override
+   public void sendMessages(final List<String> contents) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (contents == null || contents.isEmpty())
       {
-         session = connection.createQueueSession(false, QueueSession.AUTO_ACKNOWLEDGE);
+         throw new IllegalArgumentException("contents must be specified");
       }
-      catch (final JMSException jmse)
+      for (final String content : contents)
       {
-         throw new RuntimeException("Could not create new session", jmse);
+         if (content == null || content.length() == 0)
+         {
+            throw new IllegalArgumentException("each of contents must be specified");
+         }
       }
 
-      // Create a sender
-      final QueueSender sender;
+      // Send in one transaction
       try
       {
-         sender = session.createSender(queue);
+         senderPool.send(queue, contents);
+         log.info("Sent " + contents.size() + " message(s) to MDB in one batch");
       }
       catch (final JMSException jmse)
       {
-         throw new RuntimeException("Could not create new sender", jmse);
+         throw new RuntimeException("Could not send messages", jmse);
       }
+   }
 
-      // Create a message
-      final TextMessage message;
-      try
-      {
-         message = session.createTextMessage(contents);
-      }
-      catch (final JMSException jmse)
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb.MessageSendingBusiness#sendMessage(java.lang.String, int, long)
+    */
+   @Override
+   public void sendMessage(final String contents, final int maxBatchSize, final long lingerMillis)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (contents == null || contents.length() == 0)
       {
-         throw new RuntimeException("Could not create new message", jmse);
+         throw new IllegalArgumentException("contents must be specified");
       }
 
-      // Send
+      // Send in a batch shared with concurrent callers
       try
       {
-         sender.send(message);
-         log.info("Sent to MDB: " + message);
+         senderPool.send(queue, contents, maxBatchSize, lingerMillis);
+         log.fine("Sent to MDB in a batch: " + contents);
       }
       catch (final JMSException jmse)
       {
          throw new RuntimeException("Could not send message", jmse);
       }
-      
-      try
-      {
-         session.close();
-      }
-      catch (JMSException ex)
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb.MessageSendingBusiness#sendMessageAsync(java.lang.String)
+    */
+   @Override
+   public Future<Void> sendMessageAsync(final String contents) throws IllegalArgumentException,
+         RejectedExecutionException
+   {
+      // Precondition checks
+      if (contents == null || contents.length() == 0)
       {
-         Logger.getLogger(MessageSendingBean.class.getName()).log(Level.SEVERE, null, ex);
+         throw new IllegalArgumentException("contents must be specified");
       }
+
+      // Hand off to the outbox
       try
       {
-         connection.close();
+         return senderPool.sendAsync(queue, contents);
       }
-      catch (JMSException ex)
+      catch (final JMSException jmse)
       {
-         Logger.getLogger(MessageSendingBean.class.getName()).log(Level.SEVERE, null, ex);
+         throw new RuntimeException("Could not put message into the outbox", jmse);
       }
+   }
 
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb.MessageSendingBusiness#getBatchStatistics()
+    */
+   @Override
+   public BatchStatistics getBatchStatistics()
+   {
+      return senderPool.getBatchStatistics();
    }
 }
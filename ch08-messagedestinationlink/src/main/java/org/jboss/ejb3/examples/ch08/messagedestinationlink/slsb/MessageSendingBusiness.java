@@ -21,6 +21,10 @@
  */
 package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
 
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.jms.TextMessage;
 
 /**
@@ -58,4 +62,49 @@ public interface MessageSendingBusiness
     * @throws IllegalArgumentException If the contents are not specified
     */
    void sendMessage(String contents) throws IllegalArgumentException;
+
+   /**
+    * Sends a {@link TextMessage} for each of the specified contents, in order, to the 
+    * message destination link as configured by ejb-jar.xml, committed together
+    * in one transaction
+    * 
+    * @throws IllegalArgumentException If the contents are not specified, or any is empty
+    */
+   void sendMessages(List<String> contents) throws IllegalArgumentException;
+
+   /**
+    * Sends a {@link TextMessage} with the specified contents to the
+    * message destination link as configured by ejb-jar.xml, in a batch shared 
+    * with concurrent callers.  The batch is committed once it holds as many 
+    * messages as the least maximum asked for by its callers, or once the shortest
+    * linger time among them has passed, whichever is sooner; this call returns 
+    * once it has been.  Both limits are capped by the container.
+    * 
+    * @param contents
+    * @param maxBatchSize Most messages committed together with this one
+    * @param lingerMillis Longest time to wait for more messages
+    * @throws IllegalArgumentException If the contents are not specified, the batch
+    *   size is not positive, or the linger time is negative
+    */
+   void sendMessage(String contents, int maxBatchSize, long lingerMillis) throws IllegalArgumentException;
+
+   /**
+    * Puts a {@link TextMessage} with the specified contents into an in-memory outbox,
+    * to be sent to the message destination link as configured by ejb-jar.xml
+    * by a dedicated sender thread.  Returns without waiting upon the broker, unless
+    * the outbox is full and configured to block.
+    * 
+    * @return A {@link Future} completed once the message has been sent, or failed 
+    *   if it could not be; cancelled if the outbox was full and configured to drop
+    * @throws IllegalArgumentException If the contents are not specified
+    * @throws RejectedExecutionException If the outbox is full and configured to fail
+    */
+   Future<Void> sendMessageAsync(String contents) throws IllegalArgumentException, RejectedExecutionException;
+
+   /**
+    * Obtains the sizes of the batches committed so far, by either of 
+    * {@link MessageSendingBusiness#sendMessages(List)} or 
+    * {@link MessageSendingBusiness#sendMessage(String, int, long)}
+    */
+   BatchStatistics getBatchStatistics();
 }
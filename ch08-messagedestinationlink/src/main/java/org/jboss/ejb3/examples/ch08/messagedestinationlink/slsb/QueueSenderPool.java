@@ -0,0 +1,598 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.TransactionRolledBackException;
+
+/**
+ * Thread-safe means of sending JMS messages which shares one 
+ * {@link QueueConnection} among all callers, and keeps idle 
+ * {@link QueueSession}s (each with an unidentified {@link QueueSender})
+ * for reuse, so that a send costs no more than the send itself.  As 
+ * sessions may not be used concurrently, each is lent to one caller at a time.
+ * 
+ * Should the connection fail, as reported to its {@link ExceptionListener}
+ * or by a send failing as the session or connection is no longer usable, it's 
+ * replaced, and the next caller connects anew; the failed connection is closed
+ * once all sessions lent out from it have been given back, so that callers still 
+ * sending upon it aren't cut off.  A send failing for want of the connection is 
+ * retried once upon a new one only where the broker can't have taken it: the 
+ * failure came before the message was handed to the connection, or the messages 
+ * were to be committed together and the failure came before the commit.  A single
+ * message which may have reached the broker, or a batch which may have been 
+ * committed, is not sent again, lest it be delivered twice.  A send failing for 
+ * any other reason, such as a bad destination or message, affects only its own 
+ * session, and is not retried.
+ * 
+ * A list of messages may be sent as one batch upon a transacted session, such
+ * that the broker commits (and syncs to disk) once for the whole batch rather 
+ * than once for each message.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class QueueSenderPool
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(QueueSenderPool.class.getName());
+
+   /**
+    * Number of times a send is attempted before giving up
+    */
+   private static final int MAX_ATTEMPTS = 2;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Factory from which we make the shared connection
+    */
+   private final QueueConnectionFactory connectionFactory;
+
+   /**
+    * Sessions not presently lent out, most recently used first
+    */
+   private final BlockingDeque<PooledSession> idleSessions;
+
+   /**
+    * Transacted sessions not presently lent out, most recently used first
+    */
+   private final BlockingDeque<PooledSession> idleTransactedSessions;
+
+   /**
+    * Guards replacement of the shared connection
+    */
+   private final Object connectionLock = new Object();
+
+   /**
+    * The shared connection, or null if not yet made
+    */
+   private volatile PooledConnection connection;
+
+   /**
+    * Whether we've been closed
+    */
+   private volatile boolean closed;
+
+   /**
+    * Number of connections made over our lifetime
+    */
+   private final AtomicInteger connectionsCreated = new AtomicInteger();
+
+   /**
+    * Number of sessions made over our lifetime
+    */
+   private final AtomicInteger sessionsCreated = new AtomicInteger();
+
+   /**
+    * Number of batches committed over our lifetime
+    */
+   private final AtomicLong batchesSent = new AtomicLong();
+
+   /**
+    * Number of messages committed in batches over our lifetime
+    */
+   private final AtomicLong batchedMessagesSent = new AtomicLong();
+
+   /**
+    * Size of the largest batch committed
+    */
+   private final AtomicInteger largestBatch = new AtomicInteger();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new pool which will connect lazily, upon the first send
+    * 
+    * @param connectionFactory
+    * @param maxIdleSessions The most sessions of each kind (transacted or not)
+    *   kept for reuse; those returned beyond this are closed
+    * @throws IllegalArgumentException If the connection factory is not specified, 
+    *   or the maximum idle sessions is not positive
+    */
+   public QueueSenderPool(final QueueConnectionFactory connectionFactory, final int maxIdleSessions)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (connectionFactory == null)
+      {
+         throw new IllegalArgumentException("connectionFactory must be specified");
+      }
+      if (maxIdleSessions <= 0)
+      {
+         throw new IllegalArgumentException("maxIdleSessions must be positive, was: " + maxIdleSessions);
+      }
+
+      this.connectionFactory = connectionFactory;
+      this.idleSessions = new LinkedBlockingDeque<PooledSession>(maxIdleSessions);
+      this.idleTransactedSessions = new LinkedBlockingDeque<PooledSession>(maxIdleSessions);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends a text message with the specified contents to the specified queue
+    * 
+    * @param queue
+    * @param contents
+    * @throws JMSException If the message could not be sent, even upon a new connection
+    */
+   public void send(final Queue queue, final String contents) throws JMSException
+   {
+      this.send(queue, Collections.singletonList(contents), false);
+   }
+
+   /**
+    * Sends text messages with the specified contents to the specified queue, in order,
+    * committed together in one transaction
+    *
+    * @param queue
+    * @param contents
+    * @throws JMSException If the messages could not be sent, even upon a new connection;
+    *   none will have been delivered unless it was the commit itself which failed
+    */
+   public void send(final Queue queue, final List<String> contents) throws JMSException
+   {
+      if (contents.isEmpty())
+      {
+         return;
+      }
+      this.send(queue, contents, true);
+
+      // Record the batch
+      this.batchesSent.incrementAndGet();
+      this.batchedMessagesSent.addAndGet(contents.size());
+      int largest;
+      while ((largest = this.largestBatch.get()) < contents.size()
+            && !this.largestBatch.compareAndSet(largest, contents.size()))
+      {
+         // Lost a race with another batch; look again
+      }
+   }
+
+   /**
+    * Obtains the sizes of the batches committed so far
+    */
+   public BatchStatistics getBatchStatistics()
+   {
+      return new BatchStatistics(this.batchesSent.get(), this.batchedMessagesSent.get(), this.largestBatch.get());
+   }
+
+   /**
+    * Closes all idle sessions, and the shared connection once the sessions lent out 
+    * from it are given back; subsequent sends will fail
+    */
+   public void close()
+   {
+      synchronized (this.connectionLock)
+      {
+         this.closed = true;
+         if (this.connection != null)
+         {
+            this.connection.retire();
+            this.connection = null;
+         }
+      }
+      for (final BlockingDeque<PooledSession> idleSessions : Arrays.asList(this.idleSessions,
+            this.idleTransactedSessions))
+      {
+         PooledSession session;
+         while ((session = idleSessions.poll()) != null)
+         {
+            session.close();
+         }
+      }
+   }
+
+   /**
+    * Obtains the number of connections made over the lifetime of this pool
+    */
+   public int getConnectionsCreated()
+   {
+      return this.connectionsCreated.get();
+   }
+
+   /**
+    * Obtains the number of sessions made over the lifetime of this pool
+    */
+   public int getSessionsCreated()
+   {
+      return this.sessionsCreated.get();
+   }
+
+   /**
+    * Obtains the number of sessions, transacted or not, presently kept for reuse
+    */
+   public int getIdleSessions()
+   {
+      return this.idleSessions.size() + this.idleTransactedSessions.size();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends text messages with the specified contents upon a session
+    * of the specified kind, committing them if it's transacted
+    */
+   private void send(final Queue queue, final List<String> contents, final boolean transacted) throws JMSException
+   {
+      for (int attempt = 1;; attempt++)
+      {
+         PooledSession session = null;
+         boolean issued = false;
+         boolean committing = false;
+         try
+         {
+            session = this.borrow(transacted);
+            for (final String content : contents)
+            {
+               final TextMessage message = session.session.createTextMessage(content);
+               issued = true;
+               session.sender.send(queue, message);
+            }
+            if (transacted)
+            {
+               committing = true;
+               session.session.commit();
+            }
+            this.release(session);
+            return;
+         }
+         catch (final JMSException jmse)
+         {
+            // Only a failed connection is replaced; a session that failed is discarded, which 
+            // for a transacted session rolls back whatever it had sent
+            final boolean connectionFailed = session == null || !session.connection.valid
+                  || jmse instanceof IllegalStateException;
+            if (session != null)
+            {
+               if (connectionFailed)
+               {
+                  session.connection.invalidate();
+               }
+               this.discard(session);
+            }
+            if (!connectionFailed)
+            {
+               // Fault of the message or destination, which won't be helped by sending again
+               throw jmse;
+            }
+            if (issued && !transacted)
+            {
+               // The broker may have the message, so sending it again could deliver it twice
+               throw jmse;
+            }
+            if (committing && !(jmse instanceof TransactionRolledBackException))
+            {
+               // The broker may have committed the batch, so sending it again could deliver it twice
+               throw jmse;
+            }
+            if (attempt == MAX_ATTEMPTS)
+            {
+               throw jmse;
+            }
+            log.log(Level.WARNING, "Could not send message(s) upon a failed connection; retrying upon a new one",
+                  jmse);
+         }
+      }
+   }
+
+   /**
+    * Obtains the idle sessions of the specified kind
+    */
+   private BlockingDeque<PooledSession> getIdleDeque(final boolean transacted)
+   {
+      return transacted ? this.idleTransactedSessions : this.idleSessions;
+   }
+
+   /**
+    * Lends out an idle session of the specified kind made from a healthy 
+    * connection, or failing that a new one
+    */
+   private PooledSession borrow(final boolean transacted) throws JMSException
+   {
+      final BlockingDeque<PooledSession> idleSessions = this.getIdleDeque(transacted);
+      PooledSession session;
+      while ((session = idleSessions.pollFirst()) != null)
+      {
+         // Count the loan before checking, such that a connection retired meanwhile waits for it
+         session.connection.lend();
+         if (session.connection.valid)
+         {
+            return session;
+         }
+         this.discard(session);
+      }
+
+      final PooledConnection connection = this.getConnection();
+      connection.lend();
+      try
+      {
+         session = new PooledSession(connection, transacted);
+      }
+      catch (final JMSException jmse)
+      {
+         connection.invalidate();
+         connection.giveBack();
+         throw jmse;
+      }
+      this.sessionsCreated.incrementAndGet();
+      return session;
+   }
+
+   /**
+    * Takes back a session for reuse, closing it if it may not be reused
+    * or we already hold as many as we'll keep
+    */
+   private void release(final PooledSession session)
+   {
+      if (this.closed || !session.connection.valid || !this.getIdleDeque(session.transacted).offerFirst(session))
+      {
+         session.close();
+      }
+      session.connection.giveBack();
+   }
+
+   /**
+    * Closes a session lent out, rather than taking it back
+    */
+   private void discard(final PooledSession session)
+   {
+      session.close();
+      session.connection.giveBack();
+   }
+
+   /**
+    * Obtains the shared connection, replacing it if it's failed
+    */
+   private PooledConnection getConnection() throws JMSException
+   {
+      PooledConnection connection = this.connection;
+      if (connection != null && connection.valid)
+      {
+         return connection;
+      }
+      synchronized (this.connectionLock)
+      {
+         connection = this.connection;
+         if (connection != null && connection.valid)
+         {
+            return connection;
+         }
+         if (this.closed)
+         {
+            throw new IllegalStateException("Pool has been closed");
+         }
+         if (connection != null)
+         {
+            connection.retire();
+         }
+         connection = new PooledConnection(this.connectionFactory.createQueueConnection());
+         this.connection = connection;
+         final int created = this.connectionsCreated.incrementAndGet();
+         if (created > 1)
+         {
+            log.info("Reconnected to replace a failed connection");
+         }
+         return connection;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A connection shared by all sessions of the pool, which is marked
+    * invalid once it's known to have failed, and closed once retired and 
+    * all sessions lent out from it have been given back
+    */
+   private static final class PooledConnection implements ExceptionListener
+   {
+      private final QueueConnection connection;
+
+      private volatile boolean valid = true;
+
+      /**
+       * Sessions made from this connection presently lent out
+       */
+      private final AtomicInteger lent = new AtomicInteger();
+
+      /**
+       * Whether no more sessions will be lent out from this connection
+       */
+      private volatile boolean retired;
+
+      /**
+       * Whether the underlying connection has been closed
+       */
+      private final AtomicBoolean closed = new AtomicBoolean();
+
+      PooledConnection(final QueueConnection connection) throws JMSException
+      {
+         this.connection = connection;
+         try
+         {
+            connection.setExceptionListener(this);
+         }
+         catch (final JMSException jmse)
+         {
+            this.close();
+            throw jmse;
+         }
+      }
+
+      /* (non-Javadoc)
+       * @see javax.jms.ExceptionListener#onException(javax.jms.JMSException)
+       */
+      @Override
+      public void onException(final JMSException jmse)
+      {
+         log.log(Level.WARNING, "Connection has failed", jmse);
+         this.invalidate();
+      }
+
+      void invalidate()
+      {
+         this.valid = false;
+      }
+
+      void lend()
+      {
+         this.lent.incrementAndGet();
+      }
+
+      void giveBack()
+      {
+         if (this.lent.decrementAndGet() == 0 && this.retired)
+         {
+            this.close();
+         }
+      }
+
+      /**
+       * Lends out no more sessions, closing once those lent out are given back
+       */
+      void retire()
+      {
+         this.invalidate();
+         this.retired = true;
+         if (this.lent.get() == 0)
+         {
+            this.close();
+         }
+      }
+
+      void close()
+      {
+         this.invalidate();
+         if (!this.closed.compareAndSet(false, true))
+         {
+            return;
+         }
+         try
+         {
+            this.connection.close();
+         }
+         catch (final JMSException jmse)
+         {
+            log.log(Level.FINE, "Could not close connection", jmse);
+         }
+      }
+   }
+
+   /**
+    * A session, transacted or not, and unidentified sender made from the shared connection
+    */
+   private static final class PooledSession
+   {
+      private final PooledConnection connection;
+
+      private final QueueSession session;
+
+      private final QueueSender sender;
+
+      private final boolean transacted;
+
+      PooledSession(final PooledConnection connection, final boolean transacted) throws JMSException
+      {
+         this.connection = connection;
+         this.transacted = transacted;
+         this.session = connection.connection.createQueueSession(transacted, Session.AUTO_ACKNOWLEDGE);
+         try
+         {
+            this.sender = this.session.createSender(null);
+         }
+         catch (final JMSException jmse)
+         {
+            this.close();
+            throw jmse;
+         }
+      }
+
+      void close()
+      {
+         try
+         {
+            this.session.close();
+         }
+         catch (final JMSException jmse)
+         {
+            log.log(Level.FINE, "Could not close session", jmse);
+         }
+      }
+   }
+}
@@ -0,0 +1,368 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueConnectionFactory;
+
+import org.jboss.ejb3.examples.ch08.messagedestinationlink.api.MessageDestinationLinkConstants;
+
+/**
+ * Singleton EJB holding the {@link QueueSenderPool} shared by all instances of
+ * the {@link MessageSendingBean}, such that a send made from any of them
+ * reuses one connection and a cached session.  The pool is itself thread-safe,
+ * so we leave concurrency to it rather than to the container.
+ * 
+ * Also holds a {@link MessageBatcher} for each queue, such that concurrent senders
+ * share batches whatever batch size and linger time each asks for; those are
+ * capped, so that no caller may hold a batch open, or its senders waiting, 
+ * for long.
+ * 
+ * Asynchronous sends are put into a {@link MessageOutbox} for each queue, holding
+ * as many messages as the "outboxCapacity" env-entry allows; the "outboxOverflowPolicy"
+ * env-entry names the {@link OverflowPolicy} applied once it's full.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class QueueSenderPoolBean
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(QueueSenderPoolBean.class.getName());
+
+   /**
+    * Most sessions kept for reuse; enough for as many concurrent senders
+    * as we'd expect of a default SLSB pool
+    */
+   private static final int MAX_IDLE_SESSIONS = 20;
+
+   /**
+    * Name of the environment entry for the most messages held by an outbox
+    */
+   private static final String ENV_ENTRY_NAME_OUTBOX_CAPACITY = "outboxCapacity";
+
+   /**
+    * Name of the environment entry naming the {@link OverflowPolicy} of an outbox
+    */
+   private static final String ENV_ENTRY_NAME_OUTBOX_OVERFLOW_POLICY = "outboxOverflowPolicy";
+
+   /**
+    * Default most messages held by an outbox
+    */
+   private static final int DEFAULT_OUTBOX_CAPACITY = 10000;
+
+   /**
+    * Default {@link OverflowPolicy} of an outbox
+    */
+   private static final OverflowPolicy DEFAULT_OUTBOX_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+
+   /**
+    * Most messages an outbox sends together
+    */
+   private static final int OUTBOX_MAX_DRAIN = 100;
+
+   /**
+    * Longest time, in seconds, we wait upon shutdown for an outbox to be sent
+    */
+   private static final int OUTBOX_CLOSE_TIMEOUT_SECONDS = 10;
+
+   /**
+    * Most messages a sender may ask to have committed together
+    */
+   private static final int MAX_BATCH_SIZE = 1000;
+
+   /**
+    * Longest time, in milliseconds, a sender may ask a batch to wait for more messages
+    */
+   private static final long MAX_LINGER_MILLIS = 1000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Connection factory for making the shared Queue connection
+    */
+   @Resource(name = MessageDestinationLinkConstants.JNDI_NAME_CONNECTION_FACTORY, mappedName = MessageDestinationLinkConstants.JNDI_NAME_CONNECTION_FACTORY)
+   private QueueConnectionFactory connectionFactory;
+
+   /**
+    * Most messages held by an outbox, from the env-entry, or null for the default
+    */
+   @Resource(name = ENV_ENTRY_NAME_OUTBOX_CAPACITY)
+   private Integer outboxCapacity;
+
+   /**
+    * Name of the {@link OverflowPolicy} of an outbox, from the env-entry, or null for the default
+    */
+   @Resource(name = ENV_ENTRY_NAME_OUTBOX_OVERFLOW_POLICY)
+   private String outboxOverflowPolicy;
+
+   /**
+    * The pool, created once we've been injected
+    */
+   private QueueSenderPool pool;
+
+   /**
+    * Batchers, keyed by queue name
+    */
+   private final ConcurrentMap<String, MessageBatcher> batchers = new ConcurrentHashMap<String, MessageBatcher>();
+
+   /**
+    * Sends batches which have lingered long enough
+    */
+   private ScheduledExecutorService batchScheduler;
+
+   /**
+    * Outboxes, keyed by queue name
+    */
+   private final ConcurrentMap<String, MessageOutbox> outboxes = new ConcurrentHashMap<String, MessageOutbox>();
+
+   /**
+    * Most messages held by an outbox, as resolved from the env-entry
+    */
+   private int resolvedOutboxCapacity;
+
+   /**
+    * {@link OverflowPolicy} of an outbox, as resolved from the env-entry
+    */
+   private OverflowPolicy resolvedOutboxOverflowPolicy;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the pool; connecting is deferred until the first send
+    */
+   @PostConstruct
+   void createPool()
+   {
+      this.pool = new QueueSenderPool(this.connectionFactory, MAX_IDLE_SESSIONS);
+
+      // Resolve the outbox configuration
+      this.resolvedOutboxCapacity = this.outboxCapacity == null ? DEFAULT_OUTBOX_CAPACITY : this.outboxCapacity;
+      if (this.resolvedOutboxCapacity <= 0)
+      {
+         throw new IllegalStateException(ENV_ENTRY_NAME_OUTBOX_CAPACITY + " must be positive: "
+               + this.resolvedOutboxCapacity);
+      }
+      try
+      {
+         this.resolvedOutboxOverflowPolicy = this.outboxOverflowPolicy == null ? DEFAULT_OUTBOX_OVERFLOW_POLICY
+               : OverflowPolicy.valueOf(this.outboxOverflowPolicy.trim().toUpperCase());
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         throw new IllegalStateException("Unknown " + ENV_ENTRY_NAME_OUTBOX_OVERFLOW_POLICY + ": "
+               + this.outboxOverflowPolicy);
+      }
+      log.info("Outboxes hold up to " + this.resolvedOutboxCapacity + " message(s), then "
+            + this.resolvedOutboxOverflowPolicy);
+      this.batchScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable runnable)
+         {
+            final Thread thread = new Thread(runnable, "MessageBatchScheduler");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      log.info("Created pool keeping up to " + MAX_IDLE_SESSIONS + " idle session(s)");
+   }
+
+   /**
+    * Closes the shared connection and its sessions
+    */
+   @PreDestroy
+   void closePool()
+   {
+      // Send what's been gathered before closing
+      for (final MessageBatcher batcher : this.batchers.values())
+      {
+         batcher.flush();
+      }
+      for (final MessageOutbox outbox : this.outboxes.values())
+      {
+         try
+         {
+            if (!outbox.close(OUTBOX_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+               log.warning("Closing with " + outbox.getDepth() + " message(s) unsent in an outbox");
+            }
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            log.warning("Interrupted while waiting for an outbox to be sent");
+         }
+      }
+      this.batchScheduler.shutdownNow();
+      this.pool.close();
+      log.info("Closed pool after making " + this.pool.getConnectionsCreated() + " connection(s) and "
+            + this.pool.getSessionsCreated() + " session(s)");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends a text message with the specified contents to the specified queue
+    * upon the shared connection
+    * 
+    * @param queue
+    * @param contents
+    * @throws JMSException If the message could not be sent
+    * @see QueueSenderPool#send(Queue, String)
+    */
+   public void send(final Queue queue, final String contents) throws JMSException
+   {
+      this.pool.send(queue, contents);
+   }
+
+   /**
+    * Sends text messages with the specified contents to the specified queue, 
+    * committed together in one transaction
+    * 
+    * @param queue
+    * @param contents
+    * @throws JMSException If the messages could not be sent
+    * @see QueueSenderPool#send(Queue, List)
+    */
+   public void send(final Queue queue, final List<String> contents) throws JMSException
+   {
+      this.pool.send(queue, contents);
+   }
+
+   /**
+    * Sends a text message with the specified contents to the specified queue 
+    * in a batch shared with concurrent senders, returning once the batch has 
+    * been committed.  The batch size and linger time are capped at 
+    * {@link #MAX_BATCH_SIZE} and {@link #MAX_LINGER_MILLIS}.
+    * 
+    * @param queue
+    * @param contents
+    * @param maxBatchSize
+    * @param lingerMillis
+    * @throws JMSException If the batch could not be sent
+    * @throws IllegalArgumentException If the batch size is not positive or the linger time negative
+    * @see MessageBatcher
+    */
+   public void send(final Queue queue, final String contents, final int maxBatchSize, final long lingerMillis)
+         throws JMSException, IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxBatchSize <= 0)
+      {
+         throw new IllegalArgumentException("maxBatchSize must be positive, was: " + maxBatchSize);
+      }
+      if (lingerMillis < 0)
+      {
+         throw new IllegalArgumentException("lingerMillis must not be negative, was: " + lingerMillis);
+      }
+
+      final String key = queue.getQueueName();
+      MessageBatcher batcher = this.batchers.get(key);
+      if (batcher == null)
+      {
+         final MessageBatcher created = new MessageBatcher(this.pool, queue, this.batchScheduler);
+         batcher = this.batchers.putIfAbsent(key, created);
+         if (batcher == null)
+         {
+            batcher = created;
+         }
+      }
+      batcher.send(contents, Math.min(maxBatchSize, MAX_BATCH_SIZE), Math.min(lingerMillis, MAX_LINGER_MILLIS));
+   }
+
+   /**
+    * Puts a text message with the specified contents into the outbox for the
+    * specified queue, returning without waiting for it to be sent
+    * 
+    * @param queue
+    * @param contents
+    * @return A {@link Future} completed once the message has been sent
+    * @throws JMSException If the queue could not be named
+    * @throws RejectedExecutionException If the outbox is full and its policy is to 
+    *   {@link OverflowPolicy#FAIL}
+    * @see MessageOutbox
+    */
+   public Future<Void> sendAsync(final Queue queue, final String contents) throws JMSException,
+         RejectedExecutionException
+   {
+      final String key = queue.getQueueName();
+      MessageOutbox outbox = this.outboxes.get(key);
+      if (outbox == null)
+      {
+         synchronized (this.outboxes)
+         {
+            // Don't start a sender thread only to throw it away
+            outbox = this.outboxes.get(key);
+            if (outbox == null)
+            {
+               outbox = new MessageOutbox(this.pool, queue, this.resolvedOutboxCapacity,
+                     this.resolvedOutboxOverflowPolicy, OUTBOX_MAX_DRAIN);
+               this.outboxes.put(key, outbox);
+            }
+         }
+      }
+      return outbox.send(contents);
+   }
+
+   /**
+    * Obtains the sizes of the batches committed so far
+    */
+   public BatchStatistics getBatchStatistics()
+   {
+      return this.pool.getBatchStatistics();
+   }
+}
@@ -117,8 +117,9 @@ public class MessageDestinationLinkIntegrationTest
       final MessageSendingBusiness bean = (MessageSendingBusiness) NAMING_CONTEXT
             .lookup(MessageSendingBusiness.NAME_JNDI);
 
-      // Send a message
+      // Send a message, noting how many the MDB had received before
       final String message = "Testing Message Linking";
+      final long receivedBefore = MessageDestinationLinkMdb.RECEIVED.getReceived();
       bean.sendMessage(message);
 
       // Wait for the MDB to process, as it's doing so in another Thread.
@@ -127,7 +128,7 @@ public class MessageDestinationLinkIntegrationTest
       try
       {
          log.info("Waiting on the MDB...");
-         processed = MessageDestinationLinkMdb.LATCH.await(10, TimeUnit.SECONDS);
+         processed = MessageDestinationLinkMdb.RECEIVED.awaitReceived(receivedBefore + 1, 10, TimeUnit.SECONDS);
       }
       catch (final InterruptedException e)
       {
@@ -145,7 +146,7 @@ public class MessageDestinationLinkIntegrationTest
       log.info("MDB signaled it's done processing, so we can resume");
 
       // Ensure the contents are as expected
-      final String roundtrip = MessageDestinationLinkMdb.LAST_MESSAGE;
+      final String roundtrip = MessageDestinationLinkMdb.RECEIVED.getLast().getContents();
       TestCase.assertEquals("Last message sent was not as expected", message, roundtrip);
    }
 
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.mdb;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.messagedestinationlink.api.MessageDestinationLinkConstants;
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.jboss.ejb3.examples.testsupport.metrics.MessageMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link MessageMetrics} and {@link ReceiveTracker} recorded by the 
+ * {@link MessageDestinationLinkMdb} as it consumes from an {@link EmbeddedBroker}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageDestinationLinkMdbUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name of the queue
+    */
+   private static final String QUEUE_NAME = "MessageDestinationLinkQueue";
+
+   /**
+    * Messages sent
+    */
+   private static final int MESSAGES = 10;
+
+   /**
+    * Time to wait upon consumption
+    */
+   private static final long TIMEOUT_MILLIS = 10000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EmbeddedBroker broker;
+
+   private Queue queue;
+
+   private MBeanServer server;
+
+   private ObjectName name;
+
+   /**
+    * Metrics of the MDB, held such that they stay registered between the instances we make
+    */
+   private MessageMetrics metrics;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void startBroker() throws Exception
+   {
+      broker = new EmbeddedBroker();
+      broker.start();
+      queue = broker.createQueue(QUEUE_NAME);
+
+      // Obtain the metrics of the MDB, so registering them, then forget anything recorded by other tests
+      server = ManagementFactory.getPlatformMBeanServer();
+      name = new ObjectName(MessageMetrics.OBJECT_NAME_PREFIX + ",destination="
+            + ObjectName.quote(MessageDestinationLinkConstants.NAME_MESSAGE_DESTINATION_LINK_REF) + ",consumer="
+            + ObjectName.quote(MessageDestinationLinkMdb.NAME_EJB));
+      metrics = MessageMetrics.getInstance(MessageDestinationLinkConstants.NAME_MESSAGE_DESTINATION_LINK_REF,
+            MessageDestinationLinkMdb.NAME_EJB);
+      server.invoke(name, "reset", null, null);
+   }
+
+   @After
+   public void stopBroker() throws Exception
+   {
+      metrics.release();
+      broker.stop();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures consumption, latency, processing time and failures are readable from the MBean
+    */
+   @Test
+   public void testMetrics() throws Exception
+   {
+      final QueueConnection connection = broker.getConnectionFactory().createQueueConnection();
+      try
+      {
+         final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+         session.createReceiver(queue).setMessageListener(new MessageDestinationLinkMdb());
+         connection.start();
+
+         final QueueSession sendSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+         final QueueSender sender = sendSession.createSender(queue);
+         for (int i = 0; i < MESSAGES; i++)
+         {
+            sender.send(sendSession.createTextMessage("Message " + i));
+         }
+
+         // Wait upon consumption
+         final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+         while ((Long) server.getAttribute(name, "Consumed") < MESSAGES && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(10);
+         }
+         TestCase.assertEquals(Long.valueOf(MESSAGES), server.getAttribute(name, "Consumed"));
+         TestCase.assertEquals(0L, server.getAttribute(name, "Failed"));
+         final long maxLatency = (Long) server.getAttribute(name, "QueueLatencyMaxMicros");
+         TestCase.assertTrue("Queue latency beyond the test: " + maxLatency + "us", maxLatency <= TimeUnit.MILLISECONDS
+               .toMicros(TIMEOUT_MILLIS));
+         TestCase.assertTrue((Long) server.getAttribute(name, "ProcessingTimeMedianMicros") > 0);
+
+         // A message of the wrong type fails, and is counted by type, but not as consumed
+         final MessageDestinationLinkMdb mdb = new MessageDestinationLinkMdb();
+         try
+         {
+            mdb.onMessage(sendSession.createObjectMessage("Wrong type"));
+            TestCase.fail("Message of the wrong type should fail");
+         }
+         catch (final IllegalArgumentException expected)
+         {
+            // Good
+         }
+         finally
+         {
+            mdb.releaseMetrics();
+         }
+         TestCase.assertEquals(1L, server.getAttribute(name, "Failed"));
+         TestCase.assertEquals(Long.valueOf(MESSAGES), server.getAttribute(name, "Consumed"));
+         @SuppressWarnings("unchecked")
+         final Map<String, Long> failures = (Map<String, Long>) server.getAttribute(name, "FailuresByType");
+         TestCase.assertEquals(Long.valueOf(1), failures.get(IllegalArgumentException.class.getName()));
+      }
+      finally
+      {
+         connection.close();
+      }
+   }
+
+   /**
+    * Ensures the messages received may be awaited and seen, in order
+    */
+   @Test
+   public void testReceived() throws Exception
+   {
+      final QueueConnection connection = broker.getConnectionFactory().createQueueConnection();
+      try
+      {
+         final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+         session.createReceiver(queue).setMessageListener(new MessageDestinationLinkMdb());
+         connection.start();
+
+         // Send, noting how many were received before
+         final long receivedBefore = MessageDestinationLinkMdb.RECEIVED.getReceived();
+         final QueueSession sendSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+         final QueueSender sender = sendSession.createSender(queue);
+         for (int i = 0; i < MESSAGES; i++)
+         {
+            sender.send(sendSession.createTextMessage("Received " + i));
+         }
+
+         TestCase.assertTrue("MDB did not receive the messages in time", MessageDestinationLinkMdb.RECEIVED
+               .awaitReceived(receivedBefore + MESSAGES, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+         TestCase.assertEquals("Received " + (MESSAGES - 1), MessageDestinationLinkMdb.RECEIVED.getLast()
+               .getContents());
+         final List<ReceiveTracker.ReceivedMessage> recent = MessageDestinationLinkMdb.RECEIVED.getRecent();
+         final List<ReceiveTracker.ReceivedMessage> sent = recent.subList(recent.size() - MESSAGES, recent.size());
+         for (int i = 0; i < MESSAGES; i++)
+         {
+            TestCase.assertEquals("Received " + i, sent.get(i).getContents());
+         }
+      }
+      finally
+      {
+         connection.close();
+      }
+   }
+}
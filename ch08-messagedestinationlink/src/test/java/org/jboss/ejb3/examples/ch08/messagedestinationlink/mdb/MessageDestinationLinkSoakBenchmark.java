@@ -0,0 +1,257 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.mdb;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb.MessageSendingBean;
+import org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb.QueueSenderPoolBean;
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.jboss.ejb3.examples.testsupport.load.LoadGenerator;
+import org.jboss.ejb3.examples.testsupport.load.LoadReport;
+import org.junit.Test;
+
+/**
+ * Soaks the {@link MessageSendingBean} and {@link MessageDestinationLinkMdb}
+ * with a {@link LoadGenerator}, many producers sending through the bean to
+ * consumers each delivering to an MDB instance over an {@link EmbeddedBroker}, 
+ * and reports the throughput, end-to-end latency and lag of consumers sustained.
+ * The beans are wired as the container would, outside of it.
+ * 
+ * The load is configured by system properties:
+ * <ul>
+ *   <li>soak.producers: concurrent producers (default 8)</li>
+ *   <li>soak.rate: messages sent per second among all producers (default 2000)</li>
+ *   <li>soak.seconds: time for which messages are sent (default 180)</li>
+ *   <li>soak.warmupSeconds: time for which messages are sent, unreported, beforehand (default 10)</li>
+ *   <li>soak.sampleSeconds: time between samples of progress (default 10)</li>
+ *   <li>soak.consumers: concurrent consumers (default 4)</li>
+ *   <li>soak.send: how the bean sends; "sync" one at a time, "batch" in shared
+ *     batches, or "async" through the outbox (default sync)</li>
+ * </ul>
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=MessageDestinationLinkSoakBenchmark -Dsoak.rate=5000 -Dsoak.seconds=600</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageDestinationLinkSoakBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MessageDestinationLinkSoakBenchmark.class.getName());
+
+   /**
+    * Loggers of the beans, held so that the level we set upon them isn't lost; they
+    * log each message at INFO
+    */
+   private static final Logger[] QUIETENED_LOGGERS =
+   {Logger.getLogger(MessageSendingBean.class.getName()), Logger.getLogger(MessageDestinationLinkMdb.class.getName())};
+
+   /**
+    * Name of the queue, as mapped for the {@link MessageSendingBean}
+    */
+   private static final String QUEUE_NAME = "MessageDestinationLinkQueue";
+
+   /**
+    * Most messages in a batch, when sending in batches
+    */
+   private static final int MAX_BATCH_SIZE = 50;
+
+   /**
+    * Longest time, in milliseconds, a batch waits for more messages, when sending in batches
+    */
+   private static final long BATCH_LINGER_MILLIS = 2;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Test
+   public void soak() throws Exception
+   {
+      final int producers = Integer.getInteger("soak.producers", 8);
+      final double rate = Double.parseDouble(System.getProperty("soak.rate", "2000"));
+      final long seconds = Long.getLong("soak.seconds", 180);
+      final long warmupSeconds = Long.getLong("soak.warmupSeconds", 10);
+      final long sampleSeconds = Long.getLong("soak.sampleSeconds", 10);
+      final int consumers = Integer.getInteger("soak.consumers", 4);
+      final String send = System.getProperty("soak.send", "sync");
+      for (final Logger logger : QUIETENED_LOGGERS)
+      {
+         logger.setLevel(Level.WARNING);
+      }
+
+      final EmbeddedBroker broker = new EmbeddedBroker();
+      broker.start();
+      try
+      {
+         final Queue queue = broker.createQueue(QUEUE_NAME);
+         final AtomicReference<LoadGenerator> generator = new AtomicReference<LoadGenerator>();
+
+         // Wire the beans
+         final QueueSenderPoolBean senderPool = new QueueSenderPoolBean();
+         inject(senderPool, "connectionFactory", broker.getConnectionFactory());
+         invoke(senderPool, "createPool");
+         final MessageSendingBean bean = new MessageSendingBean();
+         inject(bean, "queue", queue);
+         inject(bean, "senderPool", senderPool);
+
+         // Consume, each consumer delivering to its own MDB instance
+         final QueueConnection connection = broker.getConnectionFactory().createQueueConnection();
+         try
+         {
+            for (int i = 0; i < consumers; i++)
+            {
+               final MessageDestinationLinkMdb mdb = new MessageDestinationLinkMdb();
+               connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE).createReceiver(queue)
+                     .setMessageListener(new MessageListener()
+                     {
+                        @Override
+                        public void onMessage(final Message message)
+                        {
+                           mdb.onMessage(message);
+                           try
+                           {
+                              generator.get().received(((TextMessage) message).getText());
+                           }
+                           catch (final JMSException jmse)
+                           {
+                              throw new RuntimeException("Could not get contents of message: " + message, jmse);
+                           }
+                        }
+                     });
+            }
+            connection.start();
+
+            // Send
+            final LoadGenerator.Producer producer;
+            if ("sync".equals(send))
+            {
+               producer = new LoadGenerator.Producer()
+               {
+                  @Override
+                  public void send(final String contents)
+                  {
+                     bean.sendMessage(contents);
+                  }
+               };
+            }
+            else if ("batch".equals(send))
+            {
+               producer = new LoadGenerator.Producer()
+               {
+                  @Override
+                  public void send(final String contents)
+                  {
+                     bean.sendMessage(contents, MAX_BATCH_SIZE, BATCH_LINGER_MILLIS);
+                  }
+               };
+            }
+            else if ("async".equals(send))
+            {
+               producer = new LoadGenerator.Producer()
+               {
+                  @Override
+                  public void send(final String contents)
+                  {
+                     bean.sendMessageAsync(contents);
+                  }
+               };
+            }
+            else
+            {
+               throw new IllegalArgumentException("Unknown soak.send: " + send);
+            }
+            if (warmupSeconds > 0)
+            {
+               log.info("Warming up for " + warmupSeconds + "s");
+               generator.set(new LoadGenerator(producers, rate, warmupSeconds * 1000, warmupSeconds * 1000));
+               generator.get().run(producer);
+            }
+            log.info("Soaking for " + seconds + "s: " + producers + " producer(s) sending " + send + " at " + rate
+                  + "/s to " + consumers + " consumer(s)");
+            generator.set(new LoadGenerator(producers, rate, seconds * 1000, sampleSeconds * 1000));
+            final LoadReport report = generator.get().run(producer);
+            final String summary = "send=" + send + " consumers=" + consumers + " | " + report;
+            log.info(summary + "\n" + report.formatSamples());
+            System.out.println(summary);
+            System.out.print(report.formatSamples());
+            TestCase.assertEquals("Messages went unreceived: " + report, 0, report.getUnreceived());
+         }
+         finally
+         {
+            connection.close();
+            invoke(senderPool, "closePool");
+         }
+      }
+      finally
+      {
+         broker.stop();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sets the specified field of a bean, as the container would inject it
+    */
+   private static void inject(final Object bean, final String fieldName, final Object value) throws Exception
+   {
+      final Field field = bean.getClass().getDeclaredField(fieldName);
+      field.setAccessible(true);
+      field.set(bean, value);
+   }
+
+   /**
+    * Invokes the specified no-arg method of a bean, as the container would a lifecycle callback
+    */
+   private static void invoke(final Object bean, final String methodName) throws Exception
+   {
+      final Method method = bean.getClass().getDeclaredMethod(methodName);
+      method.setAccessible(true);
+      method.invoke(bean);
+   }
+}
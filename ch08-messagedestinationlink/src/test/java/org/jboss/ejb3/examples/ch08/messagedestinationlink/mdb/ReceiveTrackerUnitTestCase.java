@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.mdb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link ReceiveTracker}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ReceiveTrackerUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Most recent messages kept
+    */
+   private static final int CAPACITY = 16;
+
+   /**
+    * Concurrent consumers recording
+    */
+   private static final int THREADS = 8;
+
+   /**
+    * Messages recorded by each consumer
+    */
+   private static final int MESSAGES_PER_THREAD = 20000;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures messages are counted, the last is kept, and the most recent 
+    * are kept in order
+    */
+   @Test
+   public void testRecord()
+   {
+      final ReceiveTracker tracker = new ReceiveTracker(CAPACITY);
+      TestCase.assertEquals(0, tracker.getReceived());
+      TestCase.assertNull(tracker.getLast());
+      TestCase.assertTrue(tracker.getRecent().isEmpty());
+
+      final int messages = CAPACITY * 2 + 3;
+      for (int i = 0; i < messages; i++)
+      {
+         TestCase.assertEquals(i, tracker.record("Message " + i).getSequence());
+      }
+      TestCase.assertEquals(messages, tracker.getReceived());
+      TestCase.assertEquals("Message " + (messages - 1), tracker.getLast().getContents());
+      final List<ReceiveTracker.ReceivedMessage> recent = tracker.getRecent();
+      TestCase.assertEquals(CAPACITY, recent.size());
+      for (int i = 0; i < CAPACITY; i++)
+      {
+         TestCase.assertEquals("Message " + (messages - CAPACITY + i), recent.get(i).getContents());
+      }
+   }
+
+   /**
+    * Ensures the capacity is rounded up to a power of 2
+    */
+   @Test
+   public void testCapacity()
+   {
+      final ReceiveTracker tracker = new ReceiveTracker(CAPACITY - 1);
+      for (int i = 0; i < CAPACITY * 2; i++)
+      {
+         tracker.record("Message " + i);
+      }
+      TestCase.assertEquals(CAPACITY, tracker.getRecent().size());
+   }
+
+   /**
+    * Ensures a wait ends once enough messages are received, and times out otherwise
+    */
+   @Test
+   public void testAwait() throws Exception
+   {
+      final ReceiveTracker tracker = new ReceiveTracker(CAPACITY);
+      TestCase.assertTrue("Should not wait for none", tracker.awaitReceived(0, 0, TimeUnit.MILLISECONDS));
+      TestCase.assertFalse("Should time out", tracker.awaitReceived(1, 50, TimeUnit.MILLISECONDS));
+
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         final CountDownLatch waiting = new CountDownLatch(1);
+         final Future<Boolean> result = executor.submit(new Callable<Boolean>()
+         {
+            @Override
+            public Boolean call() throws Exception
+            {
+               waiting.countDown();
+               return tracker.awaitReceived(3, 10, TimeUnit.SECONDS);
+            }
+         });
+         waiting.await();
+         tracker.record("One");
+         tracker.record("Two");
+         Thread.sleep(50);
+         TestCase.assertFalse("Should still be waiting", result.isDone());
+         final long start = System.nanoTime();
+         tracker.record("Three");
+         TestCase.assertTrue(result.get(10, TimeUnit.SECONDS));
+         TestCase.assertTrue("Should be woken promptly",
+               TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 1);
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Ensures a waiting thread may be interrupted
+    */
+   @Test(expected = InterruptedException.class)
+   public void testAwaitInterrupted() throws Exception
+   {
+      Thread.currentThread().interrupt();
+      new ReceiveTracker(CAPACITY).awaitReceived(1, 10, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Ensures that concurrent consumers are all counted, each message given a 
+    * unique sequence, and that waiters see them all
+    */
+   @Test
+   public void testConcurrentRecording() throws Exception
+   {
+      final ReceiveTracker tracker = new ReceiveTracker(CAPACITY);
+      final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+      try
+      {
+         final long total = (long) THREADS * MESSAGES_PER_THREAD;
+         final Future<Boolean> waiter = executor.submit(new Callable<Boolean>()
+         {
+            @Override
+            public Boolean call() throws Exception
+            {
+               return tracker.awaitReceived(total, 30, TimeUnit.SECONDS);
+            }
+         });
+         final CountDownLatch start = new CountDownLatch(1);
+         final List<Future<Void>> consumers = new ArrayList<Future<Void>>();
+         for (int t = 0; t < THREADS; t++)
+         {
+            consumers.add(executor.submit(new Callable<Void>()
+            {
+               @Override
+               public Void call() throws Exception
+               {
+                  start.await();
+                  for (int i = 0; i < MESSAGES_PER_THREAD; i++)
+                  {
+                     tracker.record("Message");
+                     if (i % 1000 == 0)
+                     {
+                        // Read while recording
+                        final Set<Long> sequences = new HashSet<Long>();
+                        for (final ReceiveTracker.ReceivedMessage message : tracker.getRecent())
+                        {
+                           TestCase.assertTrue("Duplicate sequence", sequences.add(message.getSequence()));
+                        }
+                     }
+                  }
+                  return null;
+               }
+            }));
+         }
+         start.countDown();
+         for (final Future<Void> consumer : consumers)
+         {
+            consumer.get(30, TimeUnit.SECONDS);
+         }
+         TestCase.assertTrue("Waiter should see all messages", waiter.get(30, TimeUnit.SECONDS));
+         TestCase.assertEquals(total, tracker.getReceived());
+         TestCase.assertEquals(total - 1, tracker.getLast().getSequence());
+         final List<ReceiveTracker.ReceivedMessage> recent = tracker.getRecent();
+         TestCase.assertEquals(CAPACITY, recent.size());
+         for (int i = 0; i < CAPACITY; i++)
+         {
+            TestCase.assertEquals(total - CAPACITY + i, recent.get(i).getSequence());
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Ensures a capacity which is not positive is rejected
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidCapacity()
+   {
+      new ReceiveTracker(0);
+   }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+
+/**
+ * {@link QueueConnectionFactory} whose senders wait for a time, which may be changed
+ * at any point, before each send, so as to stand in for a broker which is slow
+ * to acknowledge.  The next send may also be made to fail, and the next send or 
+ * commit to report the connection lost having in fact sent or committed, so as 
+ * to stand in for a refused message and for an acknowledgement being lost; the 
+ * next session may be made to fail to open, as upon a connection already lost.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class DelayingConnectionFactory
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Factory to which we delegate
+    */
+   private final QueueConnectionFactory delegate;
+
+   /**
+    * Time, in milliseconds, to wait before each send
+    */
+   private volatile long delayMillis;
+
+   /**
+    * Whether the next send is to fail
+    */
+   private final AtomicBoolean failNextSend = new AtomicBoolean();
+
+   /**
+    * Whether the next commit is to report failure once committed
+    */
+   private final AtomicBoolean failNextCommit = new AtomicBoolean();
+
+   /**
+    * Whether the next send is to report the connection lost once sent
+    */
+   private final AtomicBoolean loseNextSend = new AtomicBoolean();
+
+   /**
+    * Whether the next session is to fail to open
+    */
+   private final AtomicBoolean failNextSession = new AtomicBoolean();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   DelayingConnectionFactory(final QueueConnectionFactory delegate)
+   {
+      this.delegate = delegate;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a connection factory whose senders wait before each send
+    */
+   QueueConnectionFactory getConnectionFactory()
+   {
+      return this.wrap(QueueConnectionFactory.class, this.delegate);
+   }
+
+   /**
+    * Sets the time, in milliseconds, to wait before each send from now on
+    */
+   void setDelayMillis(final long delayMillis)
+   {
+      this.delayMillis = delayMillis;
+   }
+
+   /**
+    * Makes the next send fail, leaving the session and connection usable
+    */
+   void failNextSend()
+   {
+      this.failNextSend.set(true);
+   }
+
+   /**
+    * Makes the next commit report failure once committed
+    */
+   void failNextCommit()
+   {
+      this.failNextCommit.set(true);
+   }
+
+   /**
+    * Makes the next send report the connection lost once sent
+    */
+   void loseNextSend()
+   {
+      this.loseNextSend.set(true);
+   }
+
+   /**
+    * Makes the next session fail to open, reporting the connection lost
+    */
+   void failNextSession()
+   {
+      this.failNextSession.set(true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Wraps the specified JMS object such that connections, sessions and senders
+    * it makes are wrapped alike, and senders wait before sending
+    */
+   private <T> T wrap(final Class<T> type, final T target)
+   {
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]
+      {type}, new InvocationHandler()
+      {
+         @Override
+         public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+         {
+            if (target instanceof QueueSender && method.getName().equals("send"))
+            {
+               final long delayMillis = DelayingConnectionFactory.this.delayMillis;
+               if (delayMillis > 0)
+               {
+                  Thread.sleep(delayMillis);
+               }
+               if (failNextSend.compareAndSet(true, false))
+               {
+                  throw new JMSException("Message refused, as intended");
+               }
+            }
+            if (target instanceof QueueConnection && method.getName().equals("createQueueSession")
+                  && failNextSession.compareAndSet(true, false))
+            {
+               throw new IllegalStateException("Connection lost before opening a session, as intended");
+            }
+            final Object result;
+            try
+            {
+               result = method.invoke(target, args);
+            }
+            catch (final InvocationTargetException ite)
+            {
+               throw ite.getCause();
+            }
+            if (target instanceof QueueSession && method.getName().equals("commit")
+                  && failNextCommit.compareAndSet(true, false))
+            {
+               throw new JMSException("Acknowledgement of commit lost, as intended");
+            }
+            if (target instanceof QueueSender && method.getName().equals("send")
+                  && loseNextSend.compareAndSet(true, false))
+            {
+               throw new IllegalStateException("Connection lost once sent, as intended");
+            }
+            if (result instanceof QueueConnection)
+            {
+               return wrap(QueueConnection.class, (QueueConnection) result);
+            }
+            if (result instanceof QueueSession)
+            {
+               return wrap(QueueSession.class, (QueueSession) result);
+            }
+            if (result instanceof QueueSender)
+            {
+               return wrap(QueueSender.class, (QueueSender) result);
+            }
+            return result;
+         }
+      }));
+   }
+}
@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Queue;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the {@link MessageBatcher}, sending to an {@link EmbeddedBroker}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageBatcherUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EmbeddedBroker broker;
+
+   private Queue queue;
+
+   private QueueSenderPool pool;
+
+   private ScheduledExecutorService scheduler;
+
+   private ExecutorService senders;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void startBroker() throws Exception
+   {
+      this.broker = new EmbeddedBroker();
+      this.broker.start();
+      this.queue = this.broker.createQueue("MessageBatcherTest");
+      this.pool = new QueueSenderPool(this.broker.getConnectionFactory(), 4);
+      this.scheduler = Executors.newSingleThreadScheduledExecutor();
+      this.senders = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void stopBroker() throws Exception
+   {
+      this.senders.shutdownNow();
+      this.scheduler.shutdownNow();
+      this.pool.close();
+      this.broker.stop();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that concurrent senders fill and send batches of the maximum size
+    * without waiting for them to linger
+    */
+   @Test
+   public void testFullBatches() throws Exception
+   {
+      final MessageBatcher batcher = new MessageBatcher(this.pool, this.queue, this.scheduler);
+      final long start = System.currentTimeMillis();
+      for (final Future<Void> sent : this.sendConcurrently(batcher, 10, 5, TimeUnit.MINUTES.toMillis(1)))
+      {
+         sent.get(10, TimeUnit.SECONDS);
+      }
+      Assert.assertTrue("Should not have lingered", System.currentTimeMillis() - start < 10000);
+
+      final BatchStatistics statistics = this.pool.getBatchStatistics();
+      Assert.assertEquals(2, statistics.getBatches());
+      Assert.assertEquals(10, statistics.getMessages());
+      Assert.assertEquals(5, statistics.getLargestBatch());
+   }
+
+   /**
+    * Ensures that a batch which isn't filled is sent once it has lingered
+    */
+   @Test
+   public void testLinger() throws Exception
+   {
+      final MessageBatcher batcher = new MessageBatcher(this.pool, this.queue, this.scheduler);
+      final long start = System.nanoTime();
+      batcher.send("Lingering", 100, 50);
+      Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+      final BatchStatistics statistics = this.pool.getBatchStatistics();
+      Assert.assertEquals(1, statistics.getBatches());
+      Assert.assertEquals(1, statistics.getLargestBatch());
+   }
+
+   /**
+    * Ensures that senders asking for different limits share a batch, which
+    * is sent within the tightest of them
+    */
+   @Test
+   public void testMixedLimits() throws Exception
+   {
+      final MessageBatcher batcher = new MessageBatcher(this.pool, this.queue, this.scheduler);
+
+      // A patient sender opens the batch
+      final List<Future<Void>> patient = this.sendConcurrently(batcher, 1, 100, TimeUnit.MINUTES.toMillis(1));
+      Thread.sleep(200);
+
+      // An impatient sender shortens its linger
+      batcher.send("Impatient", 100, 50);
+      patient.get(0).get(10, TimeUnit.SECONDS);
+      BatchStatistics statistics = this.pool.getBatchStatistics();
+      Assert.assertEquals("Both should share one batch", 1, statistics.getBatches());
+      Assert.assertEquals(2, statistics.getMessages());
+
+      // The least maximum size among senders fills a batch
+      final List<Future<Void>> large = this.sendConcurrently(batcher, 2, 100, TimeUnit.MINUTES.toMillis(1));
+      Thread.sleep(200);
+      batcher.send("Small", 3, TimeUnit.MINUTES.toMillis(1));
+      for (final Future<Void> sent : large)
+      {
+         sent.get(10, TimeUnit.SECONDS);
+      }
+      statistics = this.pool.getBatchStatistics();
+      Assert.assertEquals(2, statistics.getBatches());
+      Assert.assertEquals(3, statistics.getLargestBatch());
+   }
+
+   /**
+    * Ensures that a batch which could not be sent fails each of its senders
+    */
+   @Test
+   public void testFailure() throws Exception
+   {
+      this.pool.close();
+      final MessageBatcher batcher = new MessageBatcher(this.pool, this.queue, this.scheduler);
+      for (final Future<Void> sent : this.sendConcurrently(batcher, 3, 3, 1000))
+      {
+         try
+         {
+            sent.get(10, TimeUnit.SECONDS);
+            Assert.fail("Send to a closed pool should fail");
+         }
+         catch (final ExecutionException ee)
+         {
+            Assert.assertTrue(ee.getCause() instanceof JMSException);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified number of messages each from its own thread
+    */
+   private List<Future<Void>> sendConcurrently(final MessageBatcher batcher, final int messages,
+         final int maxBatchSize, final long lingerMillis)
+   {
+      final List<Future<Void>> sent = new ArrayList<Future<Void>>();
+      for (int i = 0; i < messages; i++)
+      {
+         final String contents = "Message " + i;
+         sent.add(this.senders.submit(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               batcher.send(contents, maxBatchSize, lingerMillis);
+               return null;
+            }
+         }));
+      }
+      return sent;
+   }
+}
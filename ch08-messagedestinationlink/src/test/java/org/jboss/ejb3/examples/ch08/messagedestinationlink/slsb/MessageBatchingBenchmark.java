@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Logger;
+
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueReceiver;
+import javax.jms.Session;
+
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.Test;
+
+/**
+ * Measures the messages per second sent to an {@link EmbeddedBroker} which 
+ * journals to disk, syncing upon each send or commit: sending each message 
+ * on its own, in lists committed together, and from 16 concurrent senders 
+ * either each on its own or gathered by a {@link MessageBatcher}.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=MessageBatchingBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageBatchingBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MessageBatchingBenchmark.class.getName());
+
+   /**
+    * Messages sent in each measured run
+    */
+   private static final int MESSAGES = 4000;
+
+   /**
+    * Concurrent senders
+    */
+   private static final int THREADS = 16;
+
+   /**
+    * Linger time of the batcher, in milliseconds
+    */
+   private static final long LINGER_MILLIS = 2;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Test
+   public void benchmark() throws Exception
+   {
+      final File dataDirectory = new File(MessageBatchingBenchmark.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI().resolve("../message-batching-benchmark"));
+      final EmbeddedBroker broker = new EmbeddedBroker(dataDirectory);
+      broker.start();
+      final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+      try
+      {
+         final QueueConnectionFactory connectionFactory = broker.getConnectionFactory();
+         final Queue queue = broker.createQueue("MessageBatchingBenchmark");
+         final QueueSenderPool pool = new QueueSenderPool(connectionFactory, THREADS);
+         final StringBuilder summary = new StringBuilder("messages=" + MESSAGES);
+
+         // Warm up, then measure
+         for (int run = 0; run < 2; run++)
+         {
+            summary.setLength(0);
+            summary.append("messages=").append(MESSAGES);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++)
+            {
+               pool.send(queue, "Message " + i);
+            }
+            summary.append(rate("single", start));
+            drain(connectionFactory, queue);
+
+            for (final int batchSize : new int[]
+            {10, 100})
+            {
+               start = System.nanoTime();
+               for (int i = 0; i < MESSAGES; i += batchSize)
+               {
+                  final List<String> batch = new ArrayList<String>(batchSize);
+                  for (int j = 0; j < batchSize; j++)
+                  {
+                     batch.add("Message " + (i + j));
+                  }
+                  pool.send(queue, batch);
+               }
+               summary.append(rate("list of " + batchSize, start));
+               drain(connectionFactory, queue);
+            }
+
+            start = System.nanoTime();
+            sendConcurrently(new Sender()
+            {
+               @Override
+               public void send(final String contents) throws Exception
+               {
+                  pool.send(queue, contents);
+               }
+            });
+            summary.append(rate(THREADS + " senders, single", start));
+            drain(connectionFactory, queue);
+
+            final MessageBatcher batcher = new MessageBatcher(pool, queue, scheduler);
+            final BatchStatistics before = pool.getBatchStatistics();
+            start = System.nanoTime();
+            sendConcurrently(new Sender()
+            {
+               @Override
+               public void send(final String contents) throws Exception
+               {
+                  batcher.send(contents, THREADS, LINGER_MILLIS);
+               }
+            });
+            summary.append(rate(THREADS + " senders, batched", start));
+            final BatchStatistics after = pool.getBatchStatistics();
+            summary.append(String.format(" (average batch %.1f)", (double) (after.getMessages() - before
+                  .getMessages())
+                  / (after.getBatches() - before.getBatches())));
+            drain(connectionFactory, queue);
+         }
+         pool.close();
+         log.info(summary.toString());
+         System.out.println(summary);
+      }
+      finally
+      {
+         scheduler.shutdownNow();
+         broker.stop();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static String rate(final String name, final long start)
+   {
+      return String.format(" | %s=%.0f/s", name, MESSAGES * 1e9 / (System.nanoTime() - start));
+   }
+
+   /**
+    * Sends {@link MessageBatchingBenchmark#MESSAGES} messages split among 
+    * {@link MessageBatchingBenchmark#THREADS} threads
+    */
+   private static void sendConcurrently(final Sender sender) throws Exception
+   {
+      final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+      final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int t = 0; t < THREADS; t++)
+      {
+         tasks.add(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               for (int i = 0; i < MESSAGES / THREADS; i++)
+               {
+                  sender.send("Message " + i);
+               }
+               return null;
+            }
+         });
+      }
+      for (final Future<Void> result : executor.invokeAll(tasks))
+      {
+         result.get();
+      }
+      executor.shutdown();
+   }
+
+   /**
+    * Empties the queue so that runs don't affect one another
+    */
+   private static void drain(final QueueConnectionFactory connectionFactory, final Queue queue) throws Exception
+   {
+      final QueueConnection connection = connectionFactory.createQueueConnection();
+      try
+      {
+         final QueueReceiver receiver = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE)
+               .createReceiver(queue);
+         connection.start();
+         while (receiver.receive(500) != null)
+         {
+            // Discard
+         }
+      }
+      finally
+      {
+         connection.close();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Means of sending a message
+    */
+   private interface Sender
+   {
+      void send(String contents) throws Exception;
+   }
+}
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.jms.Queue;
+
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.Test;
+
+/**
+ * Measures the time a producer waits to send each message to an {@link EmbeddedBroker},
+ * sending upon a {@link QueueSenderPool} and putting into a {@link MessageOutbox}: 
+ * with the broker as it is, and with each send made to take 5ms longer by a 
+ * {@link DelayingConnectionFactory}, as though the broker's latency had spiked.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=MessageOutboxBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageOutboxBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MessageOutboxBenchmark.class.getName());
+
+   /**
+    * Messages sent in each measured run
+    */
+   private static final int MESSAGES = 2000;
+
+   /**
+    * Added time, in milliseconds, of each send while latency has spiked
+    */
+   private static final long SPIKE_MILLIS = 5;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Test
+   public void benchmark() throws Exception
+   {
+      final EmbeddedBroker broker = new EmbeddedBroker();
+      broker.start();
+      try
+      {
+         final Queue queue = broker.createQueue("MessageOutboxBenchmark");
+         final DelayingConnectionFactory connectionFactory = new DelayingConnectionFactory(broker
+               .getConnectionFactory());
+         final QueueSenderPool pool = new QueueSenderPool(connectionFactory.getConnectionFactory(), 4);
+         final MessageOutbox outbox = new MessageOutbox(pool, queue, MESSAGES * 2, OverflowPolicy.BLOCK, 100);
+         final StringBuilder summary = new StringBuilder();
+
+         // Warm up, then measure
+         for (int run = 0; run < 2; run++)
+         {
+            summary.setLength(0);
+            summary.append("messages=").append(MESSAGES);
+            for (final long delayMillis : new long[]
+            {0, SPIKE_MILLIS})
+            {
+               connectionFactory.setDelayMillis(delayMillis);
+               final long[] sync = new long[MESSAGES];
+               for (int i = 0; i < MESSAGES; i++)
+               {
+                  final long start = System.nanoTime();
+                  pool.send(queue, "Message " + i);
+                  sync[i] = System.nanoTime() - start;
+               }
+
+               final long[] async = new long[MESSAGES];
+               final List<Future<Void>> results = new ArrayList<Future<Void>>(MESSAGES);
+               final long asyncStart = System.nanoTime();
+               for (int i = 0; i < MESSAGES; i++)
+               {
+                  final long start = System.nanoTime();
+                  results.add(outbox.send("Message " + i));
+                  async[i] = System.nanoTime() - start;
+               }
+               for (final Future<Void> result : results)
+               {
+                  result.get(1, TimeUnit.MINUTES);
+               }
+               final long asyncDrained = System.nanoTime() - asyncStart;
+
+               summary.append(String.format(" | added latency=%dms: sync %s, async %s (all sent in %.0fms)",
+                     delayMillis, percentiles(sync), percentiles(async), asyncDrained / 1e6));
+            }
+         }
+         outbox.close(1, TimeUnit.MINUTES);
+         pool.close();
+         log.info(summary.toString());
+         System.out.println(summary);
+      }
+      finally
+      {
+         broker.stop();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static String percentiles(final long[] nanos)
+   {
+      Arrays.sort(nanos);
+      return String.format("p50=%.1fus p99=%.1fus max=%.1fus", nanos[nanos.length / 2] / 1e3,
+            nanos[nanos.length * 99 / 100] / 1e3, nanos[nanos.length - 1] / 1e3);
+   }
+}
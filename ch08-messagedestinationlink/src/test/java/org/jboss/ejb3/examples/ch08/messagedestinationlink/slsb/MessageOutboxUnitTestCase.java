@@ -0,0 +1,429 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueReceiver;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the {@link MessageOutbox}, sending to an {@link EmbeddedBroker}
+ * made to seem slow where needed by a {@link DelayingConnectionFactory}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageOutboxUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time, in milliseconds, a slow send takes
+    */
+   private static final long SLOW_SEND_MILLIS = 500;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EmbeddedBroker broker;
+
+   private QueueConnectionFactory connectionFactory;
+
+   private DelayingConnectionFactory delayingConnectionFactory;
+
+   private Queue queue;
+
+   private QueueSenderPool pool;
+
+   private MessageOutbox outbox;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void startBroker() throws Exception
+   {
+      this.broker = new EmbeddedBroker();
+      this.broker.start();
+      this.queue = this.broker.createQueue("MessageOutboxTest");
+      this.connectionFactory = this.broker.getConnectionFactory();
+      this.delayingConnectionFactory = new DelayingConnectionFactory(this.connectionFactory);
+      this.pool = new QueueSenderPool(this.delayingConnectionFactory.getConnectionFactory(), 4);
+   }
+
+   @After
+   public void stopBroker() throws Exception
+   {
+      this.delayingConnectionFactory.setDelayMillis(0);
+      if (this.outbox != null)
+      {
+         this.outbox.close(10, TimeUnit.SECONDS);
+      }
+      this.pool.close();
+      this.broker.stop();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that messages are sent in order, each completing its future
+    */
+   @Test
+   public void testSend() throws Exception
+   {
+      this.outbox = new MessageOutbox(this.pool, this.queue, 1000, OverflowPolicy.BLOCK, 10);
+      final List<String> sent = new ArrayList<String>();
+      final List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 100; i++)
+      {
+         final String contents = "Message " + i;
+         results.add(this.outbox.send(contents));
+         sent.add(contents);
+      }
+      for (final Future<Void> result : results)
+      {
+         result.get(10, TimeUnit.SECONDS);
+         Assert.assertTrue(result.isDone());
+      }
+      Assert.assertEquals(sent, this.receiveAll());
+      Assert.assertEquals(0, this.outbox.getDepth());
+   }
+
+   /**
+    * Ensures that a message put into a full outbox is refused
+    */
+   @Test
+   public void testOverflowFail() throws Exception
+   {
+      final Future<Void> first = this.fillSlowOutbox(OverflowPolicy.FAIL);
+      try
+      {
+         this.outbox.send("Overflow");
+         Assert.fail("Full outbox should have refused the message");
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         // Expected
+      }
+      first.get(10, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Ensures that a message put into a full outbox is dropped and its future cancelled
+    */
+   @Test
+   public void testOverflowDrop() throws Exception
+   {
+      final Future<Void> first = this.fillSlowOutbox(OverflowPolicy.DROP);
+      final Future<Void> dropped = this.outbox.send("Overflow");
+      Assert.assertTrue(dropped.isCancelled());
+      Assert.assertTrue(dropped.isDone());
+      Assert.assertEquals(1, this.outbox.getDropped());
+      first.get(10, TimeUnit.SECONDS);
+      Assert.assertFalse(this.receiveAll().contains("Overflow"));
+   }
+
+   /**
+    * Ensures that a message put into an outbox once closed is refused, 
+    * rather than dropped, even where our policy is to drop
+    */
+   @Test
+   public void testDropAfterClose() throws Exception
+   {
+      this.outbox = new MessageOutbox(this.pool, this.queue, 2, OverflowPolicy.DROP, 10);
+      Assert.assertTrue(this.outbox.close(10, TimeUnit.SECONDS));
+      try
+      {
+         this.outbox.send("Closed");
+         Assert.fail("Closed outbox should have refused the message");
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         // Expected
+      }
+      Assert.assertEquals(0, this.outbox.getDropped());
+   }
+
+   /**
+    * Ensures that one waiting for room in a full outbox is refused once it's closed
+    */
+   @Test
+   public void testCloseWhileBlocked() throws Exception
+   {
+      this.fillSlowOutbox(OverflowPolicy.BLOCK);
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         final Future<Future<Void>> blocked = executor.submit(new Callable<Future<Void>>()
+         {
+            @Override
+            public Future<Void> call() throws Exception
+            {
+               return outbox.send("Overflow");
+            }
+         });
+         Thread.sleep(SLOW_SEND_MILLIS / 5);
+         Assert.assertFalse(blocked.isDone());
+         this.outbox.close(0, TimeUnit.MILLISECONDS);
+         try
+         {
+            blocked.get(10, TimeUnit.SECONDS);
+            Assert.fail("Closed outbox should have refused the waiting message");
+         }
+         catch (final ExecutionException ee)
+         {
+            Assert.assertTrue(ee.getCause() instanceof RejectedExecutionException);
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Ensures that every message taken by an outbox closed as messages are
+    * being put in has its future completed
+    */
+   @Test
+   public void testCloseWhileSending() throws Exception
+   {
+      this.outbox = new MessageOutbox(this.pool, this.queue, 100, OverflowPolicy.BLOCK, 10);
+      final int producers = 4;
+      final List<Future<Void>> results = Collections.synchronizedList(new ArrayList<Future<Void>>());
+      final CountDownLatch started = new CountDownLatch(producers);
+      final ExecutorService executor = Executors.newFixedThreadPool(producers);
+      try
+      {
+         final List<Future<Void>> refused = new ArrayList<Future<Void>>();
+         for (int i = 0; i < producers; i++)
+         {
+            refused.add(executor.submit(new Callable<Void>()
+            {
+               @Override
+               public Void call() throws Exception
+               {
+                  started.countDown();
+                  try
+                  {
+                     while (true)
+                     {
+                        results.add(outbox.send("Message"));
+                     }
+                  }
+                  catch (final RejectedExecutionException ree)
+                  {
+                     return null;
+                  }
+               }
+            }));
+         }
+         started.await();
+         Thread.sleep(50);
+         Assert.assertTrue(this.outbox.close(10, TimeUnit.SECONDS));
+         for (final Future<Void> producer : refused)
+         {
+            producer.get(10, TimeUnit.SECONDS);
+         }
+         synchronized (results)
+         {
+            for (final Future<Void> result : results)
+            {
+               Assert.assertTrue("Message taken should be sent or failed", result.isDone());
+            }
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Ensures that a message put into a full outbox waits for room
+    */
+   @Test
+   public void testOverflowBlock() throws Exception
+   {
+      this.fillSlowOutbox(OverflowPolicy.BLOCK);
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         final Future<Future<Void>> blocked = executor.submit(new Callable<Future<Void>>()
+         {
+            @Override
+            public Future<Void> call() throws Exception
+            {
+               return outbox.send("Overflow");
+            }
+         });
+         try
+         {
+            blocked.get(SLOW_SEND_MILLIS / 5, TimeUnit.MILLISECONDS);
+            Assert.fail("Should have waited for room in the outbox");
+         }
+         catch (final TimeoutException te)
+         {
+            // Expected
+         }
+         this.delayingConnectionFactory.setDelayMillis(0);
+         blocked.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+         Assert.assertTrue(this.receiveAll().contains("Overflow"));
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Ensures that closing sends what's been taken, and refuses more
+    */
+   @Test
+   public void testClose() throws Exception
+   {
+      this.outbox = new MessageOutbox(this.pool, this.queue, 100, OverflowPolicy.BLOCK, 1);
+      this.delayingConnectionFactory.setDelayMillis(20);
+      final List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 5; i++)
+      {
+         results.add(this.outbox.send("Message " + i));
+      }
+      Assert.assertTrue(this.outbox.close(10, TimeUnit.SECONDS));
+      for (final Future<Void> result : results)
+      {
+         Assert.assertTrue(result.isDone());
+      }
+      Assert.assertEquals(5, this.receiveAll().size());
+      try
+      {
+         this.outbox.send("Closed");
+         Assert.fail("Closed outbox should have refused the message");
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         // Expected
+      }
+   }
+
+   /**
+    * Ensures that a message which could not be sent fails its future
+    */
+   @Test
+   public void testFailure() throws Exception
+   {
+      this.pool.close();
+      this.outbox = new MessageOutbox(this.pool, this.queue, 10, OverflowPolicy.BLOCK, 10);
+      try
+      {
+         this.outbox.send("Unsendable").get(10, TimeUnit.SECONDS);
+         Assert.fail("Send through a closed pool should fail");
+      }
+      catch (final ExecutionException ee)
+      {
+         Assert.assertTrue(ee.getCause() instanceof JMSException);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Makes an outbox of 2 messages with the specified policy, and fills it 
+    * while the sender is slowly sending a message taken before
+    * 
+    * @return The future of the message being sent
+    */
+   private Future<Void> fillSlowOutbox(final OverflowPolicy policy) throws Exception
+   {
+      this.outbox = new MessageOutbox(this.pool, this.queue, 2, policy, 10);
+      this.delayingConnectionFactory.setDelayMillis(SLOW_SEND_MILLIS);
+      final Future<Void> first = this.outbox.send("Sending");
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (this.outbox.getDepth() > 0)
+      {
+         Assert.assertTrue("Sender never took the first message", System.currentTimeMillis() < deadline);
+         Thread.sleep(1);
+      }
+      this.outbox.send("Waiting 1");
+      this.outbox.send("Waiting 2");
+      Assert.assertEquals(2, this.outbox.getDepth());
+      return first;
+   }
+
+   /**
+    * Receives the contents of all messages presently in the queue, in order
+    */
+   private List<String> receiveAll() throws JMSException
+   {
+      final List<String> contents = new ArrayList<String>();
+      final QueueConnection connection = this.connectionFactory.createQueueConnection();
+      try
+      {
+         final QueueReceiver receiver = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE)
+               .createReceiver(this.queue);
+         connection.start();
+         Message message;
+         while ((message = receiver.receive(500)) != null)
+         {
+            contents.add(((TextMessage) message).getText());
+         }
+      }
+      finally
+      {
+         connection.close();
+      }
+      return contents;
+   }
+}
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.Test;
+
+/**
+ * Measures the messages per second sent to an {@link EmbeddedBroker} by 1 and 
+ * by 8 concurrent senders, both making a connection, session and sender 
+ * for each message (as {@link MessageSendingBean} once did) and sending 
+ * through a {@link QueueSenderPool}.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=MessageSendingBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageSendingBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MessageSendingBenchmark.class.getName());
+
+   /**
+    * Messages sent in each measured run
+    */
+   private static final int MESSAGES = 20000;
+
+   /**
+    * Numbers of concurrent senders measured
+    */
+   private static final int[] THREADS =
+   {1, 8};
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Test
+   public void benchmark() throws Exception
+   {
+      final EmbeddedBroker broker = new EmbeddedBroker();
+      broker.start();
+      try
+      {
+         final QueueConnectionFactory connectionFactory = broker.getConnectionFactory();
+         final Queue queue = broker.createQueue("MessageSendingBenchmark");
+         final StringBuilder summary = new StringBuilder("messages=" + MESSAGES);
+         for (final int threads : THREADS)
+         {
+            final Sender perMessage = new Sender()
+            {
+               @Override
+               public void send(final String contents) throws JMSException
+               {
+                  final QueueConnection connection = connectionFactory.createQueueConnection();
+                  try
+                  {
+                     final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+                     session.createSender(queue).send(session.createTextMessage(contents));
+                  }
+                  finally
+                  {
+                     connection.close();
+                  }
+               }
+            };
+            final QueueSenderPool pool = new QueueSenderPool(connectionFactory, threads);
+            final Sender pooled = new Sender()
+            {
+               @Override
+               public void send(final String contents) throws JMSException
+               {
+                  pool.send(queue, contents);
+               }
+            };
+
+            // Warm up, then measure
+            for (int run = 0; run < 2; run++)
+            {
+               final double perMessageRate = measure(perMessage, threads, connectionFactory, queue);
+               final double pooledRate = measure(pooled, threads, connectionFactory, queue);
+               if (run > 0)
+               {
+                  summary.append(String.format(" | threads=%d per-message=%.0f/s pooled=%.0f/s (x%.1f)", threads,
+                        perMessageRate, pooledRate, pooledRate / perMessageRate));
+               }
+            }
+            pool.close();
+         }
+         log.info(summary.toString());
+         System.out.println(summary);
+      }
+      finally
+      {
+         broker.stop();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends {@link MessageSendingBenchmark#MESSAGES} messages split among the specified
+    * number of threads, then empties the queue
+    * 
+    * @return Messages sent per second
+    */
+   private static double measure(final Sender sender, final int threads,
+         final QueueConnectionFactory connectionFactory, final Queue queue) throws Exception
+   {
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int t = 0; t < threads; t++)
+      {
+         tasks.add(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               for (int i = 0; i < MESSAGES / threads; i++)
+               {
+                  sender.send("Message " + i);
+               }
+               return null;
+            }
+         });
+      }
+      final long start = System.nanoTime();
+      for (final Future<Void> result : executor.invokeAll(tasks))
+      {
+         result.get();
+      }
+      final long nanos = System.nanoTime() - start;
+      executor.shutdown();
+
+      // Empty the queue so that runs don't affect one another
+      final QueueConnection connection = connectionFactory.createQueueConnection();
+      try
+      {
+         final QueueReceiver receiver = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE)
+               .createReceiver(queue);
+         connection.start();
+         while (receiver.receive(500) != null)
+         {
+            // Discard
+         }
+      }
+      finally
+      {
+         connection.close();
+      }
+      return MESSAGES * 1e9 / nanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Means of sending a message
+    */
+   private interface Sender
+   {
+      void send(String contents) throws JMSException;
+   }
+}
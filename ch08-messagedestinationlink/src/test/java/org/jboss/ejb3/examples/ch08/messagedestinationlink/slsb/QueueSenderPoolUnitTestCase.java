@@ -0,0 +1,385 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.messagedestinationlink.slsb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests of the {@link QueueSenderPool}, sending to an {@link EmbeddedBroker}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class QueueSenderPoolUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EmbeddedBroker broker;
+
+   private QueueConnectionFactory connectionFactory;
+
+   private Queue queue;
+
+   private QueueSenderPool pool;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void startBroker() throws Exception
+   {
+      this.broker = new EmbeddedBroker();
+      this.broker.start();
+      this.queue = this.broker.createQueue("QueueSenderPoolTest");
+      this.connectionFactory = this.broker.getConnectionFactory();
+      this.pool = new QueueSenderPool(this.connectionFactory, 4);
+   }
+
+   @After
+   public void stopBroker() throws Exception
+   {
+      this.pool.close();
+      this.broker.stop();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that successive sends share one connection and session
+    */
+   @Test
+   public void testReuse() throws Exception
+   {
+      final List<String> sent = new ArrayList<String>();
+      for (int i = 0; i < 100; i++)
+      {
+         final String contents = "Message " + i;
+         this.pool.send(this.queue, contents);
+         sent.add(contents);
+      }
+      Assert.assertEquals(sent, this.receiveAll());
+      Assert.assertEquals(1, this.pool.getConnectionsCreated());
+      Assert.assertEquals(1, this.pool.getSessionsCreated());
+      Assert.assertEquals(1, this.pool.getIdleSessions());
+   }
+
+   /**
+    * Ensures that concurrent sends are each delivered, upon no more 
+    * sessions than there are senders
+    */
+   @Test
+   public void testConcurrentSends() throws Exception
+   {
+      final int threads = 8;
+      final int messagesPerThread = 200;
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      final List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int t = 0; t < threads; t++)
+      {
+         final int thread = t;
+         results.add(executor.submit(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               for (int i = 0; i < messagesPerThread; i++)
+               {
+                  pool.send(queue, thread + "-" + i);
+               }
+               return null;
+            }
+         }));
+      }
+      for (final Future<Void> result : results)
+      {
+         result.get();
+      }
+      executor.shutdown();
+
+      final Set<String> received = new HashSet<String>(this.receiveAll());
+      Assert.assertEquals(threads * messagesPerThread, received.size());
+      Assert.assertEquals(1, this.pool.getConnectionsCreated());
+      Assert.assertTrue("Made " + this.pool.getSessionsCreated() + " sessions for " + threads + " senders",
+            this.pool.getSessionsCreated() <= threads);
+      Assert.assertTrue(this.pool.getIdleSessions() <= 4);
+   }
+
+   /**
+    * Ensures that a batch is delivered in order upon one transacted session,
+    * and is accounted for in the statistics
+    */
+   @Test
+   public void testBatch() throws Exception
+   {
+      final List<String> batch = new ArrayList<String>();
+      for (int i = 0; i < 50; i++)
+      {
+         batch.add("Batched " + i);
+      }
+      this.pool.send(this.queue, batch);
+      this.pool.send(this.queue, batch.subList(0, 10));
+      this.pool.send(this.queue, "Alone");
+
+      final List<String> expected = new ArrayList<String>(batch);
+      expected.addAll(batch.subList(0, 10));
+      expected.add("Alone");
+      Assert.assertEquals(expected, this.receiveAll());
+
+      final BatchStatistics statistics = this.pool.getBatchStatistics();
+      Assert.assertEquals(2, statistics.getBatches());
+      Assert.assertEquals(60, statistics.getMessages());
+      Assert.assertEquals(50, statistics.getLargestBatch());
+      Assert.assertEquals(30.0, statistics.getAverageBatch(), 0);
+      Assert.assertEquals("One session of each kind", 2, this.pool.getSessionsCreated());
+   }
+
+   /**
+    * Ensures that a failed connection is replaced, and that sends
+    * resume once the broker is back
+    */
+   @Test
+   public void testReconnect() throws Exception
+   {
+      this.pool.send(this.queue, "Before");
+      Assert.assertEquals(1, this.pool.getConnectionsCreated());
+
+      // Messages are held in memory only, so are lost with the broker
+      this.broker.stop();
+      this.broker.start();
+
+      this.pool.send(this.queue, "After");
+      Assert.assertEquals(2, this.pool.getConnectionsCreated());
+      Assert.assertEquals(1, this.receiveAll().size());
+   }
+
+   /**
+    * Ensures that a send failing for a reason of its own neither replaces the shared connection nor disturbs a concurrent send 
+    * upon it
+    */
+   @Test
+   public void testBadSendKeepsConnection() throws Exception
+   {
+      final DelayingConnectionFactory delaying = new DelayingConnectionFactory(this.connectionFactory);
+      final QueueSenderPool pool = new QueueSenderPool(delaying.getConnectionFactory(), 4);
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         // Hold a session lent out in a slow send
+         delaying.setDelayMillis(1000);
+         final Future<Void> slow = executor.submit(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               pool.send(queue, "Slow");
+               return null;
+            }
+         });
+         Thread.sleep(200);
+         delaying.setDelayMillis(0);
+
+         delaying.failNextSend();
+         try
+         {
+            pool.send(this.queue, "Refused");
+            Assert.fail("Refused send should fail");
+         }
+         catch (final JMSException expected)
+         {
+            // Good
+         }
+         pool.send(this.queue, "After");
+         slow.get(10, TimeUnit.SECONDS);
+
+         Assert.assertEquals("Connection should not be replaced", 1, pool.getConnectionsCreated());
+         Assert.assertEquals(new HashSet<String>(Arrays.asList("Slow", "After")), new HashSet<String>(
+               this.receiveAll()));
+      }
+      finally
+      {
+         executor.shutdownNow();
+         pool.close();
+      }
+   }
+
+   /**
+    * Ensures that a batch whose commit fails, but may have been committed, is 
+    * not sent again
+    */
+   @Test
+   public void testAmbiguousCommitNotRetried() throws Exception
+   {
+      final DelayingConnectionFactory delaying = new DelayingConnectionFactory(this.connectionFactory);
+      final QueueSenderPool pool = new QueueSenderPool(delaying.getConnectionFactory(), 4);
+      try
+      {
+         final List<String> batch = new ArrayList<String>();
+         for (int i = 0; i < 5; i++)
+         {
+            batch.add("Batched " + i);
+         }
+         delaying.failNextCommit();
+         try
+         {
+            pool.send(this.queue, batch);
+            Assert.fail("Failure of the commit should be raised");
+         }
+         catch (final JMSException expected)
+         {
+            // Good
+         }
+         Assert.assertEquals("Batch should be delivered once", batch, this.receiveAll());
+         Assert.assertEquals(1, pool.getConnectionsCreated());
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   /**
+    * Ensures that a message which may have reached the broker before the
+    * connection was lost is not sent again
+    */
+   @Test
+   public void testAmbiguousSendNotRetried() throws Exception
+   {
+      final DelayingConnectionFactory delaying = new DelayingConnectionFactory(this.connectionFactory);
+      final QueueSenderPool pool = new QueueSenderPool(delaying.getConnectionFactory(), 4);
+      try
+      {
+         delaying.loseNextSend();
+         try
+         {
+            pool.send(this.queue, "Lost");
+            Assert.fail("Loss of the connection should be raised");
+         }
+         catch (final JMSException expected)
+         {
+            // Good
+         }
+         Assert.assertEquals("Message should be delivered once", Arrays.asList("Lost"), this.receiveAll());
+
+         // The connection is replaced for the next send
+         pool.send(this.queue, "After");
+         Assert.assertEquals(2, pool.getConnectionsCreated());
+         Assert.assertEquals(Arrays.asList("After"), this.receiveAll());
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   /**
+    * Ensures that a send failing for want of the connection before the
+    * message was handed to it is retried upon a new one
+    */
+   @Test
+   public void testSendRetriedBeforeIssued() throws Exception
+   {
+      final DelayingConnectionFactory delaying = new DelayingConnectionFactory(this.connectionFactory);
+      final QueueSenderPool pool = new QueueSenderPool(delaying.getConnectionFactory(), 4);
+      try
+      {
+         delaying.failNextSession();
+         pool.send(this.queue, "Retried");
+         Assert.assertEquals(2, pool.getConnectionsCreated());
+         Assert.assertEquals(Arrays.asList("Retried"), this.receiveAll());
+      }
+      finally
+      {
+         pool.close();
+      }
+   }
+
+   /**
+    * Ensures that a closed pool refuses to send
+    */
+   @Test(expected = JMSException.class)
+   public void testClosed() throws Exception
+   {
+      this.pool.send(this.queue, "Open");
+      this.pool.close();
+      this.pool.send(this.queue, "Closed");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Receives the contents of all messages presently in the queue, in order
+    */
+   private List<String> receiveAll() throws JMSException
+   {
+      final List<String> contents = new ArrayList<String>();
+      final QueueConnection connection = this.connectionFactory.createQueueConnection();
+      try
+      {
+         final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+         final QueueReceiver receiver = session.createReceiver(this.queue);
+         connection.start();
+         Message message;
+         while ((message = receiver.receive(500)) != null)
+         {
+            contents.add(((TextMessage) message).getText());
+         }
+      }
+      finally
+      {
+         connection.close();
+      }
+      return contents;
+   }
+}
@@ -0,0 +1,386 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.api;
+
+import java.nio.charset.Charset;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Compact binary form of a {@link StatusUpdate}, carried in the body of a 
+ * {@link BytesMessage} in place of the Java-serialized form in an {@link ObjectMessage}.
+ * 
+ * The form is a four byte header: the magic bytes "SU", the format version,
+ * and a byte of flags (presently always 0); followed by the length of the 
+ * UTF-8 encoded status text as an unsigned variable-length integer (7 bits
+ * per byte, least significant first), and the text itself.  The text is encoded
+ * straight into a per-Thread buffer, and decoded straight from one, so no 
+ * intermediate byte array is made for it; reading needs neither reflection nor 
+ * class resolution.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class StatusUpdateCodec
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Version of the form written
+    */
+   public static final int FORMAT_VERSION = 1;
+
+   /**
+    * First magic byte, 'S'
+    */
+   private static final byte MAGIC_0 = 0x53;
+
+   /**
+    * Second magic byte, 'U'
+    */
+   private static final byte MAGIC_1 = 0x55;
+
+   /**
+    * Length of the fixed header
+    */
+   private static final int HEADER_LENGTH = 4;
+
+   /**
+    * Most bytes taken by the variable-length text length
+    */
+   private static final int MAX_VARINT_LENGTH = 5;
+
+   /**
+    * Charset of the status text
+    */
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   /**
+    * Initial size of each per-Thread buffer
+    */
+   private static final int INITIAL_BUFFER_SIZE = 512;
+
+   /**
+    * Per-Thread buffers into which updates are written and from which they're read
+    */
+   private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>()
+   {
+      @Override
+      protected byte[] initialValue()
+      {
+         return new byte[INITIAL_BUFFER_SIZE];
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * No instances
+    */
+   private StatusUpdateCodec()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a {@link BytesMessage} from the specified session carrying the specified update
+    * 
+    * @param session
+    * @param status
+    * @throws JMSException If the message could not be created or written
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static BytesMessage createMessage(final Session session, final StatusUpdate status) throws JMSException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (session == null)
+      {
+         throw new IllegalArgumentException("session must be specified");
+      }
+
+      final BytesMessage message = session.createBytesMessage();
+      write(status, message);
+      return message;
+   }
+
+   /**
+    * Writes the specified update to the body of the specified message
+    * 
+    * @param status
+    * @param message
+    * @throws JMSException If the message could not be written
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static void write(final StatusUpdate status, final BytesMessage message) throws JMSException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (message == null)
+      {
+         throw new IllegalArgumentException("message must be specified");
+      }
+
+      final int length = encode(status);
+      message.writeBytes(BUFFERS.get(), 0, length);
+   }
+
+   /**
+    * Reads an update from the body of the specified message
+    * 
+    * @param message
+    * @throws MessageFormatException If the body is not a status update of a known version
+    * @throws JMSException If the message could not be read
+    * @throws IllegalArgumentException If the message is not specified
+    */
+   public static StatusUpdate read(final BytesMessage message) throws MessageFormatException, JMSException,
+         IllegalArgumentException
+   {
+      // Precondition checks
+      if (message == null)
+      {
+         throw new IllegalArgumentException("message must be specified");
+      }
+
+      final long bodyLength = message.getBodyLength();
+      if (bodyLength > Integer.MAX_VALUE)
+      {
+         throw new MessageFormatException("Body of " + bodyLength + " bytes is too long for a status update");
+      }
+      final byte[] buffer = getBuffer((int) bodyLength);
+      final int read = message.readBytes(buffer, (int) bodyLength);
+      return decode(buffer, 0, Math.max(read, 0));
+   }
+
+   /**
+    * Obtains the specified update in binary form
+    * 
+    * @param status
+    * @throws IllegalArgumentException If the update is not specified
+    */
+   public static byte[] toBytes(final StatusUpdate status) throws IllegalArgumentException
+   {
+      final byte[] bytes = new byte[encode(status)];
+      System.arraycopy(BUFFERS.get(), 0, bytes, 0, bytes.length);
+      return bytes;
+   }
+
+   /**
+    * Reads an update from the specified range of bytes
+    * 
+    * @param bytes
+    * @param offset
+    * @param length
+    * @throws MessageFormatException If the bytes are not a status update of a known version
+    */
+   public static StatusUpdate fromBytes(final byte[] bytes, final int offset, final int length)
+         throws MessageFormatException
+   {
+      return decode(bytes, offset, length);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Encodes the specified update into this Thread's buffer, returning the encoded length
+    */
+   private static int encode(final StatusUpdate status) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (status == null)
+      {
+         throw new IllegalArgumentException("status must be specified");
+      }
+
+      final String text = status.getText();
+      final int textLength = getUtf8Length(text);
+      final byte[] buffer = getBuffer(HEADER_LENGTH + MAX_VARINT_LENGTH + textLength);
+      buffer[0] = MAGIC_0;
+      buffer[1] = MAGIC_1;
+      buffer[2] = FORMAT_VERSION;
+      buffer[3] = 0;
+      int position = HEADER_LENGTH;
+
+      // Length
+      int remaining = textLength;
+      while ((remaining & ~0x7F) != 0)
+      {
+         buffer[position++] = (byte) ((remaining & 0x7F) | 0x80);
+         remaining >>>= 7;
+      }
+      buffer[position++] = (byte) remaining;
+
+      // Text, encoded in place
+      for (int i = 0; i < text.length(); i++)
+      {
+         final char c = text.charAt(i);
+         if (c < 0x80)
+         {
+            buffer[position++] = (byte) c;
+         }
+         else if (c < 0x800)
+         {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+         }
+         else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+               && Character.isLowSurrogate(text.charAt(i + 1)))
+         {
+            final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+            buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+         }
+         else if (isSurrogate(c))
+         {
+            // Unpaired; encode as the replacement '?', as String.getBytes would
+            buffer[position++] = '?';
+         }
+         else
+         {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+         }
+      }
+      return position;
+   }
+
+   /**
+    * Decodes an update from the specified range of bytes
+    */
+   private static StatusUpdate decode(final byte[] bytes, final int offset, final int length)
+         throws MessageFormatException
+   {
+      if (length < HEADER_LENGTH + 1 || bytes[offset] != MAGIC_0 || bytes[offset + 1] != MAGIC_1)
+      {
+         throw new MessageFormatException("Not a status update");
+      }
+      final int version = bytes[offset + 2];
+      if (version != FORMAT_VERSION)
+      {
+         throw new MessageFormatException("Unsupported status update format version: " + version);
+      }
+
+      // Length
+      final int end = offset + length;
+      int position = offset + HEADER_LENGTH;
+      int textLength = 0;
+      for (int shift = 0;; shift += 7)
+      {
+         if (position == end || shift > 28)
+         {
+            throw new MessageFormatException("Malformed status update length");
+         }
+         final byte b = bytes[position++];
+         textLength |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+         {
+            break;
+         }
+      }
+      if (textLength == 0)
+      {
+         throw new MessageFormatException("Status update has no text");
+      }
+      if (textLength < 0 || textLength > end - position)
+      {
+         throw new MessageFormatException("Status update of " + textLength + " bytes exceeds the "
+               + (end - position) + " remaining");
+      }
+
+      // Text, decoded in place
+      return new StatusUpdate(new String(bytes, position, textLength, UTF_8));
+   }
+
+   /**
+    * Obtains the number of bytes the specified text takes in UTF-8
+    */
+   private static int getUtf8Length(final String text)
+   {
+      int length = 0;
+      for (int i = 0; i < text.length(); i++)
+      {
+         final char c = text.charAt(i);
+         if (c < 0x80)
+         {
+            length++;
+         }
+         else if (c < 0x800)
+         {
+            length += 2;
+         }
+         else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+               && Character.isLowSurrogate(text.charAt(i + 1)))
+         {
+            length += 4;
+            i++;
+         }
+         else if (isSurrogate(c))
+         {
+            length++;
+         }
+         else
+         {
+            length += 3;
+         }
+      }
+      return length;
+   }
+
+   /**
+    * Whether the specified char is either half of a surrogate pair
+    */
+   private static boolean isSurrogate(final char c)
+   {
+      return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+   }
+
+   /**
+    * Obtains this Thread's buffer, grown to at least the specified size
+    */
+   private static byte[] getBuffer(final int size)
+   {
+      byte[] buffer = BUFFERS.get();
+      if (buffer.length < size)
+      {
+         buffer = new byte[Math.max(size, buffer.length * 2)];
+         BUFFERS.set(buffer);
+      }
+      return buffer;
+   }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.logging.Logger;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.jms.MessageListener;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateConstants;
+
+/**
+ * An MDB which is the sole subscriber needed upon the StatusUpdate topic; each 
+ * incoming update is decoded once, then handed to the {@link StatusUpdateDispatcherBean}
+ * to be acted upon by every handler in parallel.  Deploy in place of 
+ * {@link LoggingStatusUpdateMdb} and {@link TwitterUpdateMdb} activated upon 
+ * the topic, else those will act upon each update twice.
+ * 
+ * A handler backed up holds up this delivery for a time; one still backed up
+ * after has the update dropped, as logged here, and it is not redelivered.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@MessageDriven(activationConfig =
+{
+      @ActivationConfigProperty(propertyName = "destinationType", propertyValue = StatusUpdateConstants.TYPE_DESTINATION_STATUSUPDATE),
+      @ActivationConfigProperty(propertyName = "destination", propertyValue = StatusUpdateConstants.JNDI_NAME_TOPIC_STATUSUPDATE)})
+public class DispatchingStatusUpdateMdb extends StatusUpdateBeanBase implements MessageListener
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(DispatchingStatusUpdateMdb.class.getName());
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Fans updates out to the handlers
+    */
+   @EJB
+   private StatusUpdateDispatcherBean dispatcher;
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Hands the status to each handler, without waiting upon any
+    * @see org.jboss.ejb3.examples.ch08.statusupdate.mdb.StatusUpdateBeanBase#updateStatus(org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate)
+    */
+   @Override
+   public void updateStatus(final StatusUpdate newStatus) throws IllegalArgumentException, Exception
+   {
+      // Precondition checks
+      if (newStatus == null)
+      {
+         throw new IllegalArgumentException("status must be specified");
+      }
+
+      // Dispatch, waiting a while upon backed-up handlers; an update dropped by one is not redelivered
+      final int queued = dispatcher.dispatch(newStatus);
+      final int handlers = dispatcher.getHandlerCount();
+      if (queued < handlers)
+      {
+         log.warning("Status update dropped by " + (handlers - queued) + " backed-up handler(s): " + newStatus);
+      }
+   }
+
+}
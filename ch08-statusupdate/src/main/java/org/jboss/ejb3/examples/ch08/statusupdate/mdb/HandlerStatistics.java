@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.io.Serializable;
+
+/**
+ * Value object describing the queue of updates awaiting a single
+ * {@link StatusUpdateHandler} registered with a {@link StatusUpdateDispatcher}, 
+ * as of when it was obtained
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class HandlerStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name under which the handler was registered
+    */
+   private final String name;
+
+   /**
+    * Most updates which may await the handler
+    */
+   private final int capacity;
+
+   /**
+    * Updates awaiting the handler
+    */
+   private final int depth;
+
+   /**
+    * Time the oldest update awaiting the handler has waited, in milliseconds
+    */
+   private final long lagMillis;
+
+   /**
+    * Updates the handler has completed
+    */
+   private final long handled;
+
+   /**
+    * Updates for which the handler failed
+    */
+   private final long failed;
+
+   /**
+    * Updates never given to the handler because its queue was full
+    */
+   private final long dropped;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   HandlerStatistics(final String name, final int capacity, final int depth, final long lagMillis,
+         final long handled, final long failed, final long dropped)
+   {
+      this.name = name;
+      this.capacity = capacity;
+      this.depth = depth;
+      this.lagMillis = lagMillis;
+      this.handled = handled;
+      this.failed = failed;
+      this.dropped = dropped;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the name under which the handler was registered
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * Obtains the most updates which may await the handler
+    */
+   public int getCapacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * Obtains the number of updates awaiting the handler
+    */
+   public int getDepth()
+   {
+      return depth;
+   }
+
+   /**
+    * Obtains the time the oldest update awaiting the handler has waited, 
+    * in milliseconds, or 0 if none await it
+    */
+   public long getLagMillis()
+   {
+      return lagMillis;
+   }
+
+   /**
+    * Obtains the number of updates the handler has completed, successfully or not
+    */
+   public long getHandled()
+   {
+      return handled;
+   }
+
+   /**
+    * Obtains the number of updates for which the handler failed
+    */
+   public long getFailed()
+   {
+      return failed;
+   }
+
+   /**
+    * Obtains the number of updates never given to the handler because its queue was full
+    */
+   public long getDropped()
+   {
+      return dropped;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return String.format("%s [name=%s, depth=%d/%d, lag=%dms, handled=%d, failed=%d, dropped=%d]", this
+            .getClass().getSimpleName(), name, depth, capacity, lagMillis, handled, failed, dropped);
+   }
+}
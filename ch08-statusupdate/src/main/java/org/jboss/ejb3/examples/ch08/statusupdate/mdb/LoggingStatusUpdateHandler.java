@@ -19,56 +19,53 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
 
 /**
- * Package-private utilities to protect against mutable
- * state getting exported
+ * {@link StatusUpdateHandler} which will log out the status update at INFO-level;
+ * a POJO needing no injection nor lifecycle, so may be registered as it is with 
+ * a {@link StatusUpdateDispatcher}, and is what the {@link LoggingStatusUpdateMdb} 
+ * calls upon.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
-class ProtectExportUtil
+final class LoggingStatusUpdateHandler implements StatusUpdateHandler
 {
+
    //-------------------------------------------------------------------------------------||
-   // Constructor ------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Internal constructor; protects against instantiation
+    * Logger
     */
-   private ProtectExportUtil()
-   {
-   }
+   private static final Logger log = Logger.getLogger(LoggingStatusUpdateHandler.class.getName());
 
    //-------------------------------------------------------------------------------------||
-   // Functional Methods -----------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Returns a copy of the specified URL; used to ensure that mutable 
-    * internal state is not leaked out to clients
-    * @param url
-    * @return
+    * Logs status out at INFO-level
+    * @see org.jboss.ejb3.examples.ch08.statusupdate.mdb.StatusUpdateHandler#updateStatus(org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate)
     */
-   static URL copyUrl(final URL url)
+   @Override
+   public void updateStatus(final StatusUpdate newStatus) throws IllegalArgumentException
    {
-      // If null, return
-      if (url == null)
+      // Precondition checks
+      if (newStatus == null)
       {
-         return url;
+         throw new IllegalArgumentException("status must be specified");
       }
 
-      try
-      {
-         // Copy 
-         return new URL(url.toExternalForm());
-      }
-      catch (final MalformedURLException e)
-      {
-         throw new RuntimeException("Error in copying URL", e);
-      }
+      // Get info
+      final String status = newStatus.getText();
+
+      // Log
+      log.info("New status received: \"" + status + "\"");
    }
 }
@@ -21,39 +21,36 @@
  */
 package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 
-import java.util.logging.Logger;
-
-import javax.ejb.ActivationConfigProperty;
-import javax.ejb.MessageDriven;
 import javax.jms.MessageListener;
 
 import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
-import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateConstants;
 
 /**
  * An MDB which, {@link MessageListener#onMessage(javax.jms.Message)}, will
- * log out the status update at INFO-level. 
+ * log out the status update at INFO-level, by way of the {@link LoggingStatusUpdateHandler}. 
+ * 
+ * Not activated upon the StatusUpdate topic by itself: the {@link DispatchingStatusUpdateMdb}
+ * subscribes once for all handlers, and gives each update to the logging handler.  To 
+ * consume the topic with this bean instead, deploy it in place of the dispatching MDB with 
+ * activation configured in ejb-jar.xml (or by an annotated extension, as the 
+ * {@link TwitterUpdateMdb} is activated in testing), else each update is logged twice.
  * 
  * Not explicitly tested by the examples (because we can't test for logging), 
  * but its usage should be illustrative.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
-@MessageDriven(activationConfig =
-{
-      @ActivationConfigProperty(propertyName = "destinationType", propertyValue = StatusUpdateConstants.TYPE_DESTINATION_STATUSUPDATE),
-      @ActivationConfigProperty(propertyName = "destination", propertyValue = StatusUpdateConstants.JNDI_NAME_TOPIC_STATUSUPDATE)})
 public class LoggingStatusUpdateMdb extends StatusUpdateBeanBase implements MessageListener
 {
 
    //-------------------------------------------------------------------------------------||
-   // Class Members ----------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Logger
+    * Logs each update
     */
-   private static final Logger log = Logger.getLogger(LoggingStatusUpdateMdb.class.getName());
+   private final StatusUpdateHandler handler = new LoggingStatusUpdateHandler();
 
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
@@ -66,17 +63,7 @@ public class LoggingStatusUpdateMdb extends StatusUpdateBeanBase implements Mess
    @Override
    public void updateStatus(final StatusUpdate newStatus) throws IllegalArgumentException, Exception
    {
-      // Precondition checks
-      if (newStatus == null)
-      {
-         throw new IllegalArgumentException("status must be specified");
-      }
-
-      // Get info
-      final String status = newStatus.getText();
-
-      // Log
-      log.info("New status received: \"" + status + "\"");
+      handler.updateStatus(newStatus);
    }
 
 }
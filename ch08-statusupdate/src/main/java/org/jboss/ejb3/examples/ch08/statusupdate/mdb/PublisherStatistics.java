@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.io.Serializable;
+
+/**
+ * Value object describing what's become of the status texts handed to a 
+ * {@link RateLimitedStatusPublisher}, as of when it was obtained
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class PublisherStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Texts awaiting publication
+    */
+   private final int pending;
+
+   /**
+    * Texts published
+    */
+   private final long published;
+
+   /**
+    * Texts refused as repeating one accepted within the duplicate window
+    */
+   private final long duplicates;
+
+   /**
+    * Texts superseded by a later one before they could be published
+    */
+   private final long coalesced;
+
+   /**
+    * Texts refused because too many were pending
+    */
+   private final long rejected;
+
+   /**
+    * Texts whose publication failed
+    */
+   private final long failed;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   PublisherStatistics(final int pending, final long published, final long duplicates, final long coalesced,
+         final long rejected, final long failed)
+   {
+      this.pending = pending;
+      this.published = published;
+      this.duplicates = duplicates;
+      this.coalesced = coalesced;
+      this.rejected = rejected;
+      this.failed = failed;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the number of texts awaiting publication
+    */
+   public int getPending()
+   {
+      return pending;
+   }
+
+   /**
+    * Obtains the number of texts published
+    */
+   public long getPublished()
+   {
+      return published;
+   }
+
+   /**
+    * Obtains the number of texts refused as repeating one accepted within the duplicate window
+    */
+   public long getDuplicates()
+   {
+      return duplicates;
+   }
+
+   /**
+    * Obtains the number of texts superseded by a later one before they could be published
+    */
+   public long getCoalesced()
+   {
+      return coalesced;
+   }
+
+   /**
+    * Obtains the number of texts refused because too many were pending
+    */
+   public long getRejected()
+   {
+      return rejected;
+   }
+
+   /**
+    * Obtains the number of texts whose publication failed
+    */
+   public long getFailed()
+   {
+      return failed;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return String.format("%s [pending=%d, published=%d, duplicates=%d, coalesced=%d, rejected=%d, failed=%d]",
+            this.getClass().getSimpleName(), pending, published, duplicates, coalesced, rejected, failed);
+   }
+}
@@ -0,0 +1,424 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+
+/**
+ * Outbound stage publishing status texts to Twitter from its own Thread, such 
+ * that those handing texts to it never wait upon the remote API.  Publication
+ * is limited by a {@link TokenBucket} to a steady rate with bursts of a set size.
+ * 
+ * A text repeating one accepted within the duplicate window is refused.  Should
+ * coalescing be enabled, a burst of texts arriving while publication is held back
+ * by the rate limit is published as only its latest; a status is replaced by the next,
+ * so those superseded needn't be sent.  Failed publications are logged and
+ * counted, but not retried.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class RateLimitedStatusPublisher implements Runnable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(RateLimitedStatusPublisher.class.getName());
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Client through which texts are published
+    */
+   private final Twitter client;
+
+   /**
+    * Limits the rate of publication; used only by {@link RateLimitedStatusPublisher#thread}
+    */
+   private final TokenBucket bucket;
+
+   /**
+    * Time within which a repeated text is refused
+    */
+   private final long duplicateWindowNanos;
+
+   /**
+    * Most texts which may be pending
+    */
+   private final int capacity;
+
+   /**
+    * Whether to publish only the latest of the texts pending once a token is had
+    */
+   private final boolean coalesce;
+
+   /**
+    * Thread publishing the texts
+    */
+   private final Thread thread;
+
+   /**
+    * Guards all below
+    */
+   private final ReentrantLock lock = new ReentrantLock();
+
+   /**
+    * Signalled when texts are pending, or we're closed
+    */
+   private final Condition notEmpty = lock.newCondition();
+
+   /**
+    * Signalled when no texts are pending nor being published
+    */
+   private final Condition idle = lock.newCondition();
+
+   /**
+    * Texts awaiting publication, oldest first
+    */
+   private final Deque<String> pending = new ArrayDeque<String>();
+
+   /**
+    * Texts accepted within the duplicate window, and when, oldest first
+    */
+   private final Map<String, Long> recent = new LinkedHashMap<String, Long>();
+
+   /**
+    * Whether a text is being published
+    */
+   private boolean publishing;
+
+   private boolean closed;
+
+   private long published;
+
+   private long duplicates;
+
+   private long coalesced;
+
+   private long rejected;
+
+   private long failed;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates and starts a new publisher
+    * 
+    * @param client Client through which texts are published
+    * @param permitsPerSecond Steady rate of publication
+    * @param burst Most texts which may be published at once after a lull
+    * @param duplicateWindow Time within which a repeated text is refused
+    * @param unit Unit of the duplicate window
+    * @param capacity Most texts which may be pending
+    * @param coalesce Whether a burst is published as only its latest text
+    * @throws IllegalArgumentException If the client is not specified, or the rate, burst or capacity is not positive
+    */
+   RateLimitedStatusPublisher(final Twitter client, final double permitsPerSecond, final int burst,
+         final long duplicateWindow, final TimeUnit unit, final int capacity, final boolean coalesce)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (client == null)
+      {
+         throw new IllegalArgumentException("client must be specified");
+      }
+      if (capacity <= 0)
+      {
+         throw new IllegalArgumentException("capacity must be positive");
+      }
+
+      this.client = client;
+      this.bucket = new TokenBucket(permitsPerSecond, burst);
+      this.duplicateWindowNanos = unit.toNanos(duplicateWindow);
+      this.capacity = capacity;
+      this.coalesce = coalesce;
+      this.thread = new Thread(this, "TwitterPublisher");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Hands the specified text off for publication, without waiting
+    * 
+    * @param text
+    * @return Whether the text was accepted; false if it repeats one accepted within 
+    * the duplicate window, or too many are pending
+    * @throws IllegalArgumentException If the text is not specified
+    * @throws IllegalStateException If closed
+    */
+   boolean submit(final String text) throws IllegalArgumentException, IllegalStateException
+   {
+      // Precondition checks
+      if (text == null)
+      {
+         throw new IllegalArgumentException("text must be specified");
+      }
+
+      final long now = System.nanoTime();
+      lock.lock();
+      try
+      {
+         if (closed)
+         {
+            throw new IllegalStateException("Publisher is closed");
+         }
+
+         // Forget texts accepted before the window
+         final Iterator<Long> accepted = recent.values().iterator();
+         while (accepted.hasNext() && now - accepted.next() >= duplicateWindowNanos)
+         {
+            accepted.remove();
+         }
+         if (recent.containsKey(text))
+         {
+            duplicates++;
+            return false;
+         }
+         if (pending.size() >= capacity)
+         {
+            rejected++;
+            return false;
+         }
+
+         recent.put(text, now);
+         pending.addLast(text);
+         notEmpty.signal();
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Waits up to the specified time for no texts to be pending nor being published
+    * 
+    * @return Whether idle
+    */
+   boolean awaitIdle(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      long remaining = unit.toNanos(timeout);
+      lock.lock();
+      try
+      {
+         while (!pending.isEmpty() || publishing)
+         {
+            if (remaining <= 0)
+            {
+               return false;
+            }
+            remaining = idle.awaitNanos(remaining);
+         }
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Obtains statistics of the texts handed to this publisher
+    */
+   PublisherStatistics getStatistics()
+   {
+      lock.lock();
+      try
+      {
+         return new PublisherStatistics(pending.size(), published, duplicates, coalesced, rejected, failed);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Stops taking texts, and waits up to the specified time for those pending to 
+    * be published (still at the limited rate), abandoning any which aren't
+    * 
+    * @return Whether all pending texts were published
+    */
+   boolean close(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      lock.lock();
+      try
+      {
+         closed = true;
+         notEmpty.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+      thread.join(Math.max(1, unit.toMillis(timeout)));
+      if (thread.isAlive())
+      {
+         log.warning("Abandoning " + this.getStatistics().getPending() + " status update(s) not yet published");
+         thread.interrupt();
+         return false;
+      }
+      return true;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Publishes pending texts until closed and none remain
+    * @see java.lang.Runnable#run()
+    */
+   @Override
+   public void run()
+   {
+      try
+      {
+         while (true)
+         {
+            // Wait for a text
+            lock.lock();
+            try
+            {
+               while (pending.isEmpty() && !closed)
+               {
+                  notEmpty.await();
+               }
+               if (pending.isEmpty())
+               {
+                  return;
+               }
+            }
+            finally
+            {
+               lock.unlock();
+            }
+
+            // Wait for a token; more texts may gather meanwhile
+            bucket.acquire();
+
+            // Take the next text, or only the latest if coalescing
+            final String text;
+            lock.lock();
+            try
+            {
+               if (coalesce && pending.size() > 1)
+               {
+                  coalesced += pending.size() - 1;
+                  text = pending.peekLast();
+                  pending.clear();
+               }
+               else
+               {
+                  text = pending.pollFirst();
+               }
+               publishing = true;
+            }
+            finally
+            {
+               lock.unlock();
+            }
+
+            // Publish
+            boolean success = false;
+            try
+            {
+               client.updateStatus(text);
+               success = true;
+            }
+            catch (final TwitterException te)
+            {
+               log.log(Level.WARNING, "Could not publish status update: " + text, te);
+            }
+            catch (final RuntimeException re)
+            {
+               log.log(Level.WARNING, "Could not publish status update: " + text, re);
+            }
+            finally
+            {
+               lock.lock();
+               try
+               {
+                  if (success)
+                  {
+                     published++;
+                  }
+                  else
+                  {
+                     failed++;
+                  }
+                  publishing = false;
+                  if (pending.isEmpty())
+                  {
+                     idle.signalAll();
+                  }
+               }
+               finally
+               {
+                  lock.unlock();
+               }
+            }
+         }
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         lock.lock();
+         try
+         {
+            idle.signalAll();
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+   }
+}
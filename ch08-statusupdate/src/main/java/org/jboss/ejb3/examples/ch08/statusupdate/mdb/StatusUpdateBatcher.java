@@ -0,0 +1,315 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+
+/**
+ * Gathers the status updates consumed by all instances of one {@link StatusUpdateBeanBase}
+ * implementation into batches for {@link StatusUpdateBeanBase#updateStatuses(List)}.
+ * Each delivery waits until the batch holding its update has been processed, such 
+ * that its message is acknowledged only then.  A batch is handed over by a Thread 
+ * delivering one of its messages, to the instance being delivered to, such that it's 
+ * processed within the context the container gave that delivery: by the delivery 
+ * which fills it, or, once its first update has lingered for the time allowed, by the 
+ * first of its deliveries to find so.  A batch not filled therefore needs no further
+ * traffic to be handed over.  Each batch is handed over by its own delivery, so
+ * batches don't wait upon one another.
+ * 
+ * As deliveries wait upon their batch, a batch gathers no more updates than there are
+ * deliveries in flight at once (for an MDB, its sessions); larger batches will not fill,
+ * and are handed over only once they've lingered.
+ * 
+ * Should a batch fail, every delivery waiting upon it fails too, so that each 
+ * message is redelivered; nothing is kept in memory, nor dropped, between deliveries.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class StatusUpdateBatcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Batchers, keyed by implementation class, batch size and linger time
+    */
+   private static final ConcurrentMap<String, StatusUpdateBatcher> BATCHERS = 
+         new ConcurrentHashMap<String, StatusUpdateBatcher>();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Most updates in a batch
+    */
+   private final int maxBatchSize;
+
+   /**
+    * Longest time, in nanoseconds, the first update of a batch waits for more
+    */
+   private final long lingerNanos;
+
+   /**
+    * Batch being gathered, or null if none; guarded by this
+    */
+   private Batch open;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @param maxBatchSize Most updates in a batch
+    * @param lingerMillis Longest time the first update of a batch waits
+    * @throws IllegalArgumentException If either limit is not positive
+    */
+   StatusUpdateBatcher(final int maxBatchSize, final long lingerMillis) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxBatchSize <= 0)
+      {
+         throw new IllegalArgumentException("maxBatchSize must be positive");
+      }
+      if (lingerMillis <= 0)
+      {
+         throw new IllegalArgumentException("lingerMillis must be positive");
+      }
+
+      this.maxBatchSize = maxBatchSize;
+      this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory ----------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the batcher shared by all instances of the specified implementation
+    * class asking for the same limits
+    * 
+    * @throws IllegalArgumentException If the type is not specified, or either limit not positive
+    */
+   static StatusUpdateBatcher getInstance(final Class<?> type, final int maxBatchSize, final long lingerMillis)
+         throws IllegalArgumentException
+   {
+      if (type == null)
+      {
+         throw new IllegalArgumentException("type must be specified");
+      }
+      final String key = type.getName() + '/' + maxBatchSize + '/' + lingerMillis;
+      StatusUpdateBatcher batcher = BATCHERS.get(key);
+      if (batcher == null)
+      {
+         final StatusUpdateBatcher created = new StatusUpdateBatcher(maxBatchSize, lingerMillis);
+         batcher = BATCHERS.putIfAbsent(key, created);
+         if (batcher == null)
+         {
+            batcher = created;
+         }
+      }
+      return batcher;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Adds the specified update, delivered to the specified instance, to the batch 
+    * being gathered, and returns once that batch has been processed; the batch is 
+    * handed over to that instance upon this Thread if this update fills it, or if 
+    * this is the first delivery to find it has lingered long enough
+    * 
+    * @throws Exception If the batch could not be processed
+    */
+   void add(final StatusUpdateBeanBase target, final StatusUpdate update) throws Exception
+   {
+      final Batch batch;
+      final boolean full;
+      synchronized (this)
+      {
+         if (open == null)
+         {
+            open = new Batch(maxBatchSize, System.nanoTime() + lingerNanos);
+         }
+         batch = open;
+         batch.updates.add(update);
+         full = batch.updates.size() >= maxBatchSize;
+         if (full)
+         {
+            open = null;
+         }
+      }
+
+      // Whoever fills a batch hands it over; else whoever first finds it has lingered
+      if (full || (!batch.awaitUntilDeadline() && this.close(batch)))
+      {
+         batch.handOver(target);
+      }
+      batch.await();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Takes no more updates into the specified batch
+    * 
+    * @return Whether the batch was open, and so is for the caller to hand over
+    */
+   private synchronized boolean close(final Batch batch)
+   {
+      if (open != batch)
+      {
+         return false;
+      }
+      open = null;
+      return true;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Updates to be processed together, and the outcome once they are
+    */
+   private static final class Batch
+   {
+      /**
+       * Updates gathered; guarded by the batcher until closed
+       */
+      private final List<StatusUpdate> updates;
+
+      /**
+       * Time, from {@link System#nanoTime()}, at which the batch is to be handed over if not yet full
+       */
+      private final long deadlineNanos;
+
+      /**
+       * Released once the batch has been processed
+       */
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      /**
+       * Failure in processing the batch, if any
+       */
+      private volatile Exception failure;
+
+      Batch(final int maxBatchSize, final long deadlineNanos)
+      {
+         this.updates = new ArrayList<StatusUpdate>(maxBatchSize);
+         this.deadlineNanos = deadlineNanos;
+      }
+
+      /**
+       * Processes the closed batch upon the specified instance, releasing those waiting upon it
+       */
+      void handOver(final StatusUpdateBeanBase target)
+      {
+         try
+         {
+            target.updateStatuses(updates);
+         }
+         catch (final Exception e)
+         {
+            failure = e;
+         }
+         finally
+         {
+            done.countDown();
+         }
+      }
+
+      /**
+       * Waits until the batch has been processed, or its deadline has passed
+       * 
+       * @return Whether the batch has been processed
+       */
+      boolean awaitUntilDeadline()
+      {
+         boolean interrupted = false;
+         try
+         {
+            while (true)
+            {
+               try
+               {
+                  return done.await(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+               }
+               catch (final InterruptedException ie)
+               {
+                  // Our update is in the batch, so wait it out
+                  interrupted = true;
+               }
+            }
+         }
+         finally
+         {
+            if (interrupted)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+
+      /**
+       * Waits until the batch has been processed, raising any failure
+       */
+      void await() throws Exception
+      {
+         boolean interrupted = false;
+         while (true)
+         {
+            try
+            {
+               done.await();
+               break;
+            }
+            catch (final InterruptedException ie)
+            {
+               // Our update is in the batch, so wait it out
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+         if (failure != null)
+         {
+            throw new Exception("Could not process batch of " + updates.size() + " status updates", failure);
+         }
+      }
+   }
+}
@@ -22,24 +22,57 @@
 package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.logging.Logger;
 
+import javax.annotation.PreDestroy;
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
 
 import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateCodec;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateConstants;
+import org.jboss.ejb3.examples.testsupport.metrics.MessageMetrics;
 
 /**
  * Base support for the StatusUpdateEJB.  Responsible for
  * consuming an incoming JMS Message and dispatching to 
  * {@link StatusUpdateBeanBase#updateStatus(StatusUpdate)}.  Children
  * are required to supply specialization of this method.
+ * 
+ * Updates are accepted either in the compact binary form of 
+ * {@link StatusUpdateCodec} within a {@link BytesMessage}, or, 
+ * for compatibility with existing producers, Java-serialized within
+ * an {@link ObjectMessage}.
+ * 
+ * As a {@link StatusUpdateHandler}, any StatusUpdate EJB implementation
+ * class may also be given updates by a {@link StatusUpdateDispatcher}.
+ * 
+ * Children may opt in to consuming updates in batches, by way of 
+ * {@link StatusUpdateBeanBase#enableBatching(int, long)}, such that the cost 
+ * of each call to a store or external service is shared among many updates.  
+ * Batches are then given to {@link StatusUpdateBeanBase#updateStatuses(List)},
+ * always upon a Thread delivering a message, and to the instance it delivers to.
+ * A batch is shared by all instances of an implementation class, and is handed
+ * over once full, or, by one of its own deliveries, once it has lingered long enough.
+ * Each delivery returns, and so its message is acknowledged, only once its batch
+ * has been processed; should the batch fail, each of its messages is redelivered.  
+ * A redelivered message is processed alone by {@link StatusUpdateBeanBase#updateStatus(StatusUpdate)},
+ * such that an update which can't be processed fails by itself, and is left to the 
+ * redelivery policy of the destination.  As deliveries wait upon their batch, batches
+ * gather no more updates than there are deliveries in flight at once.
+ * 
+ * The time each message waited in the destination and took to process, 
+ * the rate of consumption and any failures are recorded in the 
+ * {@link MessageMetrics} of the destination and implementation class,
+ * given back by each instance as it's discarded.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
-public abstract class StatusUpdateBeanBase implements MessageListener
+public abstract class StatusUpdateBeanBase implements MessageListener, StatusUpdateHandler
 {
    //-------------------------------------------------------------------------------------||
    // Class Members ----------------------------------------------------------------------||
@@ -50,6 +83,21 @@ public abstract class StatusUpdateBeanBase implements MessageListener
     */
    private static final Logger log = Logger.getLogger(StatusUpdateBeanBase.class.getName());
 
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Gathers updates into batches, shared by all instances of this class
+    * with the same limits, or null if consuming one at a time
+    */
+   private StatusUpdateBatcher batcher;
+
+   /**
+    * Metrics of this consumer, obtained upon first consumption
+    */
+   private MessageMetrics metrics;
+
    //-------------------------------------------------------------------------------------||
    // Contracts --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -62,6 +110,74 @@ public abstract class StatusUpdateBeanBase implements MessageListener
     */
    public abstract void updateStatus(StatusUpdate newStatus) throws IllegalArgumentException, Exception;
 
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Updates status to each of the specified values, in order; called only if 
+    * batching has been enabled.  This implementation calls 
+    * {@link StatusUpdateBeanBase#updateStatus(StatusUpdate)} for each;
+    * children override to process the batch at once.
+    * 
+    * @throws Exception If an error occured in processing
+    */
+   protected void updateStatuses(final List<StatusUpdate> newStatuses) throws Exception
+   {
+      for (final StatusUpdate newStatus : newStatuses)
+      {
+         this.updateStatus(newStatus);
+      }
+   }
+
+   /**
+    * Consumes updates hereafter in batches given to {@link StatusUpdateBeanBase#updateStatuses(List)},
+    * each handed over once it holds the specified most updates, or once its first update 
+    * has waited the specified time.  Typically called upon construction
+    * or in a PostConstruct callback.
+    * 
+    * @throws IllegalArgumentException If either limit is not positive
+    * @throws IllegalStateException If batching has already been enabled
+    */
+   protected final void enableBatching(final int maxBatchSize, final long lingerMillis)
+         throws IllegalArgumentException, IllegalStateException
+   {
+      if (batcher != null)
+      {
+         throw new IllegalStateException("Batching already enabled");
+      }
+      this.batcher = StatusUpdateBatcher.getInstance(this.getClass(), maxBatchSize, lingerMillis);
+      log.info(this.getClass().getSimpleName() + " consuming status updates in batches of up to " + maxBatchSize
+            + ", lingering up to " + lingerMillis + "ms");
+   }
+
+   /**
+    * Obtains the name of the destination consumed, under which metrics are recorded.
+    * This implementation returns the StatusUpdate topic; children consuming 
+    * elsewhere should override.
+    */
+   protected String getDestinationName()
+   {
+      return StatusUpdateConstants.JNDI_NAME_TOPIC_STATUSUPDATE;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Gives back our metrics before this instance is discarded
+    */
+   @PreDestroy
+   void destroy()
+   {
+      if (metrics != null)
+      {
+         metrics.release();
+         metrics = null;
+      }
+   }
+
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -83,6 +199,114 @@ public abstract class StatusUpdateBeanBase implements MessageListener
          throw new IllegalArgumentException("Message must be specified");
       }
 
+      final long start = System.nanoTime();
+      final MessageMetrics metrics = this.getMetrics();
+
+      // Extract out the embedded status update
+      final StatusUpdate status;
+      try
+      {
+         status = getStatusUpdate(message);
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         metrics.recordFailure(iae);
+         throw iae;
+      }
+
+      // Process the update, or add it to the batch being gathered; redelivered updates alone
+      try
+      {
+         if (batcher != null && !isRedelivered(message))
+         {
+            batcher.add(this, status);
+         }
+         else
+         {
+            this.updateStatus(status);
+         }
+      }
+      catch (final Exception e)
+      {
+         metrics.recordFailure(e);
+         throw new RuntimeException("Encountered problem with processing status update " + status, e);
+      }
+      metrics.recordConsumed(getTimestamp(message), System.currentTimeMillis(), System.nanoTime() - start);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the metrics of this consumer
+    */
+   private MessageMetrics getMetrics()
+   {
+      MessageMetrics metrics = this.metrics;
+      if (metrics == null)
+      {
+         final Class<?> type = this.getClass();
+         final String consumer = type.getSimpleName().length() > 0 ? type.getSimpleName() : type.getName();
+         metrics = MessageMetrics.getInstance(this.getDestinationName(), consumer);
+         this.metrics = metrics;
+      }
+      return metrics;
+   }
+
+   /**
+    * Obtains the time the specified message was sent, or 0 if not known
+    */
+   private static long getTimestamp(final Message message)
+   {
+      try
+      {
+         return message.getJMSTimestamp();
+      }
+      catch (final JMSException jmse)
+      {
+         return 0;
+      }
+   }
+
+   /**
+    * Determines whether the specified message has been delivered before
+    */
+   private static boolean isRedelivered(final Message message)
+   {
+      try
+      {
+         return message.getJMSRedelivered();
+      }
+      catch (final JMSException jmse)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Obtains the status update carried by the specified message, either
+    * binary in a {@link BytesMessage} or serialized in an {@link ObjectMessage}
+    * 
+    * @param message
+    * @throws IllegalArgumentException If the message is of neither form, or does not
+    * carry a {@link StatusUpdate}
+    */
+   static StatusUpdate getStatusUpdate(final Message message) throws IllegalArgumentException
+   {
+      // Binary form; decoded without reflection
+      if (message instanceof BytesMessage)
+      {
+         try
+         {
+            return StatusUpdateCodec.read((BytesMessage) message);
+         }
+         catch (final JMSException jmse)
+         {
+            throw new IllegalArgumentException("Could not read status update from message " + message, jmse);
+         }
+      }
+
       // Ensure the message is in expected form
       final ObjectMessage objMessage;
       if (message instanceof ObjectMessage)
@@ -91,7 +315,8 @@ public abstract class StatusUpdateBeanBase implements MessageListener
       }
       else
       {
-         throw new IllegalArgumentException("Specified message must be of type " + ObjectMessage.class.getName());
+         throw new IllegalArgumentException("Specified message must be of type " + BytesMessage.class.getName()
+               + " or " + ObjectMessage.class.getName());
       }
 
       // Extract out the embedded status update
@@ -106,25 +331,11 @@ public abstract class StatusUpdateBeanBase implements MessageListener
       }
 
       // Ensure expected type
-      final StatusUpdate status;
       if (obj instanceof StatusUpdate)
       {
-         status = (StatusUpdate) obj;
-      }
-      else
-      {
-         throw new IllegalArgumentException("Contents of message should be of type " + StatusUpdate.class.getName()
-               + "; was instead " + obj);
-      }
-
-      // Process the update
-      try
-      {
-         this.updateStatus(status);
-      }
-      catch (final Exception e)
-      {
-         throw new RuntimeException("Encountered problem with processing status update " + status, e);
+         return (StatusUpdate) obj;
       }
+      throw new IllegalArgumentException("Contents of message should be of type " + StatusUpdate.class.getName()
+            + "; was instead " + obj);
    }
 }
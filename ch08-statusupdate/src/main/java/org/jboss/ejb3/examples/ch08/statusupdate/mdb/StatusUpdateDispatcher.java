@@ -0,0 +1,359 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+
+/**
+ * Fans each {@link StatusUpdate} out to any number of registered 
+ * {@link StatusUpdateHandler}s in parallel, such that an update need be 
+ * consumed and decoded from the topic only once for all of them.
+ * 
+ * Each handler has its own bounded queue, drained by its own thread; 
+ * a handler that's slow (ie. calling upon a remote service) only backs up its
+ * own queue.  Once that queue is full, the dispatching thread waits up to the 
+ * time given to {@link StatusUpdateDispatcher#dispatch(StatusUpdate, long, TimeUnit)}
+ * for room, so that a handler falling behind slows the consumer rather than 
+ * losing updates; one still full after that wait has the update dropped, for 
+ * that handler alone, and counted.  As the update has by then been taken from
+ * its destination, a dropped update is lost to that handler.  A handler that 
+ * fails is logged and counted, and carries on with the next update.  The depth and lag of each queue 
+ * are available as {@link HandlerStatistics}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class StatusUpdateDispatcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StatusUpdateDispatcher.class.getName());
+
+   /**
+    * Longest time a handler thread waits before looking again for updates
+    */
+   private static final long IDLE_WAIT_MILLIS = 100;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Queues of the registered handlers, in order of registration
+    */
+   private final CopyOnWriteArrayList<HandlerQueue> queues = new CopyOnWriteArrayList<HandlerQueue>();
+
+   /**
+    * Whether we've been closed
+    */
+   private volatile boolean closed;
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Registers the specified handler under the specified name, to be given 
+    * all updates dispatched hereafter by its own thread
+    * 
+    * @param name
+    * @param handler
+    * @param capacity Most updates which may await the handler
+    * @throws IllegalArgumentException If the name or handler is not specified, the name
+    * is already registered, or the capacity is not positive
+    * @throws IllegalStateException If closed
+    */
+   synchronized void register(final String name, final StatusUpdateHandler handler, final int capacity)
+         throws IllegalArgumentException, IllegalStateException
+   {
+      // Precondition checks
+      if (name == null || name.length() == 0)
+      {
+         throw new IllegalArgumentException("name must be specified");
+      }
+      if (handler == null)
+      {
+         throw new IllegalArgumentException("handler must be specified");
+      }
+      if (capacity <= 0)
+      {
+         throw new IllegalArgumentException("capacity must be positive");
+      }
+      if (closed)
+      {
+         throw new IllegalStateException("Dispatcher is closed");
+      }
+      for (final HandlerQueue queue : queues)
+      {
+         if (queue.name.equals(name))
+         {
+            throw new IllegalArgumentException("Handler already registered as " + name);
+         }
+      }
+
+      final HandlerQueue queue = new HandlerQueue(name, handler, capacity);
+      queues.add(queue);
+      queue.thread.start();
+      log.info("Registered status update handler " + name + ": " + handler);
+   }
+
+   /**
+    * Queues the specified update for each registered handler, without waiting upon any
+    * 
+    * @param update
+    * @return The number of handlers for which the update was queued; less than all
+    * if any queues are full
+    * @throws IllegalArgumentException If the update is not specified
+    * @throws IllegalStateException If closed
+    */
+   int dispatch(final StatusUpdate update) throws IllegalArgumentException, IllegalStateException
+   {
+      try
+      {
+         return this.dispatch(update, 0, TimeUnit.NANOSECONDS);
+      }
+      catch (final InterruptedException ie)
+      {
+         // Not possible without waiting
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while dispatching", ie);
+      }
+   }
+
+   /**
+    * Queues the specified update for each registered handler, waiting up to the
+    * specified time in all for room in the queues of those backed up; the update 
+    * is dropped for any handler whose queue is still full after
+    * 
+    * @param update
+    * @param timeout
+    * @param unit
+    * @return The number of handlers for which the update was queued; less than all
+    * if any queues stayed full
+    * @throws IllegalArgumentException If the update is not specified
+    * @throws IllegalStateException If closed
+    * @throws InterruptedException If interrupted while waiting; the update will have 
+    * been queued for some handlers
+    */
+   int dispatch(final StatusUpdate update, final long timeout, final TimeUnit unit)
+         throws IllegalArgumentException, IllegalStateException, InterruptedException
+   {
+      // Precondition checks
+      if (update == null)
+      {
+         throw new IllegalArgumentException("update must be specified");
+      }
+      if (closed)
+      {
+         throw new IllegalStateException("Dispatcher is closed");
+      }
+
+      final long now = System.nanoTime();
+      final long deadline = now + unit.toNanos(timeout);
+      int queued = 0;
+      for (final HandlerQueue queue : queues)
+      {
+         if (queue.offer(update, now, deadline))
+         {
+            queued++;
+         }
+      }
+      return queued;
+   }
+
+   /**
+    * Obtains the number of handlers registered
+    */
+   int getHandlerCount()
+   {
+      return queues.size();
+   }
+
+   /**
+    * Obtains statistics of each registered handler's queue, keyed by name in order
+    * of registration
+    */
+   Map<String, HandlerStatistics> getStatistics()
+   {
+      final long now = System.nanoTime();
+      final Map<String, HandlerStatistics> statistics = new LinkedHashMap<String, HandlerStatistics>();
+      for (final HandlerQueue queue : queues)
+      {
+         statistics.put(queue.name, queue.getStatistics(now));
+      }
+      return statistics;
+   }
+
+   /**
+    * Stops taking updates and waits up to the specified time in all for 
+    * the handlers to finish those queued, interrupting any which haven't
+    * 
+    * @return Whether all handlers finished
+    */
+   boolean close(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      closed = true;
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      boolean finished = true;
+      for (final HandlerQueue queue : queues)
+      {
+         queue.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+         if (queue.thread.isAlive())
+         {
+            log.warning("Handler " + queue.name + " did not finish " + queue.updates.size()
+                  + " queued updates in time; interrupting");
+            queue.thread.interrupt();
+            finished = false;
+         }
+      }
+      return finished;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * An update awaiting a handler, and when it was queued
+    */
+   private static final class PendingUpdate
+   {
+      private final StatusUpdate update;
+
+      private final long queuedNanos;
+
+      PendingUpdate(final StatusUpdate update, final long queuedNanos)
+      {
+         this.update = update;
+         this.queuedNanos = queuedNanos;
+      }
+   }
+
+   /**
+    * Bounded queue of updates awaiting a single handler, and the thread draining it
+    */
+   private final class HandlerQueue implements Runnable
+   {
+      private final String name;
+
+      private final StatusUpdateHandler handler;
+
+      private final BlockingQueue<PendingUpdate> updates;
+
+      private final Thread thread;
+
+      private final AtomicLong handled = new AtomicLong();
+
+      private final AtomicLong failed = new AtomicLong();
+
+      private final AtomicLong dropped = new AtomicLong();
+
+      HandlerQueue(final String name, final StatusUpdateHandler handler, final int capacity)
+      {
+         this.name = name;
+         this.handler = handler;
+         this.updates = new ArrayBlockingQueue<PendingUpdate>(capacity);
+         this.thread = new Thread(this, "StatusUpdateHandler-" + name);
+         this.thread.setDaemon(true);
+      }
+
+      /**
+       * Queues the specified update once there's room, waiting no later than the 
+       * specified deadline, else counts it dropped
+       */
+      boolean offer(final StatusUpdate update, final long now, final long deadline) throws InterruptedException
+      {
+         final PendingUpdate pending = new PendingUpdate(update, now);
+         if (updates.offer(pending))
+         {
+            return true;
+         }
+         final long remaining = deadline - System.nanoTime();
+         if (remaining > 0 && updates.offer(pending, remaining, TimeUnit.NANOSECONDS))
+         {
+            return true;
+         }
+         dropped.incrementAndGet();
+         return false;
+      }
+
+      HandlerStatistics getStatistics(final long now)
+      {
+         final PendingUpdate oldest = updates.peek();
+         final long lagMillis = oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(now - oldest.queuedNanos);
+         return new HandlerStatistics(name, updates.size() + updates.remainingCapacity(), updates.size(), Math
+               .max(lagMillis, 0), handled.get(), failed.get(), dropped.get());
+      }
+
+      /* (non-Javadoc)
+       * @see java.lang.Runnable#run()
+       */
+      @Override
+      public void run()
+      {
+         try
+         {
+            while (!closed || !updates.isEmpty())
+            {
+               final PendingUpdate pending = updates.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+               if (pending == null)
+               {
+                  continue;
+               }
+               try
+               {
+                  handler.updateStatus(pending.update);
+               }
+               catch (final Exception e)
+               {
+                  failed.incrementAndGet();
+                  log.log(Level.WARNING, "Handler " + name + " failed with status update " + pending.update, e);
+               }
+               finally
+               {
+                  handled.incrementAndGet();
+               }
+            }
+         }
+         catch (final InterruptedException ie)
+         {
+            log.warning("Handler " + name + " interrupted with " + updates.size() + " updates queued");
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+}
@@ -0,0 +1,240 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+
+/**
+ * Singleton EJB holding the {@link StatusUpdateDispatcher} through which
+ * the {@link DispatchingStatusUpdateMdb} fans updates out.  Registers the 
+ * {@link LoggingStatusUpdateHandler} and, if the environment supports it, a 
+ * Twitter handler handing off to the {@link TwitterPublisherBean}; neither needs
+ * more of the container than we're given.  Each handler's queue holds up to the 
+ * number of updates in env-entry "handlerQueueCapacity".
+ * 
+ * Once a handler's queue is full, a dispatch waits up to the time in env-entry
+ * "handlerQueueWaitMillis" for room, holding up the delivering MDB (and so
+ * consumption from the topic) while that handler catches up.  Should the queue 
+ * still be full, the update is dropped for that handler alone, and counted in 
+ * its {@link HandlerStatistics}; the message has by then been consumed, so the
+ * update is not redelivered, and is lost to that handler.  Redelivering it 
+ * would instead repeat it for every handler which had accepted it.
+ * 
+ * The dispatcher is thread-safe, so container-managed concurrency is not used.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class StatusUpdateDispatcherBean
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StatusUpdateDispatcherBean.class.getName());
+
+   /**
+    * Name of the env-entry holding the most updates which may await each handler
+    */
+   private static final String ENV_ENTRY_NAME_HANDLER_QUEUE_CAPACITY = "handlerQueueCapacity";
+
+   /**
+    * Most updates which may await each handler, if not configured
+    */
+   private static final int DEFAULT_HANDLER_QUEUE_CAPACITY = 1000;
+
+   /**
+    * Name of the env-entry holding the longest time, in milliseconds, a dispatch 
+    * waits for room in the queues of backed-up handlers
+    */
+   private static final String ENV_ENTRY_NAME_HANDLER_QUEUE_WAIT_MILLIS = "handlerQueueWaitMillis";
+
+   /**
+    * Longest time, in milliseconds, a dispatch waits for room in the queues of
+    * backed-up handlers, if not configured
+    */
+   private static final long DEFAULT_HANDLER_QUEUE_WAIT_MILLIS = 1000;
+
+   /**
+    * Name of the logging handler
+    */
+   static final String HANDLER_NAME_LOGGING = "logging";
+
+   /**
+    * Name of the Twitter handler
+    */
+   static final String HANDLER_NAME_TWITTER = "twitter";
+
+   /**
+    * Time allowed the handlers to finish queued updates upon shutdown
+    */
+   private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Configured most updates which may await each handler, if any
+    */
+   @Resource(name = ENV_ENTRY_NAME_HANDLER_QUEUE_CAPACITY)
+   private Integer handlerQueueCapacity;
+
+   /**
+    * Configured longest time a dispatch waits for room in the handlers' queues, if any
+    */
+   @Resource(name = ENV_ENTRY_NAME_HANDLER_QUEUE_WAIT_MILLIS)
+   private Long handlerQueueWaitMillis;
+
+   /**
+    * Longest time, in milliseconds, a dispatch waits for room in the handlers' queues,
+    * as resolved upon {@link StatusUpdateDispatcherBean#createDispatcher()}
+    */
+   private long queueWaitMillis;
+
+   /**
+    * Outbound stage publishing to Twitter
+    */
+   @EJB
+   private TwitterPublisherBean twitterPublisher;
+
+   /**
+    * Dispatcher, created upon {@link StatusUpdateDispatcherBean#createDispatcher()}
+    */
+   private StatusUpdateDispatcher dispatcher;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the dispatcher and registers the handlers
+    */
+   @PostConstruct
+   void createDispatcher()
+   {
+      final int capacity = this.handlerQueueCapacity == null
+            ? DEFAULT_HANDLER_QUEUE_CAPACITY
+            : this.handlerQueueCapacity;
+      if (capacity <= 0)
+      {
+         throw new IllegalStateException(ENV_ENTRY_NAME_HANDLER_QUEUE_CAPACITY + " must be positive: " + capacity);
+      }
+      this.queueWaitMillis = this.handlerQueueWaitMillis == null
+            ? DEFAULT_HANDLER_QUEUE_WAIT_MILLIS
+            : this.handlerQueueWaitMillis;
+      if (this.queueWaitMillis < 0)
+      {
+         throw new IllegalStateException(ENV_ENTRY_NAME_HANDLER_QUEUE_WAIT_MILLIS + " must not be negative: "
+               + this.queueWaitMillis);
+      }
+
+      this.dispatcher = new StatusUpdateDispatcher();
+      this.dispatcher.register(HANDLER_NAME_LOGGING, new LoggingStatusUpdateHandler(), capacity);
+      if (EnvironmentSpecificTwitterClientUtil.isSupportedEnvironment())
+      {
+         final TwitterPublisherBean twitterPublisher = this.twitterPublisher;
+         this.dispatcher.register(HANDLER_NAME_TWITTER, new StatusUpdateHandler()
+         {
+            @Override
+            public void updateStatus(final StatusUpdate newStatus)
+            {
+               twitterPublisher.submit(newStatus.getText());
+            }
+         }, capacity);
+      }
+      else
+      {
+         log.warning(EnvironmentSpecificTwitterClientUtil.MSG_UNSUPPORTED_ENVIRONMENT);
+      }
+   }
+
+   /**
+    * Lets the handlers finish queued updates
+    */
+   @PreDestroy
+   void closeDispatcher()
+   {
+      try
+      {
+         this.dispatcher.close(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         log.warning("Interrupted while waiting for handlers to finish queued updates");
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Queues the specified update for each handler, waiting for room in the 
+    * queues of any backed up no longer than configured; the update is dropped,
+    * and lost, for any handler whose queue stays full
+    * 
+    * @return The number of handlers for which the update was queued
+    * @throws IllegalArgumentException If the update is not specified
+    * @throws InterruptedException If interrupted while waiting for room
+    */
+   public int dispatch(final StatusUpdate update) throws IllegalArgumentException, InterruptedException
+   {
+      return this.dispatcher.dispatch(update, this.queueWaitMillis, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Obtains the number of handlers registered
+    */
+   public int getHandlerCount()
+   {
+      return this.dispatcher.getHandlerCount();
+   }
+
+   /**
+    * Obtains statistics of each handler's queue, keyed by handler name
+    */
+   public Map<String, HandlerStatistics> getStatistics()
+   {
+      return this.dispatcher.getStatistics();
+   }
+}
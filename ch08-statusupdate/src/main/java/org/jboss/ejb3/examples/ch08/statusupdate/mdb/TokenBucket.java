@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of some operation: tokens accrue at a steady
+ * rate up to a burst size, and each operation spends one.  Not thread-safe; 
+ * intended to be used by a single Thread performing the operation.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class TokenBucket
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time in which one token accrues
+    */
+   private final double nanosPerToken;
+
+   /**
+    * Most tokens which may accrue
+    */
+   private final int burst;
+
+   /**
+    * Tokens accrued as of {@link TokenBucket#updatedNanos}; negative if owed
+    */
+   private double tokens;
+
+   /**
+    * When {@link TokenBucket#tokens} was last brought up to date
+    */
+   private long updatedNanos;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a full bucket
+    * 
+    * @param permitsPerSecond Rate at which tokens accrue
+    * @param burst Most tokens which may accrue
+    * @throws IllegalArgumentException If either argument is not positive
+    */
+   TokenBucket(final double permitsPerSecond, final int burst) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (!(permitsPerSecond > 0))
+      {
+         throw new IllegalArgumentException("permitsPerSecond must be positive");
+      }
+      if (burst <= 0)
+      {
+         throw new IllegalArgumentException("burst must be positive");
+      }
+
+      this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+      this.burst = burst;
+      this.tokens = burst;
+      this.updatedNanos = System.nanoTime();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Spends a token, returning how long the caller must wait before it may act;
+    * 0 if a token was already available
+    */
+   long reserve()
+   {
+      final long now = System.nanoTime();
+      tokens = Math.min(burst, tokens + (now - updatedNanos) / nanosPerToken);
+      updatedNanos = now;
+      tokens -= 1;
+      return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * nanosPerToken);
+   }
+
+   /**
+    * Spends a token, first waiting for one to accrue if need be
+    * 
+    * @throws InterruptedException If interrupted while waiting
+    */
+   void acquire() throws InterruptedException
+   {
+      final long wait = this.reserve();
+      if (wait > 0)
+      {
+         TimeUnit.NANOSECONDS.sleep(wait);
+      }
+   }
+}
@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+
+/**
+ * Singleton EJB holding the {@link RateLimitedStatusPublisher} to which 
+ * every {@link TwitterUpdateMdb} instance hands its updates, such that the
+ * limit on the rate of Twitter API calls holds across the MDB pool.  Configured by 
+ * env-entries "updatesPerMinute", "burst", "duplicateWindowSeconds" and "coalesce".
+ * Should the environment not support Twitter integration, updates are discarded.
+ * 
+ * The publisher is thread-safe, so container-managed concurrency is not used.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TwitterPublisherBean
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(TwitterPublisherBean.class.getName());
+
+   /**
+    * Name of the env-entry holding the steady rate of publication, per minute
+    */
+   private static final String ENV_ENTRY_NAME_UPDATES_PER_MINUTE = "updatesPerMinute";
+
+   /**
+    * Name of the env-entry holding the most updates published at once after a lull
+    */
+   private static final String ENV_ENTRY_NAME_BURST = "burst";
+
+   /**
+    * Name of the env-entry holding the time within which a repeated update is refused
+    */
+   private static final String ENV_ENTRY_NAME_DUPLICATE_WINDOW_SECONDS = "duplicateWindowSeconds";
+
+   /**
+    * Name of the env-entry holding whether bursts are published as only their latest update
+    */
+   private static final String ENV_ENTRY_NAME_COALESCE = "coalesce";
+
+   private static final int DEFAULT_UPDATES_PER_MINUTE = 30;
+
+   private static final int DEFAULT_BURST = 5;
+
+   private static final int DEFAULT_DUPLICATE_WINDOW_SECONDS = 300;
+
+   private static final boolean DEFAULT_COALESCE = false;
+
+   /**
+    * Most updates which may await publication
+    */
+   private static final int CAPACITY = 1000;
+
+   /**
+    * Time allowed pending updates to be published upon shutdown
+    */
+   private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Resource(name = ENV_ENTRY_NAME_UPDATES_PER_MINUTE)
+   private Integer updatesPerMinute;
+
+   @Resource(name = ENV_ENTRY_NAME_BURST)
+   private Integer burst;
+
+   @Resource(name = ENV_ENTRY_NAME_DUPLICATE_WINDOW_SECONDS)
+   private Integer duplicateWindowSeconds;
+
+   @Resource(name = ENV_ENTRY_NAME_COALESCE)
+   private Boolean coalesce;
+
+   /**
+    * Publisher, or null if the environment does not support Twitter integration
+    */
+   private RateLimitedStatusPublisher publisher;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the publisher from the configuration, if the environment supports Twitter integration
+    */
+   @PostConstruct
+   void createPublisher()
+   {
+      final int updatesPerMinute = this.updatesPerMinute == null ? DEFAULT_UPDATES_PER_MINUTE : this.updatesPerMinute;
+      final int burst = this.burst == null ? DEFAULT_BURST : this.burst;
+      final int duplicateWindowSeconds = this.duplicateWindowSeconds == null
+            ? DEFAULT_DUPLICATE_WINDOW_SECONDS
+            : this.duplicateWindowSeconds;
+      final boolean coalesce = this.coalesce == null ? DEFAULT_COALESCE : this.coalesce;
+      if (updatesPerMinute <= 0)
+      {
+         throw new IllegalStateException(ENV_ENTRY_NAME_UPDATES_PER_MINUTE + " must be positive: " + updatesPerMinute);
+      }
+      if (burst <= 0)
+      {
+         throw new IllegalStateException(ENV_ENTRY_NAME_BURST + " must be positive: " + burst);
+      }
+      if (duplicateWindowSeconds < 0)
+      {
+         throw new IllegalStateException(ENV_ENTRY_NAME_DUPLICATE_WINDOW_SECONDS + " must not be negative: "
+               + duplicateWindowSeconds);
+      }
+
+      if (!EnvironmentSpecificTwitterClientUtil.isSupportedEnvironment())
+      {
+         log.warning(EnvironmentSpecificTwitterClientUtil.MSG_UNSUPPORTED_ENVIRONMENT);
+         return;
+      }
+      this.publisher = new RateLimitedStatusPublisher(EnvironmentSpecificTwitterClientUtil.getTwitterClient(),
+            updatesPerMinute / 60.0, burst, duplicateWindowSeconds, TimeUnit.SECONDS, CAPACITY, coalesce);
+      log.info("Publishing up to " + updatesPerMinute + " update(s) per minute in bursts of " + burst
+            + ", refusing repeats within " + duplicateWindowSeconds + "s" + (coalesce ? ", coalescing bursts" : ""));
+   }
+
+   /**
+    * Lets pending updates be published
+    */
+   @PreDestroy
+   void closePublisher()
+   {
+      if (this.publisher == null)
+      {
+         return;
+      }
+      try
+      {
+         this.publisher.close(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         log.warning("Interrupted while waiting for pending updates to be published");
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Hands the specified status text off for publication, without waiting
+    * 
+    * @return Whether the text was accepted; false if it repeats one accepted recently,
+    * too many are pending, or the environment does not support Twitter integration
+    * @throws IllegalArgumentException If the text is not specified
+    */
+   public boolean submit(final String text) throws IllegalArgumentException
+   {
+      return this.publisher != null && this.publisher.submit(text);
+   }
+
+   /**
+    * Waits up to the specified time for all accepted texts to have been published
+    * 
+    * @return Whether all were published (or attempted) in time
+    */
+   public boolean awaitIdle(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      return this.publisher == null || this.publisher.awaitIdle(timeout, unit);
+   }
+
+   /**
+    * Obtains statistics of the texts handed off, or null if the environment does
+    * not support Twitter integration
+    */
+   public PublisherStatistics getStatistics()
+   {
+      return this.publisher == null ? null : this.publisher.getStatistics();
+   }
+}
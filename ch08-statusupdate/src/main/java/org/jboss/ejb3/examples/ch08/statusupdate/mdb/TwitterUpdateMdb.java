@@ -24,6 +24,7 @@ package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
 import javax.jms.MessageListener;
 
 import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
@@ -37,6 +38,10 @@ import twitter4j.Twitter;
  * The environment must first support Twitter integration by way of a username/password
  * pair available from environment properties. {@link EnvironmentSpecificTwitterClientUtil} 
  * has more details.
+ * 
+ * In the container, updates are handed off to the {@link TwitterPublisherBean}
+ * without waiting upon the Twitter API, which is called at a limited rate from 
+ * the publisher's own Thread.  Used as a POJO, updates are made directly.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @see http://twitter.com
@@ -80,6 +85,12 @@ public class TwitterUpdateMdb extends StatusUpdateBeanBase implements MessageLis
     */
    private Twitter client;
 
+   /**
+    * Outbound stage to which updates are handed off; null if not in the container
+    */
+   @EJB
+   private TwitterPublisherBean publisher;
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -91,6 +102,12 @@ public class TwitterUpdateMdb extends StatusUpdateBeanBase implements MessageLis
    @PostConstruct
    void createTwitterClient()
    {
+      // The publisher makes its own
+      if (publisher != null)
+      {
+         return;
+      }
+
       if (!EnvironmentSpecificTwitterClientUtil.isSupportedEnvironment())
       {
          log.warning(EnvironmentSpecificTwitterClientUtil.MSG_UNSUPPORTED_ENVIRONMENT);
@@ -121,6 +138,17 @@ public class TwitterUpdateMdb extends StatusUpdateBeanBase implements MessageLis
          // Do nothing and get out
          return;
       }
+
+      // Hand off to the outbound stage
+      if (publisher != null)
+      {
+         if (!publisher.submit(newStatus.getText()))
+         {
+            log.fine("Status update not accepted for publication: " + newStatus);
+         }
+         return;
+      }
+
       if (client == null)
       {
          throw new IllegalStateException("Twitter client has not been initialized");
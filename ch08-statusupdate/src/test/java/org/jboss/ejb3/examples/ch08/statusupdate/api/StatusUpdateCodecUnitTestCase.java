@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.api;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.mdb.MockBytesMessage;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link StatusUpdateCodec} binary form
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateCodecUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Charset of the status text
+    */
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   /**
+    * Status texts of one, two, three and four bytes per character
+    */
+   private static final String[] TEXTS =
+   {"Hello, MDB", "Caf\u00e9 cr\u00e8me", "\u4f60\u597d\uff0c\u4e16\u754c", "Rocket \ud83d\ude80 launched"};
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures updates survive writing to and reading from a {@link BytesMessage}
+    */
+   @Test
+   public void testMessageRoundtrip() throws JMSException
+   {
+      for (final String text : TEXTS)
+      {
+         final StatusUpdate sent = new StatusUpdate(text);
+         final BytesMessage message = new MockBytesMessage();
+         StatusUpdateCodec.write(sent, message);
+         message.reset();
+         TestCase.assertEquals("Status update did not roundtrip", sent, StatusUpdateCodec.read(message));
+      }
+   }
+
+   /**
+    * Ensures the text is encoded exactly as {@link String#getBytes(Charset)} would, 
+    * behind the header and length, including for unpaired surrogates
+    */
+   @Test
+   public void testEncodedForm() throws MessageFormatException
+   {
+      final String[] texts = Arrays.copyOf(TEXTS, TEXTS.length + 1);
+      texts[TEXTS.length] = "Unpaired \ud83d surrogate";
+      for (final String text : texts)
+      {
+         final byte[] bytes = StatusUpdateCodec.toBytes(new StatusUpdate(text));
+         final byte[] expected = text.getBytes(UTF_8);
+         TestCase.assertEquals("Header has wrong magic", 'S', bytes[0]);
+         TestCase.assertEquals("Header has wrong magic", 'U', bytes[1]);
+         TestCase.assertEquals("Header has wrong version", StatusUpdateCodec.FORMAT_VERSION, bytes[2]);
+         TestCase.assertEquals("Length was not encoded", expected.length, bytes[4]);
+         TestCase.assertTrue("Text was not encoded as UTF-8: " + text, Arrays.equals(expected, Arrays.copyOfRange(
+               bytes, 5, bytes.length)));
+      }
+   }
+
+   /**
+    * Ensures texts whose lengths take several bytes, and which outgrow the 
+    * per-Thread buffer, roundtrip
+    */
+   @Test
+   public void testLongText() throws MessageFormatException
+   {
+      for (final int length : new int[]
+      {127, 128, 16384, 100000})
+      {
+         final char[] chars = new char[length];
+         Arrays.fill(chars, '\u00e9');
+         final StatusUpdate sent = new StatusUpdate(new String(chars));
+         final byte[] bytes = StatusUpdateCodec.toBytes(sent);
+         TestCase.assertEquals("Status update of " + length + " chars did not roundtrip", sent, StatusUpdateCodec
+               .fromBytes(bytes, 0, bytes.length));
+      }
+   }
+
+   /**
+    * Ensures bodies which are not status updates of a known version are rejected
+    */
+   @Test
+   public void testMalformed()
+   {
+      final byte[] valid = StatusUpdateCodec.toBytes(new StatusUpdate(TEXTS[0]));
+
+      // Unknown version
+      final byte[] future = valid.clone();
+      future[2] = StatusUpdateCodec.FORMAT_VERSION + 1;
+      this.assertMalformed(future, future.length);
+
+      // Wrong magic
+      final byte[] other = valid.clone();
+      other[0] = 'X';
+      this.assertMalformed(other, other.length);
+
+      // Truncated
+      this.assertMalformed(valid, valid.length - 1);
+      this.assertMalformed(valid, 3);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures the specified bytes are rejected as a status update
+    */
+   private void assertMalformed(final byte[] bytes, final int length)
+   {
+      try
+      {
+         StatusUpdateCodec.fromBytes(bytes, 0, length);
+         TestCase.fail("Should not have decoded malformed status update");
+      }
+      catch (final MessageFormatException expected)
+      {
+         // Good
+      }
+   }
+}
@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Measures the time to encode and to decode a {@link StatusUpdate}, and its 
+ * encoded size, in the Java-serialized form carried by an ObjectMessage and
+ * in the binary form of {@link StatusUpdateCodec}.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=StatusUpdateSerializationBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateSerializationBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StatusUpdateSerializationBenchmark.class.getName());
+
+   /**
+    * Operations in each measured run
+    */
+   private static final int OPERATIONS = 200000;
+
+   /**
+    * Runs, the first of which warms up and is not reported
+    */
+   private static final int RUNS = 4;
+
+   /**
+    * Status updates measured; a typical ASCII update, and one of mostly three-byte characters
+    */
+   private static final StatusUpdate[] UPDATES =
+   {
+         new StatusUpdate("I'm testing Message-Driven EJBs using JBoss EJB 3.x by @ALRubinger/@OReillyMedia!: "
+               + "6f1c1e2a-5a4d-4a5e-9a0c-1b2b3c4d5e6f"),
+         new StatusUpdate("\u4f60\u597d\uff0c\u4e16\u754c\uff01\u6211\u6b63\u5728\u6d4b\u8bd5\u6d88\u606f"
+               + "\u9a71\u52a8\u7684 EJB \u7ec4\u4ef6\u3002")};
+
+   /**
+    * Result of each operation, kept such that the work isn't optimized away
+    */
+   private static volatile Object sink;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Measures both forms for each update
+    */
+   @Test
+   public void measure() throws Exception
+   {
+      for (final StatusUpdate update : UPDATES)
+      {
+         final byte[] serialized = serialize(update);
+         final byte[] binary = StatusUpdateCodec.toBytes(update);
+         TestCase.assertEquals(update, deserialize(serialized));
+         TestCase.assertEquals(update, StatusUpdateCodec.fromBytes(binary, 0, binary.length));
+         log.info(String.format("%d chars: serialized %d bytes, binary %d bytes", update.getText().length(),
+               serialized.length, binary.length));
+
+         for (int run = 0; run < RUNS; run++)
+         {
+            long start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++)
+            {
+               sink = serialize(update);
+            }
+            final long serializeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++)
+            {
+               sink = deserialize(serialized);
+            }
+            final long deserializeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++)
+            {
+               sink = StatusUpdateCodec.toBytes(update);
+            }
+            final long encodeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++)
+            {
+               sink = StatusUpdateCodec.fromBytes(binary, 0, binary.length);
+            }
+            final long decodeNanos = System.nanoTime() - start;
+
+            if (run > 0)
+            {
+               log.info(String.format("  serialize %.0fns, deserialize %.0fns; encode %.0fns, decode %.0fns",
+                     (double) serializeNanos / OPERATIONS, (double) deserializeNanos / OPERATIONS,
+                     (double) encodeNanos / OPERATIONS, (double) decodeNanos / OPERATIONS));
+            }
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Java-serializes the specified update, as does an ObjectMessage
+    */
+   private static byte[] serialize(final StatusUpdate update) throws IOException
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(update);
+      out.close();
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Java-deserializes an update, as does an ObjectMessage
+    */
+   private static StatusUpdate deserialize(final byte[] bytes) throws IOException, ClassNotFoundException
+   {
+      final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      try
+      {
+         return (StatusUpdate) in.readObject();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+}
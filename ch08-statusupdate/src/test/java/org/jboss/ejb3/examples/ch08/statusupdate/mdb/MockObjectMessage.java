@@ -30,7 +30,8 @@ import javax.jms.ObjectMessage;
 
 /**
  * A Mock {@link ObjectMessage} which supports only the 
- * {@link ObjectMessage#getObject()} method; used in testing
+ * {@link ObjectMessage#getObject()} method, and reports no 
+ * timestamp; used in testing
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -52,6 +53,11 @@ public class MockObjectMessage implements ObjectMessage
     */
    private final Serializable object;
 
+   /**
+    * Whether this message is marked as delivered before
+    */
+   private volatile boolean redelivered;
+
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -78,6 +84,34 @@ public class MockObjectMessage implements ObjectMessage
       return this.object;
    }
 
+   /**
+    * Returns 0; this message was never sent, so has no timestamp
+    * @see javax.jms.Message#getJMSTimestamp()
+    */
+   @Override
+   public long getJMSTimestamp() throws JMSException
+   {
+      return 0;
+   }
+
+   /* (non-Javadoc)
+    * @see javax.jms.Message#getJMSRedelivered()
+    */
+   @Override
+   public boolean getJMSRedelivered() throws JMSException
+   {
+      return this.redelivered;
+   }
+
+   /* (non-Javadoc)
+    * @see javax.jms.Message#setJMSRedelivered(boolean)
+    */
+   @Override
+   public void setJMSRedelivered(final boolean redelivered) throws JMSException
+   {
+      this.redelivered = redelivered;
+   }
+
    //-------------------------------------------------------------------------------------||
    // Unsupported ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -230,15 +264,6 @@ public class MockObjectMessage implements ObjectMessage
       throw new UnsupportedOperationException(MESSAGE_UNSUPPORTED);
    }
 
-   /* (non-Javadoc)
-    * @see javax.jms.Message#getJMSRedelivered()
-    */
-   @Override
-   public boolean getJMSRedelivered() throws JMSException
-   {
-      throw new UnsupportedOperationException(MESSAGE_UNSUPPORTED);
-   }
-
    /* (non-Javadoc)
     * @see javax.jms.Message#getJMSReplyTo()
     */
@@ -248,15 +273,6 @@ public class MockObjectMessage implements ObjectMessage
       throw new UnsupportedOperationException(MESSAGE_UNSUPPORTED);
    }
 
-   /* (non-Javadoc)
-    * @see javax.jms.Message#getJMSTimestamp()
-    */
-   @Override
-   public long getJMSTimestamp() throws JMSException
-   {
-      throw new UnsupportedOperationException(MESSAGE_UNSUPPORTED);
-   }
-
    /* (non-Javadoc)
     * @see javax.jms.Message#getJMSType()
     */
@@ -428,15 +444,6 @@ public class MockObjectMessage implements ObjectMessage
       throw new UnsupportedOperationException(MESSAGE_UNSUPPORTED);
    }
 
-   /* (non-Javadoc)
-    * @see javax.jms.Message#setJMSRedelivered(boolean)
-    */
-   @Override
-   public void setJMSRedelivered(boolean redelivered) throws JMSException
-   {
-      throw new UnsupportedOperationException(MESSAGE_UNSUPPORTED);
-   }
-
    /* (non-Javadoc)
     * @see javax.jms.Message#setJMSReplyTo(javax.jms.Destination)
     */
@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Test;
+
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+
+/**
+ * Unit tests of the {@link RateLimitedStatusPublisher}, publishing to a local 
+ * stub in place of the Twitter client
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RateLimitedStatusPublisherUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time to wait upon the publisher
+    */
+   private static final long TIMEOUT_SECONDS = 10;
+
+   /**
+    * Duplicate window long enough not to lapse during a test
+    */
+   private static final long LONG_WINDOW_SECONDS = 60;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final StubTwitter twitter = new StubTwitter();
+
+   private RateLimitedStatusPublisher publisher;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @After
+   public void closePublisher() throws InterruptedException
+   {
+      twitter.release.countDown();
+      if (publisher != null)
+      {
+         publisher.close(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures texts are accepted without waiting upon the client
+    */
+   @Test
+   public void testHandOff() throws InterruptedException
+   {
+      publisher = new RateLimitedStatusPublisher(twitter, 1000, 1000, LONG_WINDOW_SECONDS, TimeUnit.SECONDS, 100,
+            false);
+      final CountDownLatch release = new CountDownLatch(1);
+      twitter.block(release);
+
+      // The client is blocked, yet all are accepted
+      for (int i = 0; i < 10; i++)
+      {
+         TestCase.assertTrue(publisher.submit("Update " + i));
+      }
+      TestCase.assertFalse("Should not be idle while client is blocked", publisher.awaitIdle(10,
+            TimeUnit.MILLISECONDS));
+
+      release.countDown();
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertEquals(10, twitter.published.size());
+      TestCase.assertEquals("Update 9", twitter.published.get(9));
+      TestCase.assertEquals(10, publisher.getStatistics().getPublished());
+   }
+
+   /**
+    * Ensures that after the initial burst texts are published no faster than the rate
+    */
+   @Test
+   public void testRateLimited() throws InterruptedException
+   {
+      final int rate = 20;
+      final int burst = 5;
+      final int texts = 15;
+      publisher = new RateLimitedStatusPublisher(twitter, rate, burst, LONG_WINDOW_SECONDS, TimeUnit.SECONDS, 100,
+            false);
+
+      final long start = System.nanoTime();
+      for (int i = 0; i < texts; i++)
+      {
+         publisher.submit("Update " + i);
+      }
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      // (15 - 5) / 20 per second = 500ms, less some slack for the clock
+      final long expectedMillis = (texts - burst) * 1000L / rate;
+      TestCase.assertTrue("Published " + texts + " in " + elapsedMillis + "ms; faster than the rate allows",
+            elapsedMillis >= expectedMillis - 50);
+      TestCase.assertEquals(texts, twitter.published.size());
+      for (int i = 0; i < texts; i++)
+      {
+         TestCase.assertEquals("Update out of order", "Update " + i, twitter.published.get(i));
+      }
+   }
+
+   /**
+    * Ensures repeated texts are refused only within the window
+    */
+   @Test
+   public void testDuplicates() throws InterruptedException
+   {
+      final long windowMillis = 200;
+      publisher = new RateLimitedStatusPublisher(twitter, 1000, 1000, windowMillis, TimeUnit.MILLISECONDS, 100,
+            false);
+
+      TestCase.assertTrue(publisher.submit("A"));
+      TestCase.assertFalse("Repeat within window should be refused", publisher.submit("A"));
+      TestCase.assertTrue(publisher.submit("B"));
+      TestCase.assertFalse("Repeat within window should be refused", publisher.submit("A"));
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      // Once the window lapses, it's published again
+      Thread.sleep(windowMillis + 50);
+      TestCase.assertTrue("Repeat after window should be accepted", publisher.submit("A"));
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      TestCase.assertEquals("[A, B, A]", twitter.published.toString());
+      TestCase.assertEquals(2, publisher.getStatistics().getDuplicates());
+   }
+
+   /**
+    * Ensures a burst held back by the rate limit is published as only its latest text
+    */
+   @Test
+   public void testCoalesce() throws InterruptedException
+   {
+      publisher = new RateLimitedStatusPublisher(twitter, 5, 1, LONG_WINDOW_SECONDS, TimeUnit.SECONDS, 100, true);
+
+      // The first spends the only token
+      publisher.submit("Update 0");
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      // The burst waits upon the next
+      for (int i = 1; i <= 10; i++)
+      {
+         publisher.submit("Update " + i);
+      }
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      TestCase.assertEquals("[Update 0, Update 10]", twitter.published.toString());
+      final PublisherStatistics statistics = publisher.getStatistics();
+      TestCase.assertEquals(9, statistics.getCoalesced());
+      TestCase.assertEquals(2, statistics.getPublished());
+   }
+
+   /**
+    * Ensures texts beyond the capacity are refused
+    */
+   @Test
+   public void testCapacity() throws InterruptedException
+   {
+      publisher = new RateLimitedStatusPublisher(twitter, 1000, 1000, LONG_WINDOW_SECONDS, TimeUnit.SECONDS, 2,
+            false);
+      final CountDownLatch release = new CountDownLatch(1);
+      twitter.block(release);
+
+      // One is taken by the blocked client, two wait, the rest are refused
+      publisher.submit("Update 0");
+      twitter.entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      TestCase.assertTrue(publisher.submit("Update 1"));
+      TestCase.assertTrue(publisher.submit("Update 2"));
+      TestCase.assertFalse("Should refuse beyond capacity", publisher.submit("Update 3"));
+      TestCase.assertEquals(1, publisher.getStatistics().getRejected());
+
+      release.countDown();
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertEquals(3, twitter.published.size());
+   }
+
+   /**
+    * Ensures a failed publication is counted and doesn't stop the next
+    */
+   @Test
+   public void testFailure() throws InterruptedException
+   {
+      publisher = new RateLimitedStatusPublisher(twitter, 1000, 1000, LONG_WINDOW_SECONDS, TimeUnit.SECONDS, 100,
+            false);
+      twitter.failures.set(1);
+
+      publisher.submit("Update 0");
+      publisher.submit("Update 1");
+      TestCase.assertTrue(publisher.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      TestCase.assertEquals("[Update 1]", twitter.published.toString());
+      final PublisherStatistics statistics = publisher.getStatistics();
+      TestCase.assertEquals(1, statistics.getFailed());
+      TestCase.assertEquals(1, statistics.getPublished());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Local stand-in for the Twitter client, recording texts published rather than 
+    * calling the remote API; may be made to block or fail
+    */
+   private static final class StubTwitter extends Twitter
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final List<String> published = new CopyOnWriteArrayList<String>();
+
+      private final AtomicInteger failures = new AtomicInteger();
+
+      private final CountDownLatch entered = new CountDownLatch(1);
+
+      private volatile CountDownLatch release = new CountDownLatch(0);
+
+      void block(final CountDownLatch release)
+      {
+         this.release = release;
+      }
+
+      /* (non-Javadoc)
+       * @see twitter4j.Twitter#updateStatus(java.lang.String)
+       */
+      @Override
+      public Status updateStatus(final String status) throws TwitterException
+      {
+         entered.countDown();
+         try
+         {
+            release.await();
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new TwitterException("Interrupted");
+         }
+         if (failures.getAndDecrement() > 0)
+         {
+            throw new TwitterException("Failing as intended");
+         }
+         published.add(status);
+         return null;
+      }
+   }
+}
@@ -0,0 +1,271 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateCodec;
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the status updates per second consumed from a destination of an 
+ * {@link EmbeddedBroker} by instances of a {@link StatusUpdateBeanBase} whose every 
+ * call to a simulated store costs a fixed overhead, consuming one at a time
+ * and in batches of 1, 10 and 100.  As would the sessions of an MDB, many 
+ * sessions consume the destination at once, each delivering to its own instance;
+ * the destination is a queue, as JMS 1.1 offers no way to share one topic 
+ * subscription among sessions outside the container.  Each run sends all its 
+ * updates to the stopped consumers first, so only consumption is timed.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=StatusUpdateBatchingBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateBatchingBenchmark extends StatusUpdateTestBase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StatusUpdateBatchingBenchmark.class.getName());
+
+   /**
+    * Updates consumed in each run
+    */
+   private static final int MESSAGES = 20000;
+
+   /**
+    * Runs of each mode, the first of which warms up and is not reported
+    */
+   private static final int RUNS = 3;
+
+   /**
+    * Batch sizes measured; 0 for one at a time
+    */
+   private static final int[] BATCH_SIZES =
+   {0, 1, 10, 100};
+
+   /**
+    * Sessions consuming at once; no fewer than the largest batch size, 
+    * as a batch gathers no more updates than deliveries in flight
+    */
+   private static final int SESSIONS = 100;
+
+   /**
+    * Longest time the first update of a batch waits; batches are full but for the last
+    * of a run, whose deliveries hold back the messages remaining in their sessions
+    */
+   private static final long LINGER_MILLIS = 10;
+
+   /**
+    * Overhead of each call to the simulated store
+    */
+   private static final long CALL_OVERHEAD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+   /**
+    * Name of the queue
+    */
+   private static final String QUEUE_NAME = "StatusUpdate";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EmbeddedBroker broker;
+
+   private Queue queue;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void startBroker() throws Exception
+   {
+      broker = new EmbeddedBroker();
+      broker.start();
+      queue = broker.createQueue(QUEUE_NAME);
+   }
+
+   @After
+   public void stopBroker() throws Exception
+   {
+      broker.stop();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Measures each batch size in turn
+    */
+   @Test
+   public void measure() throws Exception
+   {
+      final StatusUpdate update = this.getUniqueStatusUpdate();
+      for (final int batchSize : BATCH_SIZES)
+      {
+         for (int run = 0; run < RUNS; run++)
+         {
+            final Store store = new Store(MESSAGES);
+            final double rate = this.consume(update, store, batchSize);
+            if (run > 0)
+            {
+               log.info(String.format("%s: %.0f/s in %d store call(s)", batchSize == 0 ? "One at a time"
+                     : "Batches of " + batchSize, rate, store.calls.get()));
+            }
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends {@link StatusUpdateBatchingBenchmark#MESSAGES} copies of the specified update
+    * to the stopped consumers, each storing into the specified store in batches of the 
+    * specified size, or one at a time if 0, then returns the rate at which they're 
+    * consumed once started
+    */
+   private double consume(final StatusUpdate update, final Store store, final int batchSize)
+         throws JMSException, InterruptedException
+   {
+      final QueueConnection connection = broker.getConnectionFactory().createQueueConnection();
+      try
+      {
+         for (int i = 0; i < SESSIONS; i++)
+         {
+            final StoringListener listener = new StoringListener(store);
+            if (batchSize > 0)
+            {
+               // Updates are all sent before consuming, so batches fill but for the last
+               listener.enableBatching(batchSize, LINGER_MILLIS);
+            }
+            connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE).createReceiver(queue)
+                  .setMessageListener(listener);
+         }
+
+         final QueueSession producerSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+         final QueueSender sender = producerSession.createSender(queue);
+         sender.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+         for (int i = 0; i < MESSAGES; i++)
+         {
+            sender.send(StatusUpdateCodec.createMessage(producerSession, update));
+         }
+
+         final long start = System.nanoTime();
+         connection.start();
+         TestCase.assertTrue("Timed out consuming", store.stored.await(5, TimeUnit.MINUTES));
+         return MESSAGES / ((System.nanoTime() - start) / 1000000000.0);
+      }
+      finally
+      {
+         connection.close();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Stores updates in a simulated store
+    */
+   private static final class StoringListener extends StatusUpdateBeanBase
+   {
+      private final Store store;
+
+      StoringListener(final Store store)
+      {
+         this.store = store;
+      }
+
+      @Override
+      public void updateStatus(final StatusUpdate newStatus)
+      {
+         store.store(1);
+      }
+
+      @Override
+      protected void updateStatuses(final List<StatusUpdate> newStatuses)
+      {
+         store.store(newStatuses.size());
+      }
+   }
+
+   /**
+    * Simulated store shared by all consumers, each call to which costs
+    * {@link StatusUpdateBatchingBenchmark#CALL_OVERHEAD_NANOS}
+    */
+   private static final class Store
+   {
+      private final CountDownLatch stored;
+
+      private final AtomicInteger calls = new AtomicInteger();
+
+      Store(final int expected)
+      {
+         this.stored = new CountDownLatch(expected);
+      }
+
+      void store(final int count)
+      {
+         calls.incrementAndGet();
+         final long until = System.nanoTime() + CALL_OVERHEAD_NANOS;
+         while (System.nanoTime() < until)
+         {
+            LockSupport.parkNanos(until - System.nanoTime());
+         }
+         for (int i = 0; i < count; i++)
+         {
+            stored.countDown();
+         }
+      }
+   }
+}
@@ -0,0 +1,369 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the opt-in batch consumption of {@link StatusUpdateBeanBase}; 
+ * as in the container, messages are delivered upon many Threads at once
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateBatchingUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Linger long enough not to lapse during a test
+    */
+   private static final long LONG_LINGER_MILLIS = 60000;
+
+   /**
+    * Linger short enough to lapse during a test
+    */
+   private static final long SHORT_LINGER_MILLIS = 50;
+
+   /**
+    * Time to wait upon deliveries
+    */
+   private static final long TIMEOUT_SECONDS = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Delivers messages, as would the sessions of the container
+    */
+   private ExecutorService deliveries;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void createDeliveries()
+   {
+      deliveries = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void shutdownDeliveries() throws InterruptedException
+   {
+      deliveries.shutdownNow();
+      deliveries.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures updates are consumed one at a time unless batching is enabled
+    */
+   @Test
+   public void testPerMessageByDefault() throws Exception
+   {
+      final BatchRecordingListener listener = new BatchRecordingListener();
+      send(listener, 0, 5);
+      TestCase.assertEquals("Batches given without batching enabled", 0, listener.batches.size());
+      TestCase.assertEquals(5, listener.singles.size());
+   }
+
+   /**
+    * Ensures full batches are given at once, upon the delivering Threads
+    */
+   @Test
+   public void testFullBatches() throws Exception
+   {
+      final BatchRecordingListener listener = new BatchRecordingListener();
+      listener.enableBatching(5, LONG_LINGER_MILLIS);
+
+      final List<Future<?>> delivered = deliver(listener, 0, 10);
+      TestCase.assertEquals(0, awaitFailures(delivered));
+      TestCase.assertEquals("Full batches should be given at once", 2, listener.batches.size());
+      TestCase.assertEquals(5, listener.batches.get(0).size());
+      TestCase.assertEquals(5, listener.batches.get(1).size());
+      TestCase.assertFalse(listener.threads.contains(Thread.currentThread()));
+      TestCase.assertEquals(0, listener.singles.size());
+   }
+
+   /**
+    * Ensures a batch that isn't filled is given once its first update has lingered, 
+    * with no further deliveries, and not before
+    */
+   @Test
+   public void testLinger() throws Exception
+   {
+      final BatchRecordingListener listener = new BatchRecordingListener();
+      listener.enableBatching(100, SHORT_LINGER_MILLIS);
+
+      final long start = System.nanoTime();
+      send(listener, 0, 1);
+      TestCase.assertTrue("Batch given before lingering",
+            System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(SHORT_LINGER_MILLIS));
+      TestCase.assertEquals(1, listener.batches.size());
+      TestCase.assertEquals("Update 0", listener.batches.get(0).get(0).getText());
+      TestCase.assertEquals(Thread.currentThread(), listener.threads.get(0));
+
+      // Many deliveries, none filling a batch
+      final List<Future<?>> delivered = deliver(listener, 1, 3);
+      TestCase.assertEquals(0, awaitFailures(delivered));
+      int given = 0;
+      for (final List<StatusUpdate> batch : listener.batches)
+      {
+         given += batch.size();
+      }
+      TestCase.assertEquals(4, given);
+   }
+
+   /**
+    * Ensures a delivery, and so the acknowledgement of its message, doesn't 
+    * complete until its batch has been processed
+    */
+   @Test
+   public void testDeliveryAwaitsProcessing() throws Exception
+   {
+      final CountDownLatch processing = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final BatchRecordingListener listener = new BatchRecordingListener()
+      {
+         @Override
+         protected void updateStatuses(final List<StatusUpdate> newStatuses) throws Exception
+         {
+            processing.countDown();
+            release.await();
+            super.updateStatuses(newStatuses);
+         }
+      };
+      listener.enableBatching(2, LONG_LINGER_MILLIS);
+
+      final List<Future<?>> delivered = deliver(listener, 0, 2);
+      TestCase.assertTrue(processing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      for (final Future<?> delivery : delivered)
+      {
+         try
+         {
+            delivery.get(SHORT_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+            TestCase.fail("Delivery should not complete before its batch is processed");
+         }
+         catch (final TimeoutException expected)
+         {
+            // Good
+         }
+      }
+
+      release.countDown();
+      TestCase.assertEquals(0, awaitFailures(delivered));
+      TestCase.assertEquals(1, listener.batches.size());
+   }
+
+   /**
+    * Ensures a batch is shared by instances of the same class
+    */
+   @Test
+   public void testSharedAmongInstances() throws Exception
+   {
+      final BatchRecordingListener first = new BatchRecordingListener();
+      final BatchRecordingListener second = new BatchRecordingListener();
+      first.enableBatching(4, LONG_LINGER_MILLIS);
+      second.enableBatching(4, LONG_LINGER_MILLIS);
+
+      final List<Future<?>> delivered = new ArrayList<Future<?>>();
+      delivered.addAll(deliver(first, 0, 2));
+      delivered.addAll(deliver(second, 2, 2));
+      TestCase.assertEquals(0, awaitFailures(delivered));
+      final List<List<StatusUpdate>> batches = new ArrayList<List<StatusUpdate>>(first.batches);
+      batches.addAll(second.batches);
+      TestCase.assertEquals(1, batches.size());
+      TestCase.assertEquals(4, batches.get(0).size());
+   }
+
+   /**
+    * Ensures that the default batch implementation gives each update to 
+    * {@link StatusUpdateBeanBase#updateStatus(StatusUpdate)}
+    */
+   @Test
+   public void testDefaultBatchImplementation() throws Exception
+   {
+      final List<StatusUpdate> received = Collections.synchronizedList(new ArrayList<StatusUpdate>());
+      final StatusUpdateBeanBase listener = new StatusUpdateBeanBase()
+      {
+         @Override
+         public void updateStatus(final StatusUpdate newStatus)
+         {
+            received.add(newStatus);
+         }
+      };
+      listener.enableBatching(3, LONG_LINGER_MILLIS);
+      TestCase.assertEquals(0, awaitFailures(deliver(listener, 0, 6)));
+      TestCase.assertEquals(6, received.size());
+   }
+
+   /**
+    * Ensures the failure of a batch is raised to every delivery in it, such 
+    * that each message is redelivered
+    */
+   @Test
+   public void testFailure() throws Exception
+   {
+      final StatusUpdateBeanBase listener = new BatchRecordingListener()
+      {
+         @Override
+         protected void updateStatuses(final List<StatusUpdate> newStatuses) throws Exception
+         {
+            throw new Exception("Failing as intended");
+         }
+      };
+      listener.enableBatching(2, LONG_LINGER_MILLIS);
+      TestCase.assertEquals("Failure of the batch should be raised to each delivery", 2, awaitFailures(deliver(
+            listener, 0, 2)));
+   }
+
+   /**
+    * Ensures a redelivered message is processed alone, such that an update 
+    * which can't be processed doesn't fail those batched with it
+    */
+   @Test
+   public void testRedeliveredAlone() throws Exception
+   {
+      final BatchRecordingListener listener = new BatchRecordingListener();
+      listener.enableBatching(2, LONG_LINGER_MILLIS);
+
+      final MockObjectMessage message = new MockObjectMessage(new StatusUpdate("Update 0"));
+      message.setJMSRedelivered(true);
+      listener.onMessage(message);
+      TestCase.assertEquals(0, listener.batches.size());
+      TestCase.assertEquals(1, listener.singles.size());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified number of updates, numbered from the specified first, to the 
+    * listener upon this Thread
+    */
+   private static void send(final StatusUpdateBeanBase listener, final int first, final int count)
+   {
+      for (int i = first; i < first + count; i++)
+      {
+         listener.onMessage(new MockObjectMessage(new StatusUpdate("Update " + i)));
+      }
+   }
+
+   /**
+    * Delivers the specified number of updates, numbered from the specified first, to the 
+    * listener, each upon its own Thread
+    */
+   private List<Future<?>> deliver(final StatusUpdateBeanBase listener, final int first, final int count)
+   {
+      final List<Future<?>> delivered = new ArrayList<Future<?>>();
+      for (int i = first; i < first + count; i++)
+      {
+         final StatusUpdate update = new StatusUpdate("Update " + i);
+         delivered.add(deliveries.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               listener.onMessage(new MockObjectMessage(update));
+            }
+         }));
+      }
+      return delivered;
+   }
+
+   /**
+    * Waits for the specified deliveries to complete
+    * 
+    * @return The number which failed
+    */
+   private static int awaitFailures(final List<Future<?>> delivered) throws Exception
+   {
+      int failures = 0;
+      for (final Future<?> delivery : delivered)
+      {
+         try
+         {
+            delivery.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+         }
+         catch (final ExecutionException ee)
+         {
+            TestCase.assertTrue(ee.getCause() instanceof RuntimeException);
+            failures++;
+         }
+      }
+      return failures;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records each batch and single update given, and the Thread giving each batch
+    */
+   private static class BatchRecordingListener extends StatusUpdateBeanBase
+   {
+      private final List<List<StatusUpdate>> batches = new CopyOnWriteArrayList<List<StatusUpdate>>();
+
+      private final List<StatusUpdate> singles = new CopyOnWriteArrayList<StatusUpdate>();
+
+      private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+      @Override
+      public void updateStatus(final StatusUpdate newStatus)
+      {
+         singles.add(newStatus);
+      }
+
+      @Override
+      protected void updateStatuses(final List<StatusUpdate> newStatuses) throws Exception
+      {
+         batches.add(newStatuses);
+         threads.add(Thread.currentThread());
+      }
+   }
+}
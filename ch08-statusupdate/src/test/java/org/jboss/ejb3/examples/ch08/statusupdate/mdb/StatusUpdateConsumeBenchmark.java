@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
+import javax.jms.TopicSubscriber;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateCodec;
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the status updates per second consumed by a {@link StatusUpdateBeanBase}
+ * subscribed to a topic of an {@link EmbeddedBroker}, when they're published 
+ * Java-serialized in ObjectMessages and in the binary form of 
+ * {@link StatusUpdateCodec} in BytesMessages.  Each run publishes all its 
+ * updates to the stopped subscriber first, so only consumption is timed.
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=StatusUpdateConsumeBenchmark</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateConsumeBenchmark extends StatusUpdateTestBase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StatusUpdateConsumeBenchmark.class.getName());
+
+   /**
+    * Updates consumed in each run
+    */
+   private static final int MESSAGES = 50000;
+
+   /**
+    * Runs of each form, the first of which warms up and is not reported
+    */
+   private static final int RUNS = 4;
+
+   /**
+    * Name of the topic
+    */
+   private static final String TOPIC_NAME = "StatusUpdate";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private EmbeddedBroker broker;
+
+   private Topic topic;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void startBroker() throws Exception
+   {
+      broker = new EmbeddedBroker();
+      broker.start();
+      topic = broker.createTopic(TOPIC_NAME);
+   }
+
+   @After
+   public void stopBroker() throws Exception
+   {
+      broker.stop();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Alternates runs of each form
+    */
+   @Test
+   public void measure() throws Exception
+   {
+      final StatusUpdate update = this.getUniqueStatusUpdate();
+      for (int run = 0; run < RUNS; run++)
+      {
+         final double objectRate = this.consume(update, false);
+         final double bytesRate = this.consume(update, true);
+         if (run > 0)
+         {
+            log.info(String.format("ObjectMessage %.0f/s, BytesMessage %.0f/s", objectRate, bytesRate));
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Publishes {@link StatusUpdateConsumeBenchmark#MESSAGES} copies of the specified update
+    * to a stopped subscriber, then returns the rate at which they're consumed once started
+    */
+   private double consume(final StatusUpdate update, final boolean binary) throws JMSException,
+         InterruptedException
+   {
+      final TopicConnection connection = broker.getConnectionFactory().createTopicConnection();
+      try
+      {
+         // Subscribe while stopped
+         final CountingListener listener = new CountingListener(update, MESSAGES);
+         final TopicSession consumerSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+         final TopicSubscriber subscriber = consumerSession.createSubscriber(topic);
+         subscriber.setMessageListener(listener);
+
+         // Publish
+         final TopicSession producerSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+         final TopicPublisher publisher = producerSession.createPublisher(topic);
+         publisher.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+         for (int i = 0; i < MESSAGES; i++)
+         {
+            final Message message = binary
+                  ? StatusUpdateCodec.createMessage(producerSession, update)
+                  : producerSession.createObjectMessage(update);
+            publisher.publish(message);
+         }
+
+         // Consume
+         final long start = System.nanoTime();
+         connection.start();
+         TestCase.assertTrue("Timed out consuming", listener.latch.await(2, TimeUnit.MINUTES));
+         return MESSAGES / ((System.nanoTime() - start) / 1000000000.0);
+      }
+      finally
+      {
+         connection.close();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Counts down upon each update equal to that expected
+    */
+   private static final class CountingListener extends StatusUpdateBeanBase
+   {
+      private final StatusUpdate expected;
+
+      private final CountDownLatch latch;
+
+      CountingListener(final StatusUpdate expected, final int count)
+      {
+         this.expected = expected;
+         this.latch = new CountDownLatch(count);
+      }
+
+      /* (non-Javadoc)
+       * @see org.jboss.ejb3.examples.ch08.statusupdate.mdb.StatusUpdateBeanBase#updateStatus(org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate)
+       */
+      @Override
+      public void updateStatus(final StatusUpdate newStatus) throws IllegalArgumentException
+      {
+         if (expected.equals(newStatus))
+         {
+            latch.countDown();
+         }
+      }
+   }
+}
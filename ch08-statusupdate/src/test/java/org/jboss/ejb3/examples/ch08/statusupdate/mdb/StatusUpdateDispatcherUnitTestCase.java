@@ -0,0 +1,310 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link StatusUpdateDispatcher}; ensures that updates reach 
+ * every handler, and that one slow or failing handler doesn't hold back the others.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateDispatcherUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Updates dispatched in each test
+    */
+   private static final int UPDATES = 100;
+
+   /**
+    * Time to wait upon handlers
+    */
+   private static final long TIMEOUT_SECONDS = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private StatusUpdateDispatcher dispatcher;
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Before
+   public void createDispatcher()
+   {
+      dispatcher = new StatusUpdateDispatcher();
+   }
+
+   @After
+   public void closeDispatcher() throws InterruptedException
+   {
+      dispatcher.close(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures every handler gets every update, in order
+    */
+   @Test
+   public void testFanOut() throws InterruptedException
+   {
+      final RecordingHandler[] handlers =
+      {new RecordingHandler(UPDATES), new RecordingHandler(UPDATES), new RecordingHandler(UPDATES)};
+      for (int i = 0; i < handlers.length; i++)
+      {
+         dispatcher.register("handler" + i, handlers[i], UPDATES);
+      }
+      TestCase.assertEquals(handlers.length, dispatcher.getHandlerCount());
+
+      for (int i = 0; i < UPDATES; i++)
+      {
+         TestCase.assertEquals("Update not queued for every handler", handlers.length, dispatcher
+               .dispatch(new StatusUpdate("Update " + i)));
+      }
+
+      for (final RecordingHandler handler : handlers)
+      {
+         TestCase.assertTrue("Handler did not get every update", handler.received.await(TIMEOUT_SECONDS,
+               TimeUnit.SECONDS));
+         for (int i = 0; i < UPDATES; i++)
+         {
+            TestCase.assertEquals("Update out of order", "Update " + i, handler.updates.get(i).getText());
+         }
+      }
+   }
+
+   /**
+    * Ensures a blocked handler only backs up, and drops from, its own queue
+    */
+   @Test
+   public void testSlowHandlerIsolated() throws InterruptedException
+   {
+      final int capacity = 10;
+      final BlockingHandler slow = new BlockingHandler();
+      final RecordingHandler fast = new RecordingHandler(UPDATES);
+      dispatcher.register("slow", slow, capacity);
+      dispatcher.register("fast", fast, UPDATES);
+
+      // Block the slow handler upon the first update, then send the rest
+      dispatcher.dispatch(new StatusUpdate("Update 0"));
+      TestCase.assertTrue("Slow handler not called", slow.entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      for (int i = 1; i < UPDATES; i++)
+      {
+         dispatcher.dispatch(new StatusUpdate("Update " + i));
+      }
+
+      // The fast handler gets all, while the slow one's queue fills
+      TestCase.assertTrue("Fast handler held back by slow handler", fast.received.await(TIMEOUT_SECONDS,
+            TimeUnit.SECONDS));
+      Thread.sleep(20);
+      final HandlerStatistics slowStatistics = dispatcher.getStatistics().get("slow");
+      TestCase.assertEquals("Slow handler's queue should be full", capacity, slowStatistics.getDepth());
+      TestCase.assertEquals(capacity, slowStatistics.getCapacity());
+      TestCase.assertEquals("Updates beyond capacity should be dropped", UPDATES - 1 - capacity, slowStatistics
+            .getDropped());
+      TestCase.assertTrue("Slow handler should be lagging: " + slowStatistics, slowStatistics.getLagMillis() >= 20);
+      final HandlerStatistics fastStatistics = dispatcher.getStatistics().get("fast");
+      TestCase.assertEquals("Fast handler should not lag", 0, fastStatistics.getDepth());
+      TestCase.assertEquals(0, fastStatistics.getLagMillis());
+      TestCase.assertEquals(0, fastStatistics.getDropped());
+
+      // Once released, the slow handler catches up on what it kept
+      slow.release.countDown();
+      TestCase.assertTrue(dispatcher.close(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertEquals(capacity + 1, dispatcher.getStatistics().get("slow").getHandled());
+   }
+
+   /**
+    * Ensures a dispatch waits for room in a backed-up handler's queue, and drops
+    * the update for that handler alone only once its wait is up
+    */
+   @Test
+   public void testBackpressure() throws InterruptedException
+   {
+      final BlockingHandler slow = new BlockingHandler();
+      final RecordingHandler fast = new RecordingHandler(4);
+      dispatcher.register("slow", slow, 1);
+      dispatcher.register("fast", fast, UPDATES);
+
+      // Block the slow handler upon the first update, and fill its queue with the second
+      dispatcher.dispatch(new StatusUpdate("Update 0"));
+      TestCase.assertTrue("Slow handler not called", slow.entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertEquals(2, dispatcher.dispatch(new StatusUpdate("Update 1")));
+
+      // Waiting no longer than asked
+      final long start = System.nanoTime();
+      TestCase.assertEquals("Update should be dropped for the backed-up handler alone", 1, dispatcher.dispatch(
+            new StatusUpdate("Update 2"), 50, TimeUnit.MILLISECONDS));
+      TestCase.assertTrue("Should have waited for room", System.nanoTime() - start >= TimeUnit.MILLISECONDS
+            .toNanos(50));
+      TestCase.assertEquals(1, dispatcher.getStatistics().get("slow").getDropped());
+
+      // Room made while waiting is taken
+      new Thread()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               Thread.sleep(100);
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+            slow.release.countDown();
+         }
+      }.start();
+      TestCase.assertEquals("Update should be queued for every handler once there's room", 2, dispatcher.dispatch(
+            new StatusUpdate("Update 3"), TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertTrue(dispatcher.close(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertEquals(3, dispatcher.getStatistics().get("slow").getHandled());
+      TestCase.assertEquals(1, dispatcher.getStatistics().get("slow").getDropped());
+      TestCase.assertEquals("Fast handler should get every update", 0, fast.received.getCount());
+   }
+
+   /**
+    * Ensures a failing handler carries on, without affecting the others
+    */
+   @Test
+   public void testFailureIsolated() throws InterruptedException
+   {
+      final RecordingHandler healthy = new RecordingHandler(UPDATES);
+      dispatcher.register("failing", new StatusUpdateHandler()
+      {
+         private int calls;
+
+         @Override
+         public void updateStatus(final StatusUpdate newStatus) throws Exception
+         {
+            if (calls++ % 2 == 0)
+            {
+               throw new Exception("Failing as intended");
+            }
+         }
+      }, UPDATES);
+      dispatcher.register("healthy", healthy, UPDATES);
+
+      for (int i = 0; i < UPDATES; i++)
+      {
+         dispatcher.dispatch(new StatusUpdate("Update " + i));
+      }
+      TestCase.assertTrue(dispatcher.close(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      final HandlerStatistics failing = dispatcher.getStatistics().get("failing");
+      TestCase.assertEquals("Failing handler should carry on after failures", UPDATES, failing.getHandled());
+      TestCase.assertEquals(UPDATES / 2, failing.getFailed());
+      TestCase.assertEquals("Healthy handler affected by failures", 0, healthy.received.getCount());
+      TestCase.assertEquals(0, dispatcher.getStatistics().get("healthy").getFailed());
+   }
+
+   /**
+    * Ensures closing lets queued updates finish, and refuses more
+    */
+   @Test
+   public void testClose() throws InterruptedException
+   {
+      final RecordingHandler handler = new RecordingHandler(UPDATES);
+      dispatcher.register("handler", handler, UPDATES);
+      for (int i = 0; i < UPDATES; i++)
+      {
+         dispatcher.dispatch(new StatusUpdate("Update " + i));
+      }
+      TestCase.assertTrue(dispatcher.close(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      TestCase.assertEquals("Queued updates not finished upon close", UPDATES, handler.updates.size());
+
+      try
+      {
+         dispatcher.dispatch(new StatusUpdate("Too late"));
+         TestCase.fail("Should not dispatch once closed");
+      }
+      catch (final IllegalStateException expected)
+      {
+         // Good
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records each update received
+    */
+   private static final class RecordingHandler implements StatusUpdateHandler
+   {
+      private final List<StatusUpdate> updates = new CopyOnWriteArrayList<StatusUpdate>();
+
+      private final CountDownLatch received;
+
+      RecordingHandler(final int expected)
+      {
+         this.received = new CountDownLatch(expected);
+      }
+
+      @Override
+      public void updateStatus(final StatusUpdate newStatus)
+      {
+         updates.add(newStatus);
+         received.countDown();
+      }
+   }
+
+   /**
+    * Blocks upon each update until released
+    */
+   private static final class BlockingHandler implements StatusUpdateHandler
+   {
+      private final CountDownLatch entered = new CountDownLatch(1);
+
+      private final CountDownLatch release = new CountDownLatch(1);
+
+      @Override
+      public void updateStatus(final StatusUpdate newStatus) throws InterruptedException
+      {
+         entered.countDown();
+         release.await();
+      }
+   }
+}
@@ -21,6 +21,8 @@
  */
 package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 
+import java.lang.management.ManagementFactory;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -31,15 +33,23 @@ import javax.jms.TopicConnection;
 import javax.jms.TopicConnectionFactory;
 import javax.jms.TopicPublisher;
 import javax.jms.TopicSession;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 
+import junit.framework.TestCase;
+
 import org.jboss.arquillian.api.Deployment;
 import org.jboss.arquillian.api.Run;
 import org.jboss.arquillian.api.RunModeType;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateCodec;
 import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateConstants;
+import org.jboss.ejb3.examples.testsupport.metrics.LatencyHistogram;
+import org.jboss.ejb3.examples.testsupport.metrics.MessageMetrics;
+import org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.spec.JavaArchive;
 import org.junit.BeforeClass;
@@ -89,6 +99,22 @@ public class StatusUpdateIntegrationTest extends StatusUpdateTestBase
     */
    private static final String JNDI_NAME_CONNECTION_FACTORY = "ConnectionFactory";
 
+   /**
+    * Name of the dispatcher's no-interface view in JNDI
+    */
+   private static final String JNDI_NAME_DISPATCHER = "java:global/statusUpdateEjb/"
+         + StatusUpdateDispatcherBean.class.getSimpleName() + "!" + StatusUpdateDispatcherBean.class.getName();
+
+   /**
+    * Time to wait upon the handlers to act upon an update
+    */
+   private static final long HANDLER_TIMEOUT_SECONDS = 10;
+
+   /**
+    * Time to go on watching for an update to be handled again, once it's been handled
+    */
+   private static final long DUPLICATE_WAIT_MILLIS = 500;
+
    /**
     * Creates the EJB JAR to be deployed into the server via Arquillian
     * @return
@@ -99,7 +125,12 @@ public class StatusUpdateIntegrationTest extends StatusUpdateTestBase
       final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, NAME_MDB_ARCHIVE).addClasses(StatusUpdate.class,
             StatusUpdateConstants.class, LoggingStatusUpdateMdb.class, StatusUpdateBeanBase.class,
             TwitterUpdateBlockingTestMdb.class, SecurityActions.class, TwitterUpdateMdb.class,
-            EnvironmentSpecificTwitterClientUtil.class).addResource(NAME_RESOURCE_TOPIC_DEPLOYMENT);
+            EnvironmentSpecificTwitterClientUtil.class, StatusUpdateCodec.class, StatusUpdateHandler.class,
+            TwitterPublisherBean.class, RateLimitedStatusPublisher.class, TokenBucket.class,
+            PublisherStatistics.class, StatusUpdateBatcher.class, MessageMetrics.class, MessageMetricsMBean.class,
+            LatencyHistogram.class, DispatchingStatusUpdateMdb.class, StatusUpdateDispatcherBean.class,
+            StatusUpdateDispatcher.class, HandlerStatistics.class, LoggingStatusUpdateHandler.class).addResource(
+            NAME_RESOURCE_TOPIC_DEPLOYMENT);
       log.info(archive.toString(true));
       return archive;
    }
@@ -168,10 +199,68 @@ public class StatusUpdateIntegrationTest extends StatusUpdateTestBase
       this.assertLastUpdateSentToTwitter(twitterClient, newStatus);
    }
 
+   /**
+    * Tests that, with the {@link DispatchingStatusUpdateMdb} subscribed upon the topic, 
+    * each handler it fans out to acts upon a new status once, and that the 
+    * {@link LoggingStatusUpdateMdb} does not also consume the topic itself
+    */
+   @Test
+   public void testSingleDeliveryPerHandler() throws Exception
+   {
+      // Get the dispatcher, and what its handlers have done so far
+      final StatusUpdateDispatcherBean dispatcher = (StatusUpdateDispatcherBean) NAMING_CONTEXT
+            .lookup(JNDI_NAME_DISPATCHER);
+      final Map<String, HandlerStatistics> before = dispatcher.getStatistics();
+      TestCase.assertTrue("Logging handler should be registered", before
+            .containsKey(StatusUpdateDispatcherBean.HANDLER_NAME_LOGGING));
+
+      // Publish an update
+      this.publishStatusUpdateToTopic(this.getUniqueStatusUpdate());
+
+      // Wait for every handler to act upon it, then a while longer in case any does so again
+      final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(HANDLER_TIMEOUT_SECONDS);
+      while (!this.allHandledSince(before, dispatcher.getStatistics()) && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(50);
+      }
+      Thread.sleep(DUPLICATE_WAIT_MILLIS);
+
+      // Test
+      final Map<String, HandlerStatistics> after = dispatcher.getStatistics();
+      for (final Map.Entry<String, HandlerStatistics> handler : after.entrySet())
+      {
+         TestCase.assertEquals("Handler " + handler.getKey() + " should act upon the update once", before.get(
+               handler.getKey()).getHandled() + 1, handler.getValue().getHandled());
+         TestCase.assertEquals(before.get(handler.getKey()).getDropped(), handler.getValue().getDropped());
+      }
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName loggingMdbMetrics = new ObjectName(MessageMetrics.OBJECT_NAME_PREFIX + ",destination="
+            + ObjectName.quote(StatusUpdateConstants.JNDI_NAME_TOPIC_STATUSUPDATE) + ",consumer="
+            + ObjectName.quote(LoggingStatusUpdateMdb.class.getSimpleName()));
+      TestCase.assertTrue("Logging bean should not consume the topic besides the dispatcher", server.queryNames(
+            loggingMdbMetrics, null).isEmpty());
+   }
+
    //-------------------------------------------------------------------------------------||
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Whether every handler has acted upon at least one more update since the specified statistics
+    */
+   private boolean allHandledSince(final Map<String, HandlerStatistics> before,
+         final Map<String, HandlerStatistics> now)
+   {
+      for (final Map.Entry<String, HandlerStatistics> handler : now.entrySet())
+      {
+         if (handler.getValue().getHandled() <= before.get(handler.getKey()).getHandled())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
    /**
     * Sends a JMS {@link ObjectMessage} containing the specified status to the 
     * queue of the specified name  
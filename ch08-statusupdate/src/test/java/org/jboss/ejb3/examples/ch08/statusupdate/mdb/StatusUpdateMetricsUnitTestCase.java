@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.testsupport.metrics.MessageMetrics;
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link MessageMetrics} recorded by {@link StatusUpdateBeanBase}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateMetricsUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures consumption and failures by a {@link StatusUpdateBeanBase} are readable
+    * from its MBean, failures not being counted as consumed, and that the MBean
+    * is unregistered once the instance is destroyed
+    */
+   @Test
+   public void testMBean() throws Exception
+   {
+      final String destination = "topic/" + UUID.randomUUID();
+      final StatusUpdateBeanBase listener = new StatusUpdateBeanBase()
+      {
+         @Override
+         public void updateStatus(final StatusUpdate newStatus)
+         {
+            if (newStatus.getText().equals("Fail"))
+            {
+               throw new IllegalStateException("Failing as intended");
+            }
+         }
+
+         @Override
+         protected String getDestinationName()
+         {
+            return destination;
+         }
+      };
+
+      for (int i = 0; i < 10; i++)
+      {
+         listener.onMessage(new MockObjectMessage(new StatusUpdate("Update " + i)));
+      }
+      sendExpectingFailure(listener, new MockObjectMessage(new StatusUpdate("Fail")));
+      sendExpectingFailure(listener, new MockObjectMessage("Not a status update"));
+
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(MessageMetrics.OBJECT_NAME_PREFIX + ",destination="
+            + ObjectName.quote(destination) + ",consumer=*");
+      final ObjectName registered = server.queryNames(name, null).iterator().next();
+      TestCase.assertEquals(10L, server.getAttribute(registered, "Consumed"));
+      TestCase.assertEquals(2L, server.getAttribute(registered, "Failed"));
+      @SuppressWarnings("unchecked")
+      final Map<String, Long> failures = (Map<String, Long>) server.getAttribute(registered, "FailuresByType");
+      TestCase.assertEquals(Long.valueOf(1), failures.get(IllegalStateException.class.getName()));
+      TestCase.assertEquals(Long.valueOf(1), failures.get(IllegalArgumentException.class.getName()));
+      TestCase.assertTrue((Long) server.getAttribute(registered, "ProcessingTimeMaxMicros") >= 0);
+
+      server.invoke(registered, "reset", null, null);
+      TestCase.assertEquals(0L, server.getAttribute(registered, "Consumed"));
+
+      listener.destroy();
+      TestCase.assertFalse(server.isRegistered(registered));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static void sendExpectingFailure(final StatusUpdateBeanBase listener, final MockObjectMessage message)
+   {
+      try
+      {
+         listener.onMessage(message);
+         TestCase.fail("Processing should have failed");
+      }
+      catch (final RuntimeException expected)
+      {
+         // Good
+      }
+   }
+}
@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateCodec;
+import org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker;
+import org.jboss.ejb3.examples.testsupport.load.LoadGenerator;
+import org.jboss.ejb3.examples.testsupport.load.LoadReport;
+import org.junit.Test;
+
+/**
+ * Soaks a status update destination with a {@link LoadGenerator}, many producers
+ * sending status updates to instances of a {@link StatusUpdateBeanBase} consuming 
+ * over an {@link EmbeddedBroker}, and reports the throughput, end-to-end latency 
+ * and lag of the consumers sustained.  As would the sessions of an MDB, many 
+ * sessions consume at once, each delivering to its own instance; the destination
+ * is a queue, as JMS 1.1 offers no way to share one topic subscription among 
+ * sessions outside the container.
+ * 
+ * The load is configured by system properties:
+ * <ul>
+ *   <li>soak.producers: concurrent producers (default 8)</li>
+ *   <li>soak.rate: status updates sent per second among all producers (default 2000)</li>
+ *   <li>soak.seconds: time for which status updates are sent (default 180)</li>
+ *   <li>soak.warmupSeconds: time for which status updates are sent, unreported, beforehand (default 10)</li>
+ *   <li>soak.sampleSeconds: time between samples of progress (default 10)</li>
+ *   <li>soak.form: "bytes" to send in the binary form of {@link StatusUpdateCodec}, 
+ *     or "object" Java-serialized (default bytes)</li>
+ *   <li>soak.sessions: sessions consuming at once (default 15)</li>
+ *   <li>soak.batch: most status updates the consumers process in a batch, or 0 to process
+ *     each alone (default 0); a batch gathers no more than soak.sessions</li>
+ * </ul>
+ * 
+ * Not run as part of the default build; run via the "benchmark" profile, ie.
+ * <code>mvn -Pbenchmark integration-test</code>, or directly via 
+ * <code>mvn test -Dtest=StatusUpdateSoakBenchmark -Dsoak.rate=5000 -Dsoak.seconds=600</code>.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StatusUpdateSoakBenchmark
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StatusUpdateSoakBenchmark.class.getName());
+
+   /**
+    * Name of the queue
+    */
+   private static final String QUEUE_NAME = "StatusUpdate";
+
+   /**
+    * Longest time, in milliseconds, a batch waits for more status updates, when consuming in batches
+    */
+   private static final long BATCH_LINGER_MILLIS = 2;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   @Test
+   public void soak() throws Exception
+   {
+      final int producers = Integer.getInteger("soak.producers", 8);
+      final double rate = Double.parseDouble(System.getProperty("soak.rate", "2000"));
+      final long seconds = Long.getLong("soak.seconds", 180);
+      final long warmupSeconds = Long.getLong("soak.warmupSeconds", 10);
+      final long sampleSeconds = Long.getLong("soak.sampleSeconds", 10);
+      final String form = System.getProperty("soak.form", "bytes");
+      final int sessionCount = Integer.getInteger("soak.sessions", 15);
+      final int batch = Integer.getInteger("soak.batch", 0);
+      if (!"bytes".equals(form) && !"object".equals(form))
+      {
+         throw new IllegalArgumentException("Unknown soak.form: " + form);
+      }
+
+      final EmbeddedBroker broker = new EmbeddedBroker();
+      broker.start();
+      try
+      {
+         final Queue queue = broker.createQueue(QUEUE_NAME);
+         final AtomicReference<LoadGenerator> generator = new AtomicReference<LoadGenerator>();
+         final QueueConnection connection = broker.getConnectionFactory().createQueueConnection();
+         try
+         {
+            for (int i = 0; i < sessionCount; i++)
+            {
+               connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE).createReceiver(queue)
+                     .setMessageListener(new SoakStatusUpdateBean(generator, batch));
+            }
+            connection.start();
+
+            // Send, each producer upon its own session
+            final ThreadLocal<QueueSession> sessions = new ThreadLocal<QueueSession>();
+            final ThreadLocal<QueueSender> senders = new ThreadLocal<QueueSender>();
+            final LoadGenerator.Producer producer = new LoadGenerator.Producer()
+            {
+               @Override
+               public void send(final String contents) throws Exception
+               {
+                  if (sessions.get() == null)
+                  {
+                     final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+                     sessions.set(session);
+                     senders.set(session.createSender(queue));
+                  }
+                  final QueueSession session = sessions.get();
+                  final StatusUpdate update = new StatusUpdate(contents);
+                  senders.get().send(
+                        "bytes".equals(form) ? StatusUpdateCodec.createMessage(session, update) : session
+                              .createObjectMessage(update));
+               }
+            };
+            if (warmupSeconds > 0)
+            {
+               log.info("Warming up for " + warmupSeconds + "s");
+               generator.set(new LoadGenerator(producers, rate, warmupSeconds * 1000, warmupSeconds * 1000));
+               generator.get().run(producer);
+            }
+            log.info("Soaking for " + seconds + "s: " + producers + " producer(s) sending " + form + " at " + rate
+                  + "/s to " + sessionCount + " session(s)");
+            generator.set(new LoadGenerator(producers, rate, seconds * 1000, sampleSeconds * 1000));
+            final LoadReport report = generator.get().run(producer);
+            final String summary = "form=" + form + " sessions=" + sessionCount + " batch=" + batch + " | "
+                  + report;
+            log.info(summary + "\n" + report.formatSamples());
+            System.out.println(summary);
+            System.out.print(report.formatSamples());
+            TestCase.assertEquals("Status updates went unreceived: " + report, 0, report.getUnreceived());
+         }
+         finally
+         {
+            connection.close();
+         }
+      }
+      finally
+      {
+         broker.stop();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Consumer handing each status update back to the current {@link LoadGenerator}
+    */
+   private static final class SoakStatusUpdateBean extends StatusUpdateBeanBase
+   {
+      private final AtomicReference<LoadGenerator> generator;
+
+      SoakStatusUpdateBean(final AtomicReference<LoadGenerator> generator, final int batch)
+      {
+         this.generator = generator;
+         if (batch > 0)
+         {
+            this.enableBatching(batch, BATCH_LINGER_MILLIS);
+         }
+      }
+
+      /* (non-Javadoc)
+       * @see org.jboss.ejb3.examples.ch08.statusupdate.mdb.StatusUpdateBeanBase#updateStatus(org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate)
+       */
+      @Override
+      public void updateStatus(final StatusUpdate newStatus)
+      {
+         this.generator.get().received(newStatus.getText());
+      }
+   }
+}
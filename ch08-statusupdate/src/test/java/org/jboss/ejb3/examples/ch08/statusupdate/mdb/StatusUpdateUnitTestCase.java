@@ -23,12 +23,15 @@ package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 
 import java.util.logging.Logger;
 
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
 
 import junit.framework.TestCase;
 
 import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate;
+import org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdateCodec;
 import org.junit.Test;
 
 import twitter4j.Twitter;
@@ -80,6 +83,30 @@ public class StatusUpdateUnitTestCase extends StatusUpdateTestBase
       TestCase.assertEquals("Status sent was not dispatched and received as expected", newStatus, roundtrip);
    }
 
+   /**
+    * Ensures that the {@link StatusUpdateBeanBase#updateStatus(StatusUpdate)} method is
+    * invoked for incoming messages in the binary form of {@link StatusUpdateCodec}
+    */
+   @Test
+   public void testUpdateStatusBaseBytesMessage() throws JMSException
+   {
+      // Make a listener
+      final StatusCachingMessageListener listener = new StatusCachingMessageListener();
+
+      // Make a status update, and encode it
+      final StatusUpdate newStatus = this.getUniqueStatusUpdate();
+      final BytesMessage message = new MockBytesMessage();
+      StatusUpdateCodec.write(newStatus, message);
+      message.reset();
+
+      // Send to it
+      listener.onMessage(message);
+
+      // Ensure it's what we sent
+      TestCase.assertEquals("Status sent was not dispatched and received as expected", newStatus, listener
+            .getLastStatus());
+   }
+
    /**
     * Ensures that the {@link TwitterUpdateMdb} is updating Twitter
     * when {@link MessageListener#onMessage(javax.jms.Message)} is invoked
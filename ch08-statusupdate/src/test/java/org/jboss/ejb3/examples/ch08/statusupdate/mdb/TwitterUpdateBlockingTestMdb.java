@@ -22,9 +22,11 @@
 package org.jboss.ejb3.examples.ch08.statusupdate.mdb;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
 import javax.jms.MessageListener;
 
@@ -64,14 +66,29 @@ public class TwitterUpdateBlockingTestMdb extends TwitterUpdateMdb implements Me
     */
    public static CountDownLatch LATCH = new CountDownLatch(1);
 
+   /**
+    * Time to wait upon the outbound stage to publish the update
+    */
+   private static final long PUBLISH_TIMEOUT_SECONDS = 10;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Outbound stage to which the update is handed off, upon which we wait
+    */
+   @EJB
+   private TwitterPublisherBean publisher;
+
    //-------------------------------------------------------------------------------------||
    // Overridden Implementations ---------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
     * {@inheritDoc}
-    * Additionally waits upon a shared barrier so that the test can ensure we're done before
-    * it proceeds
+    * Additionally waits for the update to be published by the outbound stage, and 
+    * upon a shared barrier so that the test can ensure we're done before it proceeds
     * @see org.jboss.ejb3.examples.ch08.statusupdate.mdb.TwitterUpdateMdb#updateStatus(org.jboss.ejb3.examples.ch08.statusupdate.api.StatusUpdate)
     */
    @Override
@@ -81,6 +98,10 @@ public class TwitterUpdateBlockingTestMdb extends TwitterUpdateMdb implements Me
       try
       {
          super.updateStatus(newStatus);
+         if (publisher != null)
+         {
+            publisher.awaitIdle(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+         }
       }
       finally
       {
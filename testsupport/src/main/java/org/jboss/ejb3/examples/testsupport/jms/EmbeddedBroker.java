@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.jms;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+import org.hornetq.api.core.TransportConfiguration;
+import org.hornetq.api.jms.HornetQJMSClient;
+import org.hornetq.api.jms.JMSFactoryType;
+import org.hornetq.core.config.Configuration;
+import org.hornetq.core.config.impl.ConfigurationImpl;
+import org.hornetq.core.remoting.impl.invm.InVMAcceptorFactory;
+import org.hornetq.core.remoting.impl.invm.InVMConnectorFactory;
+import org.hornetq.core.server.HornetQServers;
+import org.hornetq.core.server.JournalType;
+import org.hornetq.jms.client.HornetQJMSConnectionFactory;
+import org.hornetq.jms.server.JMSServerManager;
+import org.hornetq.jms.server.impl.JMSServerManagerImpl;
+
+/**
+ * HornetQ broker run within the test JVM and reached in-VM, such that 
+ * messaging may be tested without a container.  Unless given a data directory
+ * the broker holds messages in memory only, and keeps what files it still writes 
+ * in a temporary directory removed upon stopping; queues and topics are made again 
+ * should it be restarted.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class EmbeddedBroker
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Directory in which messages are journaled, or null to hold them in memory
+    */
+   private final File dataDirectory;
+
+   /**
+    * Names of the queues we've made
+    */
+   private final Set<String> queueNames = new LinkedHashSet<String>();
+
+   /**
+    * Names of the topics we've made
+    */
+   private final Set<String> topicNames = new LinkedHashSet<String>();
+
+   /**
+    * The running broker, or null if stopped
+    */
+   private JMSServerManager server;
+
+   /**
+    * Temporary directory of the running broker holding messages in memory, or null
+    */
+   private File temporaryDirectory;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructors -----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a broker holding messages in memory only
+    */
+   public EmbeddedBroker()
+   {
+      this(null);
+   }
+
+   /**
+    * Creates a broker journaling persistent messages, and syncing the journal 
+    * upon each send or commit, in the specified directory
+    */
+   public EmbeddedBroker(final File dataDirectory)
+   {
+      this.dataDirectory = dataDirectory;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Starts the broker, making any queues and topics it had before
+    */
+   public synchronized void start() throws Exception
+   {
+      if (this.server != null)
+      {
+         return;
+      }
+      final Configuration configuration = new ConfigurationImpl();
+      configuration.setPersistenceEnabled(this.dataDirectory != null);
+
+      // Even in memory the broker writes a lock, and may page; never into the working directory
+      final File directory;
+      if (this.dataDirectory != null)
+      {
+         directory = this.dataDirectory;
+      }
+      else
+      {
+         directory = createTemporaryDirectory();
+         this.temporaryDirectory = directory;
+      }
+      configuration.setJournalType(JournalType.NIO);
+      configuration.setJournalDirectory(new File(directory, "journal").getAbsolutePath());
+      configuration.setBindingsDirectory(new File(directory, "bindings").getAbsolutePath());
+      configuration.setPagingDirectory(new File(directory, "paging").getAbsolutePath());
+      configuration.setLargeMessagesDirectory(new File(directory, "largemessages").getAbsolutePath());
+      configuration.setSecurityEnabled(false);
+      configuration.setJMXManagementEnabled(false);
+      configuration.getAcceptorConfigurations().add(new TransportConfiguration(InVMAcceptorFactory.class.getName()));
+      final JMSServerManager server = new JMSServerManagerImpl(HornetQServers.newHornetQServer(configuration));
+      server.setContext(null);
+      server.start();
+      for (final String queueName : this.queueNames)
+      {
+         server.createQueue(false, queueName, null, false);
+      }
+      for (final String topicName : this.topicNames)
+      {
+         server.createTopic(false, topicName);
+      }
+      this.server = server;
+   }
+
+   /**
+    * Stops the broker, failing all connections to it
+    */
+   public synchronized void stop() throws Exception
+   {
+      if (this.server == null)
+      {
+         return;
+      }
+      try
+      {
+         this.server.stop();
+      }
+      finally
+      {
+         this.server = null;
+         if (this.temporaryDirectory != null)
+         {
+            delete(this.temporaryDirectory);
+            this.temporaryDirectory = null;
+         }
+      }
+   }
+
+   /**
+    * Makes a queue of the specified name, if not already made
+    */
+   public synchronized Queue createQueue(final String name) throws Exception
+   {
+      if (this.queueNames.add(name) && this.server != null)
+      {
+         this.server.createQueue(false, name, null, false);
+      }
+      return HornetQJMSClient.createQueue(name);
+   }
+
+   /**
+    * Makes a topic of the specified name, if not already made
+    */
+   public synchronized Topic createTopic(final String name) throws Exception
+   {
+      if (this.topicNames.add(name) && this.server != null)
+      {
+         this.server.createTopic(false, name);
+      }
+      return HornetQJMSClient.createTopic(name);
+   }
+
+   /**
+    * Obtains a new connection factory reaching this broker in-VM, which
+    * makes both queue and topic connections
+    */
+   public HornetQJMSConnectionFactory getConnectionFactory()
+   {
+      return (HornetQJMSConnectionFactory) HornetQJMSClient.createConnectionFactoryWithoutHA(JMSFactoryType.CF,
+            new TransportConfiguration(InVMConnectorFactory.class.getName()));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Makes a new, empty directory under the temporary directory of the JVM
+    * 
+    * @throws IOException If the directory could not be made
+    */
+   private static File createTemporaryDirectory() throws IOException
+   {
+      final File directory = File.createTempFile("embedded-broker", "");
+      if (!directory.delete() || !directory.mkdir())
+      {
+         throw new IOException("Could not make temporary directory " + directory);
+      }
+      return directory;
+   }
+
+   /**
+    * Deletes the specified file or directory, and all within it
+    */
+   private static void delete(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
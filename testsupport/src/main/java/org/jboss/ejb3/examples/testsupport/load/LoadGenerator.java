@@ -0,0 +1,324 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.testsupport.metrics.LatencyHistogram;
+
+/**
+ * Drives messages at a fixed rate from many concurrent producers for a set time,
+ * measuring the rate at which they're sent and received, the end-to-end latency
+ * of each and the lag of consumers behind producers, and reports upon it in a 
+ * {@link LoadReport}.
+ * 
+ * Each message is given contents naming the time it was due to be sent, which 
+ * consumers hand back through {@link LoadGenerator#received(String)}.  Latency
+ * is measured from that due time rather than from when the message was actually
+ * sent, such that a producer held up by a slow send doesn't hide the wait of those
+ * messages queued up behind it.  Producers and consumers must therefore share the
+ * JVM of the generator, as they do with an {@link org.jboss.ejb3.examples.testsupport.jms.EmbeddedBroker}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class LoadGenerator
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(LoadGenerator.class.getName());
+
+   /**
+    * Separates the due time from the rest of the contents of a message
+    */
+   private static final char SEPARATOR_DUE = '@';
+
+   /**
+    * Longest time, in milliseconds, we wait for consumers to catch up once sending stops
+    */
+   private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Number of concurrent producers
+    */
+   private final int producers;
+
+   /**
+    * Messages sent per second among all producers
+    */
+   private final double messagesPerSecond;
+
+   /**
+    * Time for which messages are sent
+    */
+   private final long durationMillis;
+
+   /**
+    * Time between each sample of progress
+    */
+   private final long sampleIntervalMillis;
+
+   /**
+    * Messages sent
+    */
+   private final AtomicLong sent = new AtomicLong();
+
+   /**
+    * Messages which could not be sent
+    */
+   private final AtomicLong failed = new AtomicLong();
+
+   /**
+    * Messages received
+    */
+   private final AtomicLong received = new AtomicLong();
+
+   /**
+    * End-to-end latency of the messages received
+    */
+   private final LatencyHistogram latency = new LatencyHistogram();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a generator sending the specified number of messages per second, 
+    * evenly among the specified number of producers, for the specified time, and
+    * sampling progress at the specified interval
+    * 
+    * @throws IllegalArgumentException If any argument is not positive
+    */
+   public LoadGenerator(final int producers, final double messagesPerSecond, final long durationMillis,
+         final long sampleIntervalMillis) throws IllegalArgumentException
+   {
+      if (producers <= 0)
+      {
+         throw new IllegalArgumentException("producers must be positive: " + producers);
+      }
+      if (!(messagesPerSecond > 0))
+      {
+         throw new IllegalArgumentException("messagesPerSecond must be positive: " + messagesPerSecond);
+      }
+      if (durationMillis <= 0)
+      {
+         throw new IllegalArgumentException("durationMillis must be positive: " + durationMillis);
+      }
+      if (sampleIntervalMillis <= 0)
+      {
+         throw new IllegalArgumentException("sampleIntervalMillis must be positive: " + sampleIntervalMillis);
+      }
+      this.producers = producers;
+      this.messagesPerSecond = messagesPerSecond;
+      this.durationMillis = durationMillis;
+      this.sampleIntervalMillis = sampleIntervalMillis;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends messages through the specified {@link Producer} from each of our producer 
+    * threads until the duration has passed, then waits for consumers to receive all 
+    * that was sent, reporting upon the run.  A generator may be run only once.
+    * 
+    * @param producer Sends a message; must be safe for concurrent use
+    * @throws InterruptedException If interrupted while waiting upon producers or consumers
+    */
+   public LoadReport run(final Producer producer) throws InterruptedException
+   {
+      final long start = System.nanoTime();
+      final long end = start + TimeUnit.MILLISECONDS.toNanos(this.durationMillis);
+
+      // Sample progress
+      final List<LoadReport.Sample> samples = new ArrayList<LoadReport.Sample>();
+      final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable runnable)
+         {
+            final Thread thread = new Thread(runnable, "LoadSampler");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      sampler.scheduleAtFixedRate(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            samples.add(LoadGenerator.this.sample(start));
+         }
+      }, this.sampleIntervalMillis, this.sampleIntervalMillis, TimeUnit.MILLISECONDS);
+
+      // Send
+      final Thread[] threads = new Thread[this.producers];
+      for (int i = 0; i < threads.length; i++)
+      {
+         final int index = i;
+         threads[i] = new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               LoadGenerator.this.produce(producer, index, start, end);
+            }
+         }, "LoadProducer-" + i);
+         threads[i].start();
+      }
+      for (final Thread thread : threads)
+      {
+         thread.join();
+      }
+      final long sendingNanos = System.nanoTime() - start;
+      log.info("Sent " + this.sent.get() + " message(s), " + this.failed.get() + " failed; waiting upon consumers");
+
+      // Wait for consumers to catch up
+      final long drainStart = System.nanoTime();
+      final long drainDeadline = drainStart + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+      while (this.received.get() < this.sent.get() && System.nanoTime() < drainDeadline)
+      {
+         Thread.sleep(10);
+      }
+      final long drainNanos = System.nanoTime() - drainStart;
+      sampler.shutdown();
+      sampler.awaitTermination(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      samples.add(this.sample(start));
+
+      return new LoadReport(this.producers, this.messagesPerSecond, TimeUnit.NANOSECONDS.toMillis(sendingNanos),
+            TimeUnit.NANOSECONDS.toMillis(drainNanos), this.sent.get(), this.failed.get(), this.received.get(),
+            (long) this.latency.getMean(), this.latency.getPercentile(0.5), this.latency.getPercentile(0.99),
+            this.latency.getPercentile(0.999), this.latency.getMax(), samples);
+   }
+
+   /**
+    * Records receipt of a message with the specified contents, as sent by this generator.
+    * Safe for concurrent use by any number of consumers.
+    * 
+    * @throws IllegalArgumentException If the contents were not made by a generator
+    */
+   public void received(final String contents) throws IllegalArgumentException
+   {
+      final long now = System.nanoTime();
+      final int separator = contents == null ? -1 : contents.lastIndexOf(SEPARATOR_DUE);
+      if (separator < 0)
+      {
+         throw new IllegalArgumentException("Not sent by a " + LoadGenerator.class.getSimpleName() + ": "
+               + contents);
+      }
+      final long due;
+      try
+      {
+         due = Long.parseLong(contents.substring(separator + 1));
+      }
+      catch (final NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Not sent by a " + LoadGenerator.class.getSimpleName() + ": "
+               + contents);
+      }
+      this.latency.record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, now - due)));
+      this.received.incrementAndGet();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the share of messages due from the producer of the specified index 
+    * before the specified end, each at its due time or as soon after as we can
+    */
+   private void produce(final Producer producer, final int index, final long start, final long end)
+   {
+      final double nanosPerMessage = TimeUnit.SECONDS.toNanos(1) / this.messagesPerSecond;
+      for (long sequence = index;; sequence += this.producers)
+      {
+         final long due = start + (long) (sequence * nanosPerMessage);
+         if (due - end >= 0)
+         {
+            return;
+         }
+         for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+         {
+            LockSupport.parkNanos(wait);
+         }
+         try
+         {
+            producer.send("Load " + sequence + SEPARATOR_DUE + due);
+            this.sent.incrementAndGet();
+         }
+         catch (final Exception e)
+         {
+            if (this.failed.getAndIncrement() == 0)
+            {
+               log.warning("Could not send; further failures are only counted: " + e);
+            }
+         }
+      }
+   }
+
+   /**
+    * Takes a sample of progress since the specified start
+    */
+   private LoadReport.Sample sample(final long start)
+   {
+      // Read received before sent, so a message sent and received in between isn't missed from lag
+      final long received = this.received.get();
+      final long sent = this.sent.get();
+      return new LoadReport.Sample(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), sent, received);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Means of sending a message
+    */
+   public interface Producer
+   {
+      /**
+       * Sends a message with the specified contents
+       * 
+       * @throws Exception If the message could not be sent
+       */
+      void send(String contents) throws Exception;
+   }
+}
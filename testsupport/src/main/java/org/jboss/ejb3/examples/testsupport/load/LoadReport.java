@@ -0,0 +1,364 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Value object describing a run of a {@link LoadGenerator}: the rates at which 
+ * messages were sent and received, their end-to-end latency, and {@link Sample}s 
+ * of progress taken throughout.  {@link LoadReport#toString()} summarizes the run
+ * in a line, and {@link LoadReport#formatSamples()} gives a table of the samples.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class LoadReport
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final int producers;
+
+   private final double targetRate;
+
+   private final long sendingMillis;
+
+   private final long drainMillis;
+
+   private final long sent;
+
+   private final long failed;
+
+   private final long received;
+
+   private final long latencyMeanMicros;
+
+   private final long latencyMedianMicros;
+
+   private final long latency99thPercentileMicros;
+
+   private final long latency999thPercentileMicros;
+
+   private final long latencyMaxMicros;
+
+   private final List<Sample> samples;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   LoadReport(final int producers, final double targetRate, final long sendingMillis, final long drainMillis,
+         final long sent, final long failed, final long received, final long latencyMeanMicros,
+         final long latencyMedianMicros, final long latency99thPercentileMicros,
+         final long latency999thPercentileMicros, final long latencyMaxMicros, final List<Sample> samples)
+   {
+      this.producers = producers;
+      this.targetRate = targetRate;
+      this.sendingMillis = sendingMillis;
+      this.drainMillis = drainMillis;
+      this.sent = sent;
+      this.failed = failed;
+      this.received = received;
+      this.latencyMeanMicros = latencyMeanMicros;
+      this.latencyMedianMicros = latencyMedianMicros;
+      this.latency99thPercentileMicros = latency99thPercentileMicros;
+      this.latency999thPercentileMicros = latency999thPercentileMicros;
+      this.latencyMaxMicros = latencyMaxMicros;
+      this.samples = Collections.unmodifiableList(new ArrayList<Sample>(samples));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the number of concurrent producers
+    */
+   public int getProducers()
+   {
+      return producers;
+   }
+
+   /**
+    * Obtains the messages per second producers were to send
+    */
+   public double getTargetRate()
+   {
+      return targetRate;
+   }
+
+   /**
+    * Obtains the time, in milliseconds, for which messages were sent
+    */
+   public long getSendingMillis()
+   {
+      return sendingMillis;
+   }
+
+   /**
+    * Obtains the time, in milliseconds, consumers took to catch up once sending stopped
+    */
+   public long getDrainMillis()
+   {
+      return drainMillis;
+   }
+
+   /**
+    * Obtains the number of messages sent
+    */
+   public long getSent()
+   {
+      return sent;
+   }
+
+   /**
+    * Obtains the number of messages which could not be sent
+    */
+   public long getFailed()
+   {
+      return failed;
+   }
+
+   /**
+    * Obtains the number of messages received
+    */
+   public long getReceived()
+   {
+      return received;
+   }
+
+   /**
+    * Obtains the number of messages sent but not received by the end of the run
+    */
+   public long getUnreceived()
+   {
+      return Math.max(0, sent - received);
+   }
+
+   /**
+    * Obtains the messages sent per second while sending
+    */
+   public double getSendRate()
+   {
+      return sendingMillis == 0 ? 0 : sent * 1000.0 / sendingMillis;
+   }
+
+   /**
+    * Obtains the messages received per second, from the start of sending until
+    * consumers caught up
+    */
+   public double getReceiveRate()
+   {
+      final long millis = sendingMillis + drainMillis;
+      return millis == 0 ? 0 : received * 1000.0 / millis;
+   }
+
+   /**
+    * Obtains the fewest messages received per second in any whole interval 
+    * between samples taken while sending; the rate consumers sustained throughout
+    */
+   public double getSustainedReceiveRate()
+   {
+      double slowest = Double.NaN;
+      Sample previous = null;
+      for (final Sample sample : samples)
+      {
+         if (sample.getElapsedMillis() > sendingMillis)
+         {
+            break;
+         }
+         final long millis = sample.getElapsedMillis() - (previous == null ? 0 : previous.getElapsedMillis());
+         final long count = sample.getReceived() - (previous == null ? 0 : previous.getReceived());
+         if (millis > 0)
+         {
+            final double rate = count * 1000.0 / millis;
+            slowest = Double.isNaN(slowest) ? rate : Math.min(slowest, rate);
+         }
+         previous = sample;
+      }
+      return Double.isNaN(slowest) ? this.getReceiveRate() : slowest;
+   }
+
+   /**
+    * Obtains the most messages consumers were behind producers in any sample
+    */
+   public long getMaxLag()
+   {
+      long max = 0;
+      for (final Sample sample : samples)
+      {
+         max = Math.max(max, sample.getLag());
+      }
+      return max;
+   }
+
+   /**
+    * Obtains the mean end-to-end latency, in microseconds
+    */
+   public long getLatencyMeanMicros()
+   {
+      return latencyMeanMicros;
+   }
+
+   /**
+    * Obtains the median end-to-end latency, in microseconds
+    */
+   public long getLatencyMedianMicros()
+   {
+      return latencyMedianMicros;
+   }
+
+   /**
+    * Obtains the 99th percentile of end-to-end latency, in microseconds
+    */
+   public long getLatency99thPercentileMicros()
+   {
+      return latency99thPercentileMicros;
+   }
+
+   /**
+    * Obtains the 99.9th percentile of end-to-end latency, in microseconds
+    */
+   public long getLatency999thPercentileMicros()
+   {
+      return latency999thPercentileMicros;
+   }
+
+   /**
+    * Obtains the greatest end-to-end latency, in microseconds
+    */
+   public long getLatencyMaxMicros()
+   {
+      return latencyMaxMicros;
+   }
+
+   /**
+    * Obtains the samples of progress taken, in order
+    */
+   public List<Sample> getSamples()
+   {
+      return samples;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Formats the samples as a table, one row per sample, of the time elapsed and 
+    * the rates of sending and receiving since the last sample, and the lag
+    */
+   public String formatSamples()
+   {
+      final StringBuilder sb = new StringBuilder(String.format("%10s %12s %12s %10s%n", "elapsed_s", "sent/s",
+            "received/s", "lag"));
+      Sample previous = null;
+      for (final Sample sample : samples)
+      {
+         final long millis = sample.getElapsedMillis() - (previous == null ? 0 : previous.getElapsedMillis());
+         final long sentCount = sample.getSent() - (previous == null ? 0 : previous.getSent());
+         final long receivedCount = sample.getReceived() - (previous == null ? 0 : previous.getReceived());
+         sb.append(String.format("%10.1f %12.0f %12.0f %10d%n", sample.getElapsedMillis() / 1000.0,
+               millis == 0 ? 0 : sentCount * 1000.0 / millis, millis == 0 ? 0 : receivedCount * 1000.0 / millis,
+               sample.getLag()));
+         previous = sample;
+      }
+      return sb.toString();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return String.format("%s [producers=%d, target=%.0f/s, sent=%d (%.0f/s), failed=%d, received=%d (%.0f/s, "
+            + "sustained %.0f/s), unreceived=%d, maxLag=%d, drain=%dms, latency mean=%dus p50=%dus p99=%dus "
+            + "p99.9=%dus max=%dus]", this.getClass().getSimpleName(), producers, targetRate, sent,
+            this.getSendRate(), failed, received, this.getReceiveRate(), this.getSustainedReceiveRate(),
+            this.getUnreceived(), this.getMaxLag(), drainMillis, latencyMeanMicros, latencyMedianMicros,
+            latency99thPercentileMicros, latency999thPercentileMicros, latencyMaxMicros);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Progress of a run as of some time since it started
+    */
+   public static final class Sample
+   {
+      private final long elapsedMillis;
+
+      private final long sent;
+
+      private final long received;
+
+      Sample(final long elapsedMillis, final long sent, final long received)
+      {
+         this.elapsedMillis = elapsedMillis;
+         this.sent = sent;
+         this.received = received;
+      }
+
+      /**
+       * Obtains the time, in milliseconds, since the run started
+       */
+      public long getElapsedMillis()
+      {
+         return elapsedMillis;
+      }
+
+      /**
+       * Obtains the number of messages sent so far
+       */
+      public long getSent()
+      {
+         return sent;
+      }
+
+      /**
+       * Obtains the number of messages received so far
+       */
+      public long getReceived()
+      {
+         return received;
+      }
+
+      /**
+       * Obtains the number of messages consumers were behind producers
+       */
+      public long getLag()
+      {
+         return Math.max(0, sent - received);
+      }
+   }
+}
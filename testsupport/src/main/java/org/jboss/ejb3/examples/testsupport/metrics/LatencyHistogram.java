@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds, for recording from many 
+ * Threads without allocating.  Buckets are log-linear: 8 per power of 2, such
+ * that any value is reported to within 12.5%.  
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class LatencyHistogram
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * log2 of the number of buckets per power of 2
+    */
+   private static final int SUB_BUCKET_BITS = 3;
+
+   /**
+    * Number of buckets per power of 2
+    */
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   /**
+    * Number of buckets, enough for any non-negative long
+    */
+   private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+   private final AtomicLong count = new AtomicLong();
+
+   private final AtomicLong total = new AtomicLong();
+
+   private final AtomicLong max = new AtomicLong();
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records the specified duration; negative durations are recorded as 0
+    */
+   public void record(final long micros)
+   {
+      final long value = Math.max(micros, 0);
+      counts.incrementAndGet(getBucket(value));
+      count.incrementAndGet();
+      total.addAndGet(value);
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value))
+      {
+         current = max.get();
+      }
+   }
+
+   /**
+    * Obtains the number of durations recorded
+    */
+   public long getCount()
+   {
+      return count.get();
+   }
+
+   /**
+    * Obtains the mean duration recorded, or 0 if none
+    */
+   public double getMean()
+   {
+      final long count = this.count.get();
+      return count == 0 ? 0 : (double) total.get() / count;
+   }
+
+   /**
+    * Obtains the longest duration recorded, or 0 if none
+    */
+   public long getMax()
+   {
+      return max.get();
+   }
+
+   /**
+    * Obtains the duration at or below which the specified fraction of those recorded 
+    * fall, reported as the upper bound of its bucket but no more than the maximum; 0 if none
+    * 
+    * @param fraction Between 0 and 1
+    */
+   public long getPercentile(final double fraction)
+   {
+      long recorded = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         recorded += counts.get(i);
+      }
+      if (recorded == 0)
+      {
+         return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(fraction * recorded));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         seen += counts.get(i);
+         if (seen >= rank)
+         {
+            return Math.min(getUpperBound(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   /**
+    * Forgets all durations recorded
+    */
+   public void reset()
+   {
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         counts.set(i, 0);
+      }
+      count.set(0);
+      total.set(0);
+      max.set(0);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the bucket holding the specified non-negative value
+    */
+   static int getBucket(final long value)
+   {
+      if (value < SUB_BUCKETS)
+      {
+         return (int) value;
+      }
+      final int exponent = 63 - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   /**
+    * Obtains the greatest value held by the specified bucket
+    */
+   static long getUpperBound(final int bucket)
+   {
+      if (bucket < SUB_BUCKETS)
+      {
+         return bucket;
+      }
+      final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      final long subBucket = bucket % SUB_BUCKETS;
+      final int shift = exponent - SUB_BUCKET_BITS;
+      final long upper = ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+      return upper < 0 ? Long.MAX_VALUE : upper;
+   }
+}
@@ -0,0 +1,463 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency and throughput of the messages consumed from one destination by 
+ * one consumer: how long each waited in the destination (from its JMSTimestamp),
+ * how long each took to process, how many were consumed each second, and how 
+ * many failed, by type.  Recording is lock-free and allocates nothing, save 
+ * for the first failure of each type.
+ * 
+ * Instances are shared by all instances of a consumer, registered with the 
+ * platform MBeanServer under {@link MessageMetrics#OBJECT_NAME_PREFIX}, with keys
+ * "destination" and "consumer", when first obtained, and unregistered once all 
+ * that obtained them have given them back by {@link MessageMetrics#release()}, 
+ * typically in a PreDestroy callback, such that an undeployed consumer leaves 
+ * nothing behind.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class MessageMetrics implements MessageMetricsMBean
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(MessageMetrics.class.getName());
+
+   /**
+    * Domain and type under which instances are registered
+    */
+   public static final String OBJECT_NAME_PREFIX = "org.jboss.ejb3.examples:type=MessageMetrics";
+
+   /**
+    * Whole seconds over which the consume rate is averaged
+    */
+   public static final int RATE_WINDOW_SECONDS = 10;
+
+   /**
+    * Seconds of consume counts kept; more than the window, such that the 
+    * oldest aren't overwritten while being read
+    */
+   private static final int RATE_SLOTS = RATE_WINDOW_SECONDS * 2;
+
+   /**
+    * Instances obtained and not yet all given back, keyed by object name; guarded by itself
+    */
+   private static final Map<String, MessageMetrics> INSTANCES = new HashMap<String, MessageMetrics>();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name of the destination consumed
+    */
+   private final String destination;
+
+   /**
+    * Name of the consumer
+    */
+   private final String consumer;
+
+   /**
+    * Name under which we're registered
+    */
+   private final String objectName;
+
+   /**
+    * Number of those which obtained us and haven't yet given us back; guarded by
+    * {@link MessageMetrics#INSTANCES}
+    */
+   private int users;
+
+   /**
+    * Time, in microseconds, each message waited in the destination
+    */
+   private final LatencyHistogram queueLatency = new LatencyHistogram();
+
+   /**
+    * Time, in microseconds, each message took to process
+    */
+   private final LatencyHistogram processingTime = new LatencyHistogram();
+
+   /**
+    * Messages consumed successfully
+    */
+   private final AtomicLong consumed = new AtomicLong();
+
+   /**
+    * Messages whose processing failed
+    */
+   private final AtomicLong failed = new AtomicLong();
+
+   /**
+    * Failures by exception type; keys are only added, so lookups of 
+    * types seen before don't allocate
+    */
+   private final ConcurrentMap<Class<?>, AtomicLong> failures = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+   /**
+    * Messages consumed in each of the last {@link MessageMetrics#RATE_SLOTS} seconds
+    */
+   private final AtomicLongArray consumedInSecond = new AtomicLongArray(RATE_SLOTS);
+
+   /**
+    * Second counted in each slot of {@link MessageMetrics#consumedInSecond}
+    */
+   private final AtomicLongArray slotSecond = new AtomicLongArray(RATE_SLOTS);
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private MessageMetrics(final String destination, final String consumer, final String objectName)
+   {
+      this.destination = destination;
+      this.consumer = consumer;
+      this.objectName = objectName;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory ----------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the metrics of the specified consumer of the specified destination, 
+    * creating and registering them if need be; each so obtained is to be given back
+    * by {@link MessageMetrics#release()} once no longer used
+    * 
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static MessageMetrics getInstance(final String destination, final String consumer)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (destination == null || destination.length() == 0)
+      {
+         throw new IllegalArgumentException("destination must be specified");
+      }
+      if (consumer == null || consumer.length() == 0)
+      {
+         throw new IllegalArgumentException("consumer must be specified");
+      }
+
+      final String name = OBJECT_NAME_PREFIX + ",destination=" + ObjectName.quote(destination) + ",consumer="
+            + ObjectName.quote(consumer);
+      // Obtained but once per consumer instance, so we needn't avoid the lock
+      synchronized (INSTANCES)
+      {
+         MessageMetrics metrics = INSTANCES.get(name);
+         if (metrics == null)
+         {
+            metrics = new MessageMetrics(destination, consumer, name);
+            INSTANCES.put(name, metrics);
+            try
+            {
+               ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(name));
+            }
+            catch (final JMException jmxe)
+            {
+               log.log(Level.WARNING, "Could not register message metrics as " + name, jmxe);
+            }
+         }
+         metrics.users++;
+         return metrics;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Gives back metrics obtained from {@link MessageMetrics#getInstance(String, String)};
+    * once all so obtained have been given back, they're unregistered and forgotten
+    */
+   public void release()
+   {
+      synchronized (INSTANCES)
+      {
+         if (users == 0 || --users > 0)
+         {
+            return;
+         }
+         INSTANCES.remove(objectName);
+         try
+         {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(objectName));
+         }
+         catch (final JMException jmxe)
+         {
+            log.log(Level.WARNING, "Could not unregister message metrics " + objectName, jmxe);
+         }
+      }
+   }
+
+   /**
+    * Records the successful consumption of a message
+    * 
+    * @param sentMillis JMSTimestamp of the message, or 0 if it has none
+    * @param consumedMillis Wall-clock time of consumption
+    * @param processingNanos Time taken to process the message
+    */
+   public void recordConsumed(final long sentMillis, final long consumedMillis, final long processingNanos)
+   {
+      consumed.incrementAndGet();
+      if (sentMillis > 0)
+      {
+         queueLatency.record(TimeUnit.MILLISECONDS.toMicros(consumedMillis - sentMillis));
+      }
+      processingTime.record(TimeUnit.NANOSECONDS.toMicros(processingNanos));
+
+      // Count within this second, first claiming the slot if it last counted an earlier one;
+      // an increment racing the claim may be lost, which suffices for a rate
+      final long second = consumedMillis / 1000;
+      final int slot = (int) (second % RATE_SLOTS);
+      final long counted = slotSecond.get(slot);
+      if (counted != second && slotSecond.compareAndSet(slot, counted, second))
+      {
+         consumedInSecond.set(slot, 0);
+      }
+      consumedInSecond.incrementAndGet(slot);
+   }
+
+   /**
+    * Records the failure to process a message
+    */
+   public void recordFailure(final Throwable failure)
+   {
+      failed.incrementAndGet();
+      final Class<?> type = failure.getClass();
+      AtomicLong count = failures.get(type);
+      if (count == null)
+      {
+         final AtomicLong created = new AtomicLong();
+         count = failures.putIfAbsent(type, created);
+         if (count == null)
+         {
+            count = created;
+         }
+      }
+      count.incrementAndGet();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getDestination()
+    */
+   @Override
+   public String getDestination()
+   {
+      return destination;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getConsumer()
+    */
+   @Override
+   public String getConsumer()
+   {
+      return consumer;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getConsumed()
+    */
+   @Override
+   public long getConsumed()
+   {
+      return consumed.get();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getFailed()
+    */
+   @Override
+   public long getFailed()
+   {
+      return failed.get();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getFailuresByType()
+    */
+   @Override
+   public Map<String, Long> getFailuresByType()
+   {
+      final Map<String, Long> byType = new TreeMap<String, Long>();
+      for (final Map.Entry<Class<?>, AtomicLong> failure : failures.entrySet())
+      {
+         byType.put(failure.getKey().getName(), failure.getValue().get());
+      }
+      return byType;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getConsumeRate()
+    */
+   @Override
+   public double getConsumeRate()
+   {
+      final long now = System.currentTimeMillis() / 1000;
+      long total = 0;
+      for (int slot = 0; slot < RATE_SLOTS; slot++)
+      {
+         final long age = now - slotSecond.get(slot);
+         if (age >= 1 && age <= RATE_WINDOW_SECONDS)
+         {
+            total += consumedInSecond.get(slot);
+         }
+      }
+      return (double) total / RATE_WINDOW_SECONDS;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getQueueLatencyMeanMicros()
+    */
+   @Override
+   public double getQueueLatencyMeanMicros()
+   {
+      return queueLatency.getMean();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getQueueLatencyMedianMicros()
+    */
+   @Override
+   public long getQueueLatencyMedianMicros()
+   {
+      return queueLatency.getPercentile(0.5);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getQueueLatency99thPercentileMicros()
+    */
+   @Override
+   public long getQueueLatency99thPercentileMicros()
+   {
+      return queueLatency.getPercentile(0.99);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getQueueLatencyMaxMicros()
+    */
+   @Override
+   public long getQueueLatencyMaxMicros()
+   {
+      return queueLatency.getMax();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getProcessingTimeMeanMicros()
+    */
+   @Override
+   public double getProcessingTimeMeanMicros()
+   {
+      return processingTime.getMean();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getProcessingTimeMedianMicros()
+    */
+   @Override
+   public long getProcessingTimeMedianMicros()
+   {
+      return processingTime.getPercentile(0.5);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getProcessingTime99thPercentileMicros()
+    */
+   @Override
+   public long getProcessingTime99thPercentileMicros()
+   {
+      return processingTime.getPercentile(0.99);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#getProcessingTimeMaxMicros()
+    */
+   @Override
+   public long getProcessingTimeMaxMicros()
+   {
+      return processingTime.getMax();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.testsupport.metrics.MessageMetricsMBean#reset()
+    */
+   @Override
+   public void reset()
+   {
+      queueLatency.reset();
+      processingTime.reset();
+      consumed.set(0);
+      failed.set(0);
+      failures.clear();
+      for (int slot = 0; slot < RATE_SLOTS; slot++)
+      {
+         consumedInSecond.set(slot, 0);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return String.format("%s [destination=%s, consumer=%s, consumed=%d, failed=%d, rate=%.1f/s, "
+            + "queueLatency(p50/p99/max)=%d/%d/%dus, processing(p50/p99/max)=%d/%d/%dus]", this.getClass()
+            .getSimpleName(), destination, consumer, this.getConsumed(), this.getFailed(), this.getConsumeRate(), this
+            .getQueueLatencyMedianMicros(), this.getQueueLatency99thPercentileMicros(), this
+            .getQueueLatencyMaxMicros(), this.getProcessingTimeMedianMicros(), this
+            .getProcessingTime99thPercentileMicros(), this.getProcessingTimeMaxMicros());
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.metrics;
+
+import java.util.Map;
+
+/**
+ * Management view of the {@link MessageMetrics} of one consumer of one destination,
+ * registered as a standard MBean.  Durations are in microseconds.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface MessageMetricsMBean
+{
+   //-------------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the name of the destination consumed
+    */
+   String getDestination();
+
+   /**
+    * Obtains the name of the consumer
+    */
+   String getConsumer();
+
+   /**
+    * Obtains the number of messages consumed successfully
+    */
+   long getConsumed();
+
+   /**
+    * Obtains the number of messages whose processing failed
+    */
+   long getFailed();
+
+   /**
+    * Obtains the number of failures, keyed by the name of the exception type
+    */
+   Map<String, Long> getFailuresByType();
+
+   /**
+    * Obtains the mean number of messages consumed per second over the last 
+    * {@link MessageMetrics#RATE_WINDOW_SECONDS} whole seconds
+    */
+   double getConsumeRate();
+
+   /**
+    * Obtains the mean time messages waited in the destination, from when sent to when consumed
+    */
+   double getQueueLatencyMeanMicros();
+
+   /**
+    * Obtains the median time messages waited in the destination
+    */
+   long getQueueLatencyMedianMicros();
+
+   /**
+    * Obtains the 99th percentile of the time messages waited in the destination
+    */
+   long getQueueLatency99thPercentileMicros();
+
+   /**
+    * Obtains the longest time a message waited in the destination
+    */
+   long getQueueLatencyMaxMicros();
+
+   /**
+    * Obtains the mean time taken to process a message
+    */
+   double getProcessingTimeMeanMicros();
+
+   /**
+    * Obtains the median time taken to process a message
+    */
+   long getProcessingTimeMedianMicros();
+
+   /**
+    * Obtains the 99th percentile of the time taken to process a message
+    */
+   long getProcessingTime99thPercentileMicros();
+
+   /**
+    * Obtains the longest time taken to process a message
+    */
+   long getProcessingTimeMaxMicros();
+
+   /**
+    * Forgets all that's been recorded
+    */
+   void reset();
+}
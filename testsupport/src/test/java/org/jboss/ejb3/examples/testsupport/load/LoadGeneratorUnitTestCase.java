@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.load;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link LoadGenerator}, with messages handed straight 
+ * from producers to consumers in memory
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class LoadGeneratorUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Concurrent producers
+    */
+   private static final int PRODUCERS = 4;
+
+   /**
+    * Messages sent per second
+    */
+   private static final int RATE = 1000;
+
+   /**
+    * Time for which messages are sent
+    */
+   private static final long DURATION_MILLIS = 1000;
+
+   /**
+    * Time between samples
+    */
+   private static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures messages are sent at the rate and for the time asked, and all are 
+    * received, even by a consumer lagging behind
+    */
+   @Test
+   public void testRun() throws Exception
+   {
+      final LoadGenerator generator = new LoadGenerator(PRODUCERS, RATE, DURATION_MILLIS, SAMPLE_INTERVAL_MILLIS);
+      final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+      final Thread consumer = new Thread("Consumer")
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               // Fall behind at first
+               Thread.sleep(DURATION_MILLIS / 2);
+               while (true)
+               {
+                  generator.received(queue.take());
+               }
+            }
+            catch (final InterruptedException ie)
+            {
+               // Done
+            }
+         }
+      };
+      consumer.start();
+      final LoadReport report;
+      try
+      {
+         report = generator.run(new LoadGenerator.Producer()
+         {
+            @Override
+            public void send(final String contents)
+            {
+               queue.add(contents);
+            }
+         });
+      }
+      finally
+      {
+         consumer.interrupt();
+      }
+
+      TestCase.assertEquals("Should send exactly the messages due", RATE * DURATION_MILLIS / 1000, report.getSent());
+      TestCase.assertEquals(0, report.getFailed());
+      TestCase.assertEquals(report.getSent(), report.getReceived());
+      TestCase.assertEquals(0, report.getUnreceived());
+      TestCase.assertTrue("Sending should be paced: " + report, report.getSendingMillis() >= DURATION_MILLIS * 9 / 10);
+      TestCase.assertTrue("Lag of the late consumer should be seen: " + report, report.getMaxLag() > 0);
+      TestCase.assertTrue("Latency of the late consumer should be seen: " + report,
+            report.getLatencyMaxMicros() >= TimeUnit.MILLISECONDS.toMicros(DURATION_MILLIS / 4));
+      TestCase.assertTrue("Should sample progress: " + report, report.getSamples().size() > 1);
+      TestCase.assertEquals(report.getSent(), report.getSamples().get(report.getSamples().size() - 1).getSent());
+   }
+
+   /**
+    * Ensures messages which could not be sent are counted, and not awaited
+    */
+   @Test
+   public void testFailedSends() throws Exception
+   {
+      final LoadGenerator generator = new LoadGenerator(PRODUCERS, RATE, DURATION_MILLIS / 10, SAMPLE_INTERVAL_MILLIS);
+      final LoadReport report = generator.run(new LoadGenerator.Producer()
+      {
+         @Override
+         public void send(final String contents) throws Exception
+         {
+            throw new Exception("Expected failure");
+         }
+      });
+      TestCase.assertEquals(0, report.getSent());
+      TestCase.assertEquals(RATE * DURATION_MILLIS / 10 / 1000, report.getFailed());
+      TestCase.assertEquals(0, report.getReceived());
+      TestCase.assertTrue("Should not wait upon consumers: " + report, report.getDrainMillis() < 1000);
+   }
+
+   /**
+    * Ensures contents not made by a generator are rejected
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void testForeignContents()
+   {
+      new LoadGenerator(PRODUCERS, RATE, DURATION_MILLIS, SAMPLE_INTERVAL_MILLIS).received("Not a load message");
+   }
+}
@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.testsupport.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link MessageMetrics} and its {@link LatencyHistogram}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MessageMetricsUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures each value falls in a bucket reporting it to within 12.5%
+    */
+   @Test
+   public void testBuckets()
+   {
+      final Random random = new Random(0);
+      for (int i = 0; i < 100000; i++)
+      {
+         final long value = random.nextInt(1 << (i % 31));
+         final long upper = LatencyHistogram.getUpperBound(LatencyHistogram.getBucket(value));
+         TestCase.assertTrue(value + " reported as " + upper, upper >= value && upper <= value + value / 8);
+      }
+      TestCase.assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(LatencyHistogram
+            .getBucket(Long.MAX_VALUE)));
+   }
+
+   /**
+    * Ensures percentiles, mean and max are reported to within the bucket resolution
+    */
+   @Test
+   public void testPercentiles()
+   {
+      final LatencyHistogram histogram = new LatencyHistogram();
+      for (int i = 1000; i >= 1; i--)
+      {
+         histogram.record(i);
+      }
+      TestCase.assertEquals(1000, histogram.getCount());
+      TestCase.assertEquals(500.5, histogram.getMean(), 0.001);
+      TestCase.assertEquals(1000, histogram.getMax());
+      assertWithinResolution(500, histogram.getPercentile(0.5));
+      assertWithinResolution(990, histogram.getPercentile(0.99));
+      TestCase.assertEquals(1000, histogram.getPercentile(1.0));
+
+      histogram.reset();
+      TestCase.assertEquals(0, histogram.getPercentile(0.5));
+   }
+
+   /**
+    * Ensures metrics are registered while any which obtained them hasn't 
+    * given them back, and unregistered and forgotten once all have
+    */
+   @Test
+   public void testRelease() throws Exception
+   {
+      final String destination = "queue/" + UUID.randomUUID();
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(MessageMetrics.OBJECT_NAME_PREFIX + ",destination="
+            + ObjectName.quote(destination) + ",consumer=" + ObjectName.quote("release"));
+
+      final MessageMetrics first = MessageMetrics.getInstance(destination, "release");
+      final MessageMetrics second = MessageMetrics.getInstance(destination, "release");
+      TestCase.assertSame(first, second);
+      first.recordConsumed(0, System.currentTimeMillis(), 0);
+      TestCase.assertEquals(1L, server.getAttribute(name, "Consumed"));
+
+      first.release();
+      TestCase.assertTrue("Should stay registered while still used", server.isRegistered(name));
+      second.release();
+      TestCase.assertFalse("Should be unregistered once given back by all", server.isRegistered(name));
+
+      final MessageMetrics again = MessageMetrics.getInstance(destination, "release");
+      try
+      {
+         TestCase.assertNotSame(first, again);
+         TestCase.assertEquals(0L, server.getAttribute(name, "Consumed"));
+      }
+      finally
+      {
+         again.release();
+      }
+   }
+
+   /**
+    * Ensures the consume rate counts whole seconds within the window
+    */
+   @Test
+   public void testConsumeRate()
+   {
+      final MessageMetrics metrics = MessageMetrics.getInstance("topic/" + UUID.randomUUID(), "rate");
+      try
+      {
+         final long now = System.currentTimeMillis();
+         for (int i = 0; i < 50; i++)
+         {
+            // 10 per second over the last 5 seconds, and some this second (not yet whole)
+            metrics.recordConsumed(0, now - 1000 * (1 + i % 5), 0);
+            metrics.recordConsumed(0, now, 0);
+         }
+         TestCase.assertEquals(50.0 / MessageMetrics.RATE_WINDOW_SECONDS, metrics.getConsumeRate(), 0.001);
+      }
+      finally
+      {
+         metrics.release();
+      }
+   }
+
+   /**
+    * Ensures recording consumption allocates nothing
+    */
+   @Test
+   public void testRecordingDoesNotAllocate()
+   {
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (!(threads instanceof com.sun.management.ThreadMXBean))
+      {
+         return;
+      }
+      final com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+      final long thread = Thread.currentThread().getId();
+      final MessageMetrics metrics = MessageMetrics.getInstance("topic/" + UUID.randomUUID(), "allocation");
+      try
+      {
+         final IllegalStateException failure = new IllegalStateException();
+
+         // Warm up, and see the failure type once
+         for (int i = 0; i < 100000; i++)
+         {
+            record(metrics, i, failure);
+         }
+         final long before = allocation.getThreadAllocatedBytes(thread);
+         for (int i = 0; i < 100000; i++)
+         {
+            record(metrics, i, failure);
+         }
+         final long allocated = allocation.getThreadAllocatedBytes(thread) - before;
+
+         // Allow for the measurement itself
+         TestCase.assertTrue("Recording allocated " + allocated + " bytes", allocated < 1024);
+      }
+      finally
+      {
+         metrics.release();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static void record(final MessageMetrics metrics, final int i, final Exception failure)
+   {
+      final long now = System.currentTimeMillis();
+      metrics.recordConsumed(now - i % 100, now, i * 1000L);
+      if (i % 10 == 0)
+      {
+         metrics.recordFailure(failure);
+      }
+   }
+
+   private static void assertWithinResolution(final long expected, final long actual)
+   {
+      TestCase.assertTrue("Expected " + expected + "; was " + actual, actual >= expected
+            && actual <= expected + expected / 8);
+   }
+}